@@ -0,0 +1,150 @@
+package com.securevault.config;
+
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.ErasureCodedBlobStore;
+import com.securevault.storage.FileSystemBlobStore;
+import com.securevault.storage.LegacyPathBlobStore;
+import com.securevault.storage.PackedBlobStore;
+import com.securevault.storage.RedundantBlobStore;
+import com.securevault.storage.ReplicatedBlobStore;
+import com.securevault.storage.S3BlobStore;
+import com.securevault.storage.ShardedFileSystemBlobStore;
+import com.securevault.storage.StagingArea;
+import com.securevault.storage.TieredBlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chọn backend lưu trữ blob đã mã hóa.
+ *
+ * securevault.app.storage.backend:
+ * - sharded: cây thư mục hai cấp ab/cd/ trong uploadDir (mặc định); blob
+ *   phẳng cũ được chuyển dần bởi BlobLayoutMigrationService
+ * - filesystem: file phẳng trong uploadDir (bố cục cũ)
+ * - s3: bucket tương thích S3 (AWS S3, MinIO...)
+ * - replicated: mỗi blob có placement.replicas bản sao trên các thư mục
+ *   placement.volumes (mỗi thư mục một ổ đĩa riêng)
+ * - erasure: mỗi blob được chia thành placement.dataShards shard dữ liệu và
+ *   placement.parityShards shard parity Reed-Solomon trên các volume
+ *
+ * Với replicated / erasure, các thư mục volume phải tồn tại sẵn (điểm mount);
+ * volume bị thiếu được coi là hỏng và blob được đọc từ các bản còn lại.
+ * Blob ghi trước khi bật placement vẫn được đọc từ uploadDir.
+ *
+ * Với backend trên filesystem, blob nhỏ được gộp vào các pack file trong
+ * uploadDir/packs (securevault.app.storage.pack.*). Pack file không được
+ * nhân bản nên với replicated / erasure không gộp blob mới; pack cũ vẫn đọc
+ * được và được PackCompactionService chuyển dần sang các volume.
+ *
+ * Khi cấu hình securevault.app.storage.tiering.coldDir, blob ít được đọc
+ * được chuyển sang thư mục cold (ổ lớn, rẻ) bởi StorageTieringService.
+ */
+@Configuration
+public class StorageConfig {
+
+    @Value("${securevault.app.uploadDir}")
+    private String uploadDir;
+
+    @Value("${securevault.app.storage.backend:sharded}")
+    private String backend;
+
+    // Thư mục ghi tạm blob trước khi đưa vào store (mặc định uploadDir/.staging)
+    @Value("${securevault.app.storage.stagingDir:}")
+    private String stagingDir;
+
+    // Gộp blob nhỏ vào pack file (chỉ áp dụng cho backend filesystem / sharded)
+    @Value("${securevault.app.storage.pack.enabled:true}")
+    private boolean packEnabled;
+
+    // Blob nhỏ hơn ngưỡng này (bytes) được gộp vào pack
+    @Value("${securevault.app.storage.pack.threshold:262144}")
+    private int packThreshold;
+
+    // Kích thước tối đa của một pack file (bytes)
+    @Value("${securevault.app.storage.pack.packSize:268435456}")
+    private long packSize;
+
+    // Thư mục tầng cold; để trống để tắt phân tầng
+    @Value("${securevault.app.storage.tiering.coldDir:}")
+    private String coldDir;
+
+    // Danh sách thư mục volume, phân cách bằng dấu phẩy (backend replicated / erasure)
+    @Value("${securevault.app.storage.placement.volumes:}")
+    private String placementVolumes;
+
+    @Value("${securevault.app.storage.placement.replicas:2}")
+    private int replicas;
+
+    @Value("${securevault.app.storage.placement.dataShards:4}")
+    private int dataShards;
+
+    @Value("${securevault.app.storage.placement.parityShards:2}")
+    private int parityShards;
+
+    @Value("${securevault.app.storage.s3.endpoint:}")
+    private String s3Endpoint;
+
+    @Value("${securevault.app.storage.s3.bucket:}")
+    private String s3Bucket;
+
+    @Value("${securevault.app.storage.s3.prefix:}")
+    private String s3Prefix;
+
+    @Value("${securevault.app.storage.s3.region:us-east-1}")
+    private String s3Region;
+
+    @Value("${securevault.app.storage.s3.accessKey:}")
+    private String s3AccessKey;
+
+    @Value("${securevault.app.storage.s3.secretKey:}")
+    private String s3SecretKey;
+
+    @Bean
+    public BlobStore blobStore() {
+        BlobStore store = switch (backend.trim().toLowerCase()) {
+            case "filesystem" -> new FileSystemBlobStore(Paths.get(uploadDir));
+            case "sharded" -> new ShardedFileSystemBlobStore(Paths.get(uploadDir));
+            case "s3" -> new S3BlobStore(s3Endpoint, s3Bucket, s3Prefix, s3Region, s3AccessKey, s3SecretKey);
+            case "replicated" -> new ReplicatedBlobStore(volumes(), replicas,
+                    new ShardedFileSystemBlobStore(Paths.get(uploadDir)));
+            case "erasure" -> new ErasureCodedBlobStore(volumes(), dataShards, parityShards,
+                    new ShardedFileSystemBlobStore(Paths.get(uploadDir)));
+            default -> throw new IllegalStateException("Backend lưu trữ không hợp lệ: " + backend);
+        };
+        if (store instanceof RedundantBlobStore) {
+            // Ngưỡng 0: không gộp blob mới, chỉ giữ pack cũ đọc được
+            store = new PackedBlobStore(store, Paths.get(uploadDir, "packs"), 0, packSize);
+        } else if (packEnabled && store instanceof FileSystemBlobStore) {
+            store = new PackedBlobStore(store, Paths.get(uploadDir, "packs"), packThreshold, packSize);
+        }
+        if (!coldDir.isBlank()) {
+            store = new TieredBlobStore(store, new ShardedFileSystemBlobStore(Paths.get(coldDir)),
+                    Paths.get(coldDir, ".staging"));
+        }
+        // File upload trước khi có blob store lưu đường dẫn file thay vì khóa
+        return new LegacyPathBlobStore(store, Paths.get(uploadDir));
+    }
+
+    private List<Path> volumes() {
+        List<Path> volumes = Arrays.stream(placementVolumes.split(","))
+                .map(String::trim)
+                .filter(dir -> !dir.isEmpty())
+                .map(Paths::get)
+                .toList();
+        if (volumes.isEmpty()) {
+            throw new IllegalStateException("Backend " + backend + " cần securevault.app.storage.placement.volumes");
+        }
+        return volumes;
+    }
+
+    @Bean
+    public StagingArea stagingArea() {
+        return new StagingArea(stagingDir.isBlank() ? Paths.get(uploadDir, ".staging") : Paths.get(stagingDir));
+    }
+}
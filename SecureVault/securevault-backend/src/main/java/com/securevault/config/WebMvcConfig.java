@@ -0,0 +1,24 @@
+package com.securevault.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Cấu hình Spring MVC cho các response dạng stream (tải file, ZIP).
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    // Thời gian tối đa cho một response stream (mặc định 1 giờ)
+    @Value("${securevault.app.streamingTimeoutMs:3600000}")
+    private long streamingTimeoutMs;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // StreamingResponseBody chạy như async request; timeout mặc định của
+        // servlet container (30 giây) sẽ cắt ngang các file lớn.
+        configurer.setDefaultTimeout(streamingTimeoutMs);
+    }
+}
@@ -1,23 +1,45 @@
 package com.securevault.controller;
 
 import com.securevault.blockchain.Blockchain;
+import com.securevault.dto.BatchUploadResultDTO;
 import com.securevault.entity.FileDocument;
+import com.securevault.entity.UploadJob;
+import com.securevault.entity.UploadSession;
 import com.securevault.security.services.UserDetailsImpl;
+import com.securevault.service.ChunkedUploadService;
 import com.securevault.service.FileStorageService;
+import com.securevault.service.IngestionService;
+import com.securevault.service.SignedUrlService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Controller xử lý các request quản lý file.
@@ -29,12 +51,26 @@ public class FileController {
 
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
+    // Request attribute của Tomcat cho sendfile (xem Http11Processor)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final FileStorageService fileStorageService;
     private final Blockchain blockchain;
+    private final SignedUrlService signedUrlService;
+    private final IngestionService ingestionService;
+    private final ChunkedUploadService chunkedUploadService;
 
-    public FileController(FileStorageService fileStorageService, Blockchain blockchain) {
+    public FileController(FileStorageService fileStorageService, Blockchain blockchain,
+            SignedUrlService signedUrlService, IngestionService ingestionService,
+            ChunkedUploadService chunkedUploadService) {
         this.fileStorageService = fileStorageService;
         this.blockchain = blockchain;
+        this.signedUrlService = signedUrlService;
+        this.ingestionService = ingestionService;
+        this.chunkedUploadService = chunkedUploadService;
     }
 
     /**
@@ -77,6 +113,243 @@ public class FileController {
         }
     }
 
+    /**
+     * Upload nhiều file (part "files") vào thư mục trong một request. Trả
+     * về kết quả của từng file; toàn bộ lượt upload được ghi một block audit.
+     */
+    @PostMapping("/upload-batch")
+    public ResponseEntity<?> uploadFilesBatch(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "folderId", required = false) Long folderId) {
+        try {
+            Long userId = getCurrentUserId();
+            String username = getCurrentUsername();
+
+            List<BatchUploadResultDTO> results = fileStorageService.storeFilesInFolder(files, userId, folderId);
+            long failed = results.stream().filter(result -> result.getError() != null).count();
+            long succeeded = results.size() - failed;
+            if (succeeded > 0) {
+                blockchain.addBlock("Người dùng " + username + " đã tải lên " + succeeded + " file"
+                        + (folderId != null ? " vào thư mục " + folderId : "")
+                        + (failed > 0 ? " (" + failed + " file lỗi)" : ""));
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("total", results.size());
+            response.put("succeeded", succeeded);
+            response.put("failed", failed);
+            response.put("results", results);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Lỗi tải nhiều file: {}", e.getMessage());
+            return ResponseEntity.internalServerError().body("Không thể tải file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Upload file dạng stream thô (application/octet-stream).
+     * Metadata được gửi qua header: X-File-Name (URL-encoded UTF-8),
+     * X-File-Type và X-Folder-Id. Body được mã hóa trực tiếp mà không qua
+     * bước lưu tạm multipart của servlet.
+     */
+    @PostMapping(value = "/upload-stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadFileStream(
+            HttpServletRequest request,
+            @RequestHeader("X-File-Name") String encodedFileName,
+            @RequestHeader(value = "X-File-Type", required = false) String fileType,
+            @RequestHeader(value = "X-Folder-Id", required = false) Long folderId) {
+        try {
+            Long userId = getCurrentUserId();
+            String username = getCurrentUsername();
+
+            String fileName = URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+            String contentType = StringUtils.hasText(fileType) ? fileType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+
+            FileDocument fileDocument = fileStorageService.storeFileFromStream(
+                    request.getInputStream(), fileName, contentType, userId, folderId);
+            blockchain.addBlock("Người dùng " + username + " đã tải lên file: " + fileDocument.getFileName());
+
+            return ResponseEntity.ok("Tải file thành công: " + fileDocument.getFileName());
+        } catch (Exception e) {
+            logger.error("Lỗi tải file: {}", e.getMessage());
+            return ResponseEntity.internalServerError().body("Không thể tải file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Upload bất đồng bộ: body (application/octet-stream, cùng header như
+     * /upload-stream) được ghi vào vùng staging rồi trả về 202 với id job;
+     * file được mã hóa và lưu ở nền. Theo dõi qua /ingest/{id} hoặc
+     * /ingest/events.
+     */
+    @PostMapping(value = "/ingest", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> ingestFile(
+            HttpServletRequest request,
+            @RequestHeader("X-File-Name") String encodedFileName,
+            @RequestHeader(value = "X-File-Type", required = false) String fileType,
+            @RequestHeader(value = "X-Folder-Id", required = false) Long folderId) {
+        try {
+            String fileName = URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+            String contentType = StringUtils.hasText(fileType) ? fileType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+
+            UploadJob job = ingestionService.stage(request.getInputStream(), fileName, contentType,
+                    getCurrentUserId(), folderId);
+            return ResponseEntity.accepted().body(ingestionService.toStatus(job));
+        } catch (IngestionService.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Lỗi nhận file: {}", e.getMessage());
+            return ResponseEntity.internalServerError().body("Không thể tải file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Trạng thái của một upload bất đồng bộ.
+     */
+    @GetMapping("/ingest/{jobId}")
+    public ResponseEntity<?> getIngestStatus(@PathVariable Long jobId) {
+        Optional<UploadJob> job = ingestionService.getJob(jobId);
+        if (job.isEmpty() || !job.get().getUserId().equals(getCurrentUserId())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(ingestionService.toStatus(job.get()));
+    }
+
+    /**
+     * Sự kiện "upload" (SSE) mỗi khi một upload bất đồng bộ của người dùng
+     * hoàn tất hoặc thất bại.
+     */
+    @GetMapping(value = "/ingest/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter ingestEvents() {
+        return ingestionService.subscribe(getCurrentUserId());
+    }
+
+    /**
+     * Tạo phiên upload nhiều phần có thể tiếp tục. Body JSON: fileName,
+     * contentType, size (bytes), folderId. Trả về id phiên, chunkSize và
+     * chunkCount; chunk i gồm các byte [i * chunkSize, (i + 1) * chunkSize).
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<?> createUploadSession(@RequestBody Map<String, Object> request) {
+        try {
+            String fileName = (String) request.get("fileName");
+            String contentType = StringUtils.hasText((String) request.get("contentType"))
+                    ? (String) request.get("contentType") : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+            long size = Long.parseLong(String.valueOf(request.get("size")));
+            Long folderId = request.get("folderId") != null ? Long.valueOf(request.get("folderId").toString()) : null;
+
+            UploadSession session = chunkedUploadService.createSession(fileName, contentType, size,
+                    getCurrentUserId(), folderId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(chunkedUploadService.toStatus(session));
+        } catch (Exception e) {
+            logger.error("Lỗi tạo phiên upload: {}", e.getMessage());
+            return ResponseEntity.badRequest().body("Không thể tạo phiên upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gửi một chunk (application/octet-stream) của phiên upload. Các chunk
+     * có thể gửi theo thứ tự bất kỳ và song song; gửi lại chunk đã nhận
+     * không có tác dụng.
+     */
+    @PutMapping(value = "/uploads/{sessionId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(HttpServletRequest request, @PathVariable Long sessionId,
+            @PathVariable int index) {
+        try {
+            UploadSession session = chunkedUploadService.getSession(sessionId, getCurrentUserId());
+            boolean written = chunkedUploadService.writeChunk(session, index, request.getInputStream());
+            return written ? ResponseEntity.noContent().build()
+                    : ResponseEntity.ok("Chunk " + index + " đã được nhận trước đó");
+        } catch (ChunkedUploadService.ConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Lỗi nhận chunk {} của phiên upload {}: {}", index, sessionId, e.getMessage());
+            return ResponseEntity.internalServerError().body("Không thể nhận chunk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Trạng thái phiên upload, gồm danh sách chunk còn thiếu.
+     */
+    @GetMapping("/uploads/{sessionId}")
+    public ResponseEntity<?> getUploadSession(@PathVariable Long sessionId) {
+        try {
+            UploadSession session = chunkedUploadService.getSession(sessionId, getCurrentUserId());
+            return ResponseEntity.ok(chunkedUploadService.toStatus(session));
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Hoàn tất phiên upload khi đã nhận đủ chunk: file được lưu mà không
+     * mã hóa lại.
+     */
+    @PostMapping("/uploads/{sessionId}/complete")
+    public ResponseEntity<?> completeUploadSession(@PathVariable Long sessionId) {
+        try {
+            UploadSession session = chunkedUploadService.getSession(sessionId, getCurrentUserId());
+            FileDocument fileDocument = chunkedUploadService.complete(session);
+            blockchain.addBlock("Người dùng " + getCurrentUsername() + " đã tải lên file: "
+                    + fileDocument.getFileName());
+            return ResponseEntity.ok(Map.of("fileId", fileDocument.getId(), "fileName", fileDocument.getFileName()));
+        } catch (ChunkedUploadService.ConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Lỗi hoàn tất phiên upload {}: {}", sessionId, e.getMessage());
+            return ResponseEntity.internalServerError().body("Không thể hoàn tất upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hủy phiên upload và xóa các chunk đã nhận.
+     */
+    @DeleteMapping("/uploads/{sessionId}")
+    public ResponseEntity<?> abortUploadSession(@PathVariable Long sessionId) {
+        try {
+            chunkedUploadService.abort(chunkedUploadService.getSession(sessionId, getCurrentUserId()));
+            return ResponseEntity.noContent().build();
+        } catch (ChunkedUploadService.ConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Upload file đã được client mã hóa vào thư mục ở chế độ mã hóa phía
+     * client. Body (application/octet-stream) là ciphertext, được lưu nguyên;
+     * header X-Key-Metadata chứa metadata khóa của client (khóa dữ liệu đã
+     * bọc...), được trả lại nguyên vẹn trong danh sách file.
+     */
+    @PostMapping(value = "/upload-encrypted", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadClientEncryptedFile(
+            HttpServletRequest request,
+            @RequestHeader("X-File-Name") String encodedFileName,
+            @RequestHeader(value = "X-File-Type", required = false) String fileType,
+            @RequestHeader("X-Folder-Id") Long folderId,
+            @RequestHeader("X-Key-Metadata") String keyMetadata) {
+        try {
+            Long userId = getCurrentUserId();
+            String username = getCurrentUsername();
+
+            String fileName = URLDecoder.decode(encodedFileName, StandardCharsets.UTF_8);
+            String contentType = StringUtils.hasText(fileType) ? fileType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+
+            FileDocument fileDocument = fileStorageService.storeClientEncryptedFile(
+                    request.getInputStream(), fileName, contentType, keyMetadata, userId, folderId);
+            blockchain.addBlock("Người dùng " + username + " đã tải lên file: " + fileDocument.getFileName());
+
+            return ResponseEntity.ok("Tải file thành công: " + fileDocument.getFileName());
+        } catch (Exception e) {
+            logger.error("Lỗi tải file: {}", e.getMessage());
+            return ResponseEntity.badRequest().body("Không thể tải file: " + e.getMessage());
+        }
+    }
+
     /**
      * Lấy danh sách file của người dùng hiện tại.
      */
@@ -148,12 +421,17 @@ public class FileController {
 
     /**
      * Tải file xuống.
+     * Nội dung được giải mã và stream thẳng vào response, không qua file tạm.
+     * Hỗ trợ header Range/If-Range (206 Partial Content) để tua media: chỉ các
+     * segment chứa đoạn được yêu cầu mới bị giải mã.
      */
     @GetMapping("/download/{id}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long id) {
+    public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable Long id, HttpServletRequest request,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRangeHeader) {
         try {
             Long userId = getCurrentUserId();
-            logger.info("Download request: fileId={}, userId={}", id, userId);
+            logger.info("Download request: fileId={}, userId={}, range={}", id, userId, rangeHeader);
 
             // Kiểm tra quyền truy cập: owner, file share, hoặc folder share
             boolean hasAccess = fileStorageService.canUserAccessFile(id, userId);
@@ -164,20 +442,56 @@ public class FileController {
                 return ResponseEntity.status(403).build();
             }
 
-            FileDocument fileDocument = fileStorageService.getFile(id);
-            logger.info("Loading file: {}, path: {}", fileDocument.getFileName(), fileDocument.getEncryptedPath());
+            return serveFile(fileStorageService.getFile(id), rangeHeader, ifRangeHeader, request);
+        } catch (Exception e) {
+            logger.error("Lỗi tải file id={}: {} - {}", id, e.getClass().getSimpleName(), e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
 
-            Resource resource = fileStorageService.loadDecryptedFileAsResource(id);
-            logger.info("File loaded successfully: {}", fileDocument.getFileName());
+    /**
+     * Cấp URL tải file ngắn hạn có chữ ký. Quyền truy cập chỉ được kiểm tra
+     * ở đây; URL dùng được không cần header Authorization (thẻ video/audio,
+     * trình tải song song theo range) cho tới khi hết hạn.
+     */
+    @PostMapping("/signed-url/{id}")
+    public ResponseEntity<?> createSignedUrl(@PathVariable Long id) {
+        try {
+            Long userId = getCurrentUserId();
+            if (!fileStorageService.canUserAccessFile(id, userId)) {
+                return ResponseEntity.status(403).build();
+            }
+            String token = signedUrlService.issue(fileStorageService.getFile(id), userId);
+            return ResponseEntity.ok(Map.of(
+                    "url", "/api/files/signed/" + token,
+                    "expiresIn", signedUrlService.ttlSeconds()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
+    }
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(fileDocument.getFileType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + fileDocument.getFileName() + "\"")
-                    .body(resource);
+    /**
+     * Tải file bằng URL có chữ ký: chỉ kiểm tra chữ ký và hạn dùng, không
+     * xác thực JWT hay truy vấn quyền (xem SignedUrlService).
+     */
+    @GetMapping("/signed/{token}")
+    public ResponseEntity<StreamingResponseBody> downloadSignedFile(@PathVariable String token,
+            HttpServletRequest request,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRangeHeader) {
+        Optional<SignedUrlService.Grant> grant = signedUrlService.verify(token);
+        if (grant.isEmpty()) {
+            return ResponseEntity.status(403).build();
+        }
+        try {
+            Optional<FileDocument> file = signedUrlService.resolve(grant.get());
+            if (file.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            return serveFile(file.get(), rangeHeader, ifRangeHeader, request);
         } catch (Exception e) {
-            logger.error("Lỗi tải file id={}: {} - {}", id, e.getClass().getSimpleName(), e.getMessage());
-            e.printStackTrace();
+            logger.error("Lỗi tải file id={} qua URL ký: {} - {}", grant.get().fileId(),
+                    e.getClass().getSimpleName(), e.getMessage());
             return ResponseEntity.badRequest().build();
         }
     }
@@ -210,6 +524,161 @@ public class FileController {
 
     // ==================== Private Helper Methods ====================
 
+    /**
+     * Trả nội dung file (toàn bộ hoặc một range) sau khi quyền truy cập đã
+     * được kiểm tra.
+     */
+    private ResponseEntity<StreamingResponseBody> serveFile(FileDocument fileDocument, String rangeHeader,
+            String ifRangeHeader, HttpServletRequest request) {
+        long fileSize = fileDocument.getSize();
+        String eTag = buildETag(fileDocument);
+        ZonedDateTime lastModified = fileDocument.getUploadedAt() != null
+                ? fileDocument.getUploadedAt().atZone(ZoneId.systemDefault())
+                : null;
+
+        HttpRange range = resolveRange(rangeHeader, ifRangeHeader, eTag, lastModified);
+        if (range == null) {
+            if (sendfile(fileDocument, 0, fileSize, request)) {
+                return downloadHeaders(ResponseEntity.ok(), fileDocument, eTag, lastModified)
+                        .contentLength(fileSize)
+                        .build();
+            }
+            StreamingResponseBody stream = outputStream -> decryptTo(fileDocument,
+                    out -> fileStorageService.writeDecryptedFile(fileDocument, out), outputStream);
+            return downloadHeaders(ResponseEntity.ok(), fileDocument, eTag, lastModified)
+                    .contentLength(fileSize)
+                    .body(stream);
+        }
+
+        long start;
+        long end;
+        try {
+            start = range.getRangeStart(fileSize);
+            end = range.getRangeEnd(fileSize);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
+                    .build();
+        }
+        long length = end - start + 1;
+
+        ResponseEntity.BodyBuilder builder = downloadHeaders(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT),
+                fileDocument, eTag, lastModified)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize)
+                .contentLength(length);
+        if (sendfile(fileDocument, start, length, request)) {
+            return builder.build();
+        }
+        StreamingResponseBody stream = outputStream -> decryptTo(fileDocument,
+                out -> fileStorageService.writeDecryptedRange(fileDocument, start, length, out), outputStream);
+        return builder.body(stream);
+    }
+
+    /**
+     * File mã hóa phía client có blob trên đĩa cục bộ: giao cho Tomcat gửi
+     * bằng sendfile (từ file sang socket trong kernel, không copy qua JVM).
+     * Response khi đó không có body do ứng dụng ghi.
+     *
+     * @return false nếu phải stream qua ứng dụng (file thường, blob không
+     *         cục bộ, hoặc connector không hỗ trợ sendfile)
+     */
+    private boolean sendfile(FileDocument fileDocument, long start, long length, HttpServletRequest request) {
+        if (!fileDocument.isClientEncrypted() || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        Optional<Path> blob = fileStorageService.localClientEncryptedBlob(fileDocument);
+        if (blob.isEmpty()) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, blob.get().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, start + length);
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface DecryptAction {
+        void writeTo(OutputStream outputStream) throws Exception;
+    }
+
+    private void decryptTo(FileDocument fileDocument, DecryptAction action, OutputStream outputStream)
+            throws IOException {
+        try {
+            action.writeTo(outputStream);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Lỗi giải mã file id={}: {}", fileDocument.getId(), e.getMessage());
+            throw new IOException("Không thể giải mã file", e);
+        }
+    }
+
+    private ResponseEntity.BodyBuilder downloadHeaders(ResponseEntity.BodyBuilder builder, FileDocument fileDocument,
+            String eTag, ZonedDateTime lastModified) {
+        // File mã hóa phía client: body là ciphertext, client tự giải mã
+        builder.contentType(fileDocument.isClientEncrypted()
+                        ? MediaType.APPLICATION_OCTET_STREAM
+                        : MediaType.parseMediaType(fileDocument.getFileType()))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + fileDocument.getFileName() + "\"")
+                .eTag(eTag);
+        if (lastModified != null) {
+            builder.lastModified(lastModified);
+        }
+        if (fileDocument.isClientEncrypted()) {
+            builder.header("X-Client-Encrypted", "true");
+        }
+        return builder;
+    }
+
+    /**
+     * Nội dung file không bao giờ thay đổi sau khi upload nên id + thời điểm
+     * upload đủ làm strong ETag.
+     */
+    private String buildETag(FileDocument fileDocument) {
+        long uploadedAt = fileDocument.getUploadedAt() != null
+                ? fileDocument.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0L;
+        return "\"" + fileDocument.getId() + "-" + Long.toHexString(uploadedAt) + "\"";
+    }
+
+    /**
+     * Trả về range cần phục vụ, hoặc null nếu phải trả toàn bộ file (không có
+     * Range, Range không hợp lệ, nhiều range, hoặc If-Range không khớp).
+     */
+    private HttpRange resolveRange(String rangeHeader, String ifRangeHeader, String eTag,
+            ZonedDateTime lastModified) {
+        if (!StringUtils.hasText(rangeHeader)) {
+            return null;
+        }
+        if (StringUtils.hasText(ifRangeHeader) && !ifRangeMatches(ifRangeHeader.trim(), eTag, lastModified)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean ifRangeMatches(String ifRange, String eTag, ZonedDateTime lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range chỉ chấp nhận so sánh strong ETag
+            return ifRange.equals(eTag);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toEpochSecond() == lastModified.toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     private Long getCurrentUserId() {
         UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext()
                 .getAuthentication().getPrincipal();
@@ -3,11 +3,14 @@ package com.securevault.controller;
 import com.securevault.dto.FolderDTO;
 import com.securevault.entity.FileDocument;
 import com.securevault.entity.Folder;
+import com.securevault.entity.FolderArchive;
+import com.securevault.enums.ArchiveStatus;
 import com.securevault.security.services.UserDetailsImpl;
-import com.securevault.service.FileStorageService;
+import com.securevault.service.FolderArchiveService;
 import com.securevault.service.FolderService;
-import org.springframework.core.io.Resource;
+import com.securevault.service.FolderZipService;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -17,8 +20,7 @@ import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBo
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Optional;
 
 /**
  * Controller quản lý thư mục.
@@ -28,11 +30,14 @@ import java.util.zip.ZipOutputStream;
 public class FolderController {
 
     private final FolderService folderService;
-    private final FileStorageService fileStorageService;
+    private final FolderZipService folderZipService;
+    private final FolderArchiveService folderArchiveService;
 
-    public FolderController(FolderService folderService, FileStorageService fileStorageService) {
+    public FolderController(FolderService folderService, FolderZipService folderZipService,
+            FolderArchiveService folderArchiveService) {
         this.folderService = folderService;
-        this.fileStorageService = fileStorageService;
+        this.folderZipService = folderZipService;
+        this.folderArchiveService = folderArchiveService;
     }
 
     /**
@@ -44,7 +49,9 @@ public class FolderController {
             String name = (String) request.get("name");
             Long parentId = request.get("parentId") != null ? Long.valueOf(request.get("parentId").toString()) : null;
 
-            FolderDTO folder = folderService.createFolder(name, parentId, getCurrentUserId());
+            boolean clientEncrypted = Boolean.parseBoolean(String.valueOf(request.get("clientEncrypted")));
+
+            FolderDTO folder = folderService.createFolder(name, parentId, clientEncrypted, getCurrentUserId());
             return ResponseEntity.ok(folder);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body("Lỗi tạo thư mục: " + e.getMessage());
@@ -190,31 +197,15 @@ public class FolderController {
         try {
             Long userId = getCurrentUserId();
             Folder folder = folderService.getFolderEntity(id, userId);
-            List<FileDocument> files = folderService.getFilesInOwnedFolder(id, userId);
+            List<FolderZipService.Entry> entries = folderService.getOwnedFolderTree(id, userId);
 
-            if (files.isEmpty()) {
+            if (entries.stream().noneMatch(entry -> entry.file() != null)) {
                 return ResponseEntity.noContent().build();
             }
 
             String zipFileName = folder.getName() + ".zip";
 
-            StreamingResponseBody stream = outputStream -> {
-                try (ZipOutputStream zipOut = new ZipOutputStream(outputStream)) {
-                    for (FileDocument file : files) {
-                        try {
-                            Resource resource = fileStorageService.loadDecryptedFileAsResource(file.getId());
-                            ZipEntry zipEntry = new ZipEntry(file.getFileName());
-                            zipOut.putNextEntry(zipEntry);
-                            resource.getInputStream().transferTo(zipOut);
-                            zipOut.closeEntry();
-                        } catch (Exception e) {
-                            // Skip files that can't be loaded
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException("Lỗi tạo file ZIP", e);
-                }
-            };
+            StreamingResponseBody stream = outputStream -> folderZipService.writeZip(entries, outputStream);
 
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
@@ -233,31 +224,15 @@ public class FolderController {
         try {
             Long userId = getCurrentUserId();
             Folder folder = folderService.getSharedFolderEntity(id, userId);
-            List<FileDocument> files = folderService.getFilesInSharedFolder(id, userId);
+            List<FolderZipService.Entry> entries = folderService.getSharedFolderTree(id, userId);
 
-            if (files.isEmpty()) {
+            if (entries.stream().noneMatch(entry -> entry.file() != null)) {
                 return ResponseEntity.noContent().build();
             }
 
             String zipFileName = folder.getName() + ".zip";
 
-            StreamingResponseBody stream = outputStream -> {
-                try (ZipOutputStream zipOut = new ZipOutputStream(outputStream)) {
-                    for (FileDocument file : files) {
-                        try {
-                            Resource resource = fileStorageService.loadDecryptedFileAsResource(file.getId());
-                            ZipEntry zipEntry = new ZipEntry(file.getFileName());
-                            zipOut.putNextEntry(zipEntry);
-                            resource.getInputStream().transferTo(zipOut);
-                            zipOut.closeEntry();
-                        } catch (Exception e) {
-                            // Skip files that can't be loaded
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException("Lỗi tạo file ZIP", e);
-                }
-            };
+            StreamingResponseBody stream = outputStream -> folderZipService.writeZip(entries, outputStream);
 
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
@@ -268,6 +243,93 @@ public class FolderController {
         }
     }
 
+    /**
+     * Tạo file ZIP của thư mục của mình ở nền. Trả về job (archive); nếu
+     * nội dung thư mục chưa đổi, archive đã tạo trước đó được dùng lại.
+     */
+    @PostMapping("/{id}/archive")
+    public ResponseEntity<?> createFolderArchive(@PathVariable Long id) {
+        try {
+            Long userId = getCurrentUserId();
+            Folder folder = folderService.getFolderEntity(id, userId);
+            return submitArchive(folder, folderService.getOwnedFolderTree(id, userId));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tạo file ZIP của thư mục được chia sẻ ở nền.
+     */
+    @PostMapping("/shared/{id}/archive")
+    public ResponseEntity<?> createSharedFolderArchive(@PathVariable Long id) {
+        try {
+            Long userId = getCurrentUserId();
+            Folder folder = folderService.getSharedFolderEntity(id, userId);
+            return submitArchive(folder, folderService.getSharedFolderTree(id, userId));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Lỗi: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Trạng thái job tạo archive.
+     */
+    @GetMapping("/archives/{archiveId}")
+    public ResponseEntity<?> getArchiveStatus(@PathVariable Long archiveId) {
+        return findAccessibleArchive(archiveId)
+                .<ResponseEntity<?>>map(archive -> ResponseEntity.ok(folderArchiveService.toStatus(archive)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Tải archive đã tạo xong.
+     */
+    @GetMapping("/archives/{archiveId}/download")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@PathVariable Long archiveId) {
+        Optional<FolderArchive> found = findAccessibleArchive(archiveId);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        FolderArchive archive = found.get();
+        if (archive.getStatus() != ArchiveStatus.READY) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        StreamingResponseBody stream = outputStream -> {
+            try {
+                folderArchiveService.writeArchive(archive, outputStream);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Lỗi giải mã archive", e);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(archive.getSize())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archive.getFileName() + "\"")
+                .body(stream);
+    }
+
+    private ResponseEntity<?> submitArchive(Folder folder, List<FolderZipService.Entry> entries) {
+        if (entries.stream().noneMatch(entry -> entry.file() != null)) {
+            return ResponseEntity.noContent().build();
+        }
+        FolderArchive archive = folderArchiveService.submit(folder.getId(), folder.getName(), entries);
+        Map<String, Object> status = folderArchiveService.toStatus(archive);
+        return archive.getStatus() == ArchiveStatus.READY
+                ? ResponseEntity.ok(status)
+                : ResponseEntity.accepted().body(status);
+    }
+
+    private Optional<FolderArchive> findAccessibleArchive(Long archiveId) {
+        Long userId = getCurrentUserId();
+        return folderArchiveService.getArchive(archiveId)
+                .filter(archive -> folderService.canAccessFolder(archive.getFolderId(), userId));
+    }
+
     private Long getCurrentUserId() {
         UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext()
                 .getAuthentication().getPrincipal();
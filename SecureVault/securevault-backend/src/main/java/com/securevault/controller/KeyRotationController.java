@@ -0,0 +1,84 @@
+package com.securevault.controller;
+
+import com.securevault.blockchain.Blockchain;
+import com.securevault.entity.KeyRotationJob;
+import com.securevault.security.services.UserDetailsImpl;
+import com.securevault.service.KeyRotationService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller quản lý job xoay vòng master key.
+ * Chỉ Admin có quyền truy cập.
+ */
+@RestController
+@RequestMapping("/api/admin/key-rotation")
+public class KeyRotationController {
+
+    private final KeyRotationService keyRotationService;
+    private final Blockchain blockchain;
+
+    public KeyRotationController(KeyRotationService keyRotationService, Blockchain blockchain) {
+        this.keyRotationService = keyRotationService;
+        this.blockchain = blockchain;
+    }
+
+    /**
+     * Tiến độ job gần nhất: checkpoint, thống kê và số dòng còn lại.
+     */
+    @GetMapping
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getStatus() {
+        try {
+            return ResponseEntity.ok(keyRotationService.getStatus());
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Bắt đầu (hoặc tiếp tục) xoay vòng sang master key hiện tại.
+     */
+    @PostMapping("/start")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> start() {
+        KeyRotationJob job = keyRotationService.start();
+        blockchain.addBlock("Người dùng " + getCurrentUsername() + " đã bắt đầu xoay vòng master key (job "
+                + job.getId() + ")");
+        return ResponseEntity.ok(job);
+    }
+
+    @PostMapping("/pause")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> pause() {
+        try {
+            KeyRotationJob job = keyRotationService.pause();
+            blockchain.addBlock("Người dùng " + getCurrentUsername() + " đã tạm dừng xoay vòng master key (job "
+                    + job.getId() + ")");
+            return ResponseEntity.ok(job);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/resume")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> resume() {
+        try {
+            KeyRotationJob job = keyRotationService.resume();
+            blockchain.addBlock("Người dùng " + getCurrentUsername() + " đã tiếp tục xoay vòng master key (job "
+                    + job.getId() + ")");
+            return ResponseEntity.ok(job);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private String getCurrentUsername() {
+        UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext()
+                .getAuthentication().getPrincipal();
+        return userDetails.getUsername();
+    }
+}
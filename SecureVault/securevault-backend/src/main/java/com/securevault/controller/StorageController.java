@@ -0,0 +1,131 @@
+package com.securevault.controller;
+
+import com.securevault.service.BlobLayoutMigrationService;
+import com.securevault.service.BlobReconciliationService;
+import com.securevault.service.BlobScrubService;
+import com.securevault.service.PackCompactionService;
+import com.securevault.service.StorageTieringService;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.RedundantBlobStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Controller theo dõi các job bảo trì kho blob.
+ * Chỉ Admin có quyền truy cập.
+ */
+@RestController
+@RequestMapping("/api/admin/storage")
+public class StorageController {
+
+    private final BlobLayoutMigrationService blobLayoutMigrationService;
+    private final PackCompactionService packCompactionService;
+    private final StorageTieringService storageTieringService;
+    private final BlobScrubService blobScrubService;
+    private final BlobReconciliationService blobReconciliationService;
+    private final BlobStore blobStore;
+
+    public StorageController(BlobLayoutMigrationService blobLayoutMigrationService,
+            PackCompactionService packCompactionService,
+            StorageTieringService storageTieringService,
+            BlobScrubService blobScrubService,
+            BlobReconciliationService blobReconciliationService,
+            BlobStore blobStore) {
+        this.blobLayoutMigrationService = blobLayoutMigrationService;
+        this.packCompactionService = packCompactionService;
+        this.storageTieringService = storageTieringService;
+        this.blobScrubService = blobScrubService;
+        this.blobReconciliationService = blobReconciliationService;
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Tiến độ chuyển blob phẳng sang cây thư mục shard.
+     */
+    @GetMapping("/migration")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getMigrationStatus() {
+        return ResponseEntity.ok(blobLayoutMigrationService.getStatus());
+    }
+
+    /**
+     * Thống kê nén pack file (blob nhỏ).
+     */
+    @GetMapping("/packs")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getPackStatus() {
+        return ResponseEntity.ok(packCompactionService.getStatus());
+    }
+
+    /**
+     * Thống kê phân tầng hot/cold.
+     */
+    @GetMapping("/tiering")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getTieringStatus() {
+        return ResponseEntity.ok(storageTieringService.getStatus());
+    }
+
+    /**
+     * Trạng thái các volume của backend replicated / erasure.
+     */
+    @GetMapping("/placement")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getPlacementStatus() {
+        Optional<RedundantBlobStore> store = blobStore.find(RedundantBlobStore.class);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", store.isPresent());
+        store.ifPresent(s -> {
+            status.put("volumes", s.volumes());
+            status.put("volumesDown", s.volumes().stream().filter(v -> !v.up()).count());
+        });
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * Tiến độ và kết quả kiểm tra toàn vẹn blob.
+     */
+    @GetMapping("/scrub")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getScrubStatus() {
+        return ResponseEntity.ok(blobScrubService.getStatus());
+    }
+
+    /**
+     * Bắt đầu lượt kiểm tra toàn vẹn mới ngay, không chờ lịch.
+     */
+    @PostMapping("/scrub")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> startScrub() {
+        blobScrubService.startPass();
+        return ResponseEntity.ok(blobScrubService.getStatus());
+    }
+
+    /**
+     * Kết quả đối chiếu blob store với DB: blob mồ côi đang cách ly và dung
+     * lượng đã thu hồi.
+     */
+    @GetMapping("/reconcile")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getReconcileStatus() {
+        return ResponseEntity.ok(blobReconciliationService.getStatus());
+    }
+
+    /**
+     * Bắt đầu lượt đối chiếu mới ngay, không chờ lịch.
+     */
+    @PostMapping("/reconcile")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> startReconcile() {
+        blobReconciliationService.startPass();
+        return ResponseEntity.ok(blobReconciliationService.getStatus());
+    }
+}
@@ -0,0 +1,60 @@
+package com.securevault.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of equally sized {@link ByteBuffer}s. Direct buffers are
+ * expensive to allocate and are only reclaimed by the GC, so file I/O paths
+ * borrow them from here instead of allocating per request.
+ *
+ * Requests for more than {@link #bufferSize()} bytes are served with a fresh,
+ * unpooled buffer; returning such a buffer is a no-op.
+ */
+public final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Borrows a cleared buffer with at least {@code minCapacity} bytes. */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity <= bufferSize) {
+            ByteBuffer buffer = pool.poll();
+            if (buffer != null) {
+                pooled.decrementAndGet();
+                return buffer.clear();
+            }
+            return allocate(bufferSize);
+        }
+        return allocate(minCapacity);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
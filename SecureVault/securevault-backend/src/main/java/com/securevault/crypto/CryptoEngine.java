@@ -0,0 +1,156 @@
+package com.securevault.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Reusable AES-GCM context shared by all encryption paths.
+ *
+ * The master key is decoded once, every thread keeps its own {@link Cipher}
+ * (instances are not thread-safe but are cheap to re-initialise), nonces come
+ * from a single shared {@link SecureRandom}, and file I/O borrows segment
+ * sized buffers from bounded pools instead of allocating per call.
+ */
+public final class CryptoEngine {
+
+    public static final String ALGORITHM = "AES/GCM/NoPadding";
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_BITS = 128;
+    public static final int DATA_KEY_LENGTH = 32;
+
+    private static final ThreadLocal<Cipher> GCM_CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    });
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey masterKey;
+    private final String keyId;
+    private final BufferPool heapBuffers;
+    private final BufferPool directBuffers;
+
+    public CryptoEngine(byte[] masterKey, int bufferSize, int maxPooledBuffers) {
+        this.masterKey = new SecretKeySpec(masterKey, "AES");
+        this.keyId = keyId(masterKey);
+        this.heapBuffers = new BufferPool(bufferSize, maxPooledBuffers, false);
+        this.directBuffers = new BufferPool(bufferSize, maxPooledBuffers, true);
+    }
+
+    /** The calling thread's AES/GCM cipher; callers must fully re-init it before use. */
+    private static Cipher gcmCipher() {
+        return GCM_CIPHERS.get();
+    }
+
+    /**
+     * The calling thread's cipher initialised for encryption. SunJCE refuses
+     * to re-init an instance with the key/nonce pair of its previous
+     * encryption; that {@link java.security.InvalidAlgorithmParameterException}
+     * is the runtime's guard against GCM nonce reuse and is deliberately
+     * propagated. Callers must never seal twice under the same key and nonce.
+     */
+    public static Cipher gcmEncryptor(SecretKey key, byte[] nonce) throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+        return cipher;
+    }
+
+    /** The calling thread's cipher initialised for decryption. */
+    public static Cipher gcmDecryptor(SecretKey key, byte[] nonce) throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+        return cipher;
+    }
+
+    public static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    public static void nextBytes(byte[] bytes) {
+        RANDOM.nextBytes(bytes);
+    }
+
+    public SecretKey masterKey() {
+        return masterKey;
+    }
+
+    /** Stable, non-secret identifier of the master key, stored next to keys it wraps. */
+    public String keyId() {
+        return keyId;
+    }
+
+    public BufferPool heapBuffers() {
+        return heapBuffers;
+    }
+
+    public BufferPool directBuffers() {
+        return directBuffers;
+    }
+
+    /** Encrypts a small value under the master key; output is {@code nonce || ciphertext || tag}. */
+    public byte[] seal(byte[] plaintext) throws GeneralSecurityException {
+        return seal(masterKey, plaintext);
+    }
+
+    /** Reverses {@link #seal(byte[])}. */
+    public byte[] open(byte[] sealed) throws GeneralSecurityException {
+        return open(masterKey, sealed);
+    }
+
+    /** Generates a fresh AES-256 data key. */
+    public static SecretKey newDataKey() {
+        byte[] key = new byte[DATA_KEY_LENGTH];
+        RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /** Encrypts a data key under the master key. */
+    public byte[] wrapKey(SecretKey dataKey) throws GeneralSecurityException {
+        return seal(masterKey, dataKey.getEncoded());
+    }
+
+    /** Reverses {@link #wrapKey}; fails if the wrapped key was not produced by this master key. */
+    public SecretKey unwrapKey(byte[] wrappedKey) throws GeneralSecurityException {
+        return new SecretKeySpec(open(masterKey, wrappedKey), "AES");
+    }
+
+    /** First 8 bytes of SHA-256 over the raw key, hex encoded. */
+    public static String keyId(byte[] rawKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(rawKey);
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static byte[] seal(SecretKey key, byte[] plaintext) throws GeneralSecurityException {
+        byte[] nonce = newNonce();
+        Cipher cipher = gcmEncryptor(key, nonce);
+        byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+        System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+        return sealed;
+    }
+
+    public static byte[] open(SecretKey key, byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < NONCE_LENGTH + TAG_BITS / 8) {
+            throw new AEADBadTagException("Sealed value too short");
+        }
+        Cipher cipher = gcmCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+        return cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+    }
+}
@@ -0,0 +1,11 @@
+package com.securevault.crypto;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A per-file data encryption key together with its wrapped (encrypted under
+ * the key-encryption key) form and the id of the key that wrapped it. Only
+ * {@code wrappedKey} and {@code keyId} are ever persisted.
+ */
+public record DataKey(SecretKey key, String wrappedKey, String keyId) {
+}
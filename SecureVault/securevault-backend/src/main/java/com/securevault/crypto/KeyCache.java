@@ -0,0 +1,77 @@
+package com.securevault.crypto;
+
+import javax.crypto.SecretKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded, time-limited cache of unwrapped data keys, keyed by the wrapped
+ * form. Entries are evicted least-recently-used once {@code maxEntries} is
+ * reached and are never served after {@code ttlMillis}, so a plaintext key
+ * does not outlive its last use by more than the TTL.
+ */
+public final class KeyCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public KeyCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > KeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached key for {@code wrapped}, unwrapping and caching it
+     * on a miss. The unwrap runs outside the lock; concurrent misses for the
+     * same key may both unwrap, which is harmless.
+     */
+    public SecretKey get(String wrapped, Function<String, SecretKey> unwrap) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            return unwrap.apply(wrapped);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(wrapped);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    return entry.key;
+                }
+                entries.remove(wrapped);
+            }
+        }
+        SecretKey key = unwrap.apply(wrapped);
+        synchronized (entries) {
+            entries.put(wrapped, new Entry(key, now + ttlMillis));
+        }
+        return key;
+    }
+
+    public void invalidate(String wrapped) {
+        synchronized (entries) {
+            entries.remove(wrapped);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Entry(SecretKey key, long expiresAt) {
+    }
+}
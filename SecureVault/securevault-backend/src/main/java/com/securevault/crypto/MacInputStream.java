@@ -0,0 +1,62 @@
+package com.securevault.crypto;
+
+import javax.crypto.Mac;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds every byte read through it into a {@link Mac}, so a keyed digest of
+ * a stream can be computed in the same pass that consumes it.
+ */
+public final class MacInputStream extends FilterInputStream {
+
+    private final Mac mac;
+
+    public MacInputStream(InputStream in, Mac mac) {
+        super(in);
+        this.mac = mac;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            mac.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            mac.update(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still be digested
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public Mac mac() {
+        return mac;
+    }
+}
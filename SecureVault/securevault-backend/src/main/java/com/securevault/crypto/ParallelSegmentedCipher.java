@@ -0,0 +1,326 @@
+package com.securevault.crypto;
+
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-core variant of {@link SegmentedCipher}. Segments of one blob are
+ * sealed or opened concurrently on a shared executor, with at most
+ * {@code parallelism} segments of this blob in flight at any time so that a
+ * single large file cannot monopolise the pool.
+ *
+ * Output is byte-for-byte identical to {@link SegmentedCipher}: nonces are
+ * derived from the segment index, not from processing order. Each call to
+ * {@link #encrypt} or {@link #decrypt} borrows its worker buffers from the
+ * given pools and returns them when done; an instance must not be used by two
+ * callers at once.
+ */
+public final class ParallelSegmentedCipher {
+
+    private final ExecutorService executor;
+    private final SegmentedBlobFormat format;
+    private final int parallelism;
+    private final SegmentedCipher cipher;
+    private final BufferPool heapBuffers;
+    private final BufferPool directBuffers;
+    private final BlockingQueue<Worker> idle;
+
+    public ParallelSegmentedCipher(ExecutorService executor, SecretKey key, SegmentedBlobFormat format,
+            byte[] baseIv, int parallelism) {
+        this(executor, key, format, baseIv, parallelism,
+                new BufferPool(0, 0, false), new BufferPool(0, 0, true));
+    }
+
+    public ParallelSegmentedCipher(ExecutorService executor, SecretKey key, SegmentedBlobFormat format,
+            byte[] baseIv, int parallelism, BufferPool heapBuffers, BufferPool directBuffers) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.executor = executor;
+        this.format = format;
+        this.parallelism = parallelism;
+        this.cipher = new SegmentedCipher(key, format, baseIv);
+        this.heapBuffers = heapBuffers;
+        this.directBuffers = directBuffers;
+        this.idle = new ArrayBlockingQueue<>(parallelism);
+    }
+
+    /**
+     * Encrypts {@code source} into {@code dest}, writing each segment at its
+     * final offset with positional writes.
+     *
+     * @return number of plaintext bytes consumed
+     */
+    public long encrypt(InputStream source, FileChannel dest) throws IOException, GeneralSecurityException {
+        writeFully(dest, ByteBuffer.wrap(format.header()), 0);
+        allocateWorkers();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int segmentSize = format.segmentSize();
+        long total = 0;
+        long index = 0;
+        Worker pending = null;
+        Worker next = null;
+        try {
+            pending = take(failure);
+            pending.length = source.readNBytes(pending.plain.array(), 0, segmentSize);
+            while (true) {
+                total += pending.length;
+                boolean last = pending.length < segmentSize;
+                if (!last) {
+                    // Read ahead so we know whether the pending segment is the last one
+                    next = take(failure);
+                    next.length = source.readNBytes(next.plain.array(), 0, segmentSize);
+                    if (next.length == 0) {
+                        last = true;
+                        idle.add(next);
+                        next = null;
+                    }
+                }
+                Worker submitting = pending;
+                pending = null;
+                submitEncrypt(submitting, index, last, dest, failure);
+                if (last) {
+                    break;
+                }
+                pending = next;
+                next = null;
+                index++;
+            }
+        } finally {
+            if (pending != null) {
+                idle.add(pending);
+            }
+            if (next != null) {
+                idle.add(next);
+            }
+            awaitIdle();
+            releaseWorkers();
+        }
+        rethrow(failure.get());
+        return total;
+    }
+
+    /**
+     * Decrypts plaintext bytes {@code [offset, offset + length)} from a blob
+     * of {@code blobLength} bytes, writing them to {@code dest} in order.
+     * Pass {@code 0} and {@link Long#MAX_VALUE} to decrypt the whole blob.
+     */
+    public void decrypt(FileChannel source, long blobLength, long offset, long length, OutputStream dest)
+            throws IOException, GeneralSecurityException {
+        long segmentCount = format.segmentCount(blobLength);
+        long plaintextLength = format.plaintextLength(blobLength);
+        long end = Math.min(plaintextLength, length == Long.MAX_VALUE ? plaintextLength : offset + length);
+        if (offset >= end) {
+            return;
+        }
+        long firstSegment = offset / format.segmentSize();
+        long lastSegment = Math.min((end - 1) / format.segmentSize(), segmentCount - 1);
+
+        allocateWorkers();
+        Deque<Future<Worker>> window = new ArrayDeque<>();
+        long nextToSubmit = firstSegment;
+        long skip = offset - firstSegment * format.segmentSize();
+        long remaining = end - offset;
+        try {
+            while (remaining > 0) {
+                while (nextToSubmit <= lastSegment && window.size() < parallelism) {
+                    window.add(submitDecrypt(source, blobLength, nextToSubmit, nextToSubmit == segmentCount - 1));
+                    nextToSubmit++;
+                }
+                Worker worker = await(window.poll());
+                try {
+                    int count = (int) Math.min(worker.length - skip, remaining);
+                    dest.write(worker.plain.array(), (int) skip, count);
+                    remaining -= count;
+                    skip = 0;
+                } finally {
+                    idle.add(worker);
+                }
+            }
+        } finally {
+            for (Future<Worker> future : window) {
+                try {
+                    idle.add(await(future));
+                } catch (IOException | GeneralSecurityException ignored) {
+                    // Already failing; just make sure no task is left running
+                }
+            }
+            releaseWorkers();
+        }
+    }
+
+    private void submitEncrypt(Worker worker, long index, boolean last, FileChannel dest,
+            AtomicReference<Throwable> failure) {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (failure.get() == null) {
+                        worker.plain.clear().limit(worker.length);
+                        worker.sealed.clear();
+                        cipher.encryptSegment(index, last, worker.plain, worker.sealed);
+                        writeFully(dest, worker.io.clear().put(worker.sealed.flip()).flip(),
+                                format.segmentOffset(index));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    idle.add(worker);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            idle.add(worker);
+            throw e;
+        }
+    }
+
+    private Future<Worker> submitDecrypt(FileChannel source, long blobLength, long index, boolean last) {
+        Worker worker = idle.poll();
+        if (worker == null) {
+            throw new IllegalStateException("No idle worker for segment " + index);
+        }
+        try {
+            return executor.submit(() -> {
+                try {
+                    return decryptSegment(worker, source, blobLength, index, last);
+                } catch (Throwable t) {
+                    idle.add(worker);
+                    throw t;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            idle.add(worker);
+            throw e;
+        }
+    }
+
+    private Worker decryptSegment(Worker worker, FileChannel source, long blobLength, long index, boolean last)
+            throws IOException, GeneralSecurityException {
+        int len = format.encryptedSegmentLength(index, blobLength);
+        ByteBuffer buffer = worker.io.clear().limit(len);
+        long position = format.segmentOffset(index);
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Encrypted blob truncated at segment " + index);
+            }
+        }
+        worker.sealed.clear().put(buffer.flip()).flip();
+        worker.plain.clear();
+        worker.length = cipher.decryptSegment(index, last, worker.sealed, worker.plain);
+        return worker;
+    }
+
+    private void allocateWorkers() {
+        for (int i = 0; i < parallelism; i++) {
+            idle.add(new Worker(heapBuffers.acquire(format.encryptedSegmentSize()),
+                    heapBuffers.acquire(format.encryptedSegmentSize()),
+                    directBuffers.acquire(format.encryptedSegmentSize())));
+        }
+    }
+
+    private void releaseWorkers() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            heapBuffers.release(worker.plain);
+            heapBuffers.release(worker.sealed);
+            directBuffers.release(worker.io);
+        }
+    }
+
+    private Worker take(AtomicReference<Throwable> failure) throws IOException, GeneralSecurityException {
+        try {
+            Worker worker = idle.take();
+            if (failure.get() != null) {
+                idle.add(worker);
+                rethrow(failure.get());
+            }
+            return worker;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for crypto worker");
+        }
+    }
+
+    /** Blocks until every worker has been returned, i.e. no task is still running. */
+    private void awaitIdle() throws InterruptedIOException {
+        try {
+            Worker[] all = new Worker[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                all[i] = idle.take();
+            }
+            for (Worker worker : all) {
+                idle.add(worker);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for crypto workers");
+        }
+    }
+
+    private static Worker await(Future<Worker> future) throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment");
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    private static void rethrow(Throwable t) throws IOException, GeneralSecurityException {
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException io) {
+            throw io;
+        }
+        if (t instanceof GeneralSecurityException gse) {
+            throw gse;
+        }
+        if (t instanceof RuntimeException re) {
+            throw re;
+        }
+        if (t instanceof Error error) {
+            throw error;
+        }
+        throw new IOException(t);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** Scratch buffers for one in-flight segment: cipher input/output on heap, file I/O direct. */
+    private static final class Worker {
+        final ByteBuffer plain;
+        final ByteBuffer sealed;
+        final ByteBuffer io;
+        int length;
+
+        Worker(ByteBuffer plain, ByteBuffer sealed, ByteBuffer io) {
+            this.plain = plain;
+            this.sealed = sealed;
+            this.io = io;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.securevault.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Layout of the segmented (version 1) encrypted blob format.
+ *
+ * <pre>
+ * header  (16 bytes): magic "SVSG" | version (1) | flags (1) | reserved (2) | segment size (4) | reserved (4)
+ * segment (n times) : AES-GCM ciphertext of up to segmentSize plaintext bytes + 16 byte tag
+ * </pre>
+ *
+ * Segment {@code i} is encrypted with a nonce derived from the file's base IV
+ * by XOR-ing {@code i} into its last four bytes. The header and a
+ * "last segment" marker are bound as AAD, so segments cannot be reordered,
+ * truncated or moved between blobs with different parameters. Every segment
+ * can therefore be authenticated and decrypted on its own.
+ *
+ * Flag {@link #FLAG_DEFLATE} marks a blob whose plaintext was Deflate
+ * compressed before encryption; segments then hold compressed bytes and
+ * must be inflated in order after decryption. Being part of the header, the
+ * flag is authenticated with every segment.
+ *
+ * Blobs written before this format existed are one GCM stream over the whole
+ * file with no header; {@link #parse} returns empty for them.
+ */
+public final class SegmentedBlobFormat {
+
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int TAG_LENGTH = 16;
+    public static final int NONCE_LENGTH = 12;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int FLAG_DEFLATE = 0x01;
+
+    private static final byte[] MAGIC = { 'S', 'V', 'S', 'G' };
+    private static final int MIN_SEGMENT_SIZE = 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final int flags;
+    private final byte[] header;
+
+    private SegmentedBlobFormat(int segmentSize, int flags) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.flags = flags;
+        this.header = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) flags)
+                .putShort((short) 0)
+                .putInt(segmentSize)
+                .putInt(0)
+                .array();
+    }
+
+    public static SegmentedBlobFormat forSegmentSize(int segmentSize) {
+        return new SegmentedBlobFormat(segmentSize, 0);
+    }
+
+    public static SegmentedBlobFormat forSegmentSize(int segmentSize, int flags) {
+        return new SegmentedBlobFormat(segmentSize, flags);
+    }
+
+    /**
+     * Parses a blob header. Returns empty if the bytes are not a segmented
+     * header, i.e. the blob uses the legacy single-stream layout.
+     */
+    public static Optional<SegmentedBlobFormat> parse(byte[] headerBytes) {
+        if (headerBytes == null || headerBytes.length < HEADER_LENGTH) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(headerBytes, 0, HEADER_LENGTH);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+            return Optional.empty();
+        }
+        int flags = buffer.get() & 0xFF;
+        buffer.getShort();
+        int segmentSize = buffer.getInt();
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            return Optional.empty();
+        }
+        return Optional.of(new SegmentedBlobFormat(segmentSize, flags));
+    }
+
+    public byte[] header() {
+        return header.clone();
+    }
+
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    /** Whether the encrypted plaintext is Deflate compressed. */
+    public boolean compressed() {
+        return (flags & FLAG_DEFLATE) != 0;
+    }
+
+    public int encryptedSegmentSize() {
+        return segmentSize + TAG_LENGTH;
+    }
+
+    /** Byte offset of segment {@code index} inside the blob. */
+    public long segmentOffset(long index) {
+        return HEADER_LENGTH + index * encryptedSegmentSize();
+    }
+
+    /** Number of segments in a blob of the given total length (header included). */
+    public long segmentCount(long blobLength) {
+        long body = blobLength - HEADER_LENGTH;
+        if (body < TAG_LENGTH) {
+            throw new IllegalArgumentException("Blob too short for segmented format: " + blobLength);
+        }
+        return (body + encryptedSegmentSize() - 1) / encryptedSegmentSize();
+    }
+
+    /** Plaintext length of a blob of the given total length (header included). */
+    public long plaintextLength(long blobLength) {
+        return blobLength - HEADER_LENGTH - segmentCount(blobLength) * TAG_LENGTH;
+    }
+
+    /** Total blob length for a plaintext of the given length. */
+    public long blobLength(long plaintextLength) {
+        long segments = Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        return HEADER_LENGTH + plaintextLength + segments * TAG_LENGTH;
+    }
+
+    /** Encrypted length of segment {@code index} in a blob of the given length. */
+    public int encryptedSegmentLength(long index, long blobLength) {
+        long remaining = blobLength - segmentOffset(index);
+        return (int) Math.min(remaining, encryptedSegmentSize());
+    }
+
+    public byte[] nonce(byte[] baseIv, long index) {
+        if (baseIv.length != NONCE_LENGTH) {
+            throw new IllegalArgumentException("Base IV must be " + NONCE_LENGTH + " bytes");
+        }
+        if (index < 0 || index > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Segment index out of range: " + index);
+        }
+        byte[] nonce = baseIv.clone();
+        nonce[8] ^= (byte) (index >>> 24);
+        nonce[9] ^= (byte) (index >>> 16);
+        nonce[10] ^= (byte) (index >>> 8);
+        nonce[11] ^= (byte) index;
+        return nonce;
+    }
+
+    public byte[] aad(boolean lastSegment) {
+        byte[] aad = Arrays.copyOf(header, HEADER_LENGTH + 1);
+        aad[HEADER_LENGTH] = (byte) (lastSegment ? 1 : 0);
+        return aad;
+    }
+}
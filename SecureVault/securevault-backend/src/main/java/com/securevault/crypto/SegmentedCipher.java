@@ -0,0 +1,205 @@
+package com.securevault.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts and decrypts blobs in the {@link SegmentedBlobFormat} layout.
+ *
+ * Channel I/O goes through (pooled) direct buffers so the JDK does not cache
+ * a temporary direct buffer per request thread; the cipher itself runs on
+ * pooled heap buffers, which SunJCE's GCM handles without extra copies. The
+ * AES/GCM {@link Cipher} is the calling thread's instance from
+ * {@link CryptoEngine}, so one instance may be used from different threads
+ * as long as calls do not overlap.
+ */
+public final class SegmentedCipher {
+
+    private static final BufferPool NO_HEAP_POOL = new BufferPool(0, 0, false);
+    private static final BufferPool NO_DIRECT_POOL = new BufferPool(0, 0, true);
+
+    private final SecretKey key;
+    private final SegmentedBlobFormat format;
+    private final byte[] baseIv;
+    private final byte[] aadMiddle;
+    private final byte[] aadLast;
+    private final BufferPool heapBuffers;
+    private final BufferPool directBuffers;
+
+    public SegmentedCipher(SecretKey key, SegmentedBlobFormat format, byte[] baseIv) {
+        this(key, format, baseIv, NO_HEAP_POOL, NO_DIRECT_POOL);
+    }
+
+    public SegmentedCipher(SecretKey key, SegmentedBlobFormat format, byte[] baseIv,
+            BufferPool heapBuffers, BufferPool directBuffers) {
+        this.key = key;
+        this.format = format;
+        this.baseIv = baseIv.clone();
+        this.aadMiddle = format.aad(false);
+        this.aadLast = format.aad(true);
+        this.heapBuffers = heapBuffers;
+        this.directBuffers = directBuffers;
+    }
+
+    public SegmentedBlobFormat format() {
+        return format;
+    }
+
+    /**
+     * Encrypts one segment from {@code in} (position to limit) into
+     * {@code out} and returns the number of bytes written (input + tag).
+     */
+    public int encryptSegment(long index, boolean last, ByteBuffer in, ByteBuffer out)
+            throws GeneralSecurityException {
+        Cipher cipher = CryptoEngine.gcmEncryptor(key, format.nonce(baseIv, index));
+        cipher.updateAAD(last ? aadLast : aadMiddle);
+        return doFinal(cipher, in, out);
+    }
+
+    /**
+     * Authenticates and decrypts one segment, returning the plaintext length.
+     * Fails with {@link javax.crypto.AEADBadTagException} if the segment was
+     * modified, moved or truncated.
+     */
+    public int decryptSegment(long index, boolean last, ByteBuffer in, ByteBuffer out)
+            throws GeneralSecurityException {
+        Cipher cipher = CryptoEngine.gcmDecryptor(key, format.nonce(baseIv, index));
+        cipher.updateAAD(last ? aadLast : aadMiddle);
+        return doFinal(cipher, in, out);
+    }
+
+    /**
+     * Writes the header followed by all segments of {@code source}.
+     *
+     * @return number of plaintext bytes consumed
+     */
+    public long encrypt(InputStream source, WritableByteChannel dest) throws IOException, GeneralSecurityException {
+        int segmentSize = format.segmentSize();
+        ByteBuffer current = heapBuffers.acquire(segmentSize);
+        ByteBuffer next = heapBuffers.acquire(segmentSize);
+        ByteBuffer out = heapBuffers.acquire(format.encryptedSegmentSize());
+        ByteBuffer io = directBuffers.acquire(format.encryptedSegmentSize());
+        try {
+            writeFully(dest, ByteBuffer.wrap(format.header()));
+
+            long total = 0;
+            long index = 0;
+            int currentLen = source.readNBytes(current.array(), 0, segmentSize);
+            while (true) {
+                // Read ahead so we know whether the current segment is the last one
+                int nextLen = currentLen == segmentSize ? source.readNBytes(next.array(), 0, segmentSize) : 0;
+                boolean last = nextLen == 0;
+                current.clear().limit(currentLen);
+                out.clear();
+                encryptSegment(index, last, current, out);
+                writeFully(dest, io.clear().put(out.flip()).flip());
+                total += currentLen;
+                if (last) {
+                    return total;
+                }
+                ByteBuffer swap = current;
+                current = next;
+                next = swap;
+                currentLen = nextLen;
+                index++;
+            }
+        } finally {
+            heapBuffers.release(current);
+            heapBuffers.release(next);
+            heapBuffers.release(out);
+            directBuffers.release(io);
+        }
+    }
+
+    /**
+     * Decrypts every segment of a blob. {@code source} must be positioned
+     * right after the header.
+     */
+    public void decrypt(ReadableByteChannel source, long blobLength, OutputStream dest)
+            throws IOException, GeneralSecurityException {
+        decryptSegments(source, blobLength, 0, format.segmentCount(blobLength) - 1, 0, Long.MAX_VALUE, dest);
+    }
+
+    /**
+     * Decrypts only the segments covering plaintext bytes
+     * {@code [offset, offset + length)}. {@code source} must be positioned at
+     * {@link #rangeStart(long)} for the same offset.
+     */
+    public void decryptRange(ReadableByteChannel source, long blobLength, long offset, long length,
+            OutputStream dest) throws IOException, GeneralSecurityException {
+        if (length <= 0) {
+            return;
+        }
+        long segmentSize = format.segmentSize();
+        long firstSegment = offset / segmentSize;
+        long lastSegment = Math.min((offset + length - 1) / segmentSize, format.segmentCount(blobLength) - 1);
+        decryptSegments(source, blobLength, firstSegment, lastSegment, offset - firstSegment * segmentSize, length,
+                dest);
+    }
+
+    /** Blob offset a range read starting at plaintext {@code offset} must begin from. */
+    public long rangeStart(long offset) {
+        return format.segmentOffset(offset / format.segmentSize());
+    }
+
+    private void decryptSegments(ReadableByteChannel source, long blobLength, long firstSegment, long lastSegment,
+            long skip, long remaining, OutputStream dest) throws IOException, GeneralSecurityException {
+        long segmentCount = format.segmentCount(blobLength);
+        ByteBuffer io = directBuffers.acquire(format.encryptedSegmentSize());
+        ByteBuffer in = heapBuffers.acquire(format.encryptedSegmentSize());
+        ByteBuffer out = heapBuffers.acquire(format.encryptedSegmentSize());
+        try {
+            for (long index = firstSegment; index <= lastSegment && remaining > 0; index++) {
+                int len = format.encryptedSegmentLength(index, blobLength);
+                io.clear().limit(len);
+                readFully(source, io, index);
+                in.clear().put(io.flip()).flip();
+                out.clear();
+                int plainLen = decryptSegment(index, index == segmentCount - 1, in, out);
+                int from = (int) skip;
+                int count = (int) Math.min(plainLen - from, remaining);
+                dest.write(out.array(), out.arrayOffset() + from, count);
+                remaining -= count;
+                skip = 0;
+            }
+        } finally {
+            directBuffers.release(io);
+            heapBuffers.release(in);
+            heapBuffers.release(out);
+        }
+    }
+
+    /** Array-backed buffers take SunJCE's allocation-free byte[] path. */
+    private static int doFinal(Cipher cipher, ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        if (!in.hasArray() || !out.hasArray()) {
+            return cipher.doFinal(in, out);
+        }
+        int written = cipher.doFinal(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+                out.array(), out.arrayOffset() + out.position());
+        in.position(in.limit());
+        out.position(out.position() + written);
+        return written;
+    }
+
+    private static void readFully(ReadableByteChannel source, ByteBuffer buffer, long index) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                throw new EOFException("Encrypted blob truncated at segment " + index);
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel dest, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            dest.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.securevault.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Kết quả của một file trong lượt upload nhiều file: fileId khi thành công,
+ * error khi thất bại.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUploadResultDTO {
+    private String fileName;
+    private Long fileId;
+    private long size;
+    private String status;
+    private String error;
+}
@@ -20,4 +20,5 @@ public class FolderDTO {
     private LocalDateTime updatedAt;
     private int fileCount;
     private int subfolderCount;
+    private boolean clientEncrypted;
 }
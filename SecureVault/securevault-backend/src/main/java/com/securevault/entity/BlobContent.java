@@ -0,0 +1,40 @@
+package com.securevault.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Blob đã mã hóa được định danh theo nội dung (HMAC-SHA256 của bản rõ).
+ * Nhiều FileDocument có cùng contentDigest dùng chung một blob; blob chỉ bị
+ * xóa khi refCount về 0.
+ */
+@Entity
+@Table(name = "blob_contents")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlobContent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String digest;
+
+    @Column(nullable = false)
+    private String encryptedPath;
+
+    private long size;
+
+    private long refCount;
+
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,47 @@
+package com.securevault.entity;
+
+import com.securevault.enums.ScrubStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Kết quả kiểm tra toàn vẹn gần nhất của một blob (xem BlobScrubService).
+ * Một dòng cho mỗi blob; blob dùng chung bởi nhiều file chỉ kiểm tra một lần.
+ */
+@Entity
+@Table(name = "blob_scrub_results", indexes = @Index(name = "idx_scrub_status", columnList = "status"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlobScrubResult {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true)
+    private String encryptedPath;
+
+    // File dùng để lấy khóa giải mã khi kiểm tra
+    private Long fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ScrubStatus status;
+
+    private long blobSize;
+
+    @Column(nullable = false)
+    private LocalDateTime checkedAt;
+
+    // Lần đầu phát hiện lỗi liên tiếp (null khi blob OK)
+    private LocalDateTime failingSince;
+
+    @Column(length = 1000)
+    private String lastError;
+}
@@ -10,7 +10,7 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = @Index(name = "idx_files_encrypted_path", columnList = "encrypted_path"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -28,7 +28,7 @@ public class FileDocument {
     private long size;
 
     @Column(nullable = false)
-    private String encryptedPath; // Path to the encrypted file on disk
+    private String encryptedPath; // Blob store key (absolute file path for files uploaded before the blob store)
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
@@ -41,6 +41,39 @@ public class FileDocument {
     // For Module 2: Encryption Key (if per-file key) or IV
     private String encryptionIv;
 
+    // Per-file data key wrapped by the master key (null = blob encrypted
+    // directly with the master key, files uploaded before envelope encryption)
+    @Column(length = 128)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String wrappedKey;
+
+    // Id of the master key that wrapped wrappedKey
+    @Column(length = 32)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String keyId;
+
+    // HMAC-SHA256 of the plaintext; files with the same digest share one blob
+    // (see BlobContent). Null = blob owned by this file alone.
+    @Column(length = 64)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String contentDigest;
+
+    // Nội dung do client mã hóa (thư mục clientEncrypted): blob là ciphertext
+    // của client, server không giải mã; encryptionIv/wrappedKey để trống
+    private boolean clientEncrypted;
+
+    // Metadata khóa do client gửi kèm (khóa dữ liệu đã bọc bởi khóa của
+    // client...), server lưu nguyên và trả lại khi liệt kê file
+    @Column(length = 4096)
+    private String clientKeyMetadata;
+
+    // Thống kê truy cập cho việc phân tầng lưu trữ (hot/cold)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private LocalDateTime lastAccessedAt;
+
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private long readCount;
+
     @Enumerated(EnumType.STRING)
     private com.securevault.enums.FileStatus status;
 
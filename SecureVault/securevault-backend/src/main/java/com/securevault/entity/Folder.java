@@ -36,6 +36,10 @@ public class Folder {
     @com.fasterxml.jackson.annotation.JsonIgnore
     private Folder parent;
 
+    // Chế độ mã hóa phía client: chỉ nhận file đã mã hóa bởi client, server
+    // lưu nguyên ciphertext. Cố định khi tạo thư mục, thư mục con kế thừa.
+    private boolean clientEncrypted;
+
     @OneToMany(mappedBy = "parent", cascade = CascadeType.ALL, orphanRemoval = true)
     @com.fasterxml.jackson.annotation.JsonIgnore
     @Builder.Default
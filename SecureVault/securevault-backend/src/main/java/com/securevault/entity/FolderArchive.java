@@ -0,0 +1,74 @@
+package com.securevault.entity;
+
+import com.securevault.enums.ArchiveStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Job tạo file ZIP của một thư mục và archive kết quả trong cache (xem
+ * FolderArchiveService). Archive được mã hóa khi lưu bằng data key riêng và
+ * dùng chung cho mọi lượt tải cùng thư mục khi nội dung chưa đổi
+ * (contentVersion).
+ */
+@Entity
+@Table(name = "folder_archives", indexes = {
+        @Index(name = "idx_archive_folder_version", columnList = "folderId, contentVersion"),
+        @Index(name = "idx_archive_status_accessed", columnList = "status, lastAccessedAt") })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderArchive {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long folderId;
+
+    // SHA-256 của danh sách entry (đường dẫn, id, kích thước file)
+    @Column(nullable = false, length = 64)
+    private String contentVersion;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ArchiveStatus status;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private int fileCount;
+
+    // Kích thước file ZIP (bản rõ)
+    private long size;
+
+    // Kích thước archive đã mã hóa trong cache
+    private long storedBytes;
+
+    @Column(length = 128)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String wrappedKey;
+
+    @Column(length = 32)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String keyId;
+
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String encryptionIv;
+
+    @Column(length = 1024)
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime completedAt;
+
+    @Column(nullable = false)
+    private LocalDateTime lastAccessedAt;
+}
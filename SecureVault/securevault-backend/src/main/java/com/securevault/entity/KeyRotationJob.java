@@ -0,0 +1,61 @@
+package com.securevault.entity;
+
+import com.securevault.enums.KeyRotationStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Tiến trình xoay vòng master key. Lưu checkpoint (id file / user cuối cùng
+ * đã xử lý) để job có thể tiếp tục sau khi dừng hoặc khởi động lại server.
+ */
+@Entity
+@Table(name = "key_rotation_jobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeyRotationJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Id của master key đích (master key hiện tại khi job được tạo)
+    @Column(nullable = false, length = 32)
+    private String targetKeyId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private KeyRotationStatus status;
+
+    // Checkpoint: keyset pagination theo id
+    private long lastFileId;
+    private long lastUserId;
+
+    private boolean filesDone;
+    private boolean usersDone;
+
+    // Thống kê
+    private long filesRewrapped;
+    private long filesReencrypted;
+    private long bytesReencrypted;
+    private long usersReencrypted;
+    private long failures;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @CreationTimestamp
+    private LocalDateTime startedAt;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime completedAt;
+}
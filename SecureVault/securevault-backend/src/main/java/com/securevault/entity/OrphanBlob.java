@@ -0,0 +1,46 @@
+package com.securevault.entity;
+
+import com.securevault.enums.OrphanStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Blob trong blob store không được bảng files hay blob_contents tham chiếu
+ * (xem BlobReconciliationService). Blob được cách ly (giữ nguyên) một thời
+ * gian rồi mới bị xóa; nếu trong thời gian đó có dòng tham chiếu trở lại,
+ * bản ghi bị bỏ.
+ */
+@Entity
+@Table(name = "orphan_blobs", indexes = @Index(name = "idx_orphan_status_reclaim", columnList = "status, reclaimAfter"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrphanBlob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true)
+    private String blobKey;
+
+    private long size;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OrphanStatus status;
+
+    @Column(nullable = false)
+    private LocalDateTime detectedAt;
+
+    // Thời điểm sớm nhất blob được xóa
+    @Column(nullable = false)
+    private LocalDateTime reclaimAfter;
+
+    private LocalDateTime reclaimedAt;
+}
@@ -0,0 +1,77 @@
+package com.securevault.entity;
+
+import com.securevault.enums.IngestStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một lượt upload bất đồng bộ (xem IngestionService). Nội dung nằm trong
+ * vùng staging, đã được mã hóa thành blob bằng data key riêng của job, cho
+ * tới khi worker chuyển blob vào blob store và lưu thành file thật.
+ */
+@Entity
+@Table(name = "upload_jobs", indexes = {
+        @Index(name = "idx_upload_job_status", columnList = "status, completedAt") })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private String contentType;
+
+    private Long folderId;
+
+    // Tên file trong thư mục staging
+    @Column(nullable = false)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String stagedFile;
+
+    // Kích thước nội dung (bản rõ)
+    private long size;
+
+    @Column(length = 128)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String wrappedKey;
+
+    @Column(length = 32)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String keyId;
+
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String encryptionIv;
+
+    // Digest nội dung (HMAC), tính khi staging để dedup mà không giải mã lại
+    @Column(length = 64)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String contentDigest;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private IngestStatus status;
+
+    // File được tạo khi job hoàn tất
+    private Long fileId;
+
+    @Column(length = 1024)
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime completedAt;
+}
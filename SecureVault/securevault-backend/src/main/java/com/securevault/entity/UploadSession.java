@@ -0,0 +1,62 @@
+package com.securevault.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Phiên upload nhiều phần có thể tiếp tục (xem ChunkedUploadService). Mỗi
+ * chunk là một segment của blob mã hóa; blob được ghi dần trong thư mục
+ * upload dưới khóa dữ liệu của phiên, các chunk đã nhận nằm trong
+ * upload_session_chunks.
+ */
+@Entity
+@Table(name = "upload_sessions", indexes = @Index(name = "idx_upload_session_expires", columnList = "expiresAt"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private String contentType;
+
+    private Long folderId;
+
+    // Kích thước file (bản rõ) do client khai báo khi tạo phiên
+    private long size;
+
+    // Kích thước chunk = kích thước segment của blob; chunk cuối có thể ngắn hơn
+    private int chunkSize;
+
+    private int chunkCount;
+
+    @Column(length = 128)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String wrappedKey;
+
+    @Column(length = 32)
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String keyId;
+
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String encryptionIv;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+}
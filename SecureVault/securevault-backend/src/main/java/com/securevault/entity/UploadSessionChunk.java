@@ -0,0 +1,37 @@
+package com.securevault.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Chunk của một phiên upload. Dòng được thêm trước khi chunk được mã hóa để
+ * giữ chỗ (khóa duy nhất đảm bảo mỗi nonce segment chỉ được dùng một lần,
+ * kể cả giữa các instance) và được đánh dấu đã ghi sau khi segment bền vững
+ * trên đĩa. Mỗi dòng được thêm riêng nên các chunk gửi song song không ghi đè
+ * lẫn nhau.
+ */
+@Entity
+@Table(name = "upload_session_chunks", uniqueConstraints = @UniqueConstraint(
+        name = "uk_upload_session_chunk", columnNames = { "sessionId", "chunkIndex" }))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long sessionId;
+
+    @Column(nullable = false)
+    private int chunkIndex;
+
+    // false: đã giữ chỗ (nonce đã dùng) nhưng segment chưa bền vững trên đĩa
+    @Column(nullable = false)
+    private boolean written;
+}
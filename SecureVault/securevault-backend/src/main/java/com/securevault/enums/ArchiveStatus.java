@@ -0,0 +1,10 @@
+package com.securevault.enums;
+
+public enum ArchiveStatus {
+    // Đã nhận yêu cầu, chờ worker
+    PENDING,
+    BUILDING,
+    // Archive đã mã hóa nằm trong cache, sẵn sàng tải
+    READY,
+    FAILED
+}
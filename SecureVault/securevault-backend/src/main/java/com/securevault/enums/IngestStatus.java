@@ -0,0 +1,10 @@
+package com.securevault.enums;
+
+public enum IngestStatus {
+    // Nội dung đã được ghi (mã hóa) vào vùng staging, chờ worker
+    STAGED,
+    PROCESSING,
+    // File đã được lưu; fileId trỏ tới file mới
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,8 @@
+package com.securevault.enums;
+
+public enum KeyRotationStatus {
+    RUNNING,
+    PAUSED,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,7 @@
+package com.securevault.enums;
+
+public enum OrphanStatus {
+    // Không còn dòng nào tham chiếu, chờ hết thời gian cách ly
+    QUARANTINED,
+    RECLAIMED
+}
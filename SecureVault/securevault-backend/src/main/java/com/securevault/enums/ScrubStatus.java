@@ -0,0 +1,10 @@
+package com.securevault.enums;
+
+public enum ScrubStatus {
+    OK,
+    // Xác thực GCM (hoặc giải nén) thất bại: nội dung blob đã bị thay đổi
+    CORRUPT,
+    MISSING,
+    // Không đọc được vì lý do khác (lỗi I/O, khóa không giải bọc được...)
+    UNREADABLE
+}
@@ -0,0 +1,58 @@
+package com.securevault.repository;
+
+import com.securevault.entity.BlobContent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BlobContentRepository extends JpaRepository<BlobContent, Long> {
+
+    Optional<BlobContent> findByDigest(String digest);
+
+    @Query("SELECT b.encryptedPath FROM BlobContent b WHERE b.encryptedPath IN :paths")
+    List<String> findEncryptedPathsIn(@Param("paths") Collection<String> paths);
+
+    // Thêm nội dung mới, hoặc tăng refCount nếu digest đã tồn tại (nguyên tử)
+    @Modifying
+    @Query(value = "INSERT INTO blob_contents (digest, encrypted_path, size, ref_count, created_at) "
+            + "VALUES (:digest, :encryptedPath, :size, 1, NOW()) "
+            + "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int insertOrReference(@Param("digest") String digest, @Param("encryptedPath") String encryptedPath,
+            @Param("size") long size);
+
+    @Modifying
+    @Query("UPDATE BlobContent b SET b.refCount = b.refCount + 1 WHERE b.digest = :digest AND b.refCount > 0")
+    int incrementRefCount(@Param("digest") String digest);
+
+    @Modifying
+    @Query("UPDATE BlobContent b SET b.refCount = b.refCount - 1 WHERE b.digest = :digest")
+    int decrementRefCount(@Param("digest") String digest);
+
+    // Chỉ xóa khi không còn tham chiếu, tránh xóa nhầm khi có upload trùng đồng thời
+    @Modifying
+    @Query("DELETE FROM BlobContent b WHERE b.digest = :digest AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("digest") String digest);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE BlobContent b SET b.encryptedPath = :newPath WHERE b.digest = :digest AND b.encryptedPath = :oldPath")
+    int updateEncryptedPath(@Param("digest") String digest, @Param("oldPath") String oldPath,
+            @Param("newPath") String newPath);
+
+    // Các khóa blob bắt đầu bằng prefix (ví dụ mọi blob trong một pack file)
+    @Query("SELECT DISTINCT b.encryptedPath FROM BlobContent b WHERE b.encryptedPath LIKE CONCAT(:prefix, '%')")
+    List<String> findEncryptedPathsByPrefix(@Param("prefix") String prefix);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE BlobContent b SET b.encryptedPath = :newPath WHERE b.encryptedPath = :oldPath")
+    int updateEncryptedPathByPath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+}
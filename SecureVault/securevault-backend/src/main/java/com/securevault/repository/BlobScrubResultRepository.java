@@ -0,0 +1,30 @@
+package com.securevault.repository;
+
+import com.securevault.entity.BlobScrubResult;
+import com.securevault.enums.ScrubStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BlobScrubResultRepository extends JpaRepository<BlobScrubResult, Long> {
+
+    Optional<BlobScrubResult> findByEncryptedPath(String encryptedPath);
+
+    long countByStatus(ScrubStatus status);
+
+    List<BlobScrubResult> findTop20ByStatusNotOrderByCheckedAtDesc(ScrubStatus status);
+
+    // Xóa kết quả của blob không còn được file nào dùng (không được kiểm tra trong lượt vừa xong)
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM BlobScrubResult r WHERE r.checkedAt < :cutoff")
+    int deleteCheckedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -3,10 +3,18 @@ package com.securevault.repository;
 import com.securevault.entity.FileDocument;
 import com.securevault.entity.Folder;
 import com.securevault.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface FileRepository extends JpaRepository<FileDocument, Long> {
@@ -23,4 +31,66 @@ public interface FileRepository extends JpaRepository<FileDocument, Long> {
 
     // Find all files in a folder (for shared folder access)
     List<FileDocument> findByFolder(Folder folder);
+
+    // Keyset pagination theo id cho các job chạy nền
+    List<FileDocument> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    long countByIdGreaterThan(Long id);
+
+    // Một file bất kỳ dùng chung blob, để sao chép thông tin khóa khi trùng nội dung
+    Optional<FileDocument> findFirstByContentDigest(String contentDigest);
+
+    // Chỉ cập nhật cột khóa, tránh ghi đè thay đổi đồng thời trên cùng dòng
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileDocument f SET f.wrappedKey = :wrappedKey, f.keyId = :keyId "
+            + "WHERE f.id = :id AND f.keyId = :oldKeyId")
+    int updateWrappedKey(@Param("id") Long id, @Param("oldKeyId") String oldKeyId,
+            @Param("wrappedKey") String wrappedKey, @Param("keyId") String keyId);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileDocument f SET f.encryptedPath = :encryptedPath, f.encryptionIv = :iv, "
+            + "f.wrappedKey = :wrappedKey, f.keyId = :keyId WHERE f.id = :id AND f.wrappedKey IS NULL")
+    int updateLegacyEncryption(@Param("id") Long id, @Param("encryptedPath") String encryptedPath,
+            @Param("iv") String iv, @Param("wrappedKey") String wrappedKey, @Param("keyId") String keyId);
+
+    // Đối chiếu blob store với DB theo lô (BlobReconciliationService)
+    @Query("SELECT DISTINCT f.encryptedPath FROM FileDocument f WHERE f.encryptedPath IN :paths")
+    List<String> findEncryptedPathsIn(@Param("paths") Collection<String> paths);
+
+    boolean existsByEncryptedPath(String encryptedPath);
+
+    // Trỏ dòng sang khóa blob mới, chỉ khi đường dẫn chưa bị đổi đồng thời
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileDocument f SET f.encryptedPath = :newPath WHERE f.id = :id AND f.encryptedPath = :oldPath")
+    int updateEncryptedPath(@Param("id") Long id, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    // Các khóa blob bắt đầu bằng prefix (ví dụ mọi blob trong một pack file)
+    @Query("SELECT DISTINCT f.encryptedPath FROM FileDocument f WHERE f.encryptedPath LIKE CONCAT(:prefix, '%')")
+    List<String> findEncryptedPathsByPrefix(@Param("prefix") String prefix);
+
+    // Trỏ mọi dòng dùng chung một blob sang khóa mới
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileDocument f SET f.encryptedPath = :newPath WHERE f.encryptedPath = :oldPath")
+    int updateEncryptedPathByPath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    // Cộng dồn lượt đọc (đã gom trong bộ nhớ) vào thống kê truy cập
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileDocument f SET f.readCount = f.readCount + :reads, f.lastAccessedAt = :accessedAt "
+            + "WHERE f.id = :id")
+    int recordAccess(@Param("id") Long id, @Param("reads") long reads, @Param("accessedAt") LocalDateTime accessedAt);
+
+    // File không được đọc (hoặc upload) từ trước mốc cutoff, duyệt theo keyset
+    @Query("SELECT f FROM FileDocument f WHERE f.id > :afterId "
+            + "AND COALESCE(f.lastAccessedAt, f.uploadedAt) < :cutoff ORDER BY f.id")
+    List<FileDocument> findIdleAfter(@Param("afterId") Long afterId, @Param("cutoff") LocalDateTime cutoff,
+            Pageable pageable);
+
+    boolean existsByEncryptedPathAndLastAccessedAtAfter(String encryptedPath, LocalDateTime cutoff);
+
+    boolean existsByEncryptedPathAndUploadedAtAfter(String encryptedPath, LocalDateTime cutoff);
 }
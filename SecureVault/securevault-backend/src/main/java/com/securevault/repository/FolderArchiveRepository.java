@@ -0,0 +1,38 @@
+package com.securevault.repository;
+
+import com.securevault.entity.FolderArchive;
+import com.securevault.enums.ArchiveStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FolderArchiveRepository extends JpaRepository<FolderArchive, Long> {
+
+    Optional<FolderArchive> findFirstByFolderIdAndContentVersionAndStatusInOrderByIdDesc(Long folderId,
+            String contentVersion, Collection<ArchiveStatus> statuses);
+
+    List<FolderArchive> findByStatusIn(Collection<ArchiveStatus> statuses);
+
+    List<FolderArchive> findByStatusInAndLastAccessedAtBefore(Collection<ArchiveStatus> statuses,
+            LocalDateTime cutoff);
+
+    List<FolderArchive> findByStatusOrderByLastAccessedAtAsc(ArchiveStatus status, Pageable pageable);
+
+    @Query("SELECT COALESCE(SUM(a.storedBytes), 0) FROM FolderArchive a WHERE a.status = :status")
+    long sumStoredBytesByStatus(@Param("status") ArchiveStatus status);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FolderArchive a SET a.lastAccessedAt = :now WHERE a.id = :id")
+    int touch(@Param("id") Long id, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,16 @@
+package com.securevault.repository;
+
+import com.securevault.entity.KeyRotationJob;
+import com.securevault.enums.KeyRotationStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface KeyRotationJobRepository extends JpaRepository<KeyRotationJob, Long> {
+
+    Optional<KeyRotationJob> findFirstByOrderByIdDesc();
+
+    Optional<KeyRotationJob> findFirstByStatusOrderByIdDesc(KeyRotationStatus status);
+}
@@ -0,0 +1,28 @@
+package com.securevault.repository;
+
+import com.securevault.entity.OrphanBlob;
+import com.securevault.enums.OrphanStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OrphanBlobRepository extends JpaRepository<OrphanBlob, Long> {
+
+    @Query("SELECT o.blobKey FROM OrphanBlob o WHERE o.blobKey IN :keys")
+    List<String> findBlobKeysIn(@Param("keys") Collection<String> keys);
+
+    List<OrphanBlob> findByStatusAndReclaimAfterBeforeOrderByIdAsc(OrphanStatus status, LocalDateTime now,
+            Pageable pageable);
+
+    long countByStatus(OrphanStatus status);
+
+    @Query("SELECT COALESCE(SUM(o.size), 0) FROM OrphanBlob o WHERE o.status = :status")
+    long sumSizeByStatus(@Param("status") OrphanStatus status);
+}
@@ -0,0 +1,18 @@
+package com.securevault.repository;
+
+import com.securevault.entity.UploadJob;
+import com.securevault.enums.IngestStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
+
+    List<UploadJob> findByStatusIn(Collection<IngestStatus> statuses);
+
+    List<UploadJob> findByStatusInAndCompletedAtBefore(Collection<IngestStatus> statuses, LocalDateTime cutoff);
+}
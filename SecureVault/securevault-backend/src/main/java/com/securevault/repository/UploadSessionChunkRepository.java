@@ -0,0 +1,28 @@
+package com.securevault.repository;
+
+import com.securevault.entity.UploadSessionChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionChunkRepository extends JpaRepository<UploadSessionChunk, Long> {
+
+    Optional<UploadSessionChunk> findBySessionIdAndChunkIndex(Long sessionId, int chunkIndex);
+
+    long countBySessionIdAndWrittenTrue(Long sessionId);
+
+    @Query("SELECT c.chunkIndex FROM UploadSessionChunk c WHERE c.sessionId = :sessionId AND c.written = true")
+    List<Integer> findChunkIndexes(@Param("sessionId") Long sessionId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadSessionChunk c WHERE c.sessionId = :sessionId")
+    int deleteBySessionId(@Param("sessionId") Long sessionId);
+}
@@ -0,0 +1,14 @@
+package com.securevault.repository;
+
+import com.securevault.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+
+    List<UploadSession> findByExpiresAtBefore(LocalDateTime cutoff);
+}
@@ -3,6 +3,10 @@ package com.securevault.repository;
 import com.securevault.entity.User;
 import com.securevault.enums.Role;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -19,4 +23,20 @@ public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByEmail(String email);
 
     List<User> findByRole(Role role);
+
+    // Đọc/ghi trực tiếp giá trị đã mã hóa (bỏ qua AttributeEncryptor) cho job xoay vòng khóa
+    @Query(value = "SELECT id, phone_number, national_id FROM users WHERE id > :afterId ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<Object[]> findEncryptedAttributesAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    // Chỉ ghi nếu giá trị chưa bị thay đổi kể từ lúc đọc (<=> so sánh an toàn với NULL)
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE users SET phone_number = :phoneNumber, national_id = :nationalId WHERE id = :id "
+            + "AND phone_number <=> :oldPhoneNumber AND national_id <=> :oldNationalId", nativeQuery = true)
+    int updateEncryptedAttributes(@Param("id") long id, @Param("oldPhoneNumber") String oldPhoneNumber,
+            @Param("oldNationalId") String oldNationalId, @Param("phoneNumber") String phoneNumber,
+            @Param("nationalId") String nationalId);
+
+    long countByIdGreaterThan(Long id);
 }
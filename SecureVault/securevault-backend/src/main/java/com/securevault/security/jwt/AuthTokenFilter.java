@@ -24,6 +24,7 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     private static final Logger logger = LoggerFactory.getLogger(AuthTokenFilter.class);
     private static final String AUTHORIZATION_HEADER = "Authorization";
     private static final String BEARER_PREFIX = "Bearer ";
+    private static final String SIGNED_DOWNLOAD_PREFIX = "/api/files/signed/";
 
     private final JwtUtils jwtUtils;
     private final UserDetailsServiceImpl userDetailsService;
@@ -59,6 +60,15 @@ public class AuthTokenFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * URL tải có chữ ký được kiểm tra ở controller; bỏ qua parse JWT và tải
+     * user cho các request này.
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + SIGNED_DOWNLOAD_PREFIX);
+    }
+
     /**
      * Trích xuất JWT token từ header Authorization.
      */
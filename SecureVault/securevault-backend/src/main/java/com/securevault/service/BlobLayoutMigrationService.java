@@ -0,0 +1,209 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.LegacyPathBlobStore;
+import com.securevault.storage.PackedBlobStore;
+import com.securevault.storage.ShardedFileSystemBlobStore;
+import com.securevault.storage.TieredBlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Chuyển các blob nằm phẳng trong uploadDir sang cây thư mục ab/cd/ của
+ * backend sharded, trong khi hệ thống vẫn chạy.
+ *
+ * Job duyệt bảng files theo keyset (id tăng dần), mỗi lần chạy một batch:
+ * - Blob được tạo hard link vào thư mục shard (không di chuyển), nên
+ *   request đang đọc theo đường dẫn cũ không bị ảnh hưởng.
+ * - Dòng còn lưu đường dẫn tuyệt đối được trỏ sang khóa blob.
+ * - File phẳng cũ bị xóa sau thời gian chờ, khi không còn dòng nào dùng
+ *   đường dẫn cũ.
+ * Trong lúc chuyển, blob store đọc được cả hai vị trí. Khi một lượt duyệt
+ * không còn blob phẳng, file đánh dấu được ghi vào uploadDir và job không
+ * chạy lại ở các lần khởi động sau.
+ */
+@Service
+public class BlobLayoutMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobLayoutMigrationService.class);
+
+    static final String DONE_MARKER = ".layout-sharded";
+
+    private final FileRepository fileRepository;
+    private final BlobContentRepository blobContentRepository;
+    private final BlobStore blobStore;
+
+    @Value("${securevault.app.storage.migration.enabled:true}")
+    private boolean enabled;
+
+    // Số dòng files mỗi batch
+    @Value("${securevault.app.storage.migration.batchSize:500}")
+    private int batchSize;
+
+    // Thời gian chờ trước khi xóa file phẳng cũ, để request đang đọc kịp hoàn tất
+    @Value("${securevault.app.storage.migration.deleteGraceMs:60000}")
+    private long deleteGraceMs;
+
+    private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+    private volatile boolean completed;
+    private volatile long lastFileId;
+    private volatile long filesScanned;
+    private volatile long blobsSharded;
+    private volatile long rowsUpdated;
+    private volatile long failures;
+    private volatile boolean flatBlobsSeen;
+
+    public BlobLayoutMigrationService(FileRepository fileRepository,
+            BlobContentRepository blobContentRepository,
+            BlobStore blobStore) {
+        this.fileRepository = fileRepository;
+        this.blobContentRepository = blobContentRepository;
+        this.blobStore = blobStore;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled && shardedStore().isPresent());
+        status.put("completed", completed || isMarkedDone());
+        status.put("lastFileId", lastFileId);
+        status.put("filesScanned", filesScanned);
+        status.put("blobsSharded", blobsSharded);
+        status.put("rowsUpdated", rowsUpdated);
+        status.put("failures", failures);
+        synchronized (pendingDeletes) {
+            status.put("pendingDeletes", pendingDeletes.size());
+        }
+        return status;
+    }
+
+    /**
+     * Mỗi lần chạy xử lý một batch; sau lượt duyệt cuối chỉ còn dọn file cũ.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.storage.migration.tickMs:1000}")
+    public void tick() {
+        deleteExpiredFlatFiles();
+        Optional<ShardedFileSystemBlobStore> store = shardedStore();
+        if (!enabled || completed || store.isEmpty()) {
+            return;
+        }
+        if (isMarkedDone()) {
+            completed = true;
+            return;
+        }
+        List<FileDocument> files = fileRepository.findByIdGreaterThanOrderByIdAsc(lastFileId,
+                PageRequest.of(0, batchSize));
+        for (FileDocument file : files) {
+            try {
+                migrate(store.get(), file);
+            } catch (Exception e) {
+                logger.warn("Blob layout migration: file id={} failed: {}", file.getId(), e.getMessage());
+                failures++;
+            }
+            filesScanned++;
+            lastFileId = file.getId();
+        }
+        if (files.size() < batchSize) {
+            finishPass(store.get());
+        }
+    }
+
+    private void migrate(ShardedFileSystemBlobStore store, FileDocument file) throws IOException {
+        String path = file.getEncryptedPath();
+        if (PackedBlobStore.entry(path).isPresent() || TieredBlobStore.isCold(path)) {
+            return;
+        }
+        String blobKey = path;
+        if (blobStore instanceof LegacyPathBlobStore legacyStore && legacyStore.isLegacyPath(path)) {
+            Path legacy = legacyStore.legacyFile(path);
+            if (legacy.getParent() == null || !legacy.getParent().equals(store.root())) {
+                // Không nằm trong thư mục của store: giữ nguyên đường dẫn cũ
+                return;
+            }
+            blobKey = legacy.getFileName().toString();
+        }
+
+        Optional<Path> flat = store.shard(blobKey);
+        if (flat.isEmpty()) {
+            return;
+        }
+        flatBlobsSeen = true;
+        blobsSharded++;
+        if (!blobKey.equals(path)) {
+            if (fileRepository.updateEncryptedPath(file.getId(), path, blobKey) > 0) {
+                rowsUpdated++;
+            }
+            if (file.getContentDigest() != null) {
+                blobContentRepository.updateEncryptedPath(file.getContentDigest(), path, blobKey);
+            }
+        }
+        synchronized (pendingDeletes) {
+            pendingDeletes.add(new PendingDelete(flat.get(), blobKey.equals(path) ? null : path,
+                    System.currentTimeMillis() + deleteGraceMs));
+        }
+    }
+
+    private void finishPass(ShardedFileSystemBlobStore store) {
+        logger.info("Blob layout migration pass finished: {} files scanned, {} blobs sharded, {} rows updated, "
+                + "{} failures", filesScanned, blobsSharded, rowsUpdated, failures);
+        if (!flatBlobsSeen && failures == 0) {
+            completed = true;
+            try {
+                Files.createFile(store.root().resolve(DONE_MARKER));
+            } catch (IOException e) {
+                logger.warn("Blob layout migration: could not write marker: {}", e.getMessage());
+            }
+            return;
+        }
+        // Chạy thêm một lượt để xác nhận không còn blob phẳng
+        lastFileId = 0;
+        flatBlobsSeen = false;
+        failures = 0;
+    }
+
+    private void deleteExpiredFlatFiles() {
+        long now = System.currentTimeMillis();
+        synchronized (pendingDeletes) {
+            while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().deleteAt() <= now) {
+                PendingDelete pending = pendingDeletes.pollFirst();
+                Path flat = pending.path();
+                try {
+                    if (pending.legacyPath() != null && fileRepository.existsByEncryptedPath(pending.legacyPath())) {
+                        // Một dòng mới sao chép đường dẫn cũ (upload trùng nội dung): lượt sau xử lý
+                        continue;
+                    }
+                    Files.deleteIfExists(flat);
+                } catch (Exception e) {
+                    logger.warn("Blob layout migration: could not delete {}: {}", flat.getFileName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isMarkedDone() {
+        return shardedStore().map(store -> Files.exists(store.root().resolve(DONE_MARKER))).orElse(false);
+    }
+
+    private Optional<ShardedFileSystemBlobStore> shardedStore() {
+        return blobStore.find(ShardedFileSystemBlobStore.class);
+    }
+
+    private record PendingDelete(Path path, String legacyPath, long deleteAt) {
+    }
+}
@@ -0,0 +1,283 @@
+package com.securevault.service;
+
+import com.securevault.entity.OrphanBlob;
+import com.securevault.enums.OrphanStatus;
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.repository.OrphanBlobRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.LegacyPathBlobStore;
+import com.securevault.storage.StoredBlob;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Đối chiếu blob store với DB để thu hồi blob mồ côi: blob không còn dòng
+ * nào trong files hay blob_contents tham chiếu (upload bị crash giữa chừng,
+ * xóa blob sau commit thất bại, file temp_* của phiên bản cũ...).
+ *
+ * - Blob store được duyệt dạng stream (không nạp toàn bộ danh sách vào bộ
+ *   nhớ), mỗi lần chạy xét một lô batchSize blob bằng một truy vấn IN cho
+ *   mỗi bảng, nên job chạy được với hàng triệu blob.
+ * - Blob mới ghi (trẻ hơn minAgeHours) được bỏ qua: dòng tham chiếu có thể
+ *   chưa được commit.
+ * - Blob mồ côi được cách ly: ghi vào bảng orphan_blobs và giữ nguyên trong
+ *   store. Sau quarantineHours, blob được kiểm tra lại và chỉ bị xóa nếu vẫn
+ *   không có dòng nào tham chiếu.
+ * Blob nhỏ trong pack file không được liệt kê; pack được thu hồi bởi
+ * PackCompactionService. Backend không liệt kê được blob (s3) không được
+ * đối chiếu.
+ */
+@Service
+public class BlobReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobReconciliationService.class);
+
+    private final FileRepository fileRepository;
+    private final BlobContentRepository blobContentRepository;
+    private final OrphanBlobRepository orphanBlobRepository;
+    private final BlobStore blobStore;
+
+    @Value("${securevault.app.storage.reconcile.enabled:true}")
+    private boolean enabled;
+
+    // Số blob đối chiếu mỗi lần chạy
+    @Value("${securevault.app.storage.reconcile.batchSize:1000}")
+    private int batchSize;
+
+    // Blob mới hơn ngưỡng này không được coi là mồ côi
+    @Value("${securevault.app.storage.reconcile.minAgeHours:24}")
+    private long minAgeHours;
+
+    // Thời gian cách ly trước khi xóa blob mồ côi
+    @Value("${securevault.app.storage.reconcile.quarantineHours:168}")
+    private long quarantineHours;
+
+    // Nghỉ giữa hai lượt duyệt toàn bộ blob store
+    @Value("${securevault.app.storage.reconcile.passIntervalMs:86400000}")
+    private long passIntervalMs;
+
+    private Stream<StoredBlob> pass;
+    private Iterator<StoredBlob> cursor;
+    private volatile boolean supported = true;
+    private volatile long nextPassAt;
+    private volatile LocalDateTime passStartedAt;
+    private volatile LocalDateTime lastPassCompletedAt;
+    private volatile long blobsScanned;
+    private volatile long blobsQuarantined;
+    private volatile long blobsRestored;
+    private volatile long blobsReclaimed;
+    private volatile long bytesReclaimed;
+    private volatile long failures;
+
+    public BlobReconciliationService(FileRepository fileRepository,
+            BlobContentRepository blobContentRepository,
+            OrphanBlobRepository orphanBlobRepository,
+            BlobStore blobStore) {
+        this.fileRepository = fileRepository;
+        this.blobContentRepository = blobContentRepository;
+        this.orphanBlobRepository = orphanBlobRepository;
+        this.blobStore = blobStore;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("supported", supported);
+        status.put("running", passStartedAt != null);
+        status.put("passStartedAt", passStartedAt);
+        status.put("lastPassCompletedAt", lastPassCompletedAt);
+        status.put("blobsScanned", blobsScanned);
+        status.put("blobsQuarantined", blobsQuarantined);
+        status.put("blobsRestored", blobsRestored);
+        status.put("blobsReclaimed", blobsReclaimed);
+        status.put("bytesReclaimed", bytesReclaimed);
+        status.put("failures", failures);
+        status.put("quarantinedNow", orphanBlobRepository.countByStatus(OrphanStatus.QUARANTINED));
+        status.put("quarantinedBytes", orphanBlobRepository.sumSizeByStatus(OrphanStatus.QUARANTINED));
+        status.put("reclaimedBytesTotal", orphanBlobRepository.sumSizeByStatus(OrphanStatus.RECLAIMED));
+        return status;
+    }
+
+    /**
+     * Bắt đầu lượt đối chiếu mới ngay (nếu chưa có lượt nào đang chạy).
+     */
+    public void startPass() {
+        nextPassAt = 0;
+    }
+
+    @Scheduled(fixedDelayString = "${securevault.app.storage.reconcile.tickMs:10000}")
+    public synchronized void tick() {
+        if (!enabled) {
+            return;
+        }
+        reclaimExpired();
+        if (cursor == null) {
+            if (System.currentTimeMillis() < nextPassAt || !openPass()) {
+                return;
+            }
+        }
+        List<StoredBlob> batch = new ArrayList<>(batchSize);
+        try {
+            while (batch.size() < batchSize && cursor.hasNext()) {
+                batch.add(cursor.next());
+            }
+            checkBatch(batch);
+        } catch (Exception e) {
+            logger.warn("Reconcile: pass aborted: {}", e.getMessage());
+            failures++;
+            closePass();
+            return;
+        }
+        if (!cursor.hasNext()) {
+            logger.info("Reconcile: pass finished, {} blobs scanned, {} quarantined",
+                    blobsScanned, blobsQuarantined);
+            lastPassCompletedAt = LocalDateTime.now();
+            closePass();
+        }
+    }
+
+    private boolean openPass() {
+        try {
+            pass = blobStore.list();
+        } catch (UnsupportedOperationException e) {
+            supported = false;
+            nextPassAt = System.currentTimeMillis() + passIntervalMs;
+            return false;
+        } catch (Exception e) {
+            logger.warn("Reconcile: could not list blob store: {}", e.getMessage());
+            failures++;
+            nextPassAt = System.currentTimeMillis() + passIntervalMs;
+            return false;
+        }
+        cursor = pass.iterator();
+        passStartedAt = LocalDateTime.now();
+        blobsScanned = 0;
+        blobsQuarantined = 0;
+        logger.info("Reconcile: pass started");
+        return true;
+    }
+
+    private void closePass() {
+        try {
+            pass.close();
+        } catch (Exception e) {
+            logger.warn("Reconcile: could not close listing: {}", e.getMessage());
+        }
+        pass = null;
+        cursor = null;
+        passStartedAt = null;
+        nextPassAt = System.currentTimeMillis() + passIntervalMs;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (pass != null) {
+            closePass();
+        }
+    }
+
+    /** Cách ly các blob đủ cũ trong lô mà không dòng nào tham chiếu. */
+    private void checkBatch(List<StoredBlob> batch) {
+        blobsScanned += batch.size();
+        Instant cutoff = Instant.now().minus(minAgeHours, ChronoUnit.HOURS);
+        List<StoredBlob> candidates = batch.stream()
+                .filter(blob -> blob.modifiedAt().isBefore(cutoff))
+                .toList();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        Set<String> referenced = referencedPaths(candidates.stream().map(StoredBlob::key).toList());
+        Set<String> known = new HashSet<>(orphanBlobRepository.findBlobKeysIn(
+                candidates.stream().map(StoredBlob::key).distinct().toList()));
+        LocalDateTime now = LocalDateTime.now();
+        for (StoredBlob blob : candidates) {
+            if (known.contains(blob.key()) || isReferenced(blob.key(), referenced)) {
+                continue;
+            }
+            known.add(blob.key());
+            orphanBlobRepository.save(OrphanBlob.builder()
+                    .blobKey(blob.key())
+                    .size(blob.size())
+                    .status(OrphanStatus.QUARANTINED)
+                    .detectedAt(now)
+                    .reclaimAfter(now.plusHours(quarantineHours))
+                    .build());
+            blobsQuarantined++;
+        }
+    }
+
+    /** Xóa blob đã hết thời gian cách ly, sau khi kiểm tra lại tham chiếu. */
+    private void reclaimExpired() {
+        List<OrphanBlob> due = orphanBlobRepository.findByStatusAndReclaimAfterBeforeOrderByIdAsc(
+                OrphanStatus.QUARANTINED, LocalDateTime.now(), PageRequest.of(0, batchSize));
+        if (due.isEmpty()) {
+            return;
+        }
+        Set<String> referenced = referencedPaths(due.stream().map(OrphanBlob::getBlobKey).toList());
+        for (OrphanBlob orphan : due) {
+            try {
+                if (isReferenced(orphan.getBlobKey(), referenced)) {
+                    // Có dòng tham chiếu trở lại (vd. job khác trỏ lại khóa cũ): giữ blob
+                    orphanBlobRepository.delete(orphan);
+                    blobsRestored++;
+                    continue;
+                }
+                blobStore.delete(orphan.getBlobKey());
+                orphan.setStatus(OrphanStatus.RECLAIMED);
+                orphan.setReclaimedAt(LocalDateTime.now());
+                orphanBlobRepository.save(orphan);
+                blobsReclaimed++;
+                bytesReclaimed += orphan.getSize();
+            } catch (Exception e) {
+                logger.warn("Reconcile: could not reclaim {}: {}", orphan.getBlobKey(), e.getMessage());
+                failures++;
+            }
+        }
+    }
+
+    /** Các giá trị encryptedPath (trong số các cách ghi của các khóa) đang được tham chiếu. */
+    private Set<String> referencedPaths(List<String> keys) {
+        Set<String> paths = new HashSet<>();
+        for (String key : keys) {
+            paths.addAll(pathsFor(key));
+        }
+        Set<String> referenced = new HashSet<>(fileRepository.findEncryptedPathsIn(paths));
+        referenced.addAll(blobContentRepository.findEncryptedPathsIn(paths));
+        return referenced;
+    }
+
+    private boolean isReferenced(String key, Set<String> referenced) {
+        return pathsFor(key).stream().anyMatch(referenced::contains);
+    }
+
+    /**
+     * Các giá trị encryptedPath có thể trỏ tới blob: khóa của nó, và với blob
+     * nằm phẳng trong uploadDir, đường dẫn file mà các dòng cũ lưu.
+     */
+    private List<String> pathsFor(String key) {
+        if (key.indexOf('/') < 0 && blobStore instanceof LegacyPathBlobStore legacy) {
+            List<String> paths = new ArrayList<>(legacy.legacyPaths(key));
+            paths.add(0, key);
+            return paths;
+        }
+        return List.of(key);
+    }
+}
@@ -0,0 +1,303 @@
+package com.securevault.service;
+
+import com.securevault.entity.BlobScrubResult;
+import com.securevault.entity.FileDocument;
+import com.securevault.enums.ScrubStatus;
+import com.securevault.repository.BlobScrubResultRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.LegacyPathBlobStore;
+import com.securevault.storage.PackedBlobStore;
+import com.securevault.storage.RedundantBlobStore;
+import com.securevault.storage.TieredBlobStore;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+/**
+ * Kiểm tra toàn vẹn blob đã mã hóa ở nền (scrubbing).
+ *
+ * Mỗi lượt duyệt toàn bộ bảng files theo id (keyset pagination), giải mã và
+ * xác thực tag GCM của từng blob vào một output stream rỗng: bản rõ không
+ * được ghi ra đâu cả. Băng thông đọc bị giới hạn bởi mbPerSecond để không
+ * tranh chấp với request của người dùng. Kết quả được lưu vào bảng
+ * blob_scrub_results (một dòng mỗi blob, blob dùng chung chỉ kiểm tra một
+ * lần mỗi lượt); khi một lượt kết thúc, kết quả của blob không còn được
+ * dùng bị xóa.
+ *
+ * Với backend replicated / erasure, bản sao / shard bị thiếu được ghi lại
+ * trước khi kiểm tra.
+ */
+@Service
+public class BlobScrubService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobScrubService.class);
+
+    private final FileRepository fileRepository;
+    private final BlobScrubResultRepository scrubResultRepository;
+    private final FileStorageService fileStorageService;
+    private final EncryptionService encryptionService;
+    private final BlobStore blobStore;
+
+    @Value("${securevault.app.scrub.enabled:true}")
+    private boolean enabled;
+
+    // Giới hạn băng thông đọc blob (MB/giây)
+    @Value("${securevault.app.scrub.mbPerSecond:8}")
+    private double mbPerSecond;
+
+    // Số file xét mỗi lần chạy
+    @Value("${securevault.app.scrub.batchSize:20}")
+    private int batchSize;
+
+    // Nghỉ giữa hai lượt kiểm tra toàn bộ (mặc định 7 ngày)
+    @Value("${securevault.app.scrub.passIntervalMs:604800000}")
+    private long passIntervalMs;
+
+    private volatile Bucket byteBucket;
+    private volatile long lastFileId;
+    private volatile long nextPassAt;
+    private volatile LocalDateTime passStartedAt;
+    private volatile LocalDateTime lastPassCompletedAt;
+    private volatile long blobsChecked;
+    private volatile long bytesChecked;
+    private volatile long failuresFound;
+    private volatile long copiesRepaired;
+
+    public BlobScrubService(FileRepository fileRepository,
+            BlobScrubResultRepository scrubResultRepository,
+            FileStorageService fileStorageService,
+            EncryptionService encryptionService,
+            BlobStore blobStore) {
+        this.fileRepository = fileRepository;
+        this.scrubResultRepository = scrubResultRepository;
+        this.fileStorageService = fileStorageService;
+        this.encryptionService = encryptionService;
+        this.blobStore = blobStore;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("mbPerSecond", mbPerSecond);
+        status.put("running", passStartedAt != null);
+        status.put("passStartedAt", passStartedAt);
+        status.put("lastPassCompletedAt", lastPassCompletedAt);
+        status.put("lastFileId", lastFileId);
+        if (passStartedAt != null) {
+            long total = fileRepository.count();
+            long remaining = fileRepository.countByIdGreaterThan(lastFileId);
+            status.put("filesRemaining", remaining);
+            status.put("progressPercent", total == 0 ? 100.0 : Math.round(1000.0 * (total - remaining) / total) / 10.0);
+        }
+        status.put("blobsChecked", blobsChecked);
+        status.put("bytesChecked", bytesChecked);
+        status.put("failuresFound", failuresFound);
+        status.put("copiesRepaired", copiesRepaired);
+        Map<String, Long> byStatus = new LinkedHashMap<>();
+        for (ScrubStatus scrubStatus : ScrubStatus.values()) {
+            byStatus.put(scrubStatus.name(), scrubResultRepository.countByStatus(scrubStatus));
+        }
+        status.put("results", byStatus);
+        status.put("recentFailures", scrubResultRepository.findTop20ByStatusNotOrderByCheckedAtDesc(ScrubStatus.OK));
+        return status;
+    }
+
+    /**
+     * Bắt đầu lượt kiểm tra mới ngay (nếu chưa có lượt nào đang chạy).
+     */
+    public void startPass() {
+        nextPassAt = 0;
+    }
+
+    @Scheduled(fixedDelayString = "${securevault.app.scrub.tickMs:10000}")
+    public void tick() {
+        if (!enabled || System.currentTimeMillis() < nextPassAt) {
+            return;
+        }
+        if (passStartedAt == null) {
+            // Cắt về giây: cột checkedAt trong DB không lưu phần lẻ của giây
+            passStartedAt = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+            lastFileId = 0;
+            blobsChecked = 0;
+            bytesChecked = 0;
+            failuresFound = 0;
+            copiesRepaired = 0;
+            logger.info("Scrub: pass started");
+        }
+        List<FileDocument> files = fileRepository.findByIdGreaterThanOrderByIdAsc(lastFileId,
+                PageRequest.of(0, batchSize));
+        for (FileDocument file : files) {
+            lastFileId = file.getId();
+            Optional<BlobScrubResult> previous = scrubResultRepository.findByEncryptedPath(file.getEncryptedPath());
+            if (previous.isPresent() && !previous.get().getCheckedAt().isBefore(passStartedAt)) {
+                // Blob dùng chung đã kiểm tra trong lượt này
+                continue;
+            }
+            scrub(file, previous.orElse(null));
+        }
+        if (files.size() < batchSize) {
+            int dropped = scrubResultRepository.deleteCheckedBefore(passStartedAt);
+            logger.info("Scrub: pass finished, {} blobs ({} bytes) checked, {} failures, {} stale results dropped",
+                    blobsChecked, bytesChecked, failuresFound, dropped);
+            lastPassCompletedAt = LocalDateTime.now();
+            passStartedAt = null;
+            nextPassAt = System.currentTimeMillis() + passIntervalMs;
+        }
+    }
+
+    private void scrub(FileDocument file, BlobScrubResult previous) {
+        String key = file.getEncryptedPath();
+        BlobScrubResult result = previous != null
+                ? previous
+                : BlobScrubResult.builder().encryptedPath(key).build();
+        result.setFileId(file.getId());
+        result.setLastError(null);
+        try {
+            repairRedundancy(key);
+            long size = blobStore.size(key);
+            result.setBlobSize(size);
+            BlobStore view = new ThrottledView(blobStore, getByteBucket());
+            if (file.isClientEncrypted()) {
+                // Ciphertext của client: chỉ kiểm tra được là đọc hết được
+                try (InputStream in = view.get(key)) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            } else {
+                encryptionService.decryptRange(view, key, 0, Long.MAX_VALUE, OutputStream.nullOutputStream(),
+                        fileStorageService.fileKey(file), file.getEncryptionIv());
+            }
+            result.setStatus(ScrubStatus.OK);
+            bytesChecked += size;
+        } catch (NoSuchFileException e) {
+            result.setStatus(ScrubStatus.MISSING);
+        } catch (Exception e) {
+            result.setStatus(isCorruption(e) ? ScrubStatus.CORRUPT : ScrubStatus.UNREADABLE);
+            result.setLastError(truncate(e.getClass().getSimpleName() + ": " + e.getMessage()));
+        }
+        blobsChecked++;
+        if (result.getStatus() == ScrubStatus.OK) {
+            result.setFailingSince(null);
+        } else {
+            failuresFound++;
+            if (result.getFailingSince() == null) {
+                result.setFailingSince(LocalDateTime.now());
+            }
+            logger.warn("Scrub: blob {} of file id={} is {}", key, file.getId(), result.getStatus());
+        }
+        result.setCheckedAt(LocalDateTime.now());
+        try {
+            scrubResultRepository.save(result);
+        } catch (Exception e) {
+            logger.warn("Scrub: could not record result for {}: {}", key, e.getMessage());
+        }
+    }
+
+    /** Ghi lại bản sao / shard bị thiếu của blob nằm trên các volume. */
+    private void repairRedundancy(String key) {
+        Optional<RedundantBlobStore> redundant = blobStore.find(RedundantBlobStore.class);
+        if (redundant.isEmpty() || TieredBlobStore.isCold(key) || PackedBlobStore.entry(key).isPresent()
+                || blobStore instanceof LegacyPathBlobStore legacy && legacy.isLegacyPath(key)) {
+            return;
+        }
+        try {
+            int repaired = redundant.get().repair(key);
+            if (repaired > 0) {
+                logger.info("Scrub: restored {} copies of {}", repaired, key);
+                copiesRepaired += repaired;
+            }
+        } catch (IOException e) {
+            logger.warn("Scrub: could not repair {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static boolean isCorruption(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AEADBadTagException || cause instanceof ZipException
+                    || cause instanceof DataFormatException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String truncate(String message) {
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+
+    private Bucket getByteBucket() {
+        if (byteBucket == null) {
+            long bytesPerSecond = Math.max(1, (long) (mbPerSecond * 1024 * 1024));
+            Bandwidth limit = Bandwidth.builder()
+                    .capacity(bytesPerSecond)
+                    .refillGreedy(bytesPerSecond, Duration.ofSeconds(1))
+                    .build();
+            byteBucket = Bucket.builder().addLimit(limit).build();
+        }
+        return byteBucket;
+    }
+
+    /**
+     * Blob store chỉ đọc, giới hạn băng thông. Không lộ đường dẫn file cục bộ
+     * nên EncryptionService đọc blob tuần tự qua stream bị giới hạn, thay vì
+     * đọc song song trực tiếp từ file.
+     */
+    private record ThrottledView(BlobStore store, Bucket bucket) implements BlobStore {
+
+        @Override
+        public String put(String key, Path stagedFile) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        @Override
+        public String put(String key, byte[] content) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        @Override
+        public InputStream get(String key) throws IOException {
+            return new ThrottledInputStream(store.get(key), bucket, 64 * 1024);
+        }
+
+        @Override
+        public InputStream getRange(String key, long offset, long length) throws IOException {
+            return new ThrottledInputStream(store.getRange(key, offset, length), bucket, 64 * 1024);
+        }
+
+        @Override
+        public long size(String key) throws IOException {
+            return store.size(key);
+        }
+
+        @Override
+        public boolean exists(String key) throws IOException {
+            return store.exists(key);
+        }
+
+        @Override
+        public void delete(String key) {
+            throw new UnsupportedOperationException("read-only");
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.securevault.service;
+
+import com.securevault.crypto.DataKey;
+import com.securevault.crypto.SegmentedBlobFormat;
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.UploadSession;
+import com.securevault.entity.UploadSessionChunk;
+import com.securevault.repository.UploadSessionChunkRepository;
+import com.securevault.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Upload nhiều phần có thể tiếp tục: client tạo phiên, gửi các chunk đánh
+ * số theo thứ tự bất kỳ (có thể song song), hỏi chunk còn thiếu rồi hoàn tất.
+ *
+ * Chunk {@code i} chính là segment {@code i} của blob mã hóa
+ * ({@link SegmentedBlobFormat}, kích thước segment = chunkSize): chunk được
+ * mã hóa ngay khi nhận và ghi vào đúng vị trí của nó trong file blob của
+ * phiên. Khi hoàn tất, blob đã đầy đủ chỉ cần được chuyển vào blob store và
+ * lưu metadata; không giải mã hay mã hóa lại. Kích thước file được khai báo
+ * trước nên mỗi chunk biết mình có phải segment cuối hay không.
+ *
+ * Một chunk không bao giờ được mã hóa hai lần (cùng nonce với nội dung khác
+ * sẽ phá vỡ AES-GCM): dòng chunk được thêm vào DB trước khi mã hóa và khóa
+ * duy nhất (sessionId, chunkIndex) quyết định request nào được dùng nonce,
+ * kể cả sau khi khởi động lại hoặc trên instance khác. Gửi lại chunk đã ghi
+ * chỉ được xác nhận; chunk đã giữ chỗ nhưng chưa ghi xong (đang được ghi,
+ * hoặc bị gián đoạn giữa chừng) bị từ chối, và phiên có chunk bị gián đoạn
+ * phải được hủy và tạo lại.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private final UploadSessionRepository sessionRepository;
+    private final UploadSessionChunkRepository chunkRepository;
+    private final FileStorageService fileStorageService;
+    private final EncryptionService encryptionService;
+
+    // Cùng volume với thư mục upload để việc hoàn tất chỉ là đổi tên file
+    @Value("${securevault.app.chunkedUpload.dir:${securevault.app.uploadDir}/.uploads}")
+    private String uploadDir;
+
+    // Kích thước chunk (bytes), cũng là kích thước segment của blob
+    @Value("${securevault.app.chunkedUpload.chunkSize:4194304}")
+    private int chunkSize = 4 * 1024 * 1024;
+
+    // Phiên chưa hoàn tất bị xóa sau khoảng này (giờ)
+    @Value("${securevault.app.chunkedUpload.ttlHours:24}")
+    private long ttlHours = 24;
+
+    // Phiên đang hoàn tất, theo sessionId
+    private final Set<Long> finalizing = ConcurrentHashMap.newKeySet();
+
+    /** Trạng thái phiên không cho phép thao tác (409). */
+    public static class ConflictException extends RuntimeException {
+        public ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    public ChunkedUploadService(UploadSessionRepository sessionRepository,
+            UploadSessionChunkRepository chunkRepository, FileStorageService fileStorageService,
+            EncryptionService encryptionService) {
+        this.sessionRepository = sessionRepository;
+        this.chunkRepository = chunkRepository;
+        this.fileStorageService = fileStorageService;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Tạo phiên upload: kiểm tra thư mục đích, cấp data key và ghi header
+     * của blob.
+     */
+    public UploadSession createSession(String fileName, String contentType, long size, Long userId, Long folderId)
+            throws Exception {
+        String originalFileName = StringUtils.getFilename(StringUtils.cleanPath(fileName));
+        if (!StringUtils.hasText(originalFileName)) {
+            throw new RuntimeException("Tên file không hợp lệ");
+        }
+        if (size < 0) {
+            throw new RuntimeException("Kích thước file không hợp lệ");
+        }
+        long chunks = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (chunks > Integer.MAX_VALUE) {
+            throw new RuntimeException("File quá lớn");
+        }
+        fileStorageService.checkUploadTarget(userId, folderId);
+
+        DataKey dataKey = encryptionService.newDataKey();
+        LocalDateTime now = LocalDateTime.now();
+        UploadSession session = sessionRepository.save(UploadSession.builder()
+                .userId(userId)
+                .fileName(originalFileName)
+                .contentType(contentType)
+                .folderId(folderId)
+                .size(size)
+                .chunkSize(chunkSize)
+                .chunkCount((int) chunks)
+                .wrappedKey(dataKey.wrappedKey())
+                .keyId(dataKey.keyId())
+                .encryptionIv(encryptionService.generateIv())
+                .createdAt(now)
+                .expiresAt(now.plusHours(ttlHours))
+                .build());
+
+        try {
+            Files.createDirectories(uploadRoot());
+            Files.write(blobPath(session), format(session).header());
+        } catch (IOException e) {
+            sessionRepository.delete(session);
+            throw e;
+        }
+        return session;
+    }
+
+    public UploadSession getSession(Long sessionId, Long userId) {
+        return sessionRepository.findById(sessionId)
+                .filter(session -> session.getUserId().equals(userId))
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy phiên upload"));
+    }
+
+    /**
+     * Mã hóa chunk {@code index} thành segment tương ứng và ghi vào blob của
+     * phiên. Body phải có đúng độ dài của chunk.
+     *
+     * @return false nếu chunk đã được nhận trước đó (body bị bỏ qua)
+     * @throws ConflictException nếu chunk đã được giữ chỗ nhưng chưa ghi xong
+     */
+    public boolean writeChunk(UploadSession session, int index, InputStream body) throws Exception {
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk " + index + " nằm ngoài phạm vi 0.."
+                    + (session.getChunkCount() - 1));
+        }
+        if (isReceived(session, index)) {
+            return false;
+        }
+        if (finalizing.contains(session.getId())) {
+            throw new ConflictException("Phiên upload đang được hoàn tất");
+        }
+        int length = chunkLength(session, index);
+        byte[] plaintext = body.readNBytes(length);
+        if (plaintext.length != length || body.read() != -1) {
+            throw new IllegalArgumentException("Chunk " + index + " phải có đúng " + length + " bytes");
+        }
+
+        // Giữ chỗ bền vững trước khi dùng nonce của segment
+        UploadSessionChunk chunk;
+        try {
+            chunk = chunkRepository.saveAndFlush(UploadSessionChunk.builder()
+                    .sessionId(session.getId())
+                    .chunkIndex(index)
+                    .written(false)
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            if (isReceived(session, index)) {
+                return false;
+            }
+            throw e;
+        }
+
+        SegmentedBlobFormat format = format(session);
+        SecretKey key = encryptionService.resolveFileKey(session.getWrappedKey(), session.getKeyId());
+        byte[] segment = encryptionService.encryptSegment(format, key, session.getEncryptionIv(), index,
+                index == session.getChunkCount() - 1, plaintext, length);
+        try (FileChannel channel = FileChannel.open(blobPath(session), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(segment);
+            long position = format.segmentOffset(index);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            // Chunk chỉ được ghi nhận khi segment đã bền vững trên đĩa
+            channel.force(false);
+        }
+        chunk.setWritten(true);
+        chunkRepository.save(chunk);
+        return true;
+    }
+
+    /**
+     * Chunk đã được ghi xong; chunk đã giữ chỗ nhưng chưa ghi xong không thể
+     * gửi lại vì nonce của nó đã được dùng.
+     */
+    private boolean isReceived(UploadSession session, int index) {
+        Optional<UploadSessionChunk> chunk = chunkRepository.findBySessionIdAndChunkIndex(session.getId(), index);
+        if (chunk.isEmpty()) {
+            return false;
+        }
+        if (!chunk.get().isWritten()) {
+            throw new ConflictException("Chunk " + index
+                    + " đang được ghi hoặc bị gián đoạn; nếu lỗi kéo dài, hãy hủy và tạo lại phiên upload");
+        }
+        return true;
+    }
+
+    /** Các chunk chưa nhận, theo thứ tự tăng dần. */
+    public List<Integer> missingChunks(UploadSession session) {
+        BitSet received = new BitSet(session.getChunkCount());
+        for (int index : chunkRepository.findChunkIndexes(session.getId())) {
+            received.set(index);
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int index = received.nextClearBit(0); index < session.getChunkCount();
+                index = received.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        return missing;
+    }
+
+    /**
+     * Hoàn tất phiên: blob đã đủ các segment được chuyển vào blob store và
+     * lưu thành file; phiên bị xóa.
+     */
+    public FileDocument complete(UploadSession session) throws Exception {
+        if (!finalizing.add(session.getId())) {
+            throw new ConflictException("Phiên upload đang được hoàn tất");
+        }
+        try {
+            long received = chunkRepository.countBySessionIdAndWrittenTrue(session.getId());
+            if (received != session.getChunkCount()) {
+                throw new ConflictException("Còn thiếu " + (session.getChunkCount() - received) + " chunk");
+            }
+            Path blob = blobPath(session);
+            if (Files.size(blob) != format(session).blobLength(session.getSize())) {
+                throw new IllegalStateException("Blob của phiên upload " + session.getId() + " không đầy đủ");
+            }
+
+            FileDocument fileDocument = fileStorageService.storeEncryptedBlob(blob, session.getFileName(),
+                    session.getContentType(), session.getSize(), session.getWrappedKey(), session.getKeyId(),
+                    session.getEncryptionIv(), null, session.getUserId(), session.getFolderId());
+            remove(session);
+            logger.info("Completed chunked upload {} as file {} ({} chunks, {} bytes)", session.getId(),
+                    fileDocument.getId(), session.getChunkCount(), session.getSize());
+            return fileDocument;
+        } finally {
+            finalizing.remove(session.getId());
+        }
+    }
+
+    /** Hủy phiên và xóa blob dở dang. */
+    public void abort(UploadSession session) {
+        if (finalizing.contains(session.getId())) {
+            throw new ConflictException("Phiên upload đang được hoàn tất");
+        }
+        remove(session);
+    }
+
+    public Map<String, Object> toStatus(UploadSession session) {
+        List<Integer> missing = missingChunks(session);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", session.getId());
+        status.put("fileName", session.getFileName());
+        status.put("folderId", session.getFolderId());
+        status.put("size", session.getSize());
+        status.put("chunkSize", session.getChunkSize());
+        status.put("chunkCount", session.getChunkCount());
+        status.put("receivedChunks", session.getChunkCount() - missing.size());
+        status.put("missingChunks", missing);
+        status.put("expiresAt", session.getExpiresAt());
+        return status;
+    }
+
+    /**
+     * Xóa các phiên quá hạn cùng blob dở dang của chúng.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.chunkedUpload.expireMs:3600000}")
+    public void expireSessions() {
+        for (UploadSession session : sessionRepository.findByExpiresAtBefore(LocalDateTime.now())) {
+            if (!finalizing.contains(session.getId())) {
+                remove(session);
+                logger.info("Expired chunked upload {} ({})", session.getId(), session.getFileName());
+            }
+        }
+    }
+
+    private void remove(UploadSession session) {
+        try {
+            Files.deleteIfExists(blobPath(session));
+        } catch (IOException e) {
+            logger.warn("Failed to delete chunked upload blob {}", blobPath(session), e);
+        }
+        chunkRepository.deleteBySessionId(session.getId());
+        sessionRepository.delete(session);
+    }
+
+    private static SegmentedBlobFormat format(UploadSession session) {
+        return SegmentedBlobFormat.forSegmentSize(session.getChunkSize());
+    }
+
+    private static int chunkLength(UploadSession session, int index) {
+        long remaining = session.getSize() - (long) index * session.getChunkSize();
+        return (int) Math.min(remaining, session.getChunkSize());
+    }
+
+    private Path uploadRoot() {
+        return Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    private Path blobPath(UploadSession session) {
+        return uploadRoot().resolve(session.getId() + ".blob");
+    }
+}
@@ -0,0 +1,99 @@
+package com.securevault.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Quyết định có nén (Deflate) nội dung trước khi mã hóa hay không.
+ *
+ * Bỏ qua các định dạng vốn đã nén (ảnh jpeg/png, audio/video, zip, file
+ * Office dạng OOXML...) theo content type và phần mở rộng, rồi đo entropy
+ * của phần đầu file: dữ liệu đã nén hoặc ngẫu nhiên có entropy gần 8
+ * bit/byte và nén thêm chỉ tốn CPU.
+ */
+@Service
+public class CompressionPolicy {
+
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/avif", "image/heic", "image/heif",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar", "application/x-bzip2", "application/x-xz",
+            "application/zstd", "application/java-archive", "application/epub+zip",
+            "application/vnd.android.package-archive");
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "avif", "heic", "heif",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac", "mp4", "m4v", "mkv", "mov", "avi", "webm",
+            "zip", "gz", "tgz", "7z", "rar", "bz2", "xz", "zst", "jar", "apk", "epub",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp");
+
+    @Value("${securevault.app.compression.enabled:true}")
+    private boolean enabled = true;
+
+    // File nhỏ hơn ngưỡng này (bytes) không được nén; -1 = kích thước chưa biết
+    @Value("${securevault.app.compression.minSize:4096}")
+    private long minSize = 4096;
+
+    // Số byte đầu file dùng để đo entropy
+    @Value("${securevault.app.compression.probeSize:16384}")
+    private int probeSize = 16384;
+
+    // Entropy tối đa (bit/byte) của mẫu để vẫn nén
+    @Value("${securevault.app.compression.maxEntropy:7.5}")
+    private double maxEntropy = 7.5;
+
+    public int probeSize() {
+        return probeSize;
+    }
+
+    /**
+     * @param size   kích thước file, -1 nếu chưa biết (upload dạng stream)
+     * @param sample phần đầu nội dung, tối đa {@link #probeSize()} bytes
+     */
+    public boolean shouldCompress(String contentType, String fileName, long size, byte[] sample) {
+        if (!enabled || (size >= 0 && size < minSize) || sample.length == 0) {
+            return false;
+        }
+        return !isCompressedFormat(contentType, fileName) && entropy(sample) <= maxEntropy;
+    }
+
+    /**
+     * Định dạng vốn đã nén (theo content type hoặc phần mở rộng): nén thêm
+     * không giảm được kích thước.
+     */
+    public boolean isCompressedFormat(String contentType, String fileName) {
+        if (contentType != null) {
+            String type = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+            if (COMPRESSED_TYPES.contains(type) || type.startsWith("video/")
+                    || (type.startsWith("audio/") && !type.contains("wav"))
+                    || type.startsWith("application/vnd.openxmlformats-officedocument.")
+                    || type.startsWith("application/vnd.oasis.opendocument.")) {
+                return true;
+            }
+        }
+        if (fileName != null && fileName.lastIndexOf('.') >= 0) {
+            String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+            return COMPRESSED_EXTENSIONS.contains(extension);
+        }
+        return false;
+    }
+
+    /** Entropy Shannon của mẫu, tính bằng bit/byte (0..8). */
+    static double entropy(byte[] sample) {
+        int[] counts = new int[256];
+        for (byte b : sample) {
+            counts[b & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sample.length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+}
@@ -1,101 +1,659 @@
 package com.securevault.service;
 
+import com.securevault.crypto.CryptoEngine;
+import com.securevault.crypto.DataKey;
+import com.securevault.crypto.KeyCache;
+import com.securevault.crypto.ParallelSegmentedCipher;
+import com.securevault.crypto.SegmentedBlobFormat;
+import com.securevault.crypto.SegmentedCipher;
+import com.securevault.storage.BlobStore;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.SecureRandom;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 
 @Service
 public class EncryptionService {
 
-    private static final String ALGORITHM = "AES/GCM/NoPadding";
-    private static final int GCM_IV_LENGTH = 12; // 12 bytes for GCM (recommended)
-    private static final int GCM_TAG_LENGTH = 128; // 128 bits authentication tag
+    private static final String CONTENT_MAC_ALGORITHM = "HmacSHA256";
 
     @Value("${securevault.app.masterKey}")
     private String masterKeyStr;
 
+    // Previous master keys (comma-separated Base64), still accepted for
+    // decryption while the key rotation job moves data to masterKey
+    @Value("${securevault.app.retiredMasterKeys:}")
+    private String retiredMasterKeys = "";
+
+    // Plaintext bytes per segment for newly written blobs
+    @Value("${securevault.app.segmentSize:65536}")
+    private int segmentSize = SegmentedBlobFormat.DEFAULT_SEGMENT_SIZE;
+
+    // Size of the shared crypto pool (0 = number of CPU cores)
+    @Value("${securevault.app.cryptoThreads:0}")
+    private int cryptoThreads;
+
+    // Max segments of a single file processed concurrently, so one big file
+    // cannot starve other requests (1 disables parallel crypto)
+    @Value("${securevault.app.cryptoParallelismPerFile:4}")
+    private int cryptoParallelismPerFile = 4;
+
+    // Blobs smaller than this are decrypted on the calling thread
+    @Value("${securevault.app.parallelCryptoThreshold:8388608}")
+    private long parallelCryptoThreshold = 8L * 1024 * 1024;
+
+    // Segment buffers kept per pool (heap and direct) for reuse across requests
+    @Value("${securevault.app.bufferPoolSize:64}")
+    private int bufferPoolSize = 64;
+
+    // Read buffer for legacy single-stream blobs
+    @Value("${securevault.app.ioBufferSize:65536}")
+    private int ioBufferSize = 65536;
+
+    // Deflate level for blobs stored compressed (1 = fastest, 9 = smallest)
+    @Value("${securevault.app.compression.level:6}")
+    private int compressionLevel = 6;
+
+    // Unwrapped per-file data keys kept in memory, and for how long
+    @Value("${securevault.app.keyCacheSize:1024}")
+    private int keyCacheSize = 1024;
+
+    @Value("${securevault.app.keyCacheTtlSeconds:300}")
+    private long keyCacheTtlSeconds = 300;
+
+    private volatile ExecutorService cryptoExecutor;
+    private volatile CryptoEngine engine;
+    private volatile KeyCache keyCache;
+    private volatile Map<String, SecretKey> retiredKeys;
+    private volatile SecretKey contentMacKey;
+
     public void encryptFile(Path source, Path dest, String ivStr) throws Exception {
-        SecretKey key = getKey();
-        byte[] ivBytes = Base64.getDecoder().decode(ivStr);
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
+        encryptFile(source, dest, getKey(), ivStr);
+    }
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec);
+    public void encryptFile(Path source, Path dest, SecretKey key, String ivStr) throws Exception {
+        try (InputStream fis = Files.newInputStream(source)) {
+            encryptStream(fis, dest, key, ivStr);
+        }
+    }
 
-        try (InputStream fis = Files.newInputStream(source);
-                OutputStream fos = Files.newOutputStream(dest);
-                CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
+    /**
+     * Encrypts a plaintext stream straight into the destination blob, so the
+     * plaintext never has to be spooled to disk first. New blobs are written
+     * in the {@link SegmentedBlobFormat} layout. The caller owns the source
+     * stream.
+     *
+     * @return number of plaintext bytes consumed from the source
+     */
+    public long encryptStream(InputStream source, Path dest, String ivStr) throws Exception {
+        return encryptStream(source, dest, getKey(), ivStr);
+    }
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                cos.write(buffer, 0, bytesRead);
+    /**
+     * Same as {@link #encryptStream(InputStream, Path, String)} but under the
+     * given key, e.g. a per-file data key from {@link #newDataKey()}.
+     */
+    public long encryptStream(InputStream source, Path dest, SecretKey key, String ivStr) throws Exception {
+        return encryptStream(source, dest, key, ivStr, false);
+    }
+
+    /**
+     * Same as {@link #encryptStream(InputStream, Path, SecretKey, String)},
+     * optionally Deflate compressing the plaintext before it is encrypted
+     * (recorded in the blob header, see {@link SegmentedBlobFormat#FLAG_DEFLATE}).
+     *
+     * @return number of uncompressed plaintext bytes consumed from the source
+     */
+    public long encryptStream(InputStream source, Path dest, SecretKey key, String ivStr, boolean compress)
+            throws Exception {
+        SegmentedBlobFormat format = SegmentedBlobFormat.forSegmentSize(segmentSize,
+                compress ? SegmentedBlobFormat.FLAG_DEFLATE : 0);
+        CountingInputStream counting = new CountingInputStream(source);
+        Deflater deflater = compress ? new Deflater(compressionLevel) : null;
+        try (FileChannel channel = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            InputStream plaintext = compress ? new DeflaterInputStream(counting, deflater, ioBufferSize) : counting;
+            if (cryptoParallelismPerFile > 1) {
+                newParallelCipher(format, key, ivStr).encrypt(plaintext, channel);
+            } else {
+                newSegmentedCipher(format, key, ivStr).encrypt(plaintext, channel);
+            }
+            return counting.count();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
             }
         }
     }
 
+    /**
+     * One-shot encryption for small payloads that are already in memory.
+     * Produces the same blob layout as {@link #encryptStream}.
+     */
+    public byte[] encryptBytes(byte[] plaintext, String ivStr) throws Exception {
+        return encryptBytes(plaintext, getKey(), ivStr);
+    }
+
+    public byte[] encryptBytes(byte[] plaintext, SecretKey key, String ivStr) throws Exception {
+        return encryptBytes(plaintext, key, ivStr, false);
+    }
+
+    public byte[] encryptBytes(byte[] plaintext, SecretKey key, String ivStr, boolean compress) throws Exception {
+        if (compress) {
+            plaintext = deflate(plaintext);
+        }
+        SegmentedBlobFormat format = SegmentedBlobFormat.forSegmentSize(segmentSize,
+                compress ? SegmentedBlobFormat.FLAG_DEFLATE : 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) format.blobLength(plaintext.length));
+        newSegmentedCipher(format, key, ivStr).encrypt(new ByteArrayInputStream(plaintext), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
     public void decryptFile(Path source, Path dest, String ivStr) throws Exception {
-        SecretKey key = getKey();
-        byte[] ivBytes = Base64.getDecoder().decode(ivStr);
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
+        decryptFile(source, dest, getKey(), ivStr);
+    }
+
+    public void decryptFile(Path source, Path dest, SecretKey key, String ivStr) throws Exception {
+        try (OutputStream fos = Files.newOutputStream(dest)) {
+            decryptStream(source, fos, key, ivStr);
+        }
+    }
+
+    /**
+     * Decrypts a blob into an arbitrary output stream (e.g. the servlet
+     * response) without materialising the plaintext on disk. Both segmented
+     * and legacy single-stream blobs are supported. The caller owns the
+     * destination stream.
+     */
+    public void decryptStream(Path source, OutputStream dest, String ivStr) throws Exception {
+        decryptStream(source, dest, getKey(), ivStr);
+    }
+
+    public void decryptStream(Path source, OutputStream dest, SecretKey key, String ivStr) throws Exception {
+        decryptRange(source, 0, Long.MAX_VALUE, dest, key, ivStr);
+    }
+
+    /**
+     * Decrypts plaintext bytes {@code [offset, offset + length)} of a blob.
+     * For segmented blobs only the covering segments are read and
+     * authenticated, so the cost does not depend on where the range starts.
+     * Legacy single-stream blobs have to be decrypted from the beginning.
+     */
+    public void decryptRange(Path source, long offset, long length, OutputStream dest, String ivStr)
+            throws Exception {
+        decryptRange(source, offset, length, dest, getKey(), ivStr);
+    }
+
+    public void decryptRange(Path source, long offset, long length, OutputStream dest, SecretKey key,
+            String ivStr) throws Exception {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            Optional<SegmentedBlobFormat> format = SegmentedBlobFormat.parse(
+                    Channels.newInputStream(channel).readNBytes(SegmentedBlobFormat.HEADER_LENGTH));
+            if (format.isPresent() && format.get().compressed()) {
+                long blobLength = channel.size();
+                long plaintextLength = format.get().plaintextLength(blobLength);
+                inflateTo(dest, offset, length, inflating -> {
+                    if (cryptoParallelismPerFile > 1 && plaintextLength >= parallelCryptoThreshold) {
+                        newParallelCipher(format.get(), key, ivStr).decrypt(channel, blobLength, 0, plaintextLength,
+                                inflating);
+                    } else {
+                        newSegmentedCipher(format.get(), key, ivStr).decrypt(channel, blobLength, inflating);
+                    }
+                });
+                return;
+            }
+            if (format.isPresent()) {
+                long blobLength = channel.size();
+                long plaintextLength = format.get().plaintextLength(blobLength);
+                long rangeLength = Math.min(length, plaintextLength - offset);
+                if (cryptoParallelismPerFile > 1 && rangeLength >= parallelCryptoThreshold) {
+                    newParallelCipher(format.get(), key, ivStr).decrypt(channel, blobLength, offset, rangeLength, dest);
+                } else if (offset == 0 && length == Long.MAX_VALUE) {
+                    // Full read: authenticate every segment, including an empty last one
+                    newSegmentedCipher(format.get(), key, ivStr).decrypt(channel, blobLength, dest);
+                } else {
+                    SegmentedCipher cipher = newSegmentedCipher(format.get(), key, ivStr);
+                    channel.position(cipher.rangeStart(offset));
+                    cipher.decryptRange(channel, blobLength, offset, rangeLength, dest);
+                }
+                return;
+            }
+        }
+        OutputStream target = offset == 0 && length == Long.MAX_VALUE
+                ? dest
+                : new RangeOutputStream(dest, offset, length);
+        decryptLegacyStream(source, target, key, ivStr);
+    }
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, key, gcmSpec);
+    /**
+     * Decrypts plaintext bytes {@code [offset, offset + length)} of a blob
+     * kept in a {@link BlobStore}. Stores backed by local files take the
+     * {@link Path} route above (positional and parallel reads); other stores
+     * are read with ranged requests covering only the needed segments.
+     */
+    public void decryptRange(BlobStore store, String blobKey, long offset, long length, OutputStream dest,
+            SecretKey key, String ivStr) throws Exception {
+        Optional<Path> local = store.localPath(blobKey);
+        if (local.isPresent()) {
+            decryptRange(local.get(), offset, length, dest, key, ivStr);
+            return;
+        }
+        long blobLength = store.size(blobKey);
+        Optional<SegmentedBlobFormat> format;
+        try (InputStream header = store.getRange(blobKey, 0, SegmentedBlobFormat.HEADER_LENGTH)) {
+            format = SegmentedBlobFormat.parse(header.readNBytes(SegmentedBlobFormat.HEADER_LENGTH));
+        }
+        if (format.isPresent() && format.get().compressed()) {
+            SegmentedCipher cipher = newSegmentedCipher(format.get(), key, ivStr);
+            try (InputStream in = store.getRange(blobKey, SegmentedBlobFormat.HEADER_LENGTH,
+                    blobLength - SegmentedBlobFormat.HEADER_LENGTH)) {
+                inflateTo(dest, offset, length, inflating -> cipher.decrypt(Channels.newChannel(in), blobLength, inflating));
+            }
+            return;
+        }
+        if (format.isPresent()) {
+            SegmentedCipher cipher = newSegmentedCipher(format.get(), key, ivStr);
+            if (offset == 0 && length == Long.MAX_VALUE) {
+                try (InputStream in = store.getRange(blobKey, SegmentedBlobFormat.HEADER_LENGTH,
+                        blobLength - SegmentedBlobFormat.HEADER_LENGTH)) {
+                    cipher.decrypt(Channels.newChannel(in), blobLength, dest);
+                }
+                return;
+            }
+            long rangeLength = Math.min(length, format.get().plaintextLength(blobLength) - offset);
+            if (rangeLength <= 0) {
+                return;
+            }
+            long start = cipher.rangeStart(offset);
+            long end = Math.min(blobLength,
+                    format.get().segmentOffset((offset + rangeLength - 1) / format.get().segmentSize() + 1));
+            try (InputStream in = store.getRange(blobKey, start, end - start)) {
+                cipher.decryptRange(Channels.newChannel(in), blobLength, offset, rangeLength, dest);
+            }
+            return;
+        }
+        OutputStream target = offset == 0 && length == Long.MAX_VALUE
+                ? dest
+                : new RangeOutputStream(dest, offset, length);
+        try (InputStream in = store.get(blobKey)) {
+            decryptLegacyStream(in, target, key, ivStr);
+        }
+    }
+
+    /**
+     * Runs {@code decrypt} into an inflating stream and forwards plaintext
+     * bytes {@code [offset, offset + length)} to {@code dest}. Compressed
+     * offsets do not map to plaintext offsets, so a range is found by
+     * inflating from the start, as for legacy blobs.
+     */
+    private void inflateTo(OutputStream dest, long offset, long length, DecryptTarget decrypt) throws Exception {
+        OutputStream target = offset == 0 && length == Long.MAX_VALUE
+                ? dest
+                : new RangeOutputStream(dest, offset, length);
+        Inflater inflater = new Inflater();
+        try {
+            InflaterOutputStream inflating = new InflaterOutputStream(target, inflater, ioBufferSize);
+            decrypt.decryptInto(inflating);
+            inflating.finish();
+        } finally {
+            inflater.end();
+        }
+    }
 
-        try (InputStream fis = Files.newInputStream(source);
-                CipherInputStream cis = new CipherInputStream(fis, cipher);
-                OutputStream fos = Files.newOutputStream(dest)) {
+    private byte[] deflate(byte[] plaintext) {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(plaintext);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, plaintext.length / 2));
+            byte[] buffer = new byte[ioBufferSize];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @FunctionalInterface
+    private interface DecryptTarget {
+        void decryptInto(OutputStream out) throws Exception;
+    }
 
-            byte[] buffer = new byte[8192];
+    /**
+     * Decrypts a blob written as a single GCM stream over the whole file,
+     * the layout used before segmented blobs were introduced.
+     */
+    private void decryptLegacyStream(Path source, OutputStream dest, SecretKey key, String ivStr)
+            throws Exception {
+        try (InputStream fis = Files.newInputStream(source)) {
+            decryptLegacyStream(fis, dest, key, ivStr);
+        }
+    }
+
+    private void decryptLegacyStream(InputStream source, OutputStream dest, SecretKey key, String ivStr)
+            throws Exception {
+        byte[] ivBytes = Base64.getDecoder().decode(ivStr);
+        Cipher cipher = CryptoEngine.gcmDecryptor(key, ivBytes);
+
+        try (CipherInputStream cis = new CipherInputStream(source, cipher)) {
+
+            byte[] buffer = new byte[ioBufferSize];
             int bytesRead;
             while ((bytesRead = cis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+                dest.write(buffer, 0, bytesRead);
             }
         }
     }
 
+    /**
+     * Encrypts a single segment of a blob in {@code format}, for callers that
+     * assemble a blob out of order (e.g. resumable uploads, one chunk per
+     * segment). The caller writes the header and places the returned
+     * ciphertext at {@link SegmentedBlobFormat#segmentOffset}. A segment index
+     * must never be encrypted twice under the same key and IV.
+     */
+    public byte[] encryptSegment(SegmentedBlobFormat format, SecretKey key, String ivStr, long index, boolean last,
+            byte[] plaintext, int length) throws Exception {
+        byte[] ciphertext = new byte[length + SegmentedBlobFormat.TAG_LENGTH];
+        int written = newSegmentedCipher(format, key, ivStr).encryptSegment(index, last,
+                ByteBuffer.wrap(plaintext, 0, length), ByteBuffer.wrap(ciphertext));
+        return written == ciphertext.length ? ciphertext : Arrays.copyOf(ciphertext, written);
+    }
+
+    private SegmentedCipher newSegmentedCipher(SegmentedBlobFormat format, SecretKey key, String ivStr) {
+        CryptoEngine engine = getEngine();
+        return new SegmentedCipher(key, format, Base64.getDecoder().decode(ivStr),
+                engine.heapBuffers(), engine.directBuffers());
+    }
+
+    private ParallelSegmentedCipher newParallelCipher(SegmentedBlobFormat format, SecretKey key, String ivStr) {
+        CryptoEngine engine = getEngine();
+        return new ParallelSegmentedCipher(getCryptoExecutor(), key, format,
+                Base64.getDecoder().decode(ivStr), cryptoParallelismPerFile,
+                engine.heapBuffers(), engine.directBuffers());
+    }
+
+    /**
+     * Decoded master key, per-thread ciphers and buffer pools, built once on
+     * first use instead of on every call.
+     */
+    private CryptoEngine getEngine() {
+        CryptoEngine current = engine;
+        if (current == null) {
+            synchronized (this) {
+                current = engine;
+                if (current == null) {
+                    int bufferSize = SegmentedBlobFormat.forSegmentSize(segmentSize).encryptedSegmentSize();
+                    current = new CryptoEngine(Base64.getDecoder().decode(masterKeyStr), bufferSize, bufferPoolSize);
+                    engine = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Shared, bounded pool for segment crypto. Created lazily so the service
+     * can also be used outside a Spring context.
+     */
+    private ExecutorService getCryptoExecutor() {
+        ExecutorService executor = cryptoExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = cryptoExecutor;
+                if (executor == null) {
+                    int threads = cryptoThreads > 0 ? cryptoThreads : Runtime.getRuntime().availableProcessors();
+                    AtomicInteger counter = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "crypto-worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    cryptoExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService executor = cryptoExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
     public String generateIv() {
-        byte[] iv = new byte[GCM_IV_LENGTH]; // 12 bytes for GCM
-        new SecureRandom().nextBytes(iv);
-        return Base64.getEncoder().encodeToString(iv);
+        return Base64.getEncoder().encodeToString(CryptoEngine.newNonce()); // 12 bytes for GCM
     }
 
     private SecretKey getKey() {
-        byte[] decodedKey = Base64.getDecoder().decode(masterKeyStr);
-        return new SecretKeySpec(decodedKey, 0, decodedKey.length, "AES");
+        return getEngine().masterKey();
     }
 
-    public String encryptString(String attribute) {
+    /**
+     * Creates a fresh per-file data key and wraps it under the master key.
+     * Persist {@link DataKey#wrappedKey()} and {@link DataKey#keyId()} with
+     * the file; the plaintext key is only used for this upload.
+     */
+    public DataKey newDataKey() {
         try {
-            SecretKey key = getKey();
+            CryptoEngine engine = getEngine();
+            SecretKey key = CryptoEngine.newDataKey();
+            String wrapped = Base64.getEncoder().encodeToString(engine.wrapKey(key));
+            return new DataKey(key, wrapped, engine.keyId());
+        } catch (Exception e) {
+            throw new RuntimeException("Key wrapping failed", e);
+        }
+    }
 
-            // Generate random IV for GCM
-            byte[] ivBytes = new byte[GCM_IV_LENGTH];
-            new SecureRandom().nextBytes(ivBytes);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
+    /**
+     * Returns the key a file's blob was encrypted with. Files stored before
+     * envelope encryption have no wrapped key and use the master key
+     * directly. Unwrapped keys are served from a bounded, time-limited cache.
+     */
+    public SecretKey resolveFileKey(String wrappedKey, String keyId) {
+        if (wrappedKey == null) {
+            return getKey();
+        }
+        SecretKey kek = keyEncryptionKey(keyId);
+        return getKeyCache().get(wrappedKey, wrapped -> unwrap(kek, wrapped));
+    }
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec);
+    /**
+     * Key for a blob stored before envelope encryption, which was encrypted
+     * directly with whatever master key was current at upload time. While
+     * retired keys are configured the candidates are tried in turn against
+     * the blob's first authenticated chunk; the match is cached per blob.
+     */
+    public SecretKey resolveLegacyKey(Path blob, String ivStr) {
+        if (getRetiredKeys().isEmpty()) {
+            return getKey();
+        }
+        return getKeyCache().get("legacy:" + blob.toAbsolutePath(), cacheKey -> {
+            List<SecretKey> candidates = new ArrayList<>();
+            candidates.add(getKey());
+            candidates.addAll(getRetiredKeys().values());
+            for (SecretKey candidate : candidates) {
+                if (opensBlob(blob, candidate, ivStr)) {
+                    return candidate;
+                }
+            }
+            throw new RuntimeException("No configured master key opens " + blob.getFileName());
+        });
+    }
+
+    /**
+     * Re-wraps a file's data key under the current master key without
+     * touching the blob: O(metadata) instead of O(bytes).
+     */
+    public DataKey rewrapDataKey(String wrappedKey, String keyId) {
+        SecretKey key = resolveFileKey(wrappedKey, keyId);
+        try {
+            CryptoEngine engine = getEngine();
+            return new DataKey(key, Base64.getEncoder().encodeToString(engine.wrapKey(key)), engine.keyId());
+        } catch (Exception e) {
+            throw new RuntimeException("Key wrapping failed", e);
+        }
+    }
 
-            byte[] encrypted = cipher.doFinal(attribute.getBytes("UTF-8"));
+    public boolean isCurrentKeyId(String keyId) {
+        return getEngine().keyId().equals(keyId);
+    }
 
-            // Combine IV + Encrypted (GCM tag is appended automatically)
-            byte[] combined = new byte[ivBytes.length + encrypted.length];
-            System.arraycopy(ivBytes, 0, combined, 0, ivBytes.length);
-            System.arraycopy(encrypted, 0, combined, ivBytes.length, encrypted.length);
+    /**
+     * Keyed digest used to recognise duplicate content without storing a
+     * plain hash of the file. The key is derived from the master key, so
+     * content uploaded before a master-key rotation is not matched after it.
+     */
+    public Mac newContentMac() {
+        try {
+            SecretKey key = contentMacKey;
+            if (key == null) {
+                key = deriveMacKey("securevault-content-digest");
+                contentMacKey = key;
+            }
+            Mac mac = Mac.getInstance(CONTENT_MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Content digest unavailable", e);
+        }
+    }
 
+    /**
+     * HMAC-SHA256 key derived from the current master key for one purpose
+     * ({@code label}), so every instance sharing the master key derives the
+     * same key without storing it.
+     */
+    public SecretKey deriveMacKey(String label) {
+        try {
+            Mac derive = Mac.getInstance(CONTENT_MAC_ALGORITHM);
+            derive.init(new SecretKeySpec(getKey().getEncoded(), CONTENT_MAC_ALGORITHM));
+            return new SecretKeySpec(derive.doFinal(label.getBytes(StandardCharsets.UTF_8)), CONTENT_MAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Key derivation failed", e);
+        }
+    }
+
+    /** Id of the current master key, as stored with newly wrapped data keys. */
+    public String currentKeyId() {
+        return getEngine().keyId();
+    }
+
+    private SecretKey keyEncryptionKey(String keyId) {
+        if (keyId == null || isCurrentKeyId(keyId)) {
+            return getKey();
+        }
+        SecretKey retired = getRetiredKeys().get(keyId);
+        if (retired == null) {
+            throw new RuntimeException("Unknown key-encryption key " + keyId);
+        }
+        return retired;
+    }
+
+    private static SecretKey unwrap(SecretKey kek, String wrappedKey) {
+        try {
+            return new SecretKeySpec(CryptoEngine.open(kek, Base64.getDecoder().decode(wrappedKey)), "AES");
+        } catch (Exception e) {
+            throw new RuntimeException("Key unwrapping failed", e);
+        }
+    }
+
+    /**
+     * Whether {@code key} authenticates the start of the blob. Segmented
+     * blobs only need their first segment; legacy single-stream blobs have a
+     * single tag at the end and are read in full.
+     */
+    private boolean opensBlob(Path blob, SecretKey key, String ivStr) {
+        try {
+            if (Files.size(blob) <= ioBufferSize) {
+                // Small (possibly empty) blobs: authenticate everything
+                decryptStream(blob, OutputStream.nullOutputStream(), key, ivStr);
+            } else {
+                decryptRange(blob, 0, 1, OutputStream.nullOutputStream(), key, ivStr);
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Retired master keys by key id, decoded once. */
+    private Map<String, SecretKey> getRetiredKeys() {
+        Map<String, SecretKey> keys = retiredKeys;
+        if (keys == null) {
+            keys = new LinkedHashMap<>();
+            if (retiredMasterKeys != null) {
+                for (String encoded : retiredMasterKeys.split(",")) {
+                    if (!encoded.isBlank()) {
+                        byte[] raw = Base64.getDecoder().decode(encoded.trim());
+                        keys.put(CryptoEngine.keyId(raw), new SecretKeySpec(raw, "AES"));
+                    }
+                }
+            }
+            keys = Collections.unmodifiableMap(keys);
+            retiredKeys = keys;
+        }
+        return keys;
+    }
+
+    private KeyCache getKeyCache() {
+        KeyCache cache = keyCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = keyCache;
+                if (cache == null) {
+                    cache = new KeyCache(keyCacheSize, keyCacheTtlSeconds * 1000);
+                    keyCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public String encryptString(String attribute) {
+        try {
+            // IV + Encrypted (GCM tag is appended automatically)
+            byte[] combined = getEngine().seal(attribute.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(combined);
         } catch (Exception e) {
             throw new RuntimeException("Encryption failed", e);
@@ -103,25 +661,118 @@ public class EncryptionService {
     }
 
     public String decryptString(String dbData) {
+        try {
+            return new String(openString(dbData), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Re-encrypts a value produced by {@link #encryptString} under the
+     * current master key. Returns {@code null} if it already is.
+     */
+    public String reencryptString(String dbData) {
         try {
             byte[] combined = Base64.getDecoder().decode(dbData);
+            try {
+                getEngine().open(combined);
+                return null;
+            } catch (AEADBadTagException e) {
+                return encryptString(new String(openString(dbData), StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Re-encryption failed", e);
+        }
+    }
+
+    /** Opens a sealed column value with the current master key, then any retired one. */
+    private byte[] openString(String dbData) throws GeneralSecurityException {
+        byte[] combined = Base64.getDecoder().decode(dbData);
+        try {
+            return getEngine().open(combined);
+        } catch (AEADBadTagException e) {
+            for (SecretKey retired : getRetiredKeys().values()) {
+                try {
+                    return CryptoEngine.open(retired, combined);
+                } catch (AEADBadTagException ignored) {
+                    // Try the next retired key
+                }
+            }
+            throw e;
+        }
+    }
 
-            // Extract IV (12 bytes for GCM)
-            byte[] ivBytes = new byte[GCM_IV_LENGTH];
-            System.arraycopy(combined, 0, ivBytes, 0, GCM_IV_LENGTH);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
+    /**
+     * Forwards only the bytes that fall inside {@code [offset, offset + length)}
+     * of everything written to it.
+     */
+    private static final class RangeOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final long start;
+        private final long end;
+        private long position;
 
-            // Extract Encrypted data (includes GCM tag)
-            byte[] encrypted = new byte[combined.length - GCM_IV_LENGTH];
-            System.arraycopy(combined, GCM_IV_LENGTH, encrypted, 0, encrypted.length);
+        RangeOutputStream(OutputStream target, long offset, long length) {
+            this.target = target;
+            this.start = offset;
+            this.end = length > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + length;
+        }
 
-            SecretKey key = getKey();
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, key, gcmSpec);
+        @Override
+        public void write(int b) throws IOException {
+            if (position >= start && position < end) {
+                target.write(b);
+            }
+            position++;
+        }
 
-            return new String(cipher.doFinal(encrypted), "UTF-8");
-        } catch (Exception e) {
-            throw new RuntimeException("Decryption failed", e);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long from = Math.max(position, start);
+            long to = Math.min(position + len, end);
+            if (from < to) {
+                target.write(b, off + (int) (from - position), (int) (to - from));
+            }
+            position += len;
+        }
+    }
+
+    /** Counts the bytes read through it. */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 }
@@ -1,33 +1,63 @@
 package com.securevault.service;
 
+import com.securevault.crypto.DataKey;
+import com.securevault.crypto.MacInputStream;
+import com.securevault.dto.BatchUploadResultDTO;
 import com.securevault.dto.PendingFileDTO;
 import com.securevault.dto.SharedFileDTO;
+import com.securevault.entity.BlobContent;
 import com.securevault.entity.FileDocument;
 import com.securevault.entity.FileShare;
 import com.securevault.entity.User;
 import com.securevault.enums.FileStatus;
 import com.securevault.enums.Role;
+import com.securevault.repository.BlobContentRepository;
 import com.securevault.repository.FileRepository;
 import com.securevault.repository.FileShareRepository;
 import com.securevault.repository.FolderRepository;
 import com.securevault.repository.FolderShareRepository;
 import com.securevault.repository.UserRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.StagingArea;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -47,9 +77,30 @@ public class FileStorageService {
     private final EncryptionService encryptionService;
     private final EmailService emailService;
     private final FolderRepository folderRepository;
+    private final BlobContentRepository blobContentRepository;
+    private final BlobStore blobStore;
+    private final StagingArea stagingArea;
+    private final StorageTieringService storageTieringService;
+    private final CompressionPolicy compressionPolicy;
 
-    @Value("${securevault.app.uploadDir}")
-    private String uploadDir;
+    // Dùng chung blob cho các file có nội dung giống hệt nhau
+    @Value("${securevault.app.dedupEnabled:true}")
+    private boolean dedupEnabled;
+
+    // Ngưỡng (bytes) để mã hóa file upload hoàn toàn trong bộ nhớ
+    @Value("${securevault.app.inMemoryUploadThreshold:1048576}")
+    private long inMemoryUploadThreshold;
+
+    // Số file được mã hóa đồng thời khi upload nhiều file (dùng chung mọi request)
+    @Value("${securevault.app.batchUpload.workers:4}")
+    private int batchUploadWorkers = 4;
+
+    // Số file tối đa trong một lượt upload nhiều file
+    @Value("${securevault.app.batchUpload.maxFiles:1000}")
+    private int batchUploadMaxFiles = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile ExecutorService batchUploadExecutor;
 
     public FileStorageService(FileRepository fileRepository,
             UserRepository userRepository,
@@ -57,7 +108,13 @@ public class FileStorageService {
             FolderShareRepository folderShareRepository,
             EncryptionService encryptionService,
             EmailService emailService,
-            FolderRepository folderRepository) {
+            FolderRepository folderRepository,
+            BlobContentRepository blobContentRepository,
+            BlobStore blobStore,
+            StagingArea stagingArea,
+            StorageTieringService storageTieringService,
+            CompressionPolicy compressionPolicy,
+            JdbcTemplate jdbcTemplate) {
         this.fileRepository = fileRepository;
         this.userRepository = userRepository;
         this.fileShareRepository = fileShareRepository;
@@ -65,112 +122,307 @@ public class FileStorageService {
         this.encryptionService = encryptionService;
         this.emailService = emailService;
         this.folderRepository = folderRepository;
+        this.blobContentRepository = blobContentRepository;
+        this.blobStore = blobStore;
+        this.stagingArea = stagingArea;
+        this.storageTieringService = storageTieringService;
+        this.compressionPolicy = compressionPolicy;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
     /**
      * Lưu file mới với mã hóa AES-GCM.
      */
     public FileDocument storeFile(MultipartFile file, Long userId) throws Exception {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
+        return storeFileInFolder(file, userId, null);
+    }
 
+    /**
+     * Lưu file mới vào thư mục với mã hóa AES-GCM.
+     * Dữ liệu được mã hóa trực tiếp từ stream upload vào file đích, không ghi
+     * bản rõ ra đĩa.
+     */
+    public FileDocument storeFileInFolder(MultipartFile file, Long userId, Long folderId) throws Exception {
         String originalFileName = StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename()));
-        String fileExtension = extractFileExtension(originalFileName);
-        String storageFileName = UUID.randomUUID() + (fileExtension.isEmpty() ? "" : "." + fileExtension);
+        FileDocument fileDocument = newUpload(originalFileName, file.getContentType(), userId, folderId, false);
+        return saveUpload(writeMultipartContent(fileDocument, file));
+    }
 
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+    /**
+     * Lưu nhiều file vào thư mục trong một lượt. Người dùng và thư mục chỉ
+     * được kiểm tra một lần; digest và mã hóa chạy song song trên nhóm worker
+     * dùng chung, còn mọi thao tác DB (tra cứu/ghi nhận nội dung dedup và một
+     * JDBC batch insert metadata) chạy trên thread của request, trong cùng
+     * transaction này. File lỗi không làm hỏng cả lượt: kết quả trả về theo
+     * thứ tự các file gửi lên.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<BatchUploadResultDTO> storeFilesInFolder(List<MultipartFile> files, Long userId, Long folderId)
+            throws Exception {
+        if (files.size() > batchUploadMaxFiles) {
+            throw new RuntimeException("Tối đa " + batchUploadMaxFiles + " file trong một lượt upload");
+        }
+        UploadTarget target = resolveUploadTarget(userId, folderId, false);
+
+        List<BatchUpload> uploads = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            BatchUpload upload = new BatchUpload(file);
+            String originalFileName = StringUtils.getFilename(StringUtils.cleanPath(
+                    Objects.requireNonNullElse(file.getOriginalFilename(), "")));
+            if (StringUtils.hasText(originalFileName)) {
+                upload.document = newUpload(originalFileName, file.getContentType(), target);
+            } else {
+                upload.error = "Tên file không hợp lệ";
+            }
+            uploads.add(upload);
         }
 
-        Path filePath = uploadPath.resolve(storageFileName);
-        Path tempPath = uploadPath.resolve("temp_" + storageFileName);
-
-        // Lưu file tạm
-        Files.copy(file.getInputStream(), tempPath, StandardCopyOption.REPLACE_EXISTING);
-
-        // Mã hóa file
-        String iv = encryptionService.generateIv();
-        encryptionService.encryptFile(tempPath, filePath, iv);
-
-        // Xóa file tạm
-        Files.delete(tempPath);
+        // Transaction rollback (kể cả refCount đã tăng): xóa các blob vừa ghi
+        deleteOnRollback(uploads);
+        try {
+            // 1. Digest nội dung (worker)
+            if (dedupEnabled) {
+                for (BatchUpload upload : pending(uploads)) {
+                    upload.task = getBatchUploadExecutor().submit(() -> upload.digest = contentDigest(upload.file));
+                }
+                awaitAll(uploads);
+            }
 
-        // Xác định trạng thái dựa theo role
-        FileStatus status = (user.getRole() == Role.ROLE_STAFF) ? FileStatus.PENDING : FileStatus.APPROVED;
+            // 2. Dùng lại nội dung đã lưu; file trùng nội dung trong cùng lượt chờ file đầu tiên
+            Map<String, BatchUpload> firstByDigest = new HashMap<>();
+            List<BatchUpload> toEncrypt = new ArrayList<>();
+            for (BatchUpload upload : pending(uploads)) {
+                if (upload.digest != null) {
+                    if (firstByDigest.containsKey(upload.digest)) {
+                        continue;
+                    }
+                    Optional<FileDocument> existing = referenceContent(upload.digest);
+                    if (existing.isPresent()) {
+                        copyContent(existing.get(), upload.document);
+                        continue;
+                    }
+                    firstByDigest.put(upload.digest, upload);
+                }
+                toEncrypt.add(upload);
+            }
 
-        FileDocument fileDocument = FileDocument.builder()
-                .fileName(originalFileName)
-                .fileType(file.getContentType())
-                .size(file.getSize())
-                .encryptedPath(filePath.toString())
-                .owner(user)
-                .encryptionIv(iv)
-                .status(status)
-                .build();
+            // 3. Mã hóa vào blob store (worker, không truy cập DB)
+            for (BatchUpload upload : toEncrypt) {
+                upload.task = getBatchUploadExecutor().submit(() -> {
+                    upload.written = encryptContent(upload.document,
+                            (filePath, key, iv) -> new WrittenBlob(upload.file.getSize(), upload.digest,
+                                    writeEncryptedBlob(upload.file, filePath, key, iv)));
+                    upload.blobKey = upload.document.getEncryptedPath();
+                    return null;
+                });
+            }
+            awaitAll(toEncrypt);
+
+            // 4. Ghi nhận nội dung dedup theo thứ tự gửi lên
+            for (BatchUpload upload : pending(uploads)) {
+                if (upload.written != null) {
+                    if (upload.digest != null && !registerContent(upload.written, upload.blobKey, upload.document)) {
+                        blobStore.delete(upload.blobKey);
+                    }
+                } else if (upload.document.getEncryptedPath() == null) {
+                    // Trùng nội dung với một file trước trong lượt
+                    BatchUpload first = firstByDigest.get(upload.digest);
+                    if (first.error == null && first.document.getContentDigest() != null
+                            && blobContentRepository.incrementRefCount(upload.digest) > 0) {
+                        copyContent(first.document, upload.document);
+                    } else {
+                        try {
+                            writeMultipartContent(upload.document, upload.file);
+                        } catch (Exception e) {
+                            upload.fail(e);
+                        }
+                    }
+                }
+            }
 
-        FileDocument savedFile = fileRepository.save(fileDocument);
+            List<FileDocument> stored = pending(uploads).stream().map(upload -> upload.document).toList();
+            insertUploads(stored);
 
-        // Gửi email thông báo cho Manager khi file chờ duyệt
-        if (status == FileStatus.PENDING) {
-            notifyManagersAboutPendingFile(savedFile.getFileName(), user.getUsername());
+            if (target.status() == FileStatus.PENDING && !stored.isEmpty()) {
+                notifyManagersAboutPendingFile(stored.size() == 1 ? stored.get(0).getFileName()
+                        : stored.size() + " file (" + stored.get(0).getFileName() + ", ...)",
+                        target.user().getUsername());
+            }
+            return uploads.stream().map(BatchUpload::toResult).toList();
+        } finally {
+            // Request bị hủy giữa chừng: không mã hóa tiếp các file còn lại
+            for (BatchUpload upload : uploads) {
+                if (upload.task != null) {
+                    upload.task.cancel(true);
+                }
+            }
         }
-
-        return savedFile;
     }
 
     /**
-     * Lưu file mới vào thư mục với mã hóa AES-GCM.
+     * Trạng thái của một file trong lượt upload nhiều file. Worker chỉ ghi
+     * digest và blob đã mã hóa; metadata được hoàn tất trên thread của request.
      */
-    public FileDocument storeFileInFolder(MultipartFile file, Long userId, Long folderId) throws Exception {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
-
-        com.securevault.entity.Folder folder = null;
-        if (folderId != null) {
-            folder = folderRepository.findByIdAndOwner(folderId, user)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy thư mục"));
+    private static final class BatchUpload {
+        private final MultipartFile file;
+        private FileDocument document;
+        private volatile String digest;
+        private volatile WrittenBlob written;
+        // Khóa blob do lượt này ghi (chỉ có khi file được mã hóa ở bước 3)
+        private volatile String blobKey;
+        private Future<?> task;
+        private String error;
+
+        private BatchUpload(MultipartFile file) {
+            this.file = file;
         }
 
-        String originalFileName = StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename()));
-        String fileExtension = extractFileExtension(originalFileName);
-        String storageFileName = UUID.randomUUID() + (fileExtension.isEmpty() ? "" : "." + fileExtension);
+        private void fail(Throwable cause) {
+            logger.warn("Không thể lưu file {} trong lượt upload: {}", file.getOriginalFilename(), cause.getMessage());
+            error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        }
 
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+        private BatchUploadResultDTO toResult() {
+            if (error != null) {
+                return BatchUploadResultDTO.builder()
+                        .fileName(file.getOriginalFilename())
+                        .size(file.getSize())
+                        .error(error)
+                        .build();
+            }
+            return BatchUploadResultDTO.builder()
+                    .fileName(document.getFileName())
+                    .fileId(document.getId())
+                    .size(document.getSize())
+                    .status(document.getStatus().name())
+                    .build();
         }
+    }
 
-        Path filePath = uploadPath.resolve(storageFileName);
-        Path tempPath = uploadPath.resolve("temp_" + storageFileName);
+    private static List<BatchUpload> pending(List<BatchUpload> uploads) {
+        return uploads.stream().filter(upload -> upload.error == null).toList();
+    }
 
-        Files.copy(file.getInputStream(), tempPath, StandardCopyOption.REPLACE_EXISTING);
+    private static void awaitAll(List<BatchUpload> uploads) throws InterruptedException {
+        for (BatchUpload upload : uploads) {
+            if (upload.task == null) {
+                continue;
+            }
+            try {
+                upload.task.get();
+            } catch (ExecutionException e) {
+                upload.fail(e.getCause());
+            }
+            upload.task = null;
+        }
+    }
 
-        String iv = encryptionService.generateIv();
-        encryptionService.encryptFile(tempPath, filePath, iv);
+    /**
+     * Lưu file từ stream thô (body application/octet-stream) vào thư mục.
+     * Stream được mã hóa trực tiếp vào file đích với bộ nhớ cố định, kích
+     * thước file được tính khi đọc stream.
+     */
+    public FileDocument storeFileFromStream(InputStream inputStream, String fileName, String contentType,
+            Long userId, Long folderId) throws Exception {
+        String originalFileName = StringUtils.getFilename(StringUtils.cleanPath(fileName));
+        if (!StringUtils.hasText(originalFileName)) {
+            throw new RuntimeException("Tên file không hợp lệ");
+        }
 
-        Files.delete(tempPath);
+        // Stream chỉ đọc được một lần: digest được tính trong lúc mã hóa
+        return persistUpload(originalFileName, contentType, userId, folderId, null,
+                (filePath, key, iv) -> {
+                    try {
+                        InputStream in = new BufferedInputStream(inputStream, compressionPolicy.probeSize());
+                        boolean compress = compressionPolicy.shouldCompress(contentType, originalFileName, -1,
+                                peek(in, compressionPolicy.probeSize()));
+                        if (!dedupEnabled) {
+                            return new WrittenBlob(encryptionService.encryptStream(in, filePath, key, iv, compress),
+                                    null, null);
+                        }
+                        MacInputStream digesting = new MacInputStream(in, encryptionService.newContentMac());
+                        long size = encryptionService.encryptStream(digesting, filePath, key, iv, compress);
+                        return new WrittenBlob(size, HexFormat.of().formatHex(digesting.mac().doFinal()), null);
+                    } catch (Exception e) {
+                        Files.deleteIfExists(filePath);
+                        throw e;
+                    }
+                });
+    }
 
-        FileStatus status = (user.getRole() == Role.ROLE_STAFF) ? FileStatus.PENDING : FileStatus.APPROVED;
+    /**
+     * Lưu file có blob đã được mã hóa sẵn (ví dụ được ghép từ các chunk của
+     * phiên upload, hoặc file staging của upload bất đồng bộ) dưới data key
+     * đã bọc cho trước. Blob được chuyển nguyên vào blob store (đổi tên khi
+     * cùng volume), không giải mã hay mã hóa lại. Nếu có contentDigest (tính
+     * khi mã hóa) và nội dung đã được lưu, file dùng lại blob có sẵn và blob
+     * truyền vào không được dùng.
+     */
+    public FileDocument storeEncryptedBlob(Path encryptedBlob, String fileName, String contentType, long size,
+            String wrappedKey, String keyId, String iv, String contentDigest, Long userId, Long folderId)
+            throws Exception {
+        FileDocument fileDocument = newUpload(fileName, contentType, userId, folderId, false);
+        String digest = dedupEnabled ? contentDigest : null;
+        Optional<FileDocument> existing = digest != null ? referenceContent(digest) : Optional.empty();
+        if (existing.isPresent()) {
+            copyContent(existing.get(), fileDocument);
+            return saveUpload(fileDocument);
+        }
 
-        FileDocument fileDocument = FileDocument.builder()
-                .fileName(originalFileName)
-                .fileType(file.getContentType())
-                .size(file.getSize())
-                .encryptedPath(filePath.toString())
-                .owner(user)
-                .encryptionIv(iv)
-                .status(status)
-                .folder(folder)
-                .build();
+        String fileExtension = extractFileExtension(fileName);
+        String blobKey = UUID.randomUUID() + (fileExtension.isEmpty() ? "" : "." + fileExtension);
+        String storedKey = blobStore.put(blobKey, encryptedBlob);
+        fileDocument.setEncryptedPath(storedKey);
+        fileDocument.setSize(size);
+        fileDocument.setEncryptionIv(iv);
+        fileDocument.setWrappedKey(wrappedKey);
+        fileDocument.setKeyId(keyId);
+        if (digest != null && !registerContent(new WrittenBlob(size, digest, null), storedKey, fileDocument)) {
+            // Trùng nội dung được lưu đồng thời: blob vừa chuyển vào không được dùng
+            blobStore.delete(storedKey);
+        }
+        return saveUpload(fileDocument);
+    }
 
-        FileDocument savedFile = fileRepository.save(fileDocument);
+    /**
+     * Kiểm tra trước người dùng và thư mục đích của một upload sẽ được lưu
+     * sau (xem ChunkedUploadService).
+     */
+    void checkUploadTarget(Long userId, Long folderId) {
+        resolveUploadTarget(userId, folderId, false);
+    }
 
-        if (status == FileStatus.PENDING) {
-            notifyManagersAboutPendingFile(savedFile.getFileName(), user.getUsername());
+    /**
+     * Lưu file đã được client mã hóa vào thư mục ở chế độ clientEncrypted.
+     * Body là ciphertext của client và được ghi nguyên vào blob store: không
+     * mã hóa lại, không nén, không dedup. Metadata khóa của client được lưu
+     * kèm để trả lại khi tải.
+     */
+    public FileDocument storeClientEncryptedFile(InputStream inputStream, String fileName, String contentType,
+            String keyMetadata, Long userId, Long folderId) throws Exception {
+        String originalFileName = StringUtils.getFilename(StringUtils.cleanPath(fileName));
+        if (!StringUtils.hasText(originalFileName)) {
+            throw new RuntimeException("Tên file không hợp lệ");
+        }
+        if (!StringUtils.hasText(keyMetadata)) {
+            throw new RuntimeException("Thiếu metadata khóa của file mã hóa phía client");
+        }
+        if (folderId == null) {
+            throw new RuntimeException("File mã hóa phía client phải thuộc thư mục mã hóa phía client");
         }
 
-        return savedFile;
+        FileDocument fileDocument = newUpload(originalFileName, contentType, userId, folderId, true);
+        String fileExtension = extractFileExtension(originalFileName);
+        String blobKey = UUID.randomUUID() + (fileExtension.isEmpty() ? "" : "." + fileExtension);
+        Path stagedPath = stagingArea.newFile();
+        try {
+            fileDocument.setSize(Files.copy(inputStream, stagedPath));
+            fileDocument.setEncryptedPath(blobStore.put(blobKey, stagedPath));
+        } finally {
+            Files.deleteIfExists(stagedPath);
+        }
+        fileDocument.setClientKeyMetadata(keyMetadata);
+        return saveUpload(fileDocument);
     }
 
     /**
@@ -252,6 +504,13 @@ public class FileStorageService {
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy file với id " + fileId));
     }
 
+    /**
+     * Lấy thông tin file theo ID, rỗng nếu file không tồn tại.
+     */
+    public Optional<FileDocument> findFile(Long fileId) {
+        return fileRepository.findById(fileId);
+    }
+
     /**
      * Lấy danh sách file của người dùng.
      */
@@ -325,26 +584,72 @@ public class FileStorageService {
     }
 
     /**
-     * Giải mã file và trả về resource.
+     * Giải mã file và ghi trực tiếp vào output stream (ví dụ response HTTP),
+     * không tạo file tạm đã giải mã. Không giữ transaction trong lúc stream.
      */
-    public Resource loadDecryptedFileAsResource(Long fileId) throws Exception {
-        FileDocument fileDocument = getFile(fileId);
-        Path filePath = Paths.get(fileDocument.getEncryptedPath());
-
-        // Sanitize file name - extract only the base file name without path separators
-        String originalFileName = fileDocument.getFileName();
-        String sanitizedFileName = originalFileName.replace("/", "_").replace("\\", "_");
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void writeDecryptedFile(FileDocument fileDocument, OutputStream outputStream) throws Exception {
+        storageTieringService.recordRead(fileDocument);
+        if (fileDocument.isClientEncrypted()) {
+            writeBlobRange(fileDocument, 0, Long.MAX_VALUE, outputStream);
+            return;
+        }
+        encryptionService.decryptRange(blobStore, fileDocument.getEncryptedPath(), 0, Long.MAX_VALUE,
+                outputStream, fileKey(fileDocument), fileDocument.getEncryptionIv());
+    }
 
-        String tempFileName = "decrypted_" + UUID.randomUUID() + "_" + sanitizedFileName;
-        Path tempPath = Paths.get(uploadDir).resolve(tempFileName);
+    /**
+     * Giải mã một đoạn byte [offset, offset + length) của file và ghi vào
+     * output stream. Chỉ các segment chứa đoạn này được giải mã.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void writeDecryptedRange(FileDocument fileDocument, long offset, long length,
+            OutputStream outputStream) throws Exception {
+        storageTieringService.recordRead(fileDocument);
+        if (fileDocument.isClientEncrypted()) {
+            writeBlobRange(fileDocument, offset, length, outputStream);
+            return;
+        }
+        encryptionService.decryptRange(blobStore, fileDocument.getEncryptedPath(), offset, length, outputStream,
+                fileKey(fileDocument), fileDocument.getEncryptionIv());
+    }
 
-        encryptionService.decryptFile(filePath, tempPath, fileDocument.getEncryptionIv());
+    /**
+     * File blob của file mã hóa phía client nếu blob nằm trên đĩa cục bộ (để
+     * phục vụ bằng sendfile); rỗng với blob trong pack, S3 hoặc shard.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<Path> localClientEncryptedBlob(FileDocument fileDocument) {
+        if (!fileDocument.isClientEncrypted()) {
+            return Optional.empty();
+        }
+        Optional<Path> blob = blobStore.localPath(fileDocument.getEncryptedPath()).filter(Files::isRegularFile);
+        blob.ifPresent(path -> storageTieringService.recordRead(fileDocument));
+        return blob;
+    }
 
-        Resource resource = new UrlResource(tempPath.toUri());
-        if (resource.exists() || resource.isReadable()) {
-            return resource;
-        } else {
-            throw new RuntimeException("Không thể đọc file!");
+    /**
+     * Ghi nguyên các byte [offset, offset + length) của blob. Blob cục bộ được
+     * chuyển bằng FileChannel.transferTo, không qua bộ đệm của ứng dụng.
+     */
+    private void writeBlobRange(FileDocument fileDocument, long offset, long length, OutputStream outputStream)
+            throws IOException {
+        String key = fileDocument.getEncryptedPath();
+        Optional<Path> local = blobStore.localPath(key);
+        if (local.isPresent()) {
+            try (FileChannel channel = FileChannel.open(local.get(), StandardOpenOption.READ)) {
+                long end = length >= channel.size() - offset ? channel.size() : offset + length;
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                for (long position = offset; position < end; ) {
+                    position += channel.transferTo(position, end - position, target);
+                }
+            }
+            return;
+        }
+        try (InputStream in = length == Long.MAX_VALUE && offset == 0
+                ? blobStore.get(key)
+                : blobStore.getRange(key, offset, length)) {
+            in.transferTo(outputStream);
         }
     }
 
@@ -354,16 +659,419 @@ public class FileStorageService {
     public void deleteFile(Long fileId) throws Exception {
         FileDocument fileDocument = getFile(fileId);
 
-        Path filePath = Paths.get(fileDocument.getEncryptedPath());
-        if (Files.exists(filePath)) {
-            Files.delete(filePath);
-        }
-
         fileRepository.delete(fileDocument);
+        releaseContent(fileDocument);
+    }
+
+    /**
+     * Giải phóng blob của file đã (hoặc sắp) bị xóa khỏi DB. Blob dùng chung
+     * chỉ bị xóa khi không còn file nào tham chiếu; việc xóa trên đĩa được
+     * thực hiện sau khi transaction commit.
+     */
+    public void releaseContent(FileDocument fileDocument) {
+        String digest = fileDocument.getContentDigest();
+        if (digest != null) {
+            blobContentRepository.decrementRefCount(digest);
+            if (blobContentRepository.deleteIfUnreferenced(digest) == 0) {
+                return;
+            }
+        }
+        deleteAfterCommit(fileDocument.getEncryptedPath());
     }
 
     // ==================== Private Helper Methods ====================
 
+    /**
+     * Ghi nội dung đã mã hóa vào file tạm (staging), trả về kích thước bản rõ.
+     */
+    @FunctionalInterface
+    private interface BlobWriter {
+        WrittenBlob write(Path filePath, SecretKey key, String iv) throws Exception;
+    }
+
+    /**
+     * Kích thước bản rõ và digest nội dung (null nếu không tính) của blob vừa
+     * ghi. content khác null khi blob được mã hóa trong bộ nhớ (không ghi
+     * file tạm).
+     */
+    private record WrittenBlob(long size, String contentDigest, byte[] content) {
+    }
+
+    /**
+     * Khóa dữ liệu của file (giải bọc từ wrappedKey, có cache); file cũ chưa
+     * có wrappedKey dùng trực tiếp master key (hiện tại hoặc đã nghỉ).
+     */
+    SecretKey fileKey(FileDocument fileDocument) {
+        if (fileDocument.getWrappedKey() == null) {
+            Optional<Path> blob = blobStore.localPath(fileDocument.getEncryptedPath());
+            if (blob.isPresent()) {
+                return encryptionService.resolveLegacyKey(blob.get(), fileDocument.getEncryptionIv());
+            }
+        }
+        return encryptionService.resolveFileKey(fileDocument.getWrappedKey(), fileDocument.getKeyId());
+    }
+
+    /**
+     * Phần chung của các luồng upload: kiểm tra người dùng và thư mục, mã hóa
+     * nội dung, lưu metadata và thông báo cho Manager.
+     */
+    private FileDocument persistUpload(String originalFileName, String contentType, Long userId, Long folderId,
+            String knownDigest, BlobWriter blobWriter) throws Exception {
+        FileDocument fileDocument = newUpload(originalFileName, contentType, userId, folderId, false);
+        return saveUpload(writeContent(fileDocument, knownDigest, blobWriter));
+    }
+
+    /**
+     * Mã hóa nội dung file multipart (file nhỏ xử lý hoàn toàn trong bộ nhớ)
+     * vào metadata chưa lưu.
+     */
+    private FileDocument writeMultipartContent(FileDocument fileDocument, MultipartFile file) throws Exception {
+        // File multipart đọc lại được: tính digest trước để bỏ qua mã hóa nếu trùng nội dung
+        String contentDigest = dedupEnabled ? contentDigest(file) : null;
+        return writeContent(fileDocument, contentDigest,
+                (filePath, key, iv) -> new WrittenBlob(file.getSize(), contentDigest,
+                        writeEncryptedBlob(file, filePath, key, iv)));
+    }
+
+    /**
+     * Mã hóa nội dung vào blob store (hoặc dùng lại blob cùng nội dung) và
+     * ghi thông tin blob vào metadata; chưa lưu metadata.
+     */
+    private FileDocument writeContent(FileDocument fileDocument, String knownDigest, BlobWriter blobWriter)
+            throws Exception {
+        String originalFileName = fileDocument.getFileName();
+        Optional<FileDocument> existing = knownDigest != null ? referenceContent(knownDigest) : Optional.empty();
+        if (existing.isPresent()) {
+            // Nội dung đã có: chỉ tạo metadata, không mã hóa/ghi lại
+            copyContent(existing.get(), fileDocument);
+        } else {
+            WrittenBlob written = encryptContent(fileDocument, blobWriter);
+            String storedKey = fileDocument.getEncryptedPath();
+            if (written.contentDigest() != null && !registerContent(written, storedKey, fileDocument)) {
+                // Trùng nội dung đã lưu: blob vừa ghi không được dùng
+                blobStore.delete(storedKey);
+            }
+        }
+
+        return fileDocument;
+    }
+
+    /**
+     * Mã hóa nội dung dưới data key mới vào blob store và ghi thông tin blob
+     * vào metadata; không truy cập DB nên chạy được trên worker.
+     */
+    private WrittenBlob encryptContent(FileDocument fileDocument, BlobWriter blobWriter) throws Exception {
+        String fileExtension = extractFileExtension(fileDocument.getFileName());
+        String blobKey = UUID.randomUUID() + (fileExtension.isEmpty() ? "" : "." + fileExtension);
+
+        // Mã hóa vào file tạm (hoặc bộ nhớ) rồi mới đưa vào blob store
+        Path stagedPath = stagingArea.newFile();
+        try {
+            // Mỗi file có khóa dữ liệu riêng, được bọc bởi master key
+            DataKey dataKey = encryptionService.newDataKey();
+            String iv = encryptionService.generateIv();
+            WrittenBlob written = blobWriter.write(stagedPath, dataKey.key(), iv);
+
+            // Store có thể đặt khóa riêng (ví dụ blob nhỏ trong pack file)
+            String storedKey = written.content() != null
+                    ? blobStore.put(blobKey, written.content())
+                    : blobStore.put(blobKey, stagedPath);
+
+            fileDocument.setSize(written.size());
+            fileDocument.setEncryptedPath(storedKey);
+            fileDocument.setEncryptionIv(iv);
+            fileDocument.setWrappedKey(dataKey.wrappedKey());
+            fileDocument.setKeyId(dataKey.keyId());
+            return written;
+        } finally {
+            Files.deleteIfExists(stagedPath);
+        }
+    }
+
+    /**
+     * Metadata của file đang upload: kiểm tra người dùng, thư mục và chế độ
+     * mã hóa của thư mục.
+     */
+    private FileDocument newUpload(String originalFileName, String contentType, Long userId, Long folderId,
+            boolean clientEncrypted) {
+        return newUpload(originalFileName, contentType, resolveUploadTarget(userId, folderId, clientEncrypted));
+    }
+
+    /**
+     * Người dùng, thư mục đích và trạng thái duyệt của file sắp upload.
+     */
+    private record UploadTarget(User user, com.securevault.entity.Folder folder, FileStatus status,
+            boolean clientEncrypted) {
+    }
+
+    private UploadTarget resolveUploadTarget(Long userId, Long folderId, boolean clientEncrypted) {
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
+
+        com.securevault.entity.Folder folder = null;
+        if (folderId != null) {
+            folder = folderRepository.findByIdAndOwner(folderId, user)
+                    .orElseThrow(() -> new RuntimeException("Không tìm thấy thư mục"));
+        }
+        if ((folder != null && folder.isClientEncrypted()) != clientEncrypted) {
+            throw new RuntimeException(clientEncrypted
+                    ? "Thư mục không ở chế độ mã hóa phía client"
+                    : "Thư mục chỉ nhận file đã mã hóa phía client");
+        }
+
+        // Xác định trạng thái dựa theo role
+        FileStatus status = (user.getRole() == Role.ROLE_STAFF) ? FileStatus.PENDING : FileStatus.APPROVED;
+        return new UploadTarget(user, folder, status, clientEncrypted);
+    }
+
+    private static FileDocument newUpload(String originalFileName, String contentType, UploadTarget target) {
+        return FileDocument.builder()
+                .fileName(originalFileName)
+                .fileType(contentType)
+                .owner(target.user())
+                .status(target.status())
+                .folder(target.folder())
+                .clientEncrypted(target.clientEncrypted())
+                .build();
+    }
+
+    private FileDocument saveUpload(FileDocument fileDocument) {
+        FileDocument savedFile = fileRepository.save(fileDocument);
+
+        // Gửi email thông báo cho Manager khi file chờ duyệt
+        if (savedFile.getStatus() == FileStatus.PENDING) {
+            notifyManagersAboutPendingFile(savedFile.getFileName(), savedFile.getOwner().getUsername());
+        }
+
+        return savedFile;
+    }
+
+    /**
+     * Ghi metadata của các file vừa mã hóa bằng một JDBC batch insert (không
+     * qua persistence context) và gán id được sinh cho từng file.
+     */
+    private void insertUploads(List<FileDocument> fileDocuments) {
+        if (fileDocuments.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(
+                "INSERT INTO files (file_name, file_type, size, encrypted_path, user_id, uploaded_at, encryption_iv, "
+                        + "wrapped_key, key_id, content_digest, client_encrypted, read_count, status, folder_id) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS), new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        FileDocument file = fileDocuments.get(i);
+                        file.setUploadedAt(now);
+                        ps.setString(1, file.getFileName());
+                        ps.setString(2, file.getFileType());
+                        ps.setLong(3, file.getSize());
+                        ps.setString(4, file.getEncryptedPath());
+                        ps.setLong(5, file.getOwner().getId());
+                        ps.setTimestamp(6, Timestamp.valueOf(now));
+                        ps.setString(7, file.getEncryptionIv());
+                        ps.setString(8, file.getWrappedKey());
+                        ps.setString(9, file.getKeyId());
+                        ps.setString(10, file.getContentDigest());
+                        ps.setBoolean(11, file.isClientEncrypted());
+                        ps.setString(12, file.getStatus().name());
+                        if (file.getFolder() != null) {
+                            ps.setLong(13, file.getFolder().getId());
+                        } else {
+                            ps.setNull(13, Types.BIGINT);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return fileDocuments.size();
+                    }
+                }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < fileDocuments.size(); i++) {
+            fileDocuments.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+        }
+    }
+
+    private ExecutorService getBatchUploadExecutor() {
+        ExecutorService executor = batchUploadExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = batchUploadExecutor;
+                if (executor == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(Math.max(1, batchUploadWorkers), runnable -> {
+                        Thread thread = new Thread(runnable, "batch-upload-worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    batchUploadExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService executor = batchUploadExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Mã hóa nội dung upload. File nhỏ hơn ngưỡng được mã hóa trong bộ nhớ
+     * và trả về blob đã mã hóa; file lớn được mã hóa trực tiếp từ stream của
+     * request vào file đích (trả về null). Nếu lỗi, file đích dở dang sẽ bị xóa.
+     */
+    private byte[] writeEncryptedBlob(MultipartFile file, Path filePath, SecretKey key, String iv) throws Exception {
+        try {
+            if (file.getSize() <= inMemoryUploadThreshold) {
+                byte[] plaintext = file.getBytes();
+                boolean compress = compressionPolicy.shouldCompress(file.getContentType(), file.getOriginalFilename(),
+                        file.getSize(), Arrays.copyOf(plaintext, Math.min(plaintext.length, compressionPolicy.probeSize())));
+                return encryptionService.encryptBytes(plaintext, key, iv, compress);
+            }
+            try (InputStream in = new BufferedInputStream(file.getInputStream(), compressionPolicy.probeSize())) {
+                boolean compress = compressionPolicy.shouldCompress(file.getContentType(), file.getOriginalFilename(),
+                        file.getSize(), peek(in, compressionPolicy.probeSize()));
+                encryptionService.encryptStream(in, filePath, key, iv, compress);
+            }
+            return null;
+        } catch (Exception e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+    }
+
+    /**
+     * Đọc trước tối đa {@code length} bytes đầu stream mà không tiêu thụ chúng.
+     */
+    private static byte[] peek(InputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] sample = in.readNBytes(length);
+        in.reset();
+        return sample;
+    }
+
+    /**
+     * Tăng refCount của nội dung đã lưu và trả về một file đang dùng blob đó
+     * (để sao chép đường dẫn, IV và khóa), hoặc rỗng nếu nội dung chưa có.
+     */
+    private Optional<FileDocument> referenceContent(String digest) {
+        if (blobContentRepository.incrementRefCount(digest) == 0) {
+            return Optional.empty();
+        }
+        Optional<FileDocument> template = fileRepository.findFirstByContentDigest(digest);
+        if (template.isEmpty()) {
+            // File tham chiếu chưa commit: bỏ qua, lưu như nội dung mới
+            blobContentRepository.decrementRefCount(digest);
+        }
+        return template;
+    }
+
+    /**
+     * Ghi nhận blob vừa mã hóa vào kho nội dung. Nếu cùng nội dung đã được
+     * lưu (upload dạng stream, hoặc upload trùng đồng thời), file dùng lại
+     * blob có sẵn và blob vừa ghi bị bỏ.
+     *
+     * @return true nếu file dùng blob vừa ghi, false nếu dùng lại blob có sẵn
+     */
+    private boolean registerContent(WrittenBlob written, String blobKey, FileDocument fileDocument) {
+        String digest = written.contentDigest();
+        blobContentRepository.insertOrReference(digest, blobKey, written.size());
+        BlobContent content = blobContentRepository.findByDigest(digest).orElseThrow();
+        if (content.getEncryptedPath().equals(blobKey)) {
+            fileDocument.setContentDigest(digest);
+            return true;
+        }
+        Optional<FileDocument> template = fileRepository.findFirstByContentDigest(digest);
+        if (template.isPresent()) {
+            copyContent(template.get(), fileDocument);
+            return false;
+        }
+        // Không tìm được file mẫu: giữ blob riêng, không dùng chung
+        blobContentRepository.decrementRefCount(digest);
+        return true;
+    }
+
+    private void copyContent(FileDocument source, FileDocument target) {
+        target.setSize(source.getSize());
+        target.setEncryptedPath(source.getEncryptedPath());
+        target.setEncryptionIv(source.getEncryptionIv());
+        target.setWrappedKey(source.getWrappedKey());
+        target.setKeyId(source.getKeyId());
+        target.setContentDigest(source.getContentDigest());
+    }
+
+    private String contentDigest(MultipartFile file) throws Exception {
+        Mac mac = encryptionService.newContentMac();
+        if (file.getSize() <= inMemoryUploadThreshold) {
+            return HexFormat.of().formatHex(mac.doFinal(file.getBytes()));
+        }
+        try (InputStream in = new MacInputStream(file.getInputStream(), mac)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(mac.doFinal());
+    }
+
+    /**
+     * Xóa blob khỏi blob store sau khi transaction commit, để rollback không
+     * để lại metadata trỏ tới blob đã mất.
+     */
+    private void deleteAfterCommit(String blobKey) {
+        Runnable delete = () -> {
+            try {
+                blobStore.delete(blobKey);
+            } catch (Exception e) {
+                logger.warn("Không thể xóa blob {}: {}", blobKey, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    delete.run();
+                }
+            });
+        } else {
+            delete.run();
+        }
+    }
+
+    /**
+     * Xóa các blob do lượt upload nhiều file ghi nếu transaction rollback
+     * (metadata và refCount của chúng không được lưu).
+     */
+    private void deleteOnRollback(List<BatchUpload> uploads) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                for (BatchUpload upload : uploads) {
+                    String blobKey = upload.blobKey;
+                    if (blobKey == null) {
+                        continue;
+                    }
+                    try {
+                        blobStore.delete(blobKey);
+                    } catch (Exception e) {
+                        logger.warn("Không thể xóa blob {}: {}", blobKey, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
     private String extractFileExtension(String fileName) {
         int lastDot = fileName.lastIndexOf('.');
         return lastDot > 0 ? fileName.substring(lastDot + 1) : "";
@@ -0,0 +1,359 @@
+package com.securevault.service;
+
+import com.securevault.crypto.DataKey;
+import com.securevault.entity.FolderArchive;
+import com.securevault.enums.ArchiveStatus;
+import com.securevault.repository.FolderArchiveRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tạo file ZIP của thư mục ở nền và giữ archive đã tạo trong cache.
+ *
+ * Client gửi yêu cầu, nhận id job, hỏi trạng thái rồi tải archive khi
+ * READY; request thread không bị giữ trong lúc giải mã hàng nghìn file.
+ * Archive được ghi qua {@link FolderZipService} và mã hóa thẳng vào thư mục
+ * cache (bản rõ không ra đĩa) bằng một data key riêng.
+ *
+ * Archive được nhận diện bởi folderId + contentVersion (băm danh sách entry),
+ * nên tải lại thư mục chưa thay đổi chỉ còn là giải mã archive có sẵn.
+ * Archive không được tải trong ttlMinutes bị xóa; khi tổng dung lượng cache
+ * vượt maxCacheMb, archive lâu không dùng nhất bị xóa trước.
+ */
+@Service
+public class FolderArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderArchiveService.class);
+
+    private static final List<ArchiveStatus> ACTIVE = List.of(ArchiveStatus.PENDING, ArchiveStatus.BUILDING);
+    private static final List<ArchiveStatus> REUSABLE = List.of(ArchiveStatus.PENDING, ArchiveStatus.BUILDING,
+            ArchiveStatus.READY);
+
+    private static final int PIPE_SIZE = 1024 * 1024;
+
+    private final FolderArchiveRepository archiveRepository;
+    private final FolderZipService folderZipService;
+    private final EncryptionService encryptionService;
+
+    @Value("${securevault.app.archive.cacheDir:${securevault.app.uploadDir}/.archives}")
+    private String cacheDir;
+
+    // Số archive được tạo đồng thời
+    @Value("${securevault.app.archive.concurrentJobs:2}")
+    private int concurrentJobs;
+
+    // Archive không được tải trong khoảng này bị xóa khỏi cache (mặc định 1 ngày)
+    @Value("${securevault.app.archive.ttlMinutes:1440}")
+    private long ttlMinutes;
+
+    // Tổng dung lượng tối đa của cache (MB)
+    @Value("${securevault.app.archive.maxCacheMb:2048}")
+    private long maxCacheMb;
+
+    private volatile ExecutorService jobExecutor;
+    private volatile ExecutorService encryptExecutor;
+
+    public FolderArchiveService(FolderArchiveRepository archiveRepository, FolderZipService folderZipService,
+            EncryptionService encryptionService) {
+        this.archiveRepository = archiveRepository;
+        this.folderZipService = folderZipService;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Job dở dang của lần chạy trước không còn worker nào xử lý: đánh dấu
+     * FAILED để client gửi lại, và xóa file tạm của chúng.
+     */
+    @PostConstruct
+    public void abandonInterruptedJobs() {
+        for (FolderArchive archive : archiveRepository.findByStatusIn(ACTIVE)) {
+            archive.setStatus(ArchiveStatus.FAILED);
+            archive.setLastError("Interrupted by restart");
+            archiveRepository.save(archive);
+        }
+        try (Stream<Path> files = Files.list(cacheRoot())) {
+            files.filter(file -> file.getFileName().toString().endsWith(".part")).forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            // Thư mục cache chưa tồn tại
+        }
+    }
+
+    /**
+     * Trả về archive của thư mục với nội dung hiện tại: archive có sẵn (đã
+     * xong hoặc đang tạo) nếu nội dung chưa đổi, nếu không thì tạo job mới.
+     */
+    public synchronized FolderArchive submit(Long folderId, String folderName,
+            List<FolderZipService.Entry> entries) {
+        String version = contentVersion(entries);
+        Optional<FolderArchive> existing = archiveRepository
+                .findFirstByFolderIdAndContentVersionAndStatusInOrderByIdDesc(folderId, version, REUSABLE);
+        if (existing.isPresent() && (existing.get().getStatus() != ArchiveStatus.READY
+                || Files.exists(archivePath(existing.get())))) {
+            archiveRepository.touch(existing.get().getId(), LocalDateTime.now());
+            return existing.get();
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        FolderArchive archive = archiveRepository.save(FolderArchive.builder()
+                .folderId(folderId)
+                .contentVersion(version)
+                .status(ArchiveStatus.PENDING)
+                .fileName(folderName + ".zip")
+                .fileCount((int) entries.stream().filter(entry -> entry.file() != null).count())
+                .createdAt(now)
+                .lastAccessedAt(now)
+                .build());
+        getJobExecutor().submit(() -> build(archive, entries));
+        return archive;
+    }
+
+    public Optional<FolderArchive> getArchive(Long id) {
+        return archiveRepository.findById(id);
+    }
+
+    /**
+     * Giải mã archive READY vào output stream (response HTTP).
+     */
+    public void writeArchive(FolderArchive archive, OutputStream out) throws Exception {
+        archiveRepository.touch(archive.getId(), LocalDateTime.now());
+        encryptionService.decryptRange(archivePath(archive), 0, Long.MAX_VALUE, out,
+                encryptionService.resolveFileKey(archive.getWrappedKey(), archive.getKeyId()),
+                archive.getEncryptionIv());
+    }
+
+    public Map<String, Object> toStatus(FolderArchive archive) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", archive.getId());
+        status.put("folderId", archive.getFolderId());
+        status.put("status", archive.getStatus());
+        status.put("fileName", archive.getFileName());
+        status.put("fileCount", archive.getFileCount());
+        status.put("size", archive.getSize());
+        status.put("createdAt", archive.getCreatedAt());
+        status.put("completedAt", archive.getCompletedAt());
+        status.put("error", archive.getLastError());
+        return status;
+    }
+
+    private void build(FolderArchive archive, List<FolderZipService.Entry> entries) {
+        Path staged = cacheRoot().resolve(archive.getId() + ".part");
+        try {
+            archive.setStatus(ArchiveStatus.BUILDING);
+            archiveRepository.save(archive);
+
+            Files.createDirectories(cacheRoot());
+            DataKey dataKey = encryptionService.newDataKey();
+            String iv = encryptionService.generateIv();
+            long size = encryptZip(entries, staged, dataKey, iv);
+            Path target = archivePath(archive);
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            archive.setWrappedKey(dataKey.wrappedKey());
+            archive.setKeyId(dataKey.keyId());
+            archive.setEncryptionIv(iv);
+            archive.setSize(size);
+            archive.setStoredBytes(Files.size(target));
+            archive.setStatus(ArchiveStatus.READY);
+            archive.setCompletedAt(LocalDateTime.now());
+            archiveRepository.save(archive);
+            logger.info("Built archive {} of folder {}: {} files, {} bytes", archive.getId(), archive.getFolderId(),
+                    archive.getFileCount(), size);
+        } catch (Exception e) {
+            logger.warn("Failed to build archive {} of folder {}", archive.getId(), archive.getFolderId(), e);
+            deleteQuietly(staged);
+            archive.setStatus(ArchiveStatus.FAILED);
+            archive.setLastError(abbreviate(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+            archive.setCompletedAt(LocalDateTime.now());
+            archiveRepository.save(archive);
+        }
+    }
+
+    /**
+     * Ghi ZIP vào một pipe; đầu kia được mã hóa vào {@code dest} trên một
+     * thread khác.
+     *
+     * @return kích thước file ZIP
+     */
+    private long encryptZip(List<FolderZipService.Entry> entries, Path dest, DataKey dataKey, String iv)
+            throws Exception {
+        PipedInputStream zipIn = new PipedInputStream(PIPE_SIZE);
+        Future<Long> encrypted;
+        try (PipedOutputStream zipOut = new PipedOutputStream(zipIn)) {
+            encrypted = getEncryptExecutor().submit(() -> {
+                try (zipIn) {
+                    return encryptionService.encryptStream(zipIn, dest, dataKey.key(), iv);
+                }
+            });
+            try {
+                folderZipService.writeZip(entries, zipOut);
+            } catch (Exception e) {
+                // Pipe bị đóng vì lỗi mã hóa: báo lỗi gốc
+                if (encrypted.isDone()) {
+                    result(encrypted);
+                }
+                encrypted.cancel(true);
+                throw e;
+            }
+        }
+        return result(encrypted);
+    }
+
+    private static long result(Future<Long> encrypted) throws Exception {
+        try {
+            return encrypted.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Xóa archive quá hạn, rồi archive lâu không dùng nhất cho tới khi cache
+     * về dưới maxCacheMb.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.archive.evictMs:60000}")
+    public void evict() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(ttlMinutes);
+        for (FolderArchive archive : archiveRepository.findByStatusInAndLastAccessedAtBefore(
+                List.of(ArchiveStatus.READY, ArchiveStatus.FAILED), cutoff)) {
+            remove(archive);
+        }
+
+        long maxBytes = maxCacheMb * 1024 * 1024;
+        long cached = archiveRepository.sumStoredBytesByStatus(ArchiveStatus.READY);
+        while (cached > maxBytes) {
+            List<FolderArchive> oldest = archiveRepository.findByStatusOrderByLastAccessedAtAsc(
+                    ArchiveStatus.READY, PageRequest.of(0, 50));
+            if (oldest.isEmpty()) {
+                break;
+            }
+            for (FolderArchive archive : oldest) {
+                if (cached <= maxBytes) {
+                    break;
+                }
+                remove(archive);
+                cached -= archive.getStoredBytes();
+            }
+        }
+    }
+
+    private void remove(FolderArchive archive) {
+        deleteQuietly(archivePath(archive));
+        archiveRepository.delete(archive);
+        logger.info("Evicted archive {} of folder {} ({} bytes)", archive.getId(), archive.getFolderId(),
+                archive.getStoredBytes());
+    }
+
+    /**
+     * Phiên bản nội dung của danh sách entry: đổi khi file được thêm, xóa,
+     * đổi tên hoặc di chuyển trong cây thư mục.
+     */
+    static String contentVersion(List<FolderZipService.Entry> entries) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (FolderZipService.Entry entry : entries) {
+                StringBuilder line = new StringBuilder(entry.path());
+                if (entry.file() != null) {
+                    line.append('\0').append(entry.file().getId())
+                            .append('\0').append(entry.file().getSize())
+                            .append('\0').append(entry.file().getUploadedAt());
+                }
+                digest.update(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path cacheRoot() {
+        return Paths.get(cacheDir).toAbsolutePath().normalize();
+    }
+
+    private Path archivePath(FolderArchive archive) {
+        return cacheRoot().resolve(archive.getId() + ".zip.enc");
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete archive file {}", file, e);
+        }
+    }
+
+    private static String abbreviate(String message) {
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+
+    private ExecutorService getJobExecutor() {
+        ExecutorService executor = jobExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = jobExecutor;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(Math.max(1, concurrentJobs),
+                            daemonThreads("archive-worker-"));
+                    // Mỗi job dùng thêm đúng một thread mã hóa
+                    encryptExecutor = Executors.newFixedThreadPool(Math.max(1, concurrentJobs),
+                            daemonThreads("archive-encrypt-"));
+                    jobExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private ExecutorService getEncryptExecutor() {
+        getJobExecutor();
+        return encryptExecutor;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService executor : new ExecutorService[] { jobExecutor, encryptExecutor }) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
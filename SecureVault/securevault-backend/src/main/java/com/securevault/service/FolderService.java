@@ -14,7 +14,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -29,21 +32,26 @@ public class FolderService {
     private final UserRepository userRepository;
     private final FolderShareRepository folderShareRepository;
     private final EmailService emailService;
+    private final FileStorageService fileStorageService;
 
     public FolderService(FolderRepository folderRepository, FileRepository fileRepository,
             UserRepository userRepository, FolderShareRepository folderShareRepository,
-            EmailService emailService) {
+            EmailService emailService, FileStorageService fileStorageService) {
         this.folderRepository = folderRepository;
         this.fileRepository = fileRepository;
         this.userRepository = userRepository;
         this.folderShareRepository = folderShareRepository;
         this.emailService = emailService;
+        this.fileStorageService = fileStorageService;
     }
 
     /**
      * Tạo thư mục mới.
+     *
+     * @param clientEncrypted thư mục chỉ nhận file mã hóa phía client; thư
+     *                        mục con của thư mục như vậy luôn bật chế độ này
      */
-    public FolderDTO createFolder(String name, Long parentId, Long userId) {
+    public FolderDTO createFolder(String name, Long parentId, boolean clientEncrypted, Long userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy người dùng"));
 
@@ -62,6 +70,7 @@ public class FolderService {
                 .name(name)
                 .owner(user)
                 .parent(parent)
+                .clientEncrypted(clientEncrypted || (parent != null && parent.isClientEncrypted()))
                 .build();
 
         Folder saved = folderRepository.save(folder);
@@ -122,7 +131,20 @@ public class FolderService {
         Folder folder = folderRepository.findByIdAndOwner(folderId, user)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy thư mục"));
 
+        // File trong cây thư mục bị xóa theo cascade; blob (có thể dùng chung)
+        // phải được giải phóng riêng
+        List<FileDocument> files = new ArrayList<>();
+        collectFiles(folder, files);
+
         folderRepository.delete(folder);
+        files.forEach(fileStorageService::releaseContent);
+    }
+
+    private void collectFiles(Folder folder, List<FileDocument> files) {
+        files.addAll(folder.getFiles());
+        for (Folder child : folder.getChildren()) {
+            collectFiles(child, files);
+        }
     }
 
     /**
@@ -144,6 +166,12 @@ public class FolderService {
                     .orElseThrow(() -> new RuntimeException("Không tìm thấy thư mục"));
         }
 
+        // File mã hóa phía client và file mã hóa phía server không lẫn thư mục
+        boolean clientEncryptedFolder = folder != null && folder.isClientEncrypted();
+        if (file.isClientEncrypted() != clientEncryptedFolder) {
+            throw new RuntimeException("Không thể di chuyển file giữa thư mục mã hóa phía client và thư mục thường");
+        }
+
         file.setFolder(folder);
         fileRepository.save(file);
     }
@@ -263,13 +291,61 @@ public class FolderService {
     }
 
     /**
-     * Lấy danh sách files trong thư mục (cho owner) - dùng cho download ZIP.
+     * Danh sách entry ZIP của cả cây thư mục (cho owner): file trong thư mục
+     * và các thư mục con, đường dẫn tính từ thư mục gốc.
      */
-    public List<FileDocument> getFilesInOwnedFolder(Long folderId, Long userId) {
-        User user = userRepository.findById(userId).orElseThrow();
-        Folder folder = folderRepository.findByIdAndOwner(folderId, user)
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy thư mục hoặc bạn không có quyền"));
-        return fileRepository.findByFolder(folder);
+    public List<FolderZipService.Entry> getOwnedFolderTree(Long folderId, Long userId) {
+        return collectEntries(getFolderEntity(folderId, userId));
+    }
+
+    /**
+     * Danh sách entry ZIP của cả cây thư mục được chia sẻ. Quyền truy cập thư
+     * mục gốc áp dụng cho mọi thư mục con.
+     */
+    public List<FolderZipService.Entry> getSharedFolderTree(Long folderId, Long userId) {
+        return collectEntries(getSharedFolderEntity(folderId, userId));
+    }
+
+    private List<FolderZipService.Entry> collectEntries(Folder root) {
+        List<FolderZipService.Entry> entries = new ArrayList<>();
+        collectEntries(root, "", entries, new HashSet<>());
+        return entries;
+    }
+
+    private void collectEntries(Folder folder, String prefix, List<FolderZipService.Entry> entries,
+            Set<Long> visited) {
+        if (!visited.add(folder.getId())) {
+            return; // Phòng dữ liệu lỗi có vòng lặp parent
+        }
+        List<FileDocument> files = fileRepository.findByFolder(folder);
+        for (FileDocument file : files) {
+            entries.add(new FolderZipService.Entry(prefix + entryName(file.getFileName()), file));
+        }
+        List<Folder> children = folder.getChildren();
+        if (files.isEmpty() && children.isEmpty() && !prefix.isEmpty()) {
+            entries.add(new FolderZipService.Entry(prefix, null));
+        }
+        for (Folder child : children) {
+            collectEntries(child, prefix + entryName(child.getName()) + "/", entries, visited);
+        }
+    }
+
+    /** Tên file / thư mục làm một thành phần đường dẫn an toàn trong ZIP. */
+    private static String entryName(String name) {
+        String sanitized = name.replace("/", "_").replace("\\", "_");
+        return sanitized.isBlank() || sanitized.equals(".") || sanitized.equals("..") ? "_" : sanitized;
+    }
+
+    /**
+     * User là chủ thư mục hoặc được chia sẻ (chưa hết hạn) - dùng cho job
+     * tạo archive.
+     */
+    public boolean canAccessFolder(Long folderId, Long userId) {
+        return folderRepository.findById(folderId)
+                .map(folder -> folder.getOwner().getId().equals(userId)
+                        || folderShareRepository.existsByFolderIdAndSharedWithUserIdAndExpiresAtAfter(
+                                folderId, userId, LocalDateTime.now()))
+                .orElse(false);
     }
 
     /**
@@ -306,6 +382,7 @@ public class FolderService {
                 .updatedAt(folder.getUpdatedAt())
                 .fileCount(fileRepository.findByFolder(folder).size())
                 .subfolderCount(folderRepository.countByParent(folder))
+                .clientEncrypted(folder.isClientEncrypted())
                 .build();
     }
 }
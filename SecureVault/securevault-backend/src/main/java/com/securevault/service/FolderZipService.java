@@ -0,0 +1,367 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Ghi cây thư mục thành file ZIP trực tiếp vào output stream (response HTTP).
+ *
+ * Mỗi file được giải mã trên một worker vào bộ đệm có giới hạn
+ * ({@code bufferKb}); luồng ghi ZIP đọc từ bộ đệm đó, nên bản rõ không bao giờ
+ * ra đĩa. Trong lúc một entry đang được ghi, {@code prefetchFiles} file kế
+ * tiếp đã được xếp hàng, nhưng một lượt tải chỉ giữ tối đa workers / 2
+ * worker cùng lúc (worker bị chặn khi client đọc chậm), nên một client chậm
+ * không chiếm hết nhóm worker dùng chung: ít nhất hai lượt tải luôn tiến
+ * triển song song. Bộ nhớ dùng tối đa khoảng (prefetchFiles + 1) x bufferKb
+ * cho mỗi lượt tải.
+ *
+ * File đã giải mã xong trước khi tới lượt ghi (file nhỏ) biết trước kích
+ * thước và CRC nên được ghi dạng STORED nếu là định dạng vốn đã nén. File lớn
+ * hơn bộ đệm được stream; định dạng đã nén dùng Deflate mức 0 (chỉ đóng khung,
+ * gần như không tốn CPU). File lỗi không làm hỏng cả file ZIP: chúng được
+ * liệt kê trong entry {@value #ERRORS_ENTRY}.
+ */
+@Service
+public class FolderZipService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderZipService.class);
+
+    static final String ERRORS_ENTRY = "_errors.txt";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Một entry của file ZIP: file (đường dẫn tương đối tính từ thư mục gốc)
+     * hoặc thư mục con rỗng ({@code file} null, {@code path} kết thúc bằng "/").
+     */
+    public record Entry(String path, FileDocument file) {
+    }
+
+    private final FileStorageService fileStorageService;
+    private final CompressionPolicy compressionPolicy;
+
+    // Số worker giải mã dùng chung cho mọi lượt tải ZIP; mỗi lượt tải dùng
+    // tối đa workers / 2, nên số lượt tải chạy song song không bị chặn là workers / 2
+    @Value("${securevault.app.zip.workers:4}")
+    private int workers = 4;
+
+    // Số file được giải mã trước khi tới lượt ghi
+    @Value("${securevault.app.zip.prefetchFiles:3}")
+    private int prefetchFiles = 3;
+
+    // Bộ đệm bản rõ của mỗi file đang giải mã (KB)
+    @Value("${securevault.app.zip.bufferKb:4096}")
+    private int bufferKb = 4096;
+
+    private volatile ExecutorService executor;
+
+    public FolderZipService(FileStorageService fileStorageService, CompressionPolicy compressionPolicy) {
+        this.fileStorageService = fileStorageService;
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Ghi các entry thành file ZIP vào {@code out}. Không đóng {@code out}.
+     */
+    public void writeZip(List<Entry> entries, OutputStream out) throws IOException {
+        Deque<Prefetch> window = new ArrayDeque<>();
+        Iterator<Entry> pending = entries.iterator();
+        Set<String> names = new HashSet<>();
+        List<String> errors = new ArrayList<>();
+        try {
+            ZipOutputStream zipOut = new ZipOutputStream(out);
+            while (true) {
+                while (window.size() <= prefetchFiles && pending.hasNext()) {
+                    window.add(new Prefetch(pending.next(), Math.max(1, bufferKb * 1024 / CHUNK_SIZE)));
+                }
+                startWithinLimit(window);
+                Prefetch next = window.peek();
+                if (next == null) {
+                    break;
+                }
+                String name = uniqueName(next.entry.path(), names);
+                if (next.entry.file() == null) {
+                    zipOut.putNextEntry(new ZipEntry(name));
+                    zipOut.closeEntry();
+                } else {
+                    try {
+                        writeEntry(zipOut, name, next);
+                    } catch (EntryFailedException e) {
+                        // Worker có thể còn chờ đặt END vào bộ đệm đầy
+                        next.cancel();
+                        logger.warn("Skipping {} in folder ZIP: {}", name, e.getMessage());
+                        errors.add(name + ": " + e.getMessage());
+                    }
+                }
+                window.poll();
+            }
+            if (!errors.isEmpty()) {
+                zipOut.putNextEntry(new ZipEntry(uniqueName(ERRORS_ENTRY, names)));
+                zipOut.write((String.join("\n", errors) + "\n").getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+            zipOut.finish();
+        } finally {
+            // Client ngắt kết nối: hủy các file đang được giải mã
+            for (Prefetch prefetch : window) {
+                prefetch.cancel();
+            }
+        }
+    }
+
+    private void writeEntry(ZipOutputStream zipOut, String name, Prefetch prefetch) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+        // Ciphertext của file mã hóa phía client không nén được
+        boolean compressed = prefetch.entry.file().isClientEncrypted() || compressionPolicy.isCompressedFormat(
+                prefetch.entry.file().getFileType(), prefetch.entry.file().getFileName());
+        // Chờ chunk đầu tiên: file lỗi ngay từ đầu không để lại entry rỗng
+        byte[] chunk = prefetch.take();
+        if (prefetch.complete) {
+            // Giải mã xong trước khi tới lượt: chỉ ghi entry khi không có lỗi
+            if (prefetch.failure != null) {
+                throw new EntryFailedException(describe(prefetch.failure));
+            }
+            if (compressed) {
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(prefetch.size);
+                zipEntry.setCompressedSize(prefetch.size);
+                zipEntry.setCrc(prefetch.crc.getValue());
+            }
+        }
+        zipOut.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        zipOut.putNextEntry(zipEntry);
+        for (; chunk != Prefetch.END; chunk = prefetch.take()) {
+            zipOut.write(chunk);
+        }
+        zipOut.closeEntry();
+        if (prefetch.failure != null) {
+            // Lỗi giữa chừng: entry đã ghi bị cắt cụt
+            throw new EntryFailedException("incomplete, " + describe(prefetch.failure));
+        }
+    }
+
+    /**
+     * Xếp worker cho các file trong cửa sổ theo thứ tự, tới khi lượt tải giữ
+     * đủ số worker cho phép. File đầu cửa sổ luôn được xếp trước nên luồng
+     * ghi không bao giờ chờ một file chưa có worker.
+     */
+    private void startWithinLimit(Deque<Prefetch> window) {
+        int limit = Math.max(1, workers / 2);
+        int running = 0;
+        for (Prefetch prefetch : window) {
+            if (prefetch.future != null && !prefetch.future.isDone()) {
+                running++;
+            }
+        }
+        for (Prefetch prefetch : window) {
+            if (running >= limit) {
+                return;
+            }
+            if (prefetch.entry.file() != null && prefetch.future == null) {
+                prefetch.future = getExecutor().submit(prefetch::run);
+                running++;
+            }
+        }
+    }
+
+    private static String uniqueName(String path, Set<String> names) {
+        if (names.add(path)) {
+            return path;
+        }
+        boolean directory = path.endsWith("/");
+        String base = directory ? path.substring(0, path.length() - 1) : path;
+        int slash = base.lastIndexOf('/');
+        int dot = base.lastIndexOf('.');
+        String stem = dot > slash + 1 ? base.substring(0, dot) : base;
+        String extension = dot > slash + 1 ? base.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            String candidate = stem + " (" + i + ")" + extension + (directory ? "/" : "");
+            if (names.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static String describe(Throwable failure) {
+        return failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+    }
+
+    private ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    current = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> {
+                        Thread thread = new Thread(runnable, "zip-worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService current = executor;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Một file đang được giải mã: worker ghi bản rõ theo từng chunk vào hàng
+     * đợi có giới hạn, luồng ghi ZIP lấy ra theo thứ tự.
+     *
+     * Worker được xếp hàng theo thứ tự entry (FIFO) nên file đang được ghi
+     * luôn có worker chạy hoặc đã xong; worker của file sau bị chặn khi bộ
+     * đệm đầy chỉ chờ chính luồng ghi này.
+     */
+    private final class Prefetch {
+
+        static final byte[] END = new byte[0];
+
+        final Entry entry;
+        final BlockingQueue<byte[]> chunks;
+        final CRC32 crc = new CRC32();
+        volatile Future<?> future;
+        volatile long size;
+        volatile Throwable failure;
+        // Giải mã đã kết thúc: size, crc và failure không còn thay đổi
+        volatile boolean complete;
+        volatile boolean cancelled;
+
+        Prefetch(Entry entry, int capacity) {
+            this.entry = entry;
+            this.chunks = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            try (ChunkOutputStream out = new ChunkOutputStream()) {
+                fileStorageService.writeDecryptedFile(entry.file(), out);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                complete = true;
+                try {
+                    put(END);
+                } catch (InterruptedIOException e) {
+                    // Lượt tải đã bị hủy, không còn ai đọc
+                }
+            }
+        }
+
+        /**
+         * Chờ chỗ trống trong bộ đệm; kiểm tra định kỳ cờ hủy để worker không
+         * bị treo khi luồng ghi đã bỏ đi.
+         */
+        void put(byte[] chunk) throws InterruptedIOException {
+            try {
+                while (!chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    if (cancelled) {
+                        throw new InterruptedIOException("Folder ZIP download cancelled");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Folder ZIP download cancelled");
+            }
+        }
+
+        byte[] take() throws IOException {
+            try {
+                return chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing folder ZIP");
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Future<?> current = future;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+        private final class ChunkOutputStream extends OutputStream {
+
+            private byte[] buffer = new byte[CHUNK_SIZE];
+            private int count;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                crc.update(b, off, len);
+                size += len;
+                while (len > 0) {
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    if (count == buffer.length) {
+                        flushChunk();
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (count > 0) {
+                    flushChunk();
+                }
+            }
+
+            private void flushChunk() throws IOException {
+                put(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+                buffer = new byte[CHUNK_SIZE];
+                count = 0;
+            }
+        }
+    }
+
+    /** Một file không thể đưa vào ZIP; lượt tải vẫn tiếp tục. */
+    private static final class EntryFailedException extends IOException {
+        EntryFailedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.securevault.service;
+
+import com.securevault.blockchain.Blockchain;
+import com.securevault.crypto.DataKey;
+import com.securevault.crypto.MacInputStream;
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.UploadJob;
+import com.securevault.enums.IngestStatus;
+import com.securevault.repository.UploadJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Upload bất đồng bộ: request chỉ mã hóa nội dung vào vùng staging rồi trả
+ * về ngay; đưa blob vào blob store, lưu metadata, email cho Manager và ghi
+ * block audit chạy trên một nhóm worker có giới hạn.
+ *
+ * Nội dung được mã hóa một lần duy nhất ngay khi staging, bằng data key
+ * riêng của job và đúng định dạng blob lưu trữ, digest nội dung được tính
+ * trong cùng lượt đọc. Staging không nén: Deflate chậm hơn nhiều so với ghi
+ * đĩa và sẽ làm thời gian trả lời tăng theo kích thước file, nên blob của
+ * upload bất đồng bộ được lưu không nén (đánh đổi dung lượng lấy độ trễ);
+ * file staging được fsync trước khi trả lời, nên bản rõ không nằm trên đĩa
+ * và upload đã xác nhận vẫn còn sau khi khởi động lại. Worker chỉ chuyển
+ * nguyên file staging vào blob store qua
+ * {@link FileStorageService#storeEncryptedBlob} (giữ data key đã bọc), không
+ * giải mã hay mã hóa lại.
+ *
+ * Client theo dõi job qua endpoint trạng thái, hoặc nhận sự kiện "upload"
+ * qua SSE khi job kết thúc.
+ */
+@Service
+public class IngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionService.class);
+
+    private static final List<IngestStatus> ACTIVE = List.of(IngestStatus.STAGED, IngestStatus.PROCESSING);
+    private static final List<IngestStatus> FINISHED = List.of(IngestStatus.COMPLETED, IngestStatus.FAILED);
+
+    private final UploadJobRepository jobRepository;
+    private final FileStorageService fileStorageService;
+    private final EncryptionService encryptionService;
+    private final Blockchain blockchain;
+
+    @Value("${securevault.app.ingest.stagingDir:${securevault.app.uploadDir}/.ingest}")
+    private String stagingDir;
+
+    // Số upload được xử lý đồng thời
+    @Value("${securevault.app.ingest.workers:2}")
+    private int workers = 2;
+
+    // Số upload tối đa đang chờ hoặc đang xử lý; vượt quá thì từ chối (503)
+    @Value("${securevault.app.ingest.maxQueued:200}")
+    private int maxQueued = 200;
+
+    // Thời gian giữ job đã kết thúc để client hỏi trạng thái (giờ)
+    @Value("${securevault.app.ingest.retentionHours:24}")
+    private long retentionHours = 24;
+
+    // Thời gian sống của kết nối SSE (ms)
+    @Value("${securevault.app.ingest.sseTimeoutMs:1800000}")
+    private long sseTimeoutMs = 1800000;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService jobExecutor;
+    private volatile boolean shuttingDown;
+
+    /** Hàng đợi upload đã đầy. */
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    public IngestionService(UploadJobRepository jobRepository, FileStorageService fileStorageService,
+            EncryptionService encryptionService, Blockchain blockchain) {
+        this.jobRepository = jobRepository;
+        this.fileStorageService = fileStorageService;
+        this.encryptionService = encryptionService;
+        this.blockchain = blockchain;
+    }
+
+    /**
+     * Xếp lại các job đã staging nhưng chưa được xử lý ở lần chạy trước. Job
+     * đang xử lý dở bị đánh dấu FAILED (file có thể đã được lưu một phần),
+     * file staging không còn job nào dùng bị xóa.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeStagedJobs() {
+        Set<String> referenced = new HashSet<>();
+        for (UploadJob job : jobRepository.findByStatusIn(ACTIVE)) {
+            if (job.getStatus() == IngestStatus.STAGED && Files.exists(stagedPath(job))) {
+                referenced.add(job.getStagedFile());
+                inFlight.incrementAndGet();
+                getJobExecutor().submit(() -> process(job));
+            } else {
+                deleteQuietly(stagedPath(job));
+                fail(job, "Interrupted by restart");
+            }
+        }
+        try (Stream<Path> files = Files.list(stagingRoot())) {
+            files.filter(file -> !referenced.contains(file.getFileName().toString())).forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            // Thư mục staging chưa tồn tại
+        }
+        if (!referenced.isEmpty()) {
+            logger.info("Resumed {} staged uploads", referenced.size());
+        }
+    }
+
+    /**
+     * Ghi nội dung upload vào vùng staging và xếp job xử lý. Trả về khi nội
+     * dung đã bền vững trên đĩa.
+     *
+     * @throws QueueFullException nếu đã có maxQueued upload chưa xử lý xong
+     */
+    public UploadJob stage(InputStream inputStream, String fileName, String contentType, Long userId,
+            Long folderId) throws Exception {
+        String originalFileName = StringUtils.getFilename(StringUtils.cleanPath(fileName));
+        if (!StringUtils.hasText(originalFileName)) {
+            throw new RuntimeException("Tên file không hợp lệ");
+        }
+        if (inFlight.incrementAndGet() > maxQueued) {
+            inFlight.decrementAndGet();
+            throw new QueueFullException("Hệ thống đang xử lý quá nhiều upload, vui lòng thử lại sau");
+        }
+
+        String stagedFile = UUID.randomUUID() + ".part";
+        Path staged = stagingRoot().resolve(stagedFile);
+        try {
+            Files.createDirectories(stagingRoot());
+            DataKey dataKey = encryptionService.newDataKey();
+            String iv = encryptionService.generateIv();
+            MacInputStream digesting = new MacInputStream(inputStream, encryptionService.newContentMac());
+            long size = encryptionService.encryptStream(digesting, staged, dataKey.key(), iv);
+            try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            UploadJob job = jobRepository.save(UploadJob.builder()
+                    .userId(userId)
+                    .fileName(originalFileName)
+                    .contentType(contentType)
+                    .folderId(folderId)
+                    .stagedFile(stagedFile)
+                    .size(size)
+                    .wrappedKey(dataKey.wrappedKey())
+                    .keyId(dataKey.keyId())
+                    .encryptionIv(iv)
+                    .contentDigest(HexFormat.of().formatHex(digesting.mac().doFinal()))
+                    .status(IngestStatus.STAGED)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+            getJobExecutor().submit(() -> process(job));
+            return job;
+        } catch (Exception e) {
+            inFlight.decrementAndGet();
+            deleteQuietly(staged);
+            throw e;
+        }
+    }
+
+    public Optional<UploadJob> getJob(Long id) {
+        return jobRepository.findById(id);
+    }
+
+    /**
+     * Đăng ký nhận sự kiện "upload" cho các job của người dùng.
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        Set<SseEmitter> emitters = subscribers.computeIfAbsent(userId, id -> new CopyOnWriteArraySet<>());
+        emitters.add(emitter);
+        Runnable remove = () -> emitters.remove(emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(error -> remove.run());
+        return emitter;
+    }
+
+    public Map<String, Object> toStatus(UploadJob job) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", job.getId());
+        status.put("status", job.getStatus());
+        status.put("fileName", job.getFileName());
+        status.put("folderId", job.getFolderId());
+        status.put("size", job.getSize());
+        status.put("fileId", job.getFileId());
+        status.put("createdAt", job.getCreatedAt());
+        status.put("completedAt", job.getCompletedAt());
+        status.put("error", job.getLastError());
+        return status;
+    }
+
+    private void process(UploadJob job) {
+        try {
+            if (ingest(job)) {
+                deleteQuietly(stagedPath(job));
+                publish(job);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return false nếu bị ngắt khi tắt ứng dụng: job trở lại STAGED và file
+     *         staging được giữ để xử lý lại khi khởi động
+     */
+    private boolean ingest(UploadJob job) {
+        try {
+            job.setStatus(IngestStatus.PROCESSING);
+            jobRepository.save(job);
+
+            FileDocument fileDocument = fileStorageService.storeEncryptedBlob(stagedPath(job), job.getFileName(),
+                    job.getContentType(), job.getSize(), job.getWrappedKey(), job.getKeyId(),
+                    job.getEncryptionIv(), job.getContentDigest(), job.getUserId(), job.getFolderId());
+            blockchain.addBlock("Người dùng " + fileDocument.getOwner().getUsername() + " đã tải lên file: "
+                    + fileDocument.getFileName());
+
+            job.setFileId(fileDocument.getId());
+            job.setStatus(IngestStatus.COMPLETED);
+            job.setCompletedAt(LocalDateTime.now());
+            jobRepository.save(job);
+            logger.info("Ingested upload {} as file {} ({} bytes)", job.getId(), fileDocument.getId(), job.getSize());
+        } catch (Exception e) {
+            if (shuttingDown) {
+                job.setStatus(IngestStatus.STAGED);
+                jobRepository.save(job);
+                return false;
+            }
+            logger.warn("Failed to ingest upload {} ({})", job.getId(), job.getFileName(), e);
+            fail(job, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+        return true;
+    }
+
+    private void fail(UploadJob job, String message) {
+        job.setStatus(IngestStatus.FAILED);
+        job.setLastError(message.length() > 1000 ? message.substring(0, 1000) : message);
+        job.setCompletedAt(LocalDateTime.now());
+        jobRepository.save(job);
+    }
+
+    private void publish(UploadJob job) {
+        Set<SseEmitter> emitters = subscribers.get(job.getUserId());
+        if (emitters == null) {
+            return;
+        }
+        Map<String, Object> status = toStatus(job);
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("upload").id(String.valueOf(job.getId())).data(status));
+            } catch (IOException | IllegalStateException e) {
+                // Client đã ngắt kết nối
+                emitters.remove(emitter);
+            }
+        }
+    }
+
+    /**
+     * Xóa các job đã kết thúc quá retentionHours.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.ingest.purgeMs:3600000}")
+    public void purgeFinishedJobs() {
+        List<UploadJob> expired = jobRepository.findByStatusInAndCompletedAtBefore(FINISHED,
+                LocalDateTime.now().minusHours(retentionHours));
+        if (!expired.isEmpty()) {
+            jobRepository.deleteAll(expired);
+            logger.info("Purged {} finished upload jobs", expired.size());
+        }
+        subscribers.values().removeIf(Set::isEmpty);
+    }
+
+    /** Số upload đang chờ hoặc đang xử lý. */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private Path stagingRoot() {
+        return Paths.get(stagingDir).toAbsolutePath().normalize();
+    }
+
+    private Path stagedPath(UploadJob job) {
+        return stagingRoot().resolve(job.getStagedFile());
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged upload {}", file, e);
+        }
+    }
+
+    private ExecutorService getJobExecutor() {
+        ExecutorService executor = jobExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = jobExecutor;
+                if (executor == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> {
+                        Thread thread = new Thread(runnable, "ingest-worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    jobExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Job chưa bắt đầu vẫn ở trạng thái STAGED và được xếp lại lần khởi động sau
+        shuttingDown = true;
+        ExecutorService executor = jobExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
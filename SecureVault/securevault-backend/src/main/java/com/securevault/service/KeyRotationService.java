@@ -0,0 +1,417 @@
+package com.securevault.service;
+
+import com.securevault.crypto.DataKey;
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.KeyRotationJob;
+import com.securevault.entity.OrphanBlob;
+import com.securevault.enums.KeyRotationStatus;
+import com.securevault.enums.OrphanStatus;
+import com.securevault.repository.FileRepository;
+import com.securevault.repository.KeyRotationJobRepository;
+import com.securevault.repository.OrphanBlobRepository;
+import com.securevault.repository.UserRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.StagingArea;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Xoay vòng master key trực tuyến.
+ *
+ * Quy trình: đặt khóa mới vào securevault.app.masterKey, chuyển khóa cũ sang
+ * securevault.app.retiredMasterKeys, khởi động lại rồi gọi {@link #start()}.
+ * Trong lúc job chạy, dữ liệu vẫn đọc được bằng cả khóa cũ lẫn khóa mới.
+ * Job duyệt bảng files rồi users theo keyset (id tăng dần), lưu checkpoint
+ * sau mỗi batch nên có thể tạm dừng / tiếp tục / chạy lại sau khi restart:
+ * - File có wrappedKey: chỉ bọc lại khóa dữ liệu (O(metadata)).
+ * - File cũ chưa có wrappedKey: mã hóa lại blob bằng khóa dữ liệu mới, có
+ *   giới hạn băng thông đọc.
+ * - Cột mã hóa của users: mã hóa lại bằng master key mới.
+ * Khi job hoàn tất có thể gỡ khóa cũ khỏi retiredMasterKeys.
+ *
+ * Job chạy trên scheduler chung; nếu blob lớn làm chậm các job định kỳ khác,
+ * tăng spring.task.scheduling.pool.size.
+ */
+@Service
+public class KeyRotationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRotationService.class);
+
+    private final KeyRotationJobRepository jobRepository;
+    private final FileRepository fileRepository;
+    private final UserRepository userRepository;
+    private final EncryptionService encryptionService;
+    private final BlobStore blobStore;
+    private final StagingArea stagingArea;
+    private final OrphanBlobRepository orphanBlobRepository;
+
+    // Số dòng mỗi batch (mỗi batch lưu một checkpoint)
+    @Value("${securevault.app.keyRotation.batchSize:100}")
+    private int batchSize;
+
+    // Giới hạn băng thông đọc khi mã hóa lại blob cũ (bytes/giây)
+    @Value("${securevault.app.keyRotation.bytesPerSecond:8388608}")
+    private long bytesPerSecond;
+
+    // Giới hạn số dòng xử lý mỗi giây (giới hạn CPU cho bọc khóa / mã hóa cột)
+    @Value("${securevault.app.keyRotation.rowsPerSecond:200}")
+    private long rowsPerSecond;
+
+    // Thời gian chờ trước khi xóa blob cũ đã được mã hóa lại, để các request
+    // đang đọc blob cũ kịp hoàn tất. Blob cũ được ghi vào orphan_blobs và bị
+    // BlobReconciliationService xóa khi hết hạn, nên không bị mất khi restart
+    @Value("${securevault.app.keyRotation.deleteGraceMs:60000}")
+    private long deleteGraceMs;
+
+    private volatile Bucket byteBucket;
+    private volatile Bucket rowBucket;
+
+    public KeyRotationService(KeyRotationJobRepository jobRepository,
+            FileRepository fileRepository,
+            UserRepository userRepository,
+            EncryptionService encryptionService,
+            BlobStore blobStore,
+            StagingArea stagingArea,
+            OrphanBlobRepository orphanBlobRepository) {
+        this.jobRepository = jobRepository;
+        this.fileRepository = fileRepository;
+        this.userRepository = userRepository;
+        this.encryptionService = encryptionService;
+        this.blobStore = blobStore;
+        this.stagingArea = stagingArea;
+        this.orphanBlobRepository = orphanBlobRepository;
+    }
+
+    /**
+     * Bắt đầu xoay vòng sang master key hiện tại, hoặc tiếp tục job đang dở
+     * có cùng khóa đích.
+     */
+    public synchronized KeyRotationJob start() {
+        String targetKeyId = encryptionService.currentKeyId();
+        KeyRotationJob latest = jobRepository.findFirstByOrderByIdDesc().orElse(null);
+        if (latest != null && isActive(latest)) {
+            if (targetKeyId.equals(latest.getTargetKeyId())) {
+                latest.setStatus(KeyRotationStatus.RUNNING);
+                return jobRepository.save(latest);
+            }
+            // Master key đã đổi lần nữa: job mới sẽ xử lý lại toàn bộ
+            latest.setStatus(KeyRotationStatus.FAILED);
+            latest.setLastError("Bị thay thế bởi job xoay vòng sang khóa " + targetKeyId);
+            jobRepository.save(latest);
+        }
+        KeyRotationJob job = KeyRotationJob.builder()
+                .targetKeyId(targetKeyId)
+                .status(KeyRotationStatus.RUNNING)
+                .build();
+        return jobRepository.save(job);
+    }
+
+    public synchronized KeyRotationJob pause() {
+        KeyRotationJob job = jobRepository.findFirstByStatusOrderByIdDesc(KeyRotationStatus.RUNNING)
+                .orElseThrow(() -> new RuntimeException("Không có job xoay vòng khóa đang chạy"));
+        job.setStatus(KeyRotationStatus.PAUSED);
+        return jobRepository.save(job);
+    }
+
+    public synchronized KeyRotationJob resume() {
+        KeyRotationJob job = jobRepository.findFirstByStatusOrderByIdDesc(KeyRotationStatus.PAUSED)
+                .orElseThrow(() -> new RuntimeException("Không có job xoay vòng khóa đang tạm dừng"));
+        if (!encryptionService.isCurrentKeyId(job.getTargetKeyId())) {
+            throw new RuntimeException("Master key đã thay đổi, hãy bắt đầu job mới");
+        }
+        job.setStatus(KeyRotationStatus.RUNNING);
+        return jobRepository.save(job);
+    }
+
+    /**
+     * Trạng thái job gần nhất kèm số dòng còn lại (ước lượng theo checkpoint).
+     */
+    public Map<String, Object> getStatus() {
+        KeyRotationJob job = jobRepository.findFirstByOrderByIdDesc()
+                .orElseThrow(() -> new RuntimeException("Chưa có job xoay vòng khóa nào"));
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("job", job);
+        status.put("currentKeyId", encryptionService.currentKeyId());
+        status.put("remainingFiles", job.isFilesDone() ? 0 : fileRepository.countByIdGreaterThan(job.getLastFileId()));
+        status.put("remainingUsers", job.isUsersDone() ? 0 : userRepository.countByIdGreaterThan(job.getLastUserId()));
+        return status;
+    }
+
+    /**
+     * Mỗi lần chạy xử lý một batch rồi lưu checkpoint.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.keyRotation.tickMs:1000}")
+    public void tick() {
+        KeyRotationJob job = jobRepository.findFirstByStatusOrderByIdDesc(KeyRotationStatus.RUNNING).orElse(null);
+        if (job == null) {
+            return;
+        }
+        if (!encryptionService.isCurrentKeyId(job.getTargetKeyId())) {
+            job.setStatus(KeyRotationStatus.FAILED);
+            job.setLastError("Master key đã thay đổi trong lúc job chạy");
+            jobRepository.save(job);
+            return;
+        }
+
+        try {
+            if (!job.isFilesDone()) {
+                processFileBatch(job);
+            } else if (!job.isUsersDone()) {
+                processUserBatch(job);
+            }
+            if (job.isFilesDone() && job.isUsersDone()) {
+                job.setStatus(KeyRotationStatus.COMPLETED);
+                job.setCompletedAt(LocalDateTime.now());
+                logger.info("Key rotation job {} completed: {} rewrapped, {} re-encrypted files, {} users, {} failures",
+                        job.getId(), job.getFilesRewrapped(), job.getFilesReencrypted(), job.getUsersReencrypted(),
+                        job.getFailures());
+            }
+        } catch (Exception e) {
+            logger.error("Key rotation job {} failed", job.getId(), e);
+            job.setStatus(KeyRotationStatus.FAILED);
+            job.setLastError(truncate(e.getMessage()));
+        }
+        saveCheckpoint(job);
+    }
+
+    // ==================== Private Helper Methods ====================
+
+    private void processFileBatch(KeyRotationJob job) throws InterruptedException {
+        List<FileDocument> files = fileRepository.findByIdGreaterThanOrderByIdAsc(job.getLastFileId(),
+                PageRequest.of(0, batchSize));
+        for (FileDocument file : files) {
+            try {
+                rotateFile(job, file);
+            } catch (Exception e) {
+                logger.warn("Key rotation: file id={} failed: {}", file.getId(), e.getMessage());
+                job.setFailures(job.getFailures() + 1);
+                job.setLastError(truncate("file " + file.getId() + ": " + e.getMessage()));
+            }
+            job.setLastFileId(file.getId());
+        }
+        if (files.size() < batchSize) {
+            job.setFilesDone(true);
+        }
+    }
+
+    private void rotateFile(KeyRotationJob job, FileDocument file) throws Exception {
+        if (file.isClientEncrypted()) {
+            return; // Khóa do client quản lý
+        }
+        if (file.getWrappedKey() == null) {
+            reencryptLegacyBlob(job, file);
+            return;
+        }
+        if (encryptionService.isCurrentKeyId(file.getKeyId())) {
+            return;
+        }
+        getRowBucket().asBlocking().consume(1);
+        DataKey rewrapped = encryptionService.rewrapDataKey(file.getWrappedKey(), file.getKeyId());
+        if (fileRepository.updateWrappedKey(file.getId(), file.getKeyId(), rewrapped.wrappedKey(),
+                rewrapped.keyId()) > 0) {
+            job.setFilesRewrapped(job.getFilesRewrapped() + 1);
+        }
+    }
+
+    /**
+     * Blob được mã hóa trực tiếp bằng master key: giải mã và mã hóa lại vào
+     * blob mới dưới một khóa dữ liệu mới, rồi trỏ dòng files sang blob mới.
+     * Bản rõ chỉ đi qua pipe trong bộ nhớ.
+     */
+    private void reencryptLegacyBlob(KeyRotationJob job, FileDocument file) throws Exception {
+        String source = file.getEncryptedPath();
+        SecretKey sourceKey = blobStore.localPath(source)
+                .map(path -> encryptionService.resolveLegacyKey(path, file.getEncryptionIv()))
+                .orElseGet(() -> encryptionService.resolveFileKey(null, null));
+        DataKey dataKey = encryptionService.newDataKey();
+        String iv = encryptionService.generateIv();
+        String fileName = source.substring(Math.max(source.lastIndexOf('/'), source.lastIndexOf('\\')) + 1);
+        int dot = fileName.lastIndexOf('.');
+        String target = UUID.randomUUID() + (dot > 0 ? fileName.substring(dot) : "");
+
+        long size;
+        Path staged = stagingArea.newFile();
+        try {
+            size = transcode(source, sourceKey, file.getEncryptionIv(), staged, dataKey.key(), iv);
+            target = blobStore.put(target, staged);
+            if (fileRepository.updateLegacyEncryption(file.getId(), target, iv, dataKey.wrappedKey(),
+                    dataKey.keyId()) == 0) {
+                // File đã bị xóa hoặc đã được xử lý trong lúc mã hóa lại
+                blobStore.delete(target);
+                return;
+            }
+        } catch (Exception e) {
+            blobStore.delete(target);
+            throw e;
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+        scheduleDelete(source);
+        job.setFilesReencrypted(job.getFilesReencrypted() + 1);
+        job.setBytesReencrypted(job.getBytesReencrypted() + size);
+    }
+
+    /**
+     * Giải mã source trên một thread phụ và mã hóa lại luồng bản rõ (có
+     * giới hạn băng thông) vào target.
+     */
+    private long transcode(String source, SecretKey sourceKey, String sourceIv, Path target, SecretKey targetKey,
+            String targetIv) throws Exception {
+        AtomicReference<Throwable> decryptFailure = new AtomicReference<>();
+        try (PipedInputStream plaintext = new PipedInputStream(64 * 1024)) {
+            PipedOutputStream sink = new PipedOutputStream(plaintext);
+            Thread decryptor = new Thread(() -> {
+                try (sink) {
+                    encryptionService.decryptRange(blobStore, source, 0, Long.MAX_VALUE, sink, sourceKey, sourceIv);
+                } catch (Throwable t) {
+                    decryptFailure.set(t);
+                }
+            }, "key-rotation-decrypt");
+            decryptor.setDaemon(true);
+            decryptor.start();
+
+            long size;
+            try {
+                InputStream throttled = new ThrottledInputStream(plaintext, getByteBucket(),
+                        Math.min(64 * 1024, bytesPerSecond));
+                size = encryptionService.encryptStream(throttled, target, targetKey, targetIv);
+            } finally {
+                // Unblocks the decryptor if encryption stopped early
+                plaintext.close();
+                decryptor.join();
+            }
+            Throwable failure = decryptFailure.get();
+            if (failure instanceof Exception e) {
+                throw e;
+            }
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            return size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while re-encrypting " + source);
+        }
+    }
+
+    private void processUserBatch(KeyRotationJob job) throws InterruptedException {
+        List<Object[]> rows = userRepository.findEncryptedAttributesAfter(job.getLastUserId(), batchSize);
+        for (Object[] row : rows) {
+            long id = ((Number) row[0]).longValue();
+            String phoneNumber = (String) row[1];
+            String nationalId = (String) row[2];
+            try {
+                getRowBucket().asBlocking().consume(1);
+                String newPhoneNumber = phoneNumber != null ? encryptionService.reencryptString(phoneNumber) : null;
+                String newNationalId = nationalId != null ? encryptionService.reencryptString(nationalId) : null;
+                if ((newPhoneNumber != null || newNationalId != null)
+                        && userRepository.updateEncryptedAttributes(id, phoneNumber, nationalId,
+                                newPhoneNumber != null ? newPhoneNumber : phoneNumber,
+                                newNationalId != null ? newNationalId : nationalId) > 0) {
+                    job.setUsersReencrypted(job.getUsersReencrypted() + 1);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Key rotation: user id={} failed: {}", id, e.getMessage());
+                job.setFailures(job.getFailures() + 1);
+                job.setLastError(truncate("user " + id + ": " + e.getMessage()));
+            }
+            job.setLastUserId(id);
+        }
+        if (rows.size() < batchSize) {
+            job.setUsersDone(true);
+        }
+    }
+
+    /**
+     * Lưu checkpoint mà không ghi đè lệnh tạm dừng được gửi trong lúc batch
+     * đang chạy.
+     */
+    private synchronized void saveCheckpoint(KeyRotationJob job) {
+        KeyRotationStatus stored = jobRepository.findById(job.getId())
+                .map(KeyRotationJob::getStatus)
+                .orElse(job.getStatus());
+        if (stored == KeyRotationStatus.PAUSED && job.getStatus() == KeyRotationStatus.RUNNING) {
+            job.setStatus(KeyRotationStatus.PAUSED);
+        }
+        jobRepository.save(job);
+    }
+
+    /**
+     * Ghi blob cũ vào bảng cách ly để BlobReconciliationService xóa sau
+     * deleteGraceMs (sau khi kiểm tra lại không còn dòng nào tham chiếu).
+     */
+    private void scheduleDelete(String blobKey) {
+        if (!orphanBlobRepository.findBlobKeysIn(List.of(blobKey)).isEmpty()) {
+            return;
+        }
+        long size;
+        try {
+            size = blobStore.size(blobKey);
+        } catch (IOException e) {
+            size = 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        orphanBlobRepository.save(OrphanBlob.builder()
+                .blobKey(blobKey)
+                .size(size)
+                .status(OrphanStatus.QUARANTINED)
+                .detectedAt(now)
+                .reclaimAfter(now.plusNanos(deleteGraceMs * 1_000_000))
+                .build());
+    }
+
+    private Bucket getByteBucket() {
+        if (byteBucket == null) {
+            byteBucket = perSecond(bytesPerSecond);
+        }
+        return byteBucket;
+    }
+
+    private Bucket getRowBucket() {
+        if (rowBucket == null) {
+            rowBucket = perSecond(rowsPerSecond);
+        }
+        return rowBucket;
+    }
+
+    private static Bucket perSecond(long rate) {
+        Bandwidth limit = Bandwidth.builder()
+                .capacity(rate)
+                .refillGreedy(rate, Duration.ofSeconds(1))
+                .build();
+        return Bucket.builder().addLimit(limit).build();
+    }
+
+    private static boolean isActive(KeyRotationJob job) {
+        return job.getStatus() == KeyRotationStatus.RUNNING || job.getStatus() == KeyRotationStatus.PAUSED;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+}
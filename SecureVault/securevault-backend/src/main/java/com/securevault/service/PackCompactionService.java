@@ -0,0 +1,170 @@
+package com.securevault.service;
+
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.PackedBlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Thu hồi dung lượng của các blob đã xóa trong pack file.
+ *
+ * Blob trong pack không bị xóa tại chỗ. Định kỳ, với mỗi pack đã đóng, job
+ * tính số byte còn được tham chiếu (bảng files hoặc blob_contents); pack có
+ * tỉ lệ sống thấp hơn ngưỡng được chép các blob còn sống sang pack hiện tại,
+ * trỏ các dòng của cả hai bảng sang khóa mới trong cùng một transaction, rồi
+ * xóa pack cũ sau thời gian chờ (khi không còn dòng nào của hai bảng trỏ tới
+ * nó).
+ */
+@Service
+public class PackCompactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackCompactionService.class);
+
+    private final FileRepository fileRepository;
+    private final BlobContentRepository blobContentRepository;
+    private final BlobStore blobStore;
+    private final TransactionTemplate transactionTemplate;
+
+    // Pack có tỉ lệ byte còn sống thấp hơn ngưỡng này sẽ được nén lại
+    @Value("${securevault.app.storage.pack.minLiveRatio:0.5}")
+    private double minLiveRatio;
+
+    // Thời gian chờ trước khi xóa pack cũ, để request đang đọc kịp hoàn tất
+    @Value("${securevault.app.storage.pack.deleteGraceMs:60000}")
+    private long deleteGraceMs;
+
+    private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+    private volatile LocalDateTime lastRunAt;
+    private volatile long packsCompacted;
+    private volatile long packsDeleted;
+    private volatile long blobsMoved;
+    private volatile long bytesReclaimed;
+
+    public PackCompactionService(FileRepository fileRepository,
+            BlobContentRepository blobContentRepository,
+            BlobStore blobStore,
+            PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.blobContentRepository = blobContentRepository;
+        this.blobStore = blobStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", blobStore.find(PackedBlobStore.class).isPresent());
+        status.put("lastRunAt", lastRunAt);
+        status.put("packsCompacted", packsCompacted);
+        status.put("packsDeleted", packsDeleted);
+        status.put("blobsMoved", blobsMoved);
+        status.put("bytesReclaimed", bytesReclaimed);
+        synchronized (pendingDeletes) {
+            status.put("pendingDeletes", pendingDeletes.size());
+        }
+        return status;
+    }
+
+    @Scheduled(fixedDelayString = "${securevault.app.storage.pack.compactionIntervalMs:600000}")
+    public void compact() {
+        Optional<PackedBlobStore> store = blobStore.find(PackedBlobStore.class);
+        if (store.isEmpty()) {
+            return;
+        }
+        deleteExpiredPacks(store.get());
+        try {
+            for (long packId : store.get().sealedPackIds()) {
+                if (isPendingDelete(packId)) {
+                    continue;
+                }
+                try {
+                    compactPack(store.get(), packId);
+                } catch (Exception e) {
+                    logger.warn("Pack compaction: pack {} failed: {}", packId, e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Pack compaction failed", e);
+        }
+        lastRunAt = LocalDateTime.now();
+    }
+
+    private void compactPack(PackedBlobStore store, long packId) throws Exception {
+        Set<String> live = liveKeys(packId);
+        long liveBytes = live.stream()
+                .mapToLong(key -> PackedBlobStore.entry(key).map(PackedBlobStore.Entry::length).orElse(0))
+                .sum();
+        long packBytes = store.packFileSize(packId);
+        if (packBytes > 0 && liveBytes >= packBytes * minLiveRatio) {
+            return;
+        }
+        for (String key : live) {
+            String newKey = store.repack(key);
+            // Hai bảng cùng đổi hoặc cùng giữ khóa cũ, kể cả khi tiến trình dừng giữa chừng
+            transactionTemplate.executeWithoutResult(status -> {
+                fileRepository.updateEncryptedPathByPath(key, newKey);
+                blobContentRepository.updateEncryptedPathByPath(key, newKey);
+            });
+            blobsMoved++;
+        }
+        logger.info("Pack compaction: pack {} ({} bytes, {} live) rewritten", packId, packBytes, liveBytes);
+        packsCompacted++;
+        synchronized (pendingDeletes) {
+            pendingDeletes.add(new PendingDelete(packId, packBytes - liveBytes,
+                    System.currentTimeMillis() + deleteGraceMs));
+        }
+    }
+
+    private void deleteExpiredPacks(PackedBlobStore store) {
+        long now = System.currentTimeMillis();
+        synchronized (pendingDeletes) {
+            while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().deleteAt() <= now) {
+                PendingDelete pending = pendingDeletes.pollFirst();
+                try {
+                    if (!liveKeys(pending.packId()).isEmpty()) {
+                        // Một dòng mới sao chép khóa cũ (upload trùng nội dung): lần nén sau xử lý
+                        continue;
+                    }
+                    store.deletePack(pending.packId());
+                    packsDeleted++;
+                    bytesReclaimed += pending.reclaimable();
+                } catch (Exception e) {
+                    logger.warn("Pack compaction: could not delete pack {}: {}", pending.packId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Các khóa blob trong pack còn được bảng files hoặc blob_contents tham chiếu. */
+    private Set<String> liveKeys(long packId) {
+        String prefix = PackedBlobStore.keyPrefix(packId);
+        Set<String> live = new TreeSet<>(fileRepository.findEncryptedPathsByPrefix(prefix));
+        live.addAll(blobContentRepository.findEncryptedPathsByPrefix(prefix));
+        return live;
+    }
+
+    private boolean isPendingDelete(long packId) {
+        synchronized (pendingDeletes) {
+            return pendingDeletes.stream().anyMatch(pending -> pending.packId() == packId);
+        }
+    }
+
+    private record PendingDelete(long packId, long reclaimable, long deleteAt) {
+    }
+}
@@ -0,0 +1,116 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * URL tải file ngắn hạn có chữ ký HMAC-SHA256.
+ *
+ * Quyền truy cập được kiểm tra một lần khi cấp URL; token mang id file, id
+ * người được cấp và thời điểm hết hạn, ký bằng khóa dẫn xuất từ master key.
+ * Khi phục vụ URL chỉ cần kiểm tra chữ ký và hạn dùng: không parse JWT, không
+ * tải user, không kiểm tra share; thời gian sống ngắn của URL là giới hạn cho
+ * việc thu hồi quyền. Metadata của file không được giữ trong bộ nhớ (blob,
+ * khóa và vị trí có thể đổi do xoay khóa, di chuyển, nén pack hoặc phân tầng)
+ * mà được đọc theo khóa chính, một truy vấn cho mỗi request.
+ */
+@Service
+public class SignedUrlService {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final EncryptionService encryptionService;
+    private final FileStorageService fileStorageService;
+
+    // Thời gian sống của URL (giây)
+    @Value("${securevault.app.signedUrl.ttlSeconds:300}")
+    private long ttlSeconds = 300;
+
+    private volatile SecretKey signingKey;
+    /** Token đã kiểm tra chữ ký và còn hạn. */
+    public record Grant(long fileId, long userId, long expiresAt) {
+    }
+
+    public SignedUrlService(EncryptionService encryptionService, FileStorageService fileStorageService) {
+        this.encryptionService = encryptionService;
+        this.fileStorageService = fileStorageService;
+    }
+
+    /**
+     * Cấp token cho file mà người dùng đã được kiểm tra quyền truy cập.
+     */
+    public String issue(FileDocument file, Long userId) {
+        long expiresAt = Instant.now().getEpochSecond() + ttlSeconds;
+        String payload = file.getId() + "." + userId + "." + expiresAt;
+        return payload + "." + sign(payload);
+    }
+
+    /**
+     * Kiểm tra chữ ký và hạn dùng của token; không truy cập DB.
+     */
+    public Optional<Grant> verify(String token) {
+        int lastDot = token.lastIndexOf('.');
+        if (lastDot < 0) {
+            return Optional.empty();
+        }
+        String payload = token.substring(0, lastDot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, token.substring(lastDot + 1).getBytes(StandardCharsets.US_ASCII))) {
+            return Optional.empty();
+        }
+        String[] parts = payload.split("\\.");
+        if (parts.length != 3) {
+            return Optional.empty();
+        }
+        try {
+            Grant grant = new Grant(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            return grant.expiresAt() >= Instant.now().getEpochSecond() ? Optional.of(grant) : Optional.empty();
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Metadata hiện tại của file trong token, đọc theo khóa chính; không kiểm
+     * tra lại quyền.
+     *
+     * @return rỗng nếu file đã bị xóa
+     */
+    public Optional<FileDocument> resolve(Grant grant) {
+        return fileStorageService.findFile(grant.fileId());
+    }
+
+    public long ttlSeconds() {
+        return ttlSeconds;
+    }
+
+    private String sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(getSigningKey());
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Signing failed", e);
+        }
+    }
+
+    private SecretKey getSigningKey() {
+        SecretKey key = signingKey;
+        if (key == null) {
+            key = encryptionService.deriveMacKey("securevault-signed-url");
+            signingKey = key;
+        }
+        return key;
+    }
+}
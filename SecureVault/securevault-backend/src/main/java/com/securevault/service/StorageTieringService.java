@@ -0,0 +1,263 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.BlobStore;
+import com.securevault.storage.LegacyPathBlobStore;
+import com.securevault.storage.PackedBlobStore;
+import com.securevault.storage.StagingArea;
+import com.securevault.storage.TieredBlobStore;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phân tầng lưu trữ hot/cold theo thống kê truy cập.
+ *
+ * - Mỗi lượt đọc file được gom trong bộ nhớ và ghi định kỳ vào
+ *   lastAccessedAt / readCount của bảng files (một UPDATE mỗi file mỗi lần
+ *   ghi, không phải mỗi lượt đọc).
+ * - Job nền duyệt các file không được đọc trong coldAfterDays ngày và
+ *   chuyển blob sang tầng cold (có giới hạn băng thông), rồi trỏ các dòng
+ *   sang khóa cold/... Blob nhỏ trong pack file và blob chưa chuyển sang
+ *   blob store được giữ nguyên.
+ * - Khi blob cold được đọc, request vẫn được phục vụ từ tầng cold và blob
+ *   được đưa lại tầng hot ở nền.
+ * Bản cũ của blob bị xóa sau thời gian chờ, khi không còn dòng nào trỏ tới.
+ */
+@Service
+public class StorageTieringService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageTieringService.class);
+
+    private final FileRepository fileRepository;
+    private final BlobContentRepository blobContentRepository;
+    private final BlobStore blobStore;
+    private final StagingArea stagingArea;
+
+    // Số ngày không được đọc trước khi blob bị chuyển sang tầng cold
+    @Value("${securevault.app.storage.tiering.coldAfterDays:30}")
+    private long coldAfterDays;
+
+    // Số file xét mỗi lần chạy
+    @Value("${securevault.app.storage.tiering.batchSize:100}")
+    private int batchSize;
+
+    // Giới hạn băng thông đọc khi chuyển blob sang tầng cold (bytes/giây)
+    @Value("${securevault.app.storage.tiering.bytesPerSecond:16777216}")
+    private long bytesPerSecond;
+
+    // Nghỉ giữa hai lượt duyệt toàn bộ bảng files
+    @Value("${securevault.app.storage.tiering.passIntervalMs:3600000}")
+    private long passIntervalMs;
+
+    // Số blob tối đa chờ đưa lại tầng hot
+    @Value("${securevault.app.storage.tiering.maxPendingPromotions:1000}")
+    private int maxPendingPromotions;
+
+    // Thời gian chờ trước khi xóa bản cũ, để request đang đọc kịp hoàn tất
+    @Value("${securevault.app.storage.tiering.deleteGraceMs:60000}")
+    private long deleteGraceMs;
+
+    private final Map<Long, Access> pendingAccess = new ConcurrentHashMap<>();
+    private final Set<String> pendingPromotions = ConcurrentHashMap.newKeySet();
+    private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+    private volatile Bucket byteBucket;
+    private volatile long lastFileId;
+    private volatile long nextPassAt;
+    private volatile long blobsDemoted;
+    private volatile long bytesDemoted;
+    private volatile long blobsPromoted;
+    private volatile long failures;
+
+    public StorageTieringService(FileRepository fileRepository,
+            BlobContentRepository blobContentRepository,
+            BlobStore blobStore,
+            StagingArea stagingArea) {
+        this.fileRepository = fileRepository;
+        this.blobContentRepository = blobContentRepository;
+        this.blobStore = blobStore;
+        this.stagingArea = stagingArea;
+    }
+
+    /**
+     * Ghi nhận một lượt đọc file. Không truy cập DB; blob cold được xếp hàng
+     * để đưa lại tầng hot.
+     */
+    public void recordRead(FileDocument fileDocument) {
+        pendingAccess.merge(fileDocument.getId(), new Access(1, LocalDateTime.now()), Access::plus);
+        if (TieredBlobStore.isCold(fileDocument.getEncryptedPath())
+                && pendingPromotions.size() < maxPendingPromotions) {
+            pendingPromotions.add(fileDocument.getEncryptedPath());
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", blobStore.find(TieredBlobStore.class).isPresent());
+        status.put("coldAfterDays", coldAfterDays);
+        status.put("lastFileId", lastFileId);
+        status.put("blobsDemoted", blobsDemoted);
+        status.put("bytesDemoted", bytesDemoted);
+        status.put("blobsPromoted", blobsPromoted);
+        status.put("pendingPromotions", pendingPromotions.size());
+        status.put("failures", failures);
+        synchronized (pendingDeletes) {
+            status.put("pendingDeletes", pendingDeletes.size());
+        }
+        return status;
+    }
+
+    /**
+     * Ghi thống kê truy cập đã gom vào DB.
+     */
+    @Scheduled(fixedDelayString = "${securevault.app.storage.tiering.accessFlushMs:10000}")
+    public void flushAccessStats() {
+        for (Long fileId : new ArrayList<>(pendingAccess.keySet())) {
+            Access access = pendingAccess.remove(fileId);
+            if (access == null) {
+                continue;
+            }
+            try {
+                fileRepository.recordAccess(fileId, access.reads(), access.lastAt());
+            } catch (Exception e) {
+                logger.warn("Tiering: could not record access for file id={}: {}", fileId, e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${securevault.app.storage.tiering.tickMs:5000}")
+    public void tick() {
+        deleteExpiredCopies();
+        Optional<TieredBlobStore> tiered = blobStore.find(TieredBlobStore.class);
+        if (tiered.isEmpty()) {
+            return;
+        }
+        promotePending(tiered.get());
+        if (System.currentTimeMillis() >= nextPassAt) {
+            demoteBatch(tiered.get());
+        }
+    }
+
+    private void promotePending(TieredBlobStore tiered) {
+        Iterator<String> it = pendingPromotions.iterator();
+        for (int i = 0; i < batchSize && it.hasNext(); i++) {
+            String coldKey = it.next();
+            it.remove();
+            try {
+                if (!fileRepository.existsByEncryptedPath(coldKey)) {
+                    continue;
+                }
+                String hotKey = tiered.promote(coldKey, stagingArea.directory());
+                repoint(coldKey, hotKey);
+                blobsPromoted++;
+            } catch (Exception e) {
+                logger.warn("Tiering: could not promote {}: {}", coldKey, e.getMessage());
+                failures++;
+            }
+        }
+    }
+
+    private void demoteBatch(TieredBlobStore tiered) {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(coldAfterDays);
+        List<FileDocument> files = fileRepository.findIdleAfter(lastFileId, cutoff, PageRequest.of(0, batchSize));
+        for (FileDocument file : files) {
+            lastFileId = file.getId();
+            String key = file.getEncryptedPath();
+            if (!isDemotable(key)
+                    || fileRepository.existsByEncryptedPathAndLastAccessedAtAfter(key, cutoff)
+                    || fileRepository.existsByEncryptedPathAndUploadedAtAfter(key, cutoff)) {
+                // Blob dùng chung còn được file khác đọc gần đây
+                continue;
+            }
+            try {
+                long size = blobStore.size(key);
+                String coldKey = tiered.demote(key,
+                        in -> new ThrottledInputStream(in, getByteBucket(), Math.min(64 * 1024, bytesPerSecond)));
+                repoint(key, coldKey);
+                blobsDemoted++;
+                bytesDemoted += size;
+            } catch (Exception e) {
+                logger.warn("Tiering: could not demote file id={}: {}", file.getId(), e.getMessage());
+                failures++;
+            }
+        }
+        if (files.size() < batchSize) {
+            lastFileId = 0;
+            nextPassAt = System.currentTimeMillis() + passIntervalMs;
+        }
+    }
+
+    private boolean isDemotable(String key) {
+        if (TieredBlobStore.isCold(key) || PackedBlobStore.entry(key).isPresent()) {
+            return false;
+        }
+        return !(blobStore instanceof LegacyPathBlobStore legacy && legacy.isLegacyPath(key));
+    }
+
+    /** Trỏ mọi dòng dùng blob sang bản mới; bản cũ bị xóa sau thời gian chờ. */
+    private void repoint(String oldKey, String newKey) {
+        fileRepository.updateEncryptedPathByPath(oldKey, newKey);
+        blobContentRepository.updateEncryptedPathByPath(oldKey, newKey);
+        synchronized (pendingDeletes) {
+            pendingDeletes.add(new PendingDelete(oldKey, System.currentTimeMillis() + deleteGraceMs));
+        }
+    }
+
+    private void deleteExpiredCopies() {
+        long now = System.currentTimeMillis();
+        synchronized (pendingDeletes) {
+            while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().deleteAt() <= now) {
+                String key = pendingDeletes.pollFirst().blobKey();
+                try {
+                    if (fileRepository.existsByEncryptedPath(key)) {
+                        // Một dòng mới sao chép khóa cũ (upload trùng nội dung): giữ bản cũ
+                        continue;
+                    }
+                    blobStore.delete(key);
+                } catch (Exception e) {
+                    logger.warn("Tiering: could not delete old copy {}: {}", key, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Bucket getByteBucket() {
+        if (byteBucket == null) {
+            Bandwidth limit = Bandwidth.builder()
+                    .capacity(bytesPerSecond)
+                    .refillGreedy(bytesPerSecond, Duration.ofSeconds(1))
+                    .build();
+            byteBucket = Bucket.builder().addLimit(limit).build();
+        }
+        return byteBucket;
+    }
+
+    private record Access(long reads, LocalDateTime lastAt) {
+        Access plus(Access other) {
+            return new Access(reads + other.reads, lastAt.isAfter(other.lastAt) ? lastAt : other.lastAt);
+        }
+    }
+
+    private record PendingDelete(String blobKey, long deleteAt) {
+    }
+}
@@ -1,49 +1,54 @@
 package com.securevault.service;
 
+import com.securevault.storage.StagingArea;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.stream.Stream;
 
 /**
- * Service for cleaning up temporary decrypted files.
- * Runs periodically to remove old temp files.
+ * Service for cleaning up abandoned staged uploads. Runs periodically to
+ * remove old staged files.
+ *
+ * Staged files live in their own small directory, never in the blob store,
+ * so a cleanup pass does not depend on the number of stored blobs.
  */
 @Service
 public class TempFileCleanupService {
     private static final Logger logger = LoggerFactory.getLogger(TempFileCleanupService.class);
 
-    @Value("${securevault.app.uploadDir}")
-    private String uploadDir;
+    private final StagingArea stagingArea;
 
-    // Max age for temp files in minutes (default: 5 minutes)
-    private static final int TEMP_FILE_MAX_AGE_MINUTES = 5;
+    // Staged blobs older than this belong to uploads that died mid-way
+    private static final int STAGED_FILE_MAX_AGE_HOURS = 24;
+
+    public TempFileCleanupService(StagingArea stagingArea) {
+        this.stagingArea = stagingArea;
+    }
 
     /**
-     * Cleanup temp files every 2 minutes
+     * Cleanup staged files every 2 minutes
      */
     @Scheduled(fixedRate = 120000) // 2 minutes
     public void cleanupTempFiles() {
-        Path uploadPath = Paths.get(uploadDir);
+        deleteOlderThan(stagingArea.directory(),
+                Instant.now().minus(STAGED_FILE_MAX_AGE_HOURS, ChronoUnit.HOURS));
+    }
 
-        if (!Files.exists(uploadPath)) {
+    private void deleteOlderThan(Path directory, Instant cutoffTime) {
+        if (!Files.exists(directory)) {
             return;
         }
 
-        try (Stream<Path> files = Files.list(uploadPath)) {
-            Instant cutoffTime = Instant.now().minus(TEMP_FILE_MAX_AGE_MINUTES, ChronoUnit.MINUTES);
-
-            files.filter(file -> file.getFileName().toString().startsWith("decrypted_"))
-                    .filter(file -> {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> {
                         try {
                             return Files.getLastModifiedTime(file).toInstant().isBefore(cutoffTime);
                         } catch (IOException e) {
@@ -62,18 +67,4 @@ public class TempFileCleanupService {
             logger.error("Error during temp file cleanup", e);
         }
     }
-
-    /**
-     * Manual cleanup method for specific file
-     */
-    public void deleteTempFile(Path file) {
-        try {
-            if (Files.exists(file) && file.getFileName().toString().startsWith("decrypted_")) {
-                Files.delete(file);
-                logger.debug("Deleted temp file: {}", file.getFileName());
-            }
-        } catch (IOException e) {
-            logger.error("Failed to delete temp file: {}", file.getFileName(), e);
-        }
-    }
 }
@@ -0,0 +1,52 @@
+package com.securevault.service;
+
+import io.github.bucket4j.Bucket;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits how fast background jobs read blob data, one token per byte. Reads
+ * block until the shared {@link Bucket} has refilled, so several streams
+ * throttled by the same bucket share one bandwidth budget.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final Bucket bucket;
+    private final long maxTokensPerRead;
+
+    public ThrottledInputStream(InputStream in, Bucket bucket, long maxTokensPerRead) {
+        super(in);
+        this.bucket = bucket;
+        this.maxTokensPerRead = Math.max(1, maxTokensPerRead);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            consume(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, (int) Math.min(len, maxTokensPerRead));
+        if (n > 0) {
+            consume(n);
+        }
+        return n;
+    }
+
+    private void consume(long tokens) throws IOException {
+        try {
+            bucket.asBlocking().consume(tokens);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Storage for encrypted blobs, addressed by an opaque key (what
+ * {@code FileDocument.encryptedPath} holds). Blobs are immutable: a key is
+ * written once by {@link #put} and then only read or deleted.
+ *
+ * Implementations never see plaintext; encryption happens before
+ * {@link #put} and decryption after {@link #get}.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores the contents of a fully written local file under {@code key}.
+     * The staged file is consumed: it is moved into place or deleted once
+     * uploaded.
+     *
+     * @return the key to read the blob back with; usually {@code key}, but a
+     *         store may assign its own (see {@link PackedBlobStore})
+     */
+    String put(String key, Path stagedFile) throws IOException;
+
+    /**
+     * Stores a blob already held in memory, without a staging file.
+     *
+     * @return the key to read the blob back with
+     */
+    String put(String key, byte[] content) throws IOException;
+
+    /** Opens the whole blob. Throws {@link java.nio.file.NoSuchFileException} if it does not exist. */
+    InputStream get(String key) throws IOException;
+
+    /** Opens blob bytes {@code [offset, offset + length)}, clipped to the blob size. */
+    InputStream getRange(String key, long offset, long length) throws IOException;
+
+    long size(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /** Deletes the blob; deleting a missing key is not an error. */
+    void delete(String key) throws IOException;
+
+    /**
+     * Every blob in the store, for reconciliation against the database. The
+     * stream is lazy (a store may hold millions of blobs) and must be closed.
+     * Entries are not guaranteed to be unique.
+     *
+     * @throws UnsupportedOperationException if the store cannot enumerate its blobs
+     */
+    default Stream<StoredBlob> list() throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot list its blobs");
+    }
+
+    /**
+     * The local file holding {@code key}, for stores that keep blobs as plain
+     * files. Callers use it for random access (positional reads, parallel
+     * decryption); everything else must go through the stream methods.
+     */
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * This store, or the store it decorates, if it is of the given type.
+     */
+    default <T extends BlobStore> Optional<T> find(Class<T> type) {
+        return type.isInstance(this) ? Optional.of(type.cast(this)) : Optional.empty();
+    }
+}
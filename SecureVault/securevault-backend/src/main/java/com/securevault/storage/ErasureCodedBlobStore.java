@@ -0,0 +1,523 @@
+package com.securevault.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Splits every blob into {@code dataShards} data shards plus
+ * {@code parityShards} Reed-Solomon parity shards, each on its own volume.
+ * Any {@code dataShards} of them rebuild the blob, so up to
+ * {@code parityShards} volumes can be lost at a storage cost of
+ * (data + parity) / data instead of a full copy per extra failure.
+ *
+ * The blob is cut into stripes of {@code dataShards} chunks; chunk {@code i}
+ * of every stripe goes to shard file {@code i}. With all data shards present
+ * a read touches only the data shards holding the requested range, spread
+ * over several disks; when one is missing the affected stripes are decoded
+ * from the remaining shards (degraded read).
+ *
+ * Shard file layout: a 24-byte header ({@code "SVEC"}, version, data shards,
+ * parity shards, shard index, blob length, chunk size), then one chunk per
+ * stripe.
+ */
+public class ErasureCodedBlobStore implements RedundantBlobStore {
+
+    private static final byte[] MAGIC = "SVEC".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_CHUNK = 64 * 1024;
+    private static final Pattern SHARD_NAME = Pattern.compile("(.+)\\.ec\\d+");
+
+    private final VolumeSet volumes;
+    private final ReedSolomon codec;
+    private final int dataShards;
+    private final int totalShards;
+    private final BlobStore fallback;
+
+    public ErasureCodedBlobStore(List<Path> roots, int dataShards, int parityShards, BlobStore fallback) {
+        if (dataShards + parityShards > roots.size()) {
+            throw new IllegalArgumentException("Erasure coding " + dataShards + "+" + parityShards
+                    + " needs as many volumes, only " + roots.size() + " configured");
+        }
+        this.volumes = new VolumeSet(roots);
+        this.codec = new ReedSolomon(dataShards, parityShards);
+        this.dataShards = dataShards;
+        this.totalShards = dataShards + parityShards;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        try (InputStream in = Files.newInputStream(stagedFile)) {
+            write(key, in, Files.size(stagedFile));
+        }
+        Files.delete(stagedFile);
+        return key;
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        write(key, new ByteArrayInputStream(content), content.length);
+        return key;
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return getRange(key, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        ShardReader reader = ShardReader.open(this, key);
+        if (reader == null) {
+            if (fallback != null) {
+                return offset == 0 && length == Long.MAX_VALUE ? fallback.get(key) : fallback.getRange(key, offset, length);
+            }
+            throw new NoSuchFileException(key);
+        }
+        long start = Math.min(offset, reader.length);
+        long end = length > reader.length - start ? reader.length : start + length;
+        return new StripeInputStream(reader, start, end);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try (ShardReader reader = ShardReader.open(this, key)) {
+            if (reader != null) {
+                return reader.length;
+            }
+        }
+        if (fallback != null) {
+            return fallback.size(key);
+        }
+        throw new NoSuchFileException(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        int found = 0;
+        for (int i = 0; i < totalShards; i++) {
+            if (locate(key, i) != null) {
+                found++;
+            }
+        }
+        return found >= dataShards || fallback != null && fallback.exists(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        IOException failure = null;
+        for (VolumeSet.Volume volume : volumes.all()) {
+            for (int i = 0; i < totalShards; i++) {
+                try {
+                    volume.store.delete(shardName(key, i));
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (fallback != null) {
+            fallback.delete(key);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Shard files on reachable volumes, under their blob's key (a blob
+     * appears once per shard), then the fallback's blobs.
+     */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        Stream<StoredBlob> blobs = volumes.list().flatMap(shard -> {
+            Matcher name = SHARD_NAME.matcher(shard.key());
+            return name.matches()
+                    ? Stream.of(new StoredBlob(name.group(1), shard.size(), shard.modifiedAt()))
+                    : Stream.empty();
+        });
+        return fallback != null ? Stream.concat(blobs, fallback.list()) : blobs;
+    }
+
+    /** Rebuilds missing shards onto volumes holding no shard of the blob. */
+    @Override
+    public int repair(String key) throws IOException {
+        List<Integer> missing = new ArrayList<>();
+        List<VolumeSet.Volume> free = new ArrayList<>(volumes.writable(key));
+        for (int i = 0; i < totalShards; i++) {
+            VolumeSet.Volume holder = locate(key, i);
+            if (holder == null) {
+                missing.add(i);
+            } else {
+                free.remove(holder);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        if (free.size() < missing.size()) {
+            throw new IOException("Not enough healthy volumes to repair " + key);
+        }
+        try (ShardReader reader = ShardReader.open(this, key)) {
+            if (reader == null) {
+                throw new NoSuchFileException(key);
+            }
+            Path[] parts = new Path[missing.size()];
+            OutputStream[] outs = new OutputStream[missing.size()];
+            try {
+                for (int m = 0; m < parts.length; m++) {
+                    parts[m] = stage(free.get(m));
+                    outs[m] = new BufferedOutputStream(Files.newOutputStream(parts[m]));
+                    outs[m].write(header(missing.get(m), reader.length, reader.chunk));
+                }
+                byte[][] shards = new byte[totalShards][reader.chunk];
+                for (long stripe = 0; stripe < reader.stripes(); stripe++) {
+                    reader.readStripe(stripe, shards, true);
+                    for (int m = 0; m < parts.length; m++) {
+                        outs[m].write(shards[missing.get(m)], 0, reader.chunk);
+                    }
+                }
+                closeAll(outs);
+                for (int m = 0; m < parts.length; m++) {
+                    free.get(m).store.put(shardName(key, missing.get(m)), parts[m]);
+                }
+            } finally {
+                closeAll(outs);
+                for (Path part : parts) {
+                    if (part != null) {
+                        Files.deleteIfExists(part);
+                    }
+                }
+            }
+        }
+        return missing.size();
+    }
+
+    @Override
+    public List<VolumeStatus> volumes() {
+        return volumes.all().stream()
+                .map(volume -> new VolumeStatus(volume.toString(), volume.isUp(), volume.readsInFlight()))
+                .toList();
+    }
+
+    @Override
+    public <T extends BlobStore> Optional<T> find(Class<T> type) {
+        if (type.isInstance(this)) {
+            return Optional.of(type.cast(this));
+        }
+        return fallback != null ? fallback.find(type) : Optional.empty();
+    }
+
+    private void write(String key, InputStream in, long length) throws IOException {
+        List<VolumeSet.Volume> targets = volumes.writable(key);
+        if (targets.size() < totalShards) {
+            throw new IOException("Only " + targets.size() + " volumes available, " + totalShards + " needed");
+        }
+        // Small blobs get small chunks, so padding never costs more than one byte per shard
+        int chunk = (int) Math.max(1, Math.min(MAX_CHUNK, (length + dataShards - 1) / dataShards));
+        Path[] parts = new Path[totalShards];
+        OutputStream[] outs = new OutputStream[totalShards];
+        try {
+            for (int i = 0; i < totalShards; i++) {
+                parts[i] = stage(targets.get(i));
+                outs[i] = new BufferedOutputStream(Files.newOutputStream(parts[i]));
+                outs[i].write(header(i, length, chunk));
+            }
+            byte[][] shards = new byte[totalShards][chunk];
+            long remaining = length;
+            while (remaining > 0) {
+                for (int d = 0; d < dataShards; d++) {
+                    int n = (int) Math.min(chunk, remaining);
+                    if (in.readNBytes(shards[d], 0, n) < n) {
+                        throw new EOFException("Blob shorter than " + length + " bytes");
+                    }
+                    Arrays.fill(shards[d], n, chunk, (byte) 0);
+                    remaining -= n;
+                }
+                codec.encodeParity(shards, chunk);
+                for (int i = 0; i < totalShards; i++) {
+                    outs[i].write(shards[i]);
+                }
+            }
+            closeAll(outs);
+            for (int i = 0; i < totalShards; i++) {
+                targets.get(i).store.put(shardName(key, i), parts[i]);
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < totalShards; i++) {
+                try {
+                    targets.get(i).store.delete(shardName(key, i));
+                } catch (IOException cleanup) {
+                    e.addSuppressed(cleanup);
+                }
+            }
+            throw e;
+        } finally {
+            closeAll(outs);
+            for (Path part : parts) {
+                if (part != null) {
+                    Files.deleteIfExists(part);
+                }
+            }
+        }
+    }
+
+    /** The volume holding shard {@code index}: its preferred volume first, then any other. */
+    private VolumeSet.Volume locate(String key, int index) {
+        List<VolumeSet.Volume> ordered = volumes.order(key);
+        String name = shardName(key, index);
+        VolumeSet.Volume preferred = ordered.remove(index);
+        ordered.add(0, preferred);
+        for (VolumeSet.Volume volume : ordered) {
+            if (volume.isUp() && volume.store.exists(name)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    private byte[] header(int index, long length, int chunk) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .put(MAGIC)
+                .put(VERSION)
+                .put((byte) dataShards)
+                .put((byte) (totalShards - dataShards))
+                .put((byte) index)
+                .putLong(length)
+                .putInt(chunk)
+                .array();
+    }
+
+    private static Path stage(VolumeSet.Volume volume) throws IOException {
+        Files.createDirectories(volume.staging());
+        return volume.staging().resolve(UUID.randomUUID() + ".part");
+    }
+
+    private static String shardName(String key, int index) {
+        return key + ".ec" + index;
+    }
+
+    private static void closeAll(Closeable[] closeables) throws IOException {
+        IOException failure = null;
+        for (Closeable closeable : closeables) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Open shard files of one blob; shards are opened on first use. */
+    private static final class ShardReader implements Closeable {
+        private final ErasureCodedBlobStore store;
+        private final String key;
+        private final FileChannel[] channels;
+        private final VolumeSet.Volume[] holders;
+        private final boolean[] tried;
+        private long length;
+        private int chunk;
+
+        private ShardReader(ErasureCodedBlobStore store, String key) {
+            this.store = store;
+            this.key = key;
+            this.channels = new FileChannel[store.totalShards];
+            this.holders = new VolumeSet.Volume[store.totalShards];
+            this.tried = new boolean[store.totalShards];
+        }
+
+        /** Reads the blob header from the first shard found; null if no shard exists. */
+        static ShardReader open(ErasureCodedBlobStore store, String key) throws IOException {
+            ShardReader reader = new ShardReader(store, key);
+            for (int i = 0; i < store.totalShards; i++) {
+                FileChannel channel = reader.channel(i);
+                if (channel != null) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    readFully(channel, header, 0);
+                    header.flip();
+                    byte[] magic = new byte[MAGIC.length];
+                    header.get(magic);
+                    if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION
+                            || (header.get() & 0xff) != store.dataShards
+                            || (header.get() & 0xff) != store.totalShards - store.dataShards) {
+                        reader.close();
+                        throw new IOException("Unrecognised shard header for " + key);
+                    }
+                    header.get();
+                    reader.length = header.getLong();
+                    reader.chunk = header.getInt();
+                    return reader;
+                }
+            }
+            return null;
+        }
+
+        long stripes() {
+            long stripeSize = (long) chunk * store.dataShards;
+            return (length + stripeSize - 1) / stripeSize;
+        }
+
+        /**
+         * Fills {@code shards} with one stripe. Only data shards are read
+         * unless some are missing; {@code all} also rebuilds the parity.
+         */
+        void readStripe(long stripe, byte[][] shards, boolean all) throws IOException {
+            boolean[] present = new boolean[store.totalShards];
+            int found = 0;
+            for (int i = 0; i < store.totalShards && found < store.dataShards; i++) {
+                if (readChunk(i, stripe, shards[i])) {
+                    present[i] = true;
+                    found++;
+                }
+            }
+            if (found < store.dataShards) {
+                throw new IOException("Too many shards missing to read " + key);
+            }
+            boolean complete = true;
+            for (int i = 0; i < (all ? store.totalShards : store.dataShards); i++) {
+                complete &= present[i];
+            }
+            if (!complete) {
+                store.codec.reconstruct(shards, present, chunk);
+            }
+        }
+
+        private boolean readChunk(int index, long stripe, byte[] into) throws IOException {
+            FileChannel channel = channel(index);
+            if (channel == null) {
+                return false;
+            }
+            try {
+                readFully(channel, ByteBuffer.wrap(into, 0, chunk), HEADER_SIZE + stripe * chunk);
+                return true;
+            } catch (IOException e) {
+                // Unreadable shard: treat it as missing from now on
+                holders[index].markDown();
+                channel.close();
+                channels[index] = null;
+                return false;
+            }
+        }
+
+        private FileChannel channel(int index) {
+            if (!tried[index]) {
+                tried[index] = true;
+                VolumeSet.Volume holder = store.locate(key, index);
+                if (holder != null) {
+                    try {
+                        Path path = holder.store.localPath(shardName(key, index)).orElseThrow();
+                        channels[index] = FileChannel.open(path, StandardOpenOption.READ);
+                        holders[index] = holder;
+                    } catch (NoSuchFileException e) {
+                        // Deleted since it was located
+                    } catch (IOException e) {
+                        holder.markDown();
+                    }
+                }
+            }
+            return channels[index];
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("Truncated shard");
+                }
+                position += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeAll(channels);
+        }
+    }
+
+    /** Blob bytes {@code [position, end)}, decoded one stripe at a time. */
+    private static final class StripeInputStream extends InputStream {
+        private final ShardReader reader;
+        private final byte[][] shards;
+        private final long stripeSize;
+        private long position;
+        private final long end;
+        private final boolean[] loaded;
+        private long loadedStripe = -1;
+
+        StripeInputStream(ShardReader reader, long start, long end) {
+            this.reader = reader;
+            this.shards = new byte[reader.store.totalShards][reader.chunk];
+            this.loaded = new boolean[reader.store.totalShards];
+            this.stripeSize = (long) reader.chunk * reader.store.dataShards;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            long stripe = position / stripeSize;
+            long within = position % stripeSize;
+            int shard = (int) (within / reader.chunk);
+            if (stripe != loadedStripe) {
+                Arrays.fill(loaded, false);
+                loadedStripe = stripe;
+            }
+            if (!loaded[shard]) {
+                // Read just the chunk holding the range; decode the stripe only if it is lost
+                if (reader.readChunk(shard, stripe, shards[shard])) {
+                    loaded[shard] = true;
+                } else {
+                    reader.readStripe(stripe, shards, false);
+                    Arrays.fill(loaded, true);
+                }
+            }
+            int offset = (int) (within % reader.chunk);
+            int n = (int) Math.min(Math.min(len, reader.chunk - offset), end - position);
+            System.arraycopy(shards[shard], offset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Blobs stored as plain files directly under one root directory, the layout
+ * uploads have always used.
+ */
+public class FileSystemBlobStore implements BlobStore {
+
+    protected final Path root;
+
+    public FileSystemBlobStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(stagedFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Staging area on another volume: copy, then drop the staged file
+            Files.move(stagedFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return key;
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        // Written beside the target and renamed, so readers never see a partial blob
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        Files.write(partial, content);
+        return put(key, partial);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(locate(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(locate(key), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(locate(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(locate(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    /**
+     * Regular files directly under the root. Directories (staging, packs,
+     * shard directories) and dot files (markers) are not blobs.
+     */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        return files(root).filter(file -> !file.getFileName().toString().startsWith("."))
+                .flatMap(file -> stat(file).stream());
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(locate(key));
+    }
+
+    /**
+     * Maps a key to its file. Keys are relative names chosen by the
+     * application; anything that could escape the root is rejected.
+     */
+    protected Path resolve(String key) {
+        Path target = root.resolve(validate(key)).normalize();
+        if (!target.startsWith(root)) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return target;
+    }
+
+    /**
+     * The file to read an existing blob from. Same as {@link #resolve} unless
+     * a subclass keeps blobs in more than one place.
+     */
+    protected Path locate(String key) {
+        return resolve(key);
+    }
+
+    /** Regular files in {@code dir}, read lazily; empty if the directory does not exist. */
+    protected static Stream<Path> files(Path dir) throws IOException {
+        return entries(dir).filter(Files::isRegularFile);
+    }
+
+    /** Subdirectories of {@code dir}, read lazily; empty if the directory does not exist. */
+    protected static Stream<Path> directories(Path dir) throws IOException {
+        return entries(dir).filter(Files::isDirectory);
+    }
+
+    private static Stream<Path> entries(Path dir) throws IOException {
+        DirectoryStream<Path> entries;
+        try {
+            entries = Files.newDirectoryStream(dir);
+        } catch (NoSuchFileException e) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(entries.spliterator(), false).onClose(() -> {
+            try {
+                entries.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** The file as a listed blob, keyed by its name; empty if it vanished meanwhile. */
+    protected static Optional<StoredBlob> stat(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return Optional.of(new StoredBlob(file.getFileName().toString(), attributes.size(),
+                    attributes.lastModifiedTime().toInstant()));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    protected static String validate(String key) {
+        if (key == null || key.isBlank() || key.startsWith("/") || key.startsWith("\\") || key.contains("..")
+                || key.indexOf(':') >= 0) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,136 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Lets rows written before the blob store existed keep working: their
+ * {@code encryptedPath} is a file path (absolute, or relative to the working
+ * directory when uploadDir was configured relative) rather than a store key.
+ * Such keys are served straight from the local filesystem; everything else
+ * goes to the configured store. New blobs are never written under an
+ * absolute path.
+ */
+public class LegacyPathBlobStore implements BlobStore {
+
+    private final BlobStore delegate;
+    private final Path uploadRoot;
+    private final Path configuredRoot;
+    private final FileSystemBlobStore legacy = new FileSystemBlobStore(Paths.get("/")) {
+        @Override
+        protected Path resolve(String key) {
+            return legacyFile(key);
+        }
+    };
+
+    /**
+     * @param uploadRoot directory legacy blobs were written to; relative
+     *                   paths are only treated as legacy when they point into it
+     */
+    public LegacyPathBlobStore(BlobStore delegate, Path uploadRoot) {
+        this.delegate = delegate;
+        this.uploadRoot = uploadRoot.toAbsolutePath().normalize();
+        this.configuredRoot = uploadRoot;
+    }
+
+    public BlobStore delegate() {
+        return delegate;
+    }
+
+    /** Whether {@code key} is a pre-blob-store file path rather than a store key. */
+    public boolean isLegacyPath(String key) {
+        if (key == null) {
+            return false;
+        }
+        Path path = Paths.get(key);
+        if (path.isAbsolute()) {
+            return true;
+        }
+        Path parent = path.toAbsolutePath().normalize().getParent();
+        return path.getParent() != null && uploadRoot.equals(parent);
+    }
+
+    /** The file a legacy path refers to, resolved the way it was when written. */
+    public Path legacyFile(String key) {
+        return Paths.get(key).toAbsolutePath().normalize();
+    }
+
+    /**
+     * The paths a row written before the blob store may hold for the blob
+     * stored flat under the upload root as {@code key}: its absolute path,
+     * and the path as configured if the upload directory was relative.
+     */
+    public List<String> legacyPaths(String key) {
+        Set<String> paths = new LinkedHashSet<>();
+        paths.add(uploadRoot.resolve(key).toString());
+        paths.add(configuredRoot.resolve(key).toString());
+        return List.copyOf(paths);
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        if (isLegacyPath(key)) {
+            throw new IllegalArgumentException("Blob keys must be relative: " + key);
+        }
+        return delegate.put(key, stagedFile);
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        if (isLegacyPath(key)) {
+            throw new IllegalArgumentException("Blob keys must be relative: " + key);
+        }
+        return delegate.put(key, content);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return route(key).get(key);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        return route(key).getRange(key, offset, length);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return route(key).size(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return route(key).exists(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        route(key).delete(key);
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return route(key).localPath(key);
+    }
+
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        return delegate.list();
+    }
+
+    @Override
+    public <T extends BlobStore> Optional<T> find(Class<T> type) {
+        return type.isInstance(this) ? Optional.of(type.cast(this)) : delegate.find(type);
+    }
+
+    private BlobStore route(String key) {
+        return isLegacyPath(key) ? legacy : delegate;
+    }
+}
@@ -0,0 +1,318 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps small blobs in large append-only pack files instead of one file
+ * each, so storing and reading them costs no inode, directory entry or
+ * open/close. Blobs at or above the threshold go to the decorated store.
+ *
+ * The location of a packed blob is its key, {@code packs/<pack>/<offset>/<length>},
+ * so no separate index has to be read: the row holding the key is the index.
+ * Appends from concurrent uploads share one fsync (group commit). Packed
+ * blobs are never removed in place; {@link #delete} only forgets them and
+ * the compactor rewrites packs whose live entries have become sparse.
+ */
+public class PackedBlobStore implements BlobStore {
+
+    public static final String KEY_PREFIX = "packs/";
+    private static final String PACK_SUFFIX = ".pack";
+
+    private final BlobStore delegate;
+    private final Path packDir;
+    private final int threshold;
+    private final long packSize;
+
+    private final Object appendLock = new Object();
+    private final Map<Long, FileChannel> readers = new ConcurrentHashMap<>();
+    private Pack current;
+    private long nextPackId = -1;
+
+    /**
+     * @param threshold blobs smaller than this many bytes are packed
+     * @param packSize  a pack is sealed once it would grow beyond this size
+     */
+    public PackedBlobStore(BlobStore delegate, Path packDir, int threshold, long packSize) {
+        this.delegate = delegate;
+        this.packDir = packDir.toAbsolutePath().normalize();
+        this.threshold = threshold;
+        this.packSize = packSize;
+    }
+
+    /** Location of a packed blob, decoded from its key. */
+    public record Entry(long packId, long offset, int length) {
+    }
+
+    public static Optional<Entry> entry(String key) {
+        if (key == null || !key.startsWith(KEY_PREFIX)) {
+            return Optional.empty();
+        }
+        String[] parts = key.substring(KEY_PREFIX.length()).split("/");
+        if (parts.length != 3) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Integer.parseInt(parts[2])));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /** Common prefix of the keys of every blob in a pack. */
+    public static String keyPrefix(long packId) {
+        return KEY_PREFIX + packId + "/";
+    }
+
+    private static String key(long packId, long offset, int length) {
+        return keyPrefix(packId) + offset + "/" + length;
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        if (Files.size(stagedFile) >= threshold) {
+            return delegate.put(key, stagedFile);
+        }
+        String packedKey = append(Files.readAllBytes(stagedFile));
+        Files.deleteIfExists(stagedFile);
+        return packedKey;
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        return content.length >= threshold ? delegate.put(key, content) : append(content);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        Optional<Entry> entry = entry(key);
+        if (entry.isEmpty()) {
+            return delegate.get(key);
+        }
+        return new ChannelRangeInputStream(reader(entry.get().packId()), entry.get().offset(), entry.get().length());
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        Optional<Entry> entry = entry(key);
+        if (entry.isEmpty()) {
+            return delegate.getRange(key, offset, length);
+        }
+        long start = Math.min(offset, entry.get().length());
+        long count = Math.min(length, entry.get().length() - start);
+        return new ChannelRangeInputStream(reader(entry.get().packId()), entry.get().offset() + start, count);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        Optional<Entry> entry = entry(key);
+        return entry.isPresent() ? entry.get().length() : delegate.size(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        Optional<Entry> entry = entry(key);
+        if (entry.isEmpty()) {
+            return delegate.exists(key);
+        }
+        Path pack = packFile(entry.get().packId());
+        return Files.exists(pack) && Files.size(pack) >= entry.get().offset() + entry.get().length();
+    }
+
+    /** Packed blobs are reclaimed by compaction; other blobs are deleted from the decorated store. */
+    @Override
+    public void delete(String key) throws IOException {
+        if (entry(key).isEmpty()) {
+            delegate.delete(key);
+        }
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return entry(key).isPresent() ? Optional.empty() : delegate.localPath(key);
+    }
+
+    /**
+     * Blobs of the decorated store. Packed blobs are not listed: a pack is
+     * reclaimed as a whole by the compactor once its entries are unused.
+     */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        return delegate.list();
+    }
+
+    @Override
+    public <T extends BlobStore> Optional<T> find(Class<T> type) {
+        return type.isInstance(this) ? Optional.of(type.cast(this)) : delegate.find(type);
+    }
+
+    // ==================== Compaction support ====================
+
+    /** Packs that no longer receive appends, oldest first. */
+    public List<Long> sealedPackIds() throws IOException {
+        Long writable;
+        synchronized (appendLock) {
+            writable = current != null ? current.id : null;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (long id : packIds()) {
+            if (writable == null || id != writable) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    public long packFileSize(long packId) throws IOException {
+        return Files.size(packFile(packId));
+    }
+
+    /**
+     * Copies a packed blob to the end of the current pack and returns its new
+     * key. If the blob is no longer below the threshold (packing was turned
+     * off by setting it to 0) it moves to the decorated store instead, so
+     * compaction drains old packs.
+     */
+    public String repack(String key) throws IOException {
+        try (InputStream in = get(key)) {
+            byte[] content = in.readAllBytes();
+            return content.length >= threshold ? delegate.put(UUID.randomUUID().toString(), content) : append(content);
+        }
+    }
+
+    public void deletePack(long packId) throws IOException {
+        FileChannel reader = readers.remove(packId);
+        if (reader != null) {
+            reader.close();
+        }
+        Files.deleteIfExists(packFile(packId));
+    }
+
+    // ==================== Internals ====================
+
+    private String append(byte[] content) throws IOException {
+        Pack pack;
+        long offset;
+        long end;
+        synchronized (appendLock) {
+            pack = writablePack(content.length);
+            offset = pack.size;
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                pack.channel.write(buffer, offset + buffer.position());
+            }
+            pack.size = end = offset + content.length;
+        }
+        sync(pack, end);
+        return key(pack.id, offset, content.length);
+    }
+
+    /**
+     * Makes everything up to {@code end} durable. Whoever gets the lock
+     * first flushes all appends made so far, so the writers queued behind it
+     * usually find their bytes already synced.
+     */
+    private static void sync(Pack pack, long end) throws IOException {
+        synchronized (pack) {
+            if (pack.synced >= end) {
+                return;
+            }
+            long written = pack.size;
+            pack.channel.force(false);
+            pack.synced = written;
+        }
+    }
+
+    private Pack writablePack(int length) throws IOException {
+        if (current != null && current.size > 0 && current.size + length > packSize) {
+            Pack sealed = current;
+            current = null;
+            synchronized (sealed) {
+                sealed.channel.force(false);
+                sealed.synced = sealed.size;
+                sealed.channel.close();
+            }
+        }
+        if (current == null) {
+            if (nextPackId < 0) {
+                nextPackId = packIds().stream().mapToLong(Long::longValue).max().orElse(0) + 1;
+            }
+            long id = nextPackId++;
+            Files.createDirectories(packDir);
+            // Always a fresh pack after restart: a torn tail of an old pack is never appended to
+            current = new Pack(id, FileChannel.open(packFile(id), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE));
+        }
+        return current;
+    }
+
+    private FileChannel reader(long packId) throws IOException {
+        try {
+            return readers.computeIfAbsent(packId, id -> {
+                try {
+                    return FileChannel.open(packFile(id), StandardOpenOption.READ);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private List<Long> packIds() throws IOException {
+        if (!Files.exists(packDir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(packDir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(PACK_SUFFIX))
+                    .map(name -> {
+                        try {
+                            return Long.parseLong(name.substring(0, name.length() - PACK_SUFFIX.length()));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path packFile(long packId) {
+        return packDir.resolve(packId + PACK_SUFFIX);
+    }
+
+    public Path packDir() {
+        return packDir;
+    }
+
+    private static final class Pack {
+        final long id;
+        final FileChannel channel;
+        volatile long size;
+        long synced;
+
+        Pack(long id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+    }
+}
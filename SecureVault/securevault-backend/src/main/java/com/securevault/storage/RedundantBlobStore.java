@@ -0,0 +1,24 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A store that keeps every blob on more than one volume, so it survives
+ * losing some of them. Reads keep working while a volume is missing;
+ * {@link #repair} restores the lost redundancy afterwards.
+ */
+public interface RedundantBlobStore extends BlobStore {
+
+    /**
+     * Rewrites copies or shards of {@code key} missing from their volumes.
+     *
+     * @return how many were rewritten (0 if the blob was intact)
+     */
+    int repair(String key) throws IOException;
+
+    List<VolumeStatus> volumes();
+
+    record VolumeStatus(String path, boolean up, int readsInFlight) {
+    }
+}
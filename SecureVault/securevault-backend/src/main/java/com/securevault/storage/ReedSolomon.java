@@ -0,0 +1,188 @@
+package com.securevault.storage;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): {@code dataShards} equally
+ * sized shards are extended with {@code parityShards} parity shards, and any
+ * {@code dataShards} of the total are enough to rebuild the rest.
+ *
+ * The coding matrix is a Vandermonde matrix normalised so that its top rows
+ * are the identity; data shards are stored as-is and only parity costs CPU.
+ */
+final class ReedSolomon {
+
+    private static final int[] LOG = new int[256];
+    private static final int[] EXP = new int[510];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            EXP[i + 255] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) {
+                x ^= 0x11d;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final int[][] matrix;
+
+    ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int total = dataShards + parityShards;
+        int[][] vandermonde = new int[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power(r, c);
+            }
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    int dataShards() {
+        return dataShards;
+    }
+
+    int totalShards() {
+        return dataShards + parityShards;
+    }
+
+    /** Computes the parity shards from the data shards; every shard holds {@code length} bytes. */
+    void encodeParity(byte[][] shards, int length) {
+        for (int p = dataShards; p < totalShards(); p++) {
+            code(matrix[p], shards, shards[p], length);
+        }
+    }
+
+    /**
+     * Rebuilds the shards not marked present from the ones that are.
+     *
+     * @throws IllegalArgumentException if fewer than {@code dataShards} are present
+     */
+    void reconstruct(byte[][] shards, boolean[] present, int length) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < totalShards() && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Need " + dataShards + " shards, only " + found + " present");
+        }
+        int[][] sub = new int[dataShards][];
+        byte[][] inputs = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            sub[i] = matrix[rows[i]];
+            inputs[i] = shards[rows[i]];
+        }
+        int[][] decode = invert(sub);
+        for (int d = 0; d < dataShards; d++) {
+            if (!present[d]) {
+                code(decode[d], inputs, shards[d], length);
+            }
+        }
+        for (int p = dataShards; p < totalShards(); p++) {
+            if (!present[p]) {
+                code(matrix[p], shards, shards[p], length);
+            }
+        }
+    }
+
+    /** out = sum over i of coefficients[i] * inputs[i] */
+    private void code(int[] coefficients, byte[][] inputs, byte[] out, int length) {
+        Arrays.fill(out, 0, length, (byte) 0);
+        for (int i = 0; i < dataShards; i++) {
+            byte[] table = MUL[coefficients[i]];
+            byte[] in = inputs[i];
+            for (int j = 0; j < length; j++) {
+                out[j] ^= table[in[j] & 0xff];
+            }
+        }
+    }
+
+    private static int mul(int a, int b) {
+        return MUL[a][b] & 0xff;
+    }
+
+    private static int power(int a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        return a == 0 ? 0 : EXP[(LOG[a] * n) % 255];
+    }
+
+    private static int inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] out = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int sum = 0;
+                for (int i = 0; i < b.length; i++) {
+                    sum ^= mul(a[r][i], b[i][c]);
+                }
+                out[r][c] = sum;
+            }
+        }
+        return out;
+    }
+
+    /** Gauss-Jordan elimination; every square submatrix of the code matrix is invertible. */
+    private static int[][] invert(int[][] m) {
+        int n = m.length;
+        int[][] work = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(m[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            while (work[pivot][c] == 0) {
+                pivot++;
+                if (pivot == n) {
+                    throw new IllegalStateException("Singular matrix");
+                }
+            }
+            int[] swap = work[c];
+            work[c] = work[pivot];
+            work[pivot] = swap;
+            int scale = inverse(work[c][c]);
+            for (int i = 0; i < 2 * n; i++) {
+                work[c][i] = mul(work[c][i], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                int factor = work[r][c];
+                if (r != c && factor != 0) {
+                    for (int i = 0; i < 2 * n; i++) {
+                        work[r][i] ^= mul(factor, work[c][i]);
+                    }
+                }
+            }
+        }
+        int[][] out = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, out[r], 0, n);
+        }
+        return out;
+    }
+}
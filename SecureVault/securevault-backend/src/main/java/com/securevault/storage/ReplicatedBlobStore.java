@@ -0,0 +1,250 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Keeps {@code replicas} full copies of every blob on different volumes.
+ * Which volumes hold a key follows from the key itself (see
+ * {@link VolumeSet}), so nothing has to be looked up before a read.
+ *
+ * Reads go to the holder with the least expected wait, spreading load over
+ * all disks; if that copy is missing or its volume fails, the next one is
+ * tried. Writes skip volumes that are down and land on the next volume in
+ * the key's order, which readers also search, so a dead disk neither blocks
+ * uploads nor hides blobs written while it was away.
+ *
+ * Blobs written before placement was configured are read from
+ * {@code fallback} (may be null).
+ */
+public class ReplicatedBlobStore implements RedundantBlobStore {
+
+    private final VolumeSet volumes;
+    private final int replicas;
+    private final BlobStore fallback;
+
+    public ReplicatedBlobStore(List<Path> roots, int replicas, BlobStore fallback) {
+        if (replicas < 1 || replicas > roots.size()) {
+            throw new IllegalArgumentException("Replicas must be between 1 and " + roots.size() + ": " + replicas);
+        }
+        this.volumes = new VolumeSet(roots);
+        this.replicas = replicas;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        List<VolumeSet.Volume> targets = volumes.writable(key);
+        int wanted = Math.min(replicas, targets.size());
+        int placed = 0;
+        IOException failure = null;
+        for (VolumeSet.Volume volume : targets) {
+            if (placed == wanted) {
+                break;
+            }
+            try {
+                if (placed == wanted - 1) {
+                    // Last copy: move the staged file itself
+                    volume.store.put(key, stagedFile);
+                } else {
+                    volume.store.put(key, copyToStaging(stagedFile, volume));
+                }
+                placed++;
+            } catch (IOException e) {
+                volume.markDown();
+                failure = e;
+            }
+        }
+        Files.deleteIfExists(stagedFile);
+        if (placed == 0) {
+            throw failure != null ? failure : new IOException("No volume available for " + key);
+        }
+        return key;
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        int placed = 0;
+        IOException failure = null;
+        for (VolumeSet.Volume volume : volumes.writable(key)) {
+            if (placed == replicas) {
+                break;
+            }
+            try {
+                volume.store.put(key, content);
+                placed++;
+            } catch (IOException e) {
+                volume.markDown();
+                failure = e;
+            }
+        }
+        if (placed == 0) {
+            throw failure != null ? failure : new IOException("No volume available for " + key);
+        }
+        return key;
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return getRange(key, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        for (VolumeSet.Volume volume : readOrder(key)) {
+            try {
+                return volume.open(key, offset, length);
+            } catch (NoSuchFileException e) {
+                // Not on this volume, try the next
+            } catch (IOException e) {
+                volume.markDown();
+            }
+        }
+        if (fallback != null) {
+            return offset == 0 && length == Long.MAX_VALUE ? fallback.get(key) : fallback.getRange(key, offset, length);
+        }
+        throw new NoSuchFileException(key);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        for (VolumeSet.Volume volume : readOrder(key)) {
+            if (volume.store.exists(key)) {
+                return volume.store.size(key);
+            }
+        }
+        if (fallback != null) {
+            return fallback.size(key);
+        }
+        throw new NoSuchFileException(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        for (VolumeSet.Volume volume : readOrder(key)) {
+            if (volume.store.exists(key)) {
+                return true;
+            }
+        }
+        return fallback != null && fallback.exists(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        IOException failure = null;
+        for (VolumeSet.Volume volume : volumes.all()) {
+            try {
+                volume.store.delete(key);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (fallback != null) {
+            fallback.delete(key);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Every copy on a reachable volume (a blob appears once per copy), then the fallback's blobs. */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        return fallback != null ? Stream.concat(volumes.list(), fallback.list()) : volumes.list();
+    }
+
+    /**
+     * The least loaded copy. Reads through the returned path are not counted
+     * as load, but each call starts from the current scores, so parallel
+     * downloads still land on different disks.
+     */
+    @Override
+    public Optional<Path> localPath(String key) {
+        for (VolumeSet.Volume volume : readOrder(key)) {
+            if (volume.store.exists(key)) {
+                return volume.store.localPath(key);
+            }
+        }
+        return fallback != null ? fallback.localPath(key) : Optional.empty();
+    }
+
+    @Override
+    public int repair(String key) throws IOException {
+        VolumeSet.Volume source = null;
+        List<VolumeSet.Volume> lacking = new ArrayList<>();
+        int copies = 0;
+        for (VolumeSet.Volume volume : volumes.writable(key)) {
+            if (volume.store.exists(key)) {
+                source = source == null ? volume : source;
+                copies++;
+            } else {
+                lacking.add(volume);
+            }
+        }
+        if (source == null) {
+            throw new NoSuchFileException(key);
+        }
+        Path from = source.store.localPath(key).orElseThrow();
+        int written = 0;
+        for (VolumeSet.Volume volume : lacking) {
+            if (copies >= replicas) {
+                break;
+            }
+            volume.store.put(key, copyToStaging(from, volume));
+            copies++;
+            written++;
+        }
+        return written;
+    }
+
+    @Override
+    public List<VolumeStatus> volumes() {
+        return volumes.all().stream()
+                .map(volume -> new VolumeStatus(volume.toString(), volume.isUp(), volume.readsInFlight()))
+                .toList();
+    }
+
+    @Override
+    public <T extends BlobStore> Optional<T> find(Class<T> type) {
+        if (type.isInstance(this)) {
+            return Optional.of(type.cast(this));
+        }
+        return fallback != null ? fallback.find(type) : Optional.empty();
+    }
+
+    /**
+     * Volumes to read {@code key} from: its preferred holders, least loaded
+     * first, then every other volume in case the blob was written while a
+     * holder was down.
+     */
+    private List<VolumeSet.Volume> readOrder(String key) {
+        List<VolumeSet.Volume> ordered = volumes.order(key);
+        List<VolumeSet.Volume> holders = new ArrayList<>(ordered.subList(0, replicas));
+        holders.removeIf(volume -> !volume.isUp());
+        holders.sort(Comparator.comparingLong(VolumeSet.Volume::score));
+        for (VolumeSet.Volume volume : ordered.subList(replicas, ordered.size())) {
+            if (volume.isUp()) {
+                holders.add(volume);
+            }
+        }
+        return holders;
+    }
+
+    /** Copies {@code file} into the volume's own staging directory, so the final move is a rename. */
+    private static Path copyToStaging(Path file, VolumeSet.Volume volume) throws IOException {
+        Files.createDirectories(volume.staging());
+        Path staged = volume.staging().resolve(UUID.randomUUID() + ".part");
+        Files.copy(file, staged, StandardCopyOption.REPLACE_EXISTING);
+        return staged;
+    }
+}
@@ -0,0 +1,133 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Filesystem store that fans blobs out over a two-level directory tree
+ * ({@code ab/cd/<key>}, taken from SHA-256 of the key), so no directory
+ * grows beyond a few thousand entries regardless of the number of blobs.
+ *
+ * Blobs written before sharding sit directly under the root. They are read
+ * from there until {@link #shard} has linked them into their shard
+ * directory, so the layout can be migrated while the store is in use.
+ */
+public class ShardedFileSystemBlobStore extends FileSystemBlobStore {
+
+    private static final Pattern SHARD_DIR = Pattern.compile("[0-9a-f]{2}");
+
+    public ShardedFileSystemBlobStore(Path root) {
+        super(root);
+    }
+
+    @Override
+    protected Path resolve(String key) {
+        String shard = shardOf(validate(key));
+        return super.resolve(shard.substring(0, 2) + "/" + shard.substring(2, 4) + "/" + key);
+    }
+
+    @Override
+    protected Path locate(String key) {
+        Path sharded = resolve(key);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = flatPath(key);
+        // Re-check the shard if the flat copy vanished: it was just migrated
+        return Files.exists(flat) ? flat : sharded;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+        Files.deleteIfExists(flatPath(key));
+    }
+
+    /** Blobs in the shard directories, then any still stored flat under the root. */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        Stream<StoredBlob> sharded = shardDirectories(root)
+                .flatMap(dir -> unchecked(() -> shardDirectories(dir)))
+                .flatMap(dir -> unchecked(() -> files(dir)))
+                .flatMap(file -> stat(file).stream());
+        return Stream.concat(sharded, super.list());
+    }
+
+    private static Stream<Path> shardDirectories(Path dir) throws IOException {
+        return directories(dir).filter(sub -> SHARD_DIR.matcher(sub.getFileName().toString()).matches());
+    }
+
+    private static Stream<Path> unchecked(Lister lister) {
+        try {
+            return lister.list();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Lister {
+        Stream<Path> list() throws IOException;
+    }
+
+    /** Where {@code key} lived before sharding: directly under the root. */
+    public Path flatPath(String key) {
+        return super.resolve(key);
+    }
+
+    /**
+     * Makes a blob stored flat under the root readable from its shard
+     * directory. The flat file is hard-linked (or copied, where links are not
+     * supported) rather than moved, so readers holding its old absolute path
+     * keep working; the caller deletes it once nothing refers to it.
+     *
+     * @return the flat file, now redundant, or empty if there was nothing to shard
+     */
+    public Optional<Path> shard(String key) throws IOException {
+        Path flat = flatPath(key);
+        if (!Files.exists(flat)) {
+            return Optional.empty();
+        }
+        Path sharded = resolve(key);
+        if (Files.exists(sharded)) {
+            return Optional.of(flat);
+        }
+        Files.createDirectories(sharded.getParent());
+        try {
+            Files.createLink(sharded, flat);
+        } catch (FileAlreadyExistsException e) {
+            // Sharded concurrently
+        } catch (UnsupportedOperationException | IOException e) {
+            Path partial = sharded.resolveSibling(sharded.getFileName() + ".part");
+            Files.copy(flat, partial, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(partial, sharded, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException notAtomic) {
+                Files.move(partial, sharded, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return Optional.of(flat);
+    }
+
+    /** First two bytes of SHA-256 of the key, hex encoded. */
+    static String shardOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 2);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
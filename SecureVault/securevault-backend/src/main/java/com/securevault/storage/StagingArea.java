@@ -0,0 +1,30 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Local scratch directory where blobs are fully written (encrypted) before
+ * being handed to {@link BlobStore#put}. Keep it on the same volume as a
+ * filesystem store so that the hand-over is a rename.
+ */
+public class StagingArea {
+
+    private final Path directory;
+
+    public StagingArea(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /** A fresh, not yet existing file path in the staging directory. */
+    public Path newFile() throws IOException {
+        Files.createDirectories(directory);
+        return directory.resolve(UUID.randomUUID() + ".part");
+    }
+}
@@ -0,0 +1,7 @@
+package com.securevault.storage;
+
+import java.time.Instant;
+
+/** A blob as found in the store by {@link BlobStore#list}. */
+public record StoredBlob(String key, long size, Instant modifiedAt) {
+}
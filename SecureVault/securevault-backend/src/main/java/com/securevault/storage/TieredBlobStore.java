@@ -0,0 +1,162 @@
+package com.securevault.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Two storage tiers: new blobs go to the hot store (fast volume), blobs that
+ * are rarely read are moved to the cold store (large, cheap volume). Cold
+ * blobs are addressed as {@code cold/<key>}, so a row's key tells which tier
+ * serves it and reads need no lookup.
+ *
+ * Moving blobs between tiers is driven by the caller ({@link #demote},
+ * {@link #promote}); this class only copies bytes. The source copy is left
+ * in place for the caller to delete once no row refers to it.
+ */
+public class TieredBlobStore implements BlobStore {
+
+    public static final String COLD_PREFIX = "cold/";
+
+    private final BlobStore hot;
+    private final BlobStore cold;
+    private final Path coldStaging;
+
+    /**
+     * @param coldStaging scratch directory on the cold volume, so that
+     *                    demoted blobs are renamed into place
+     */
+    public TieredBlobStore(BlobStore hot, BlobStore cold, Path coldStaging) {
+        this.hot = hot;
+        this.cold = cold;
+        this.coldStaging = coldStaging.toAbsolutePath().normalize();
+    }
+
+    public static boolean isCold(String key) {
+        return key != null && key.startsWith(COLD_PREFIX);
+    }
+
+    @Override
+    public String put(String key, Path stagedFile) throws IOException {
+        return hot.put(key, stagedFile);
+    }
+
+    @Override
+    public String put(String key, byte[] content) throws IOException {
+        return hot.put(key, content);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return isCold(key) ? cold.get(coldName(key)) : hot.get(key);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        return isCold(key) ? cold.getRange(coldName(key), offset, length) : hot.getRange(key, offset, length);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return isCold(key) ? cold.size(coldName(key)) : hot.size(key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return isCold(key) ? cold.exists(coldName(key)) : hot.exists(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (isCold(key)) {
+            cold.delete(coldName(key));
+        } else {
+            hot.delete(key);
+        }
+    }
+
+    /** Hot blobs, then cold blobs under their {@code cold/} keys. */
+    @Override
+    public Stream<StoredBlob> list() throws IOException {
+        Stream<StoredBlob> hotBlobs = hot.list();
+        try {
+            return Stream.concat(hotBlobs, cold.list()
+                    .map(blob -> new StoredBlob(COLD_PREFIX + blob.key(), blob.size(), blob.modifiedAt())));
+        } catch (IOException | RuntimeException e) {
+            hotBlobs.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return isCold(key) ? cold.localPath(coldName(key)) : hot.localPath(key);
+    }
+
+    @Override
+    public <T extends BlobStore> Optional<T> find(Class<T> type) {
+        if (type.isInstance(this)) {
+            return Optional.of(type.cast(this));
+        }
+        Optional<T> found = hot.find(type);
+        return found.isPresent() ? found : cold.find(type);
+    }
+
+    /**
+     * Copies a hot blob to the cold tier.
+     *
+     * @param throttle wraps the source stream, e.g. to limit bandwidth
+     * @return the blob's cold key
+     */
+    public String demote(String key, UnaryOperator<InputStream> throttle) throws IOException {
+        if (isCold(key)) {
+            return key;
+        }
+        Files.createDirectories(coldStaging);
+        Path staged = coldStaging.resolve(UUID.randomUUID() + ".part");
+        try {
+            try (InputStream in = throttle.apply(hot.get(key))) {
+                Files.copy(in, staged);
+            }
+            return COLD_PREFIX + cold.put(nameOf(key), staged);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Copies a cold blob back to the hot tier.
+     *
+     * @param stagingDir scratch directory on the hot volume
+     * @return the blob's new hot key
+     */
+    public String promote(String key, Path stagingDir) throws IOException {
+        if (!isCold(key)) {
+            return key;
+        }
+        Files.createDirectories(stagingDir);
+        Path staged = stagingDir.resolve(UUID.randomUUID() + ".part");
+        try {
+            try (InputStream in = cold.get(coldName(key))) {
+                Files.copy(in, staged);
+            }
+            return hot.put(coldName(key), staged);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    private static String coldName(String key) {
+        return key.substring(COLD_PREFIX.length());
+    }
+
+    /** Cold-tier name for a hot key: packed keys ({@code packs/1/0/10}) get a flat name. */
+    private static String nameOf(String key) {
+        return PackedBlobStore.entry(key).isPresent() ? UUID.randomUUID().toString() : key;
+    }
+}
@@ -0,0 +1,157 @@
+package com.securevault.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A fixed set of directories, normally on separate disks, that blobs are
+ * spread over. Placement uses rendezvous hashing: every key has a stable
+ * preference order over the volumes, so the volumes holding a blob can be
+ * found from the key alone and adding a volume only moves the blobs that
+ * now prefer it.
+ *
+ * Each volume also tracks reads in flight, an average open latency and
+ * whether it is currently failing, so readers can pick the least loaded
+ * healthy copy.
+ */
+final class VolumeSet {
+
+    private static final long DOWN_FOR_NANOS = 30_000_000_000L;
+
+    private final List<Volume> volumes = new ArrayList<>();
+
+    VolumeSet(List<Path> roots) {
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("At least one volume is required");
+        }
+        for (int i = 0; i < roots.size(); i++) {
+            volumes.add(new Volume(i, new ShardedFileSystemBlobStore(roots.get(i))));
+        }
+    }
+
+    int size() {
+        return volumes.size();
+    }
+
+    List<Volume> all() {
+        return volumes;
+    }
+
+    /** Volumes in the key's preference order (highest rendezvous weight first). */
+    List<Volume> order(String key) {
+        List<Volume> ordered = new ArrayList<>(volumes);
+        ordered.sort(Comparator.comparingLong((Volume volume) -> weight(key, volume.index)).reversed());
+        return ordered;
+    }
+
+    /** Volumes that can currently take writes, in the key's preference order. */
+    List<Volume> writable(String key) {
+        List<Volume> ordered = order(key);
+        ordered.removeIf(volume -> !volume.isUp());
+        return ordered;
+    }
+
+    /** Files on every reachable volume, read lazily. */
+    Stream<StoredBlob> list() {
+        return volumes.stream().filter(Volume::isUp).flatMap(volume -> {
+            try {
+                return volume.store.list();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static long weight(String key, int volume) {
+        // 64-bit FNV-1a over key and volume index, then a final mix
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash = (hash ^ volume) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    static final class Volume {
+        final int index;
+        final ShardedFileSystemBlobStore store;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong openNanos = new AtomicLong(1_000);
+        private volatile long downUntil;
+
+        Volume(int index, ShardedFileSystemBlobStore store) {
+            this.index = index;
+            this.store = store;
+        }
+
+        Path staging() {
+            return store.root().resolve(".staging");
+        }
+
+        /** A volume is down if its root is missing or it failed recently. */
+        boolean isUp() {
+            return System.nanoTime() >= downUntil && Files.isDirectory(store.root());
+        }
+
+        void markDown() {
+            downUntil = System.nanoTime() + DOWN_FOR_NANOS;
+        }
+
+        int readsInFlight() {
+            return inFlight.get();
+        }
+
+        /** Lower is better: expected wait given current load and latency. */
+        long score() {
+            return (inFlight.get() + 1L) * openNanos.get();
+        }
+
+        /** Opens a read and tracks it until the stream is closed. */
+        InputStream open(String name, long offset, long length) throws IOException {
+            long start = System.nanoTime();
+            inFlight.incrementAndGet();
+            try {
+                InputStream in = length == Long.MAX_VALUE && offset == 0
+                        ? store.get(name)
+                        : store.getRange(name, offset, length);
+                long elapsed = System.nanoTime() - start;
+                // Exponentially weighted average, 1/8 weight for the newest sample
+                openNanos.updateAndGet(avg -> avg + (elapsed - avg) / 8);
+                return new FilterInputStream(in) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            inFlight.decrementAndGet();
+                        }
+                        super.close();
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return store.root().toString();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.securevault.crypto;
+
+import com.securevault.service.EncryptionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the per-call crypto setup used before {@link CryptoEngine}
+ * (decode the master key, {@code Cipher.getInstance}, {@code new SecureRandom()}
+ * and fresh stream buffers on every call) with the pooled engine.
+ *
+ * Not run by surefire. To run it:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.securevault.crypto.CryptoEngineBenchmark
+ * </pre>
+ * Compare {@code gc.alloc.rate.norm} (bytes allocated per operation) and the
+ * average time of the {@code baseline*} and {@code engine*} pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoEngineBenchmark {
+
+    private static final String MASTER_KEY = "MDEyMzQ1Njc4OTAxMjM0NTY3ODkwMTIzNDU2Nzg5MDE=";
+    private static final String ATTRIBUTE = "0912345678";
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private EncryptionService encryptionService;
+    private String sealedAttribute;
+    private Path tempDir;
+    private Path plainFile;
+    private Path encryptedFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr", MASTER_KEY);
+        // Measure the per-call path, not multi-core speedup
+        ReflectionTestUtils.setField(encryptionService, "cryptoParallelismPerFile", 1);
+        sealedAttribute = encryptionService.encryptString(ATTRIBUTE);
+
+        tempDir = Files.createTempDirectory("crypto-bench");
+        plainFile = tempDir.resolve("plain.bin");
+        encryptedFile = tempDir.resolve("encrypted.bin");
+        byte[] data = new byte[FILE_SIZE];
+        new Random(42).nextBytes(data);
+        Files.write(plainFile, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        encryptionService.shutdown();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String baselineEncryptString() throws Exception {
+        SecretKey key = decodeKey();
+        byte[] iv = new byte[CryptoEngine.NONCE_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CryptoEngine.ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(CryptoEngine.TAG_BITS, iv));
+        byte[] encrypted = cipher.doFinal(ATTRIBUTE.getBytes(StandardCharsets.UTF_8));
+        byte[] combined = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, combined, 0, iv.length);
+        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+        return Base64.getEncoder().encodeToString(combined);
+    }
+
+    @Benchmark
+    public String engineEncryptString() {
+        return encryptionService.encryptString(ATTRIBUTE);
+    }
+
+    @Benchmark
+    public String baselineDecryptString() throws Exception {
+        byte[] combined = Base64.getDecoder().decode(sealedAttribute);
+        byte[] iv = new byte[CryptoEngine.NONCE_LENGTH];
+        System.arraycopy(combined, 0, iv, 0, iv.length);
+        byte[] encrypted = new byte[combined.length - iv.length];
+        System.arraycopy(combined, iv.length, encrypted, 0, encrypted.length);
+        Cipher cipher = Cipher.getInstance(CryptoEngine.ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, decodeKey(), new GCMParameterSpec(CryptoEngine.TAG_BITS, iv));
+        return new String(cipher.doFinal(encrypted), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String engineDecryptString() {
+        return encryptionService.decryptString(sealedAttribute);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void baselineEncryptFile() throws Exception {
+        Cipher cipher = Cipher.getInstance(CryptoEngine.ALGORITHM);
+        // Fresh IV per invocation: GCM must never seal twice under the same key and IV
+        byte[] iv = Base64.getDecoder().decode(encryptionService.generateIv());
+        cipher.init(Cipher.ENCRYPT_MODE, decodeKey(), new GCMParameterSpec(CryptoEngine.TAG_BITS, iv));
+        try (InputStream in = Files.newInputStream(plainFile);
+                OutputStream out = new CipherOutputStream(Files.newOutputStream(encryptedFile), cipher)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void engineEncryptFile() throws Exception {
+        encryptionService.encryptFile(plainFile, encryptedFile, encryptionService.generateIv());
+    }
+
+    private static SecretKey decodeKey() {
+        byte[] decoded = Base64.getDecoder().decode(MASTER_KEY);
+        return new SecretKeySpec(decoded, 0, decoded.length, "AES");
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CryptoEngineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
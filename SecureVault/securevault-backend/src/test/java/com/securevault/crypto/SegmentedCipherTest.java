@@ -0,0 +1,173 @@
+package com.securevault.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the segmented AES-GCM blob format.
+ */
+class SegmentedCipherTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private SecretKey key;
+    private byte[] baseIv;
+    private SegmentedBlobFormat format;
+
+    @BeforeEach
+    void setUp() {
+        byte[] keyBytes = new byte[32];
+        new Random(1).nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+        format = SegmentedBlobFormat.forSegmentSize(SEGMENT_SIZE);
+    }
+
+    private byte[] plaintext(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Encrypts under a fresh base IV: sealing different plaintexts under one
+     * key/nonce pair is exactly what GCM forbids (and SunJCE rejects).
+     */
+    private byte[] encrypt(byte[] plaintext) throws Exception {
+        baseIv = CryptoEngine.newNonce();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SegmentedCipher(key, format, baseIv).encrypt(new ByteArrayInputStream(plaintext), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] blob) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(blob);
+        in.skipNBytes(SegmentedBlobFormat.HEADER_LENGTH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SegmentedCipher(key, format, baseIv).decrypt(Channels.newChannel(in), blob.length, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Should round-trip empty, partial, exact and multi-segment payloads")
+    void encryptDecrypt_VariousLengths_ShouldRoundTrip() throws Exception {
+        for (int length : new int[] { 0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 5 * SEGMENT_SIZE + 7 }) {
+            byte[] original = plaintext(length);
+            byte[] blob = encrypt(original);
+
+            assertEquals(format.blobLength(length), blob.length, "blob length for " + length);
+            assertEquals(length, format.plaintextLength(blob.length), "plaintext length for " + length);
+            assertArrayEquals(original, decrypt(blob), "round trip for " + length);
+        }
+    }
+
+    @Test
+    @DisplayName("Should decrypt an arbitrary range by reading only the covering segments")
+    void decryptRange_ShouldReturnRequestedBytes() throws Exception {
+        byte[] original = plaintext(10 * SEGMENT_SIZE + 123);
+        byte[] blob = encrypt(original);
+        SegmentedCipher cipher = new SegmentedCipher(key, format, baseIv);
+
+        long offset = 3 * SEGMENT_SIZE + 500;
+        long length = 2 * SEGMENT_SIZE + 10;
+        ByteArrayInputStream in = new ByteArrayInputStream(blob);
+        in.skipNBytes(cipher.rangeStart(offset));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.decryptRange(Channels.newChannel(in), blob.length, offset, length, out);
+
+        assertArrayEquals(Arrays.copyOfRange(original, (int) offset, (int) (offset + length)), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Should reject a tampered segment")
+    void decrypt_TamperedSegment_ShouldFail() throws Exception {
+        byte[] blob = encrypt(plaintext(3 * SEGMENT_SIZE));
+        blob[(int) format.segmentOffset(1) + 10] ^= 1;
+
+        assertThrows(AEADBadTagException.class, () -> decrypt(blob));
+    }
+
+    @Test
+    @DisplayName("Should reject a blob truncated at a segment boundary")
+    void decrypt_TruncatedAtSegmentBoundary_ShouldFail() throws Exception {
+        byte[] blob = encrypt(plaintext(3 * SEGMENT_SIZE));
+        byte[] truncated = Arrays.copyOf(blob, (int) format.segmentOffset(2));
+
+        assertThrows(AEADBadTagException.class, () -> decrypt(truncated));
+    }
+
+    @Test
+    @DisplayName("Should not recognise legacy blobs as segmented")
+    void parse_LegacyBytes_ShouldBeEmpty() {
+        assertTrue(SegmentedBlobFormat.parse(plaintext(SegmentedBlobFormat.HEADER_LENGTH)).isEmpty());
+        assertTrue(SegmentedBlobFormat.parse(format.header()).isPresent());
+    }
+
+    @Test
+    @DisplayName("Parallel cipher should produce the same blob and plaintext as the sequential one")
+    void parallelCipher_ShouldMatchSequential(@TempDir Path tempDir) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int length : new int[] { 0, SEGMENT_SIZE, 37 * SEGMENT_SIZE + 11 }) {
+                byte[] original = plaintext(length);
+                Path blobPath = tempDir.resolve("blob-" + length);
+                baseIv = CryptoEngine.newNonce();
+                try (FileChannel channel = FileChannel.open(blobPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+                    long consumed = new ParallelSegmentedCipher(executor, key, format, baseIv, 3)
+                            .encrypt(new ByteArrayInputStream(original), channel);
+                    assertEquals(length, consumed);
+                }
+                byte[] blob = Files.readAllBytes(blobPath);
+                assertEquals(format.blobLength(length), blob.length, "blob length for " + length);
+                // Same layout as the sequential cipher: it must decrypt the parallel blob
+                assertArrayEquals(original, decrypt(blob), "sequential decrypt for " + length);
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (FileChannel channel = FileChannel.open(blobPath, StandardOpenOption.READ)) {
+                    new ParallelSegmentedCipher(executor, key, format, baseIv, 3)
+                            .decrypt(channel, blob.length, 0, Long.MAX_VALUE, out);
+                }
+                assertArrayEquals(original, out.toByteArray(), "plaintext for " + length);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Parallel cipher should surface a tampered segment")
+    void parallelCipher_TamperedSegment_ShouldFail(@TempDir Path tempDir) throws Exception {
+        byte[] blob = encrypt(plaintext(20 * SEGMENT_SIZE));
+        blob[(int) format.segmentOffset(13) + 3] ^= 1;
+        Path blobPath = tempDir.resolve("tampered");
+        Files.write(blobPath, blob);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (FileChannel channel = FileChannel.open(blobPath, StandardOpenOption.READ)) {
+            ParallelSegmentedCipher cipher = new ParallelSegmentedCipher(executor, key, format, baseIv, 4);
+            assertThrows(AEADBadTagException.class,
+                    () -> cipher.decrypt(channel, blob.length, 0, Long.MAX_VALUE, new ByteArrayOutputStream()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.securevault.service;
+
+import com.securevault.crypto.DataKey;
+import com.securevault.entity.BlobScrubResult;
+import com.securevault.entity.FileDocument;
+import com.securevault.enums.ScrubStatus;
+import com.securevault.repository.BlobScrubResultRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.ShardedFileSystemBlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for background blob integrity checks.
+ */
+class BlobScrubServiceTest {
+
+    private static final int OK_BLOB_SIZE = 48 * 1024;
+    private static final double BYTES_PER_SECOND = 16 * 1024;
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final BlobScrubResultRepository scrubResultRepository = mock(BlobScrubResultRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    // Bảng blob_scrub_results giả lập, theo encryptedPath
+    private final Map<String, BlobScrubResult> results = new ConcurrentHashMap<>();
+    private final List<FileDocument> files = new ArrayList<>();
+    private EncryptionService encryptionService;
+    private ShardedFileSystemBlobStore blobStore;
+    private BlobScrubService scrubService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr",
+                Base64.getEncoder().encodeToString(new byte[32]));
+        blobStore = new ShardedFileSystemBlobStore(tempDir.resolve("blobs"));
+        scrubService = new BlobScrubService(fileRepository, scrubResultRepository, fileStorageService,
+                encryptionService, blobStore);
+        ReflectionTestUtils.setField(scrubService, "enabled", true);
+        ReflectionTestUtils.setField(scrubService, "mbPerSecond", BYTES_PER_SECOND / (1024 * 1024));
+        ReflectionTestUtils.setField(scrubService, "batchSize", 20);
+        ReflectionTestUtils.setField(scrubService, "passIntervalMs", 604800000L);
+
+        when(fileRepository.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Pageable.class)))
+                .thenAnswer(invocation -> files.stream()
+                        .filter(file -> file.getId() > invocation.<Long>getArgument(0))
+                        .limit(invocation.<Pageable>getArgument(1).getPageSize())
+                        .toList());
+        when(fileStorageService.fileKey(any(FileDocument.class))).thenAnswer(invocation -> encryptionService
+                .resolveFileKey(invocation.<FileDocument>getArgument(0).getWrappedKey(),
+                        invocation.<FileDocument>getArgument(0).getKeyId()));
+        when(scrubResultRepository.findByEncryptedPath(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(results.get(invocation.<String>getArgument(0))));
+        when(scrubResultRepository.save(any(BlobScrubResult.class))).thenAnswer(invocation -> {
+            BlobScrubResult result = invocation.getArgument(0);
+            results.put(result.getEncryptedPath(), result);
+            return result;
+        });
+        when(scrubResultRepository.deleteCheckedBefore(any(LocalDateTime.class))).thenAnswer(invocation -> {
+            LocalDateTime cutoff = invocation.getArgument(0);
+            int before = results.size();
+            results.values().removeIf(result -> result.getCheckedAt().isBefore(cutoff));
+            return before - results.size();
+        });
+    }
+
+    /** Mã hóa nội dung ngẫu nhiên thành blob và trả về file trỏ tới nó. */
+    private FileDocument storeFile(long id, String blobKey, int size) throws Exception {
+        byte[] plaintext = new byte[size];
+        new Random(id).nextBytes(plaintext);
+        DataKey dataKey = encryptionService.newDataKey();
+        String iv = encryptionService.generateIv();
+        blobStore.put(blobKey, encryptionService.encryptBytes(plaintext, dataKey.key(), iv));
+        return file(id, blobKey, iv, dataKey);
+    }
+
+    private static FileDocument file(long id, String blobKey, String iv, DataKey dataKey) {
+        return FileDocument.builder().id(id).encryptedPath(blobKey).encryptionIv(iv)
+                .wrappedKey(dataKey.wrappedKey()).keyId(dataKey.keyId()).build();
+    }
+
+    @Test
+    @DisplayName("Should classify blobs, check shared blobs once, drop stale results and honour the MB/s budget")
+    void tick_ShouldScrubEveryBlobOncePerPass() throws Exception {
+        FileDocument ok = storeFile(1, "ok.bin", OK_BLOB_SIZE);
+        files.add(ok);
+        // File thứ hai dùng chung blob với file đầu (dedup)
+        files.add(FileDocument.builder().id(2L).encryptedPath("ok.bin").encryptionIv(ok.getEncryptionIv())
+                .wrappedKey(ok.getWrappedKey()).keyId(ok.getKeyId()).build());
+        files.add(storeFile(3, "tampered.bin", 1024));
+        Path tampered = blobStore.localPath("tampered.bin").orElseThrow();
+        byte[] ciphertext = Files.readAllBytes(tampered);
+        ciphertext[ciphertext.length / 2] ^= 1;
+        Files.write(tampered, ciphertext);
+        files.add(file(4, "missing.bin", encryptionService.generateIv(), encryptionService.newDataKey()));
+        // Kết quả của blob không còn file nào dùng, từ lượt trước
+        results.put("deleted.bin", BlobScrubResult.builder().encryptedPath("deleted.bin").status(ScrubStatus.OK)
+                .checkedAt(LocalDateTime.now().minusDays(7)).build());
+
+        long started = System.nanoTime();
+        scrubService.tick();
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        assertEquals(ScrubStatus.OK, results.get("ok.bin").getStatus());
+        assertEquals(ScrubStatus.CORRUPT, results.get("tampered.bin").getStatus());
+        assertNotNull(results.get("tampered.bin").getLastError());
+        assertNotNull(results.get("tampered.bin").getFailingSince());
+        assertEquals(ScrubStatus.MISSING, results.get("missing.bin").getStatus());
+        assertFalse(results.containsKey("deleted.bin"));
+        assertEquals(3, results.size());
+
+        // Blob dùng chung chỉ được đọc và ghi kết quả một lần
+        Map<String, Object> status = scrubService.getStatus();
+        assertEquals(3L, status.get("blobsChecked"));
+        assertEquals(2L, status.get("failuresFound"));
+        assertEquals(blobStore.size("ok.bin"), status.get("bytesChecked"));
+        assertEquals(1L, results.get("ok.bin").getFileId());
+        verify(scrubResultRepository, times(3)).save(any(BlobScrubResult.class));
+        assertEquals(false, status.get("running"));
+
+        // Bucket đầy sẵn một giây băng thông; phần đọc còn lại phải chờ bucket nạp lại
+        double minSeconds = (blobStore.size("ok.bin") + blobStore.size("tampered.bin") - BYTES_PER_SECOND)
+                / BYTES_PER_SECOND;
+        assertTrue(elapsedSeconds >= minSeconds * 0.9,
+                "pass took " + elapsedSeconds + "s, budget requires at least " + minSeconds + "s");
+    }
+}
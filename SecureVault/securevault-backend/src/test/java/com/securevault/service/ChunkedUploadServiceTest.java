@@ -0,0 +1,177 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.UploadSession;
+import com.securevault.entity.UploadSessionChunk;
+import com.securevault.repository.UploadSessionChunkRepository;
+import com.securevault.repository.UploadSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for resumable chunked uploads.
+ */
+class ChunkedUploadServiceTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final UploadSessionRepository sessionRepository = mock(UploadSessionRepository.class);
+    private final UploadSessionChunkRepository chunkRepository = mock(UploadSessionChunkRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    // Bảng upload_session_chunks giả lập, với khóa duy nhất theo chunkIndex
+    private final Map<Integer, UploadSessionChunk> chunks = new ConcurrentHashMap<>();
+    private final AtomicBoolean failNextMarkWritten = new AtomicBoolean();
+    private EncryptionService encryptionService;
+    private ChunkedUploadService uploadService;
+
+    @TempDir
+    Path uploadDir;
+
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr",
+                Base64.getEncoder().encodeToString(new byte[32]));
+        uploadService = new ChunkedUploadService(sessionRepository, chunkRepository, fileStorageService,
+                encryptionService);
+        ReflectionTestUtils.setField(uploadService, "uploadDir", uploadDir.toString());
+        ReflectionTestUtils.setField(uploadService, "chunkSize", CHUNK_SIZE);
+
+        when(sessionRepository.save(any())).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            session.setId(1L);
+            return session;
+        });
+        when(chunkRepository.findBySessionIdAndChunkIndex(anyLong(), anyInt()))
+                .thenAnswer(invocation -> Optional.ofNullable(chunks.get(invocation.<Integer>getArgument(1))));
+        when(chunkRepository.saveAndFlush(any())).thenAnswer(invocation -> {
+            UploadSessionChunk chunk = invocation.getArgument(0);
+            if (chunks.putIfAbsent(chunk.getChunkIndex(), chunk) != null) {
+                throw new DataIntegrityViolationException("uk_upload_session_chunk");
+            }
+            return UploadSessionChunk.builder().sessionId(chunk.getSessionId()).chunkIndex(chunk.getChunkIndex())
+                    .build();
+        });
+        when(chunkRepository.save(any())).thenAnswer(invocation -> {
+            if (failNextMarkWritten.getAndSet(false)) {
+                throw new IllegalStateException("Connection lost");
+            }
+            UploadSessionChunk chunk = invocation.getArgument(0);
+            chunks.put(chunk.getChunkIndex(), chunk);
+            return chunk;
+        });
+        when(chunkRepository.countBySessionIdAndWrittenTrue(anyLong()))
+                .thenAnswer(invocation -> chunks.values().stream().filter(UploadSessionChunk::isWritten).count());
+        when(chunkRepository.findChunkIndexes(anyLong())).thenAnswer(invocation -> new ArrayList<>(
+                chunks.values().stream().filter(UploadSessionChunk::isWritten)
+                        .map(UploadSessionChunk::getChunkIndex).toList()));
+    }
+
+    private boolean send(UploadSession session, byte[] content, int index) throws Exception {
+        int from = index * CHUNK_SIZE;
+        return uploadService.writeChunk(session, index,
+                new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(content.length, from + CHUNK_SIZE))));
+    }
+
+    @Test
+    @DisplayName("Should assemble out-of-order chunks into a blob that decrypts to the original file")
+    void complete_OutOfOrderChunks_ShouldStoreEncryptedBlobWithoutReencryption() throws Exception {
+        byte[] content = new byte[3 * CHUNK_SIZE + 500];
+        new Random(11).nextBytes(content);
+        UploadSession session = uploadService.createSession("video.mp4", "video/mp4", content.length, 5L, null);
+        assertEquals(4, session.getChunkCount());
+
+        assertTrue(send(session, content, 3));
+        assertTrue(send(session, content, 1));
+        assertTrue(send(session, content, 0));
+        assertEquals(List.of(2), uploadService.missingChunks(session));
+        assertThrows(ChunkedUploadService.ConflictException.class, () -> uploadService.complete(session));
+
+        // Gửi lại chunk đã nhận: không mã hóa lại
+        assertFalse(send(session, content, 1));
+        assertTrue(send(session, content, 2));
+
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        when(fileStorageService.storeEncryptedBlob(any(), any(), any(), anyLong(), any(), any(), any(), any(), any(),
+                any()))
+                .thenAnswer(invocation -> {
+                    ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+                    encryptionService.decryptStream(invocation.<Path>getArgument(0), plaintext,
+                            encryptionService.resolveFileKey(invocation.getArgument(4), invocation.getArgument(5)),
+                            invocation.getArgument(6));
+                    stored.set(plaintext.toByteArray());
+                    return FileDocument.builder().id(9L).fileName("video.mp4").build();
+                });
+
+        assertEquals(9L, uploadService.complete(session).getId());
+        assertArrayEquals(content, stored.get());
+        verify(sessionRepository).delete(session);
+        try (var files = Files.list(uploadDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject chunks with the wrong length or index")
+    void writeChunk_InvalidChunk_ShouldBeRejected() throws Exception {
+        UploadSession session = uploadService.createSession("a.bin", "application/octet-stream", 1500, 5L, null);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> uploadService.writeChunk(session, 1, new ByteArrayInputStream(new byte[CHUNK_SIZE])));
+        assertThrows(IllegalArgumentException.class,
+                () -> uploadService.writeChunk(session, 2, new ByteArrayInputStream(new byte[10])));
+        assertEquals(List.of(0, 1), uploadService.missingChunks(session));
+    }
+
+    @Test
+    @DisplayName("Should never re-encrypt a chunk whose segment was written but not recorded")
+    void writeChunk_FailureBetweenWriteAndRecord_ShouldNotReuseNonce() throws Exception {
+        byte[] content = new byte[2 * CHUNK_SIZE];
+        new Random(13).nextBytes(content);
+        UploadSession session = uploadService.createSession("a.bin", "application/octet-stream", content.length,
+                5L, null);
+        byte[] header = Files.readAllBytes(uploadDir.resolve(session.getId() + ".blob"));
+
+        failNextMarkWritten.set(true);
+        assertThrows(IllegalStateException.class, () -> send(session, content, 0));
+        byte[] written = Files.readAllBytes(uploadDir.resolve(session.getId() + ".blob"));
+        assertTrue(written.length > header.length);
+
+        // Gửi lại với nội dung khác: bị từ chối, segment trên đĩa không đổi
+        byte[] other = content.clone();
+        other[0] ^= 1;
+        assertThrows(ChunkedUploadService.ConflictException.class, () -> send(session, other, 0));
+        assertArrayEquals(written, Files.readAllBytes(uploadDir.resolve(session.getId() + ".blob")));
+
+        assertTrue(send(session, content, 1));
+        assertEquals(List.of(0), uploadService.missingChunks(session));
+        assertThrows(ChunkedUploadService.ConflictException.class, () -> uploadService.complete(session));
+        verify(fileStorageService, never()).storeEncryptedBlob(any(), any(), any(), anyLong(), any(), any(), any(),
+                any(), any(), any());
+    }
+}
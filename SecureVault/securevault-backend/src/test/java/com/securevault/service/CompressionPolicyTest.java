@@ -0,0 +1,50 @@
+package com.securevault.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the compress-before-encrypt heuristics.
+ */
+class CompressionPolicyTest {
+
+    private final CompressionPolicy policy = new CompressionPolicy();
+
+    private static byte[] text() {
+        return "2024-01-01 12:00:00 INFO request served in 12ms\n".repeat(400).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Should compress text content")
+    void shouldCompress_Text_ShouldBeTrue() {
+        assertTrue(policy.shouldCompress("text/csv", "export.csv", 100_000, text()));
+        assertTrue(policy.shouldCompress("application/octet-stream", "server.log", -1, text()));
+    }
+
+    @Test
+    @DisplayName("Should skip already-compressed types and tiny files")
+    void shouldCompress_CompressedTypes_ShouldBeFalse() {
+        assertFalse(policy.shouldCompress("audio/mpeg", "song.mp3", 100_000, text()));
+        assertFalse(policy.shouldCompress("image/jpeg", "photo.bin", 100_000, text()));
+        assertFalse(policy.shouldCompress("application/octet-stream", "archive.ZIP", 100_000, text()));
+        assertFalse(policy.shouldCompress(
+                "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "a.docx", 100_000, text()));
+        assertFalse(policy.shouldCompress("text/plain", "a.txt", 100, text()));
+    }
+
+    @Test
+    @DisplayName("Should skip high-entropy content whatever its declared type")
+    void shouldCompress_RandomContent_ShouldBeFalse() {
+        byte[] random = new byte[16384];
+        new Random(1).nextBytes(random);
+
+        assertFalse(policy.shouldCompress("application/octet-stream", "data.bin", 100_000, random));
+        assertTrue(CompressionPolicy.entropy(random) > 7.9);
+        assertEquals(0.0, CompressionPolicy.entropy(new byte[100]));
+    }
+}
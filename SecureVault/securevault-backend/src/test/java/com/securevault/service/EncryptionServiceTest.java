@@ -1,10 +1,25 @@
 package com.securevault.service;
 
+import com.securevault.crypto.DataKey;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -111,4 +126,158 @@ class EncryptionServiceTest {
 
         assertEquals(originalText, decrypted);
     }
+
+    @Test
+    @DisplayName("Should produce interchangeable blobs from in-memory and streaming encryption")
+    void encryptBytesAndEncryptStream_ShouldMatchAndDecrypt(@TempDir Path tempDir) throws Exception {
+        byte[] plaintext = "Streaming upload content".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        // Không bao giờ mã hóa hai lần với cùng khóa và IV
+        String streamIv = encryptionService.generateIv();
+        String memoryIv = encryptionService.generateIv();
+
+        Path streamed = tempDir.resolve("streamed.enc");
+        encryptionService.encryptStream(new ByteArrayInputStream(plaintext), streamed, streamIv);
+        Path inMemory = Files.write(tempDir.resolve("memory.enc"), encryptionService.encryptBytes(plaintext, memoryIv));
+
+        assertEquals(Files.size(inMemory), Files.size(streamed));
+        Path decrypted = tempDir.resolve("decrypted.bin");
+        encryptionService.decryptFile(streamed, decrypted, streamIv);
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+        encryptionService.decryptFile(inMemory, decrypted, memoryIv);
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+    }
+
+    @Test
+    @DisplayName("Should still decrypt legacy single-stream blobs")
+    void decryptFile_LegacySingleStreamBlob_ShouldWork(@TempDir Path tempDir) throws Exception {
+        byte[] plaintext = "Legacy blob content".getBytes(StandardCharsets.UTF_8);
+        String iv = encryptionService.generateIv();
+
+        byte[] keyBytes = Base64.getDecoder().decode(TEST_MASTER_KEY);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyBytes, "AES"),
+                new GCMParameterSpec(128, Base64.getDecoder().decode(iv)));
+        Path legacy = tempDir.resolve("legacy.enc");
+        Files.write(legacy, cipher.doFinal(plaintext));
+
+        Path decrypted = tempDir.resolve("decrypted.bin");
+        encryptionService.decryptFile(legacy, decrypted, iv);
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+    }
+
+    @Test
+    @DisplayName("Should decrypt a byte range from segmented and legacy blobs")
+    void decryptRange_ShouldReturnRequestedSlice(@TempDir Path tempDir) throws Exception {
+        byte[] plaintext = new byte[200_000];
+        new Random(7).nextBytes(plaintext);
+        String iv = encryptionService.generateIv();
+        int offset = 150_000;
+        int length = 30_000;
+        byte[] expected = Arrays.copyOfRange(plaintext, offset, offset + length);
+
+        Path segmented = tempDir.resolve("segmented.enc");
+        encryptionService.encryptStream(new ByteArrayInputStream(plaintext), segmented, iv);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decryptRange(segmented, offset, length, out, iv);
+        assertArrayEquals(expected, out.toByteArray());
+
+        String legacyIv = encryptionService.generateIv();
+        byte[] keyBytes = Base64.getDecoder().decode(TEST_MASTER_KEY);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyBytes, "AES"),
+                new GCMParameterSpec(128, Base64.getDecoder().decode(legacyIv)));
+        Path legacy = tempDir.resolve("legacy.enc");
+        Files.write(legacy, cipher.doFinal(plaintext));
+        out.reset();
+        encryptionService.decryptRange(legacy, offset, length, out, legacyIv);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Should compress before encryption and inflate on decryption")
+    void compressedBlob_ShouldRoundTripAndServeRanges(@TempDir Path tempDir) throws Exception {
+        StringBuilder csv = new StringBuilder("id,name,amount\n");
+        for (int i = 0; i < 20_000; i++) {
+            csv.append(i).append(",customer-").append(i % 97).append(',').append(i * 13 % 1000).append('\n');
+        }
+        byte[] plaintext = csv.toString().getBytes(StandardCharsets.UTF_8);
+        SecretKey key = encryptionService.resolveFileKey(null, null);
+        String iv = encryptionService.generateIv();
+
+        Path streamed = tempDir.resolve("compressed.enc");
+        long consumed = encryptionService.encryptStream(new ByteArrayInputStream(plaintext), streamed, key, iv, true);
+        String memoryIv = encryptionService.generateIv();
+        Path inMemory = Files.write(tempDir.resolve("memory.enc"),
+                encryptionService.encryptBytes(plaintext, key, memoryIv, true));
+
+        assertEquals(plaintext.length, consumed);
+        assertTrue(Files.size(streamed) < plaintext.length / 3, "CSV should shrink");
+        assertEquals(Files.size(inMemory), Files.size(streamed));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decryptStream(streamed, out, key, iv);
+        assertArrayEquals(plaintext, out.toByteArray());
+        out.reset();
+        encryptionService.decryptStream(inMemory, out, key, memoryIv);
+        assertArrayEquals(plaintext, out.toByteArray());
+
+        out.reset();
+        encryptionService.decryptRange(streamed, 250_000, 1_000, out, key, iv);
+        assertArrayEquals(Arrays.copyOfRange(plaintext, 250_000, 251_000), out.toByteArray());
+
+        out.reset();
+        encryptionService.decryptRange(streamed, plaintext.length - 10, Long.MAX_VALUE, out, key, iv);
+        assertArrayEquals(Arrays.copyOfRange(plaintext, plaintext.length - 10, plaintext.length), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Should encrypt with a wrapped per-file data key and resolve it back")
+    void dataKey_WrapAndResolve_ShouldDecryptBlob(@TempDir Path tempDir) throws Exception {
+        byte[] plaintext = "envelope".getBytes(StandardCharsets.UTF_8);
+        DataKey dataKey = encryptionService.newDataKey();
+        String iv = encryptionService.generateIv();
+
+        Path blob = tempDir.resolve("dek.enc");
+        Files.write(blob, encryptionService.encryptBytes(plaintext, dataKey.key(), iv));
+
+        assertEquals(encryptionService.currentKeyId(), dataKey.keyId());
+        SecretKey resolved = encryptionService.resolveFileKey(dataKey.wrappedKey(), dataKey.keyId());
+        assertArrayEquals(dataKey.key().getEncoded(), resolved.getEncoded());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decryptStream(blob, out, resolved, iv);
+        assertArrayEquals(plaintext, out.toByteArray());
+
+        // The master key alone must not open a blob sealed with a data key
+        assertThrows(Exception.class, () -> encryptionService.decryptStream(blob, new ByteArrayOutputStream(), iv));
+        assertThrows(RuntimeException.class, () -> encryptionService.resolveFileKey(dataKey.wrappedKey(), "0000"));
+    }
+
+    @Test
+    @DisplayName("Should keep reading data under a retired master key and move it to the new one")
+    void retiredMasterKey_ShouldDecryptAndRotate(@TempDir Path tempDir) throws Exception {
+        String column = encryptionService.encryptString("0912345678");
+        DataKey dataKey = encryptionService.newDataKey();
+        String iv = encryptionService.generateIv();
+        Path legacy = tempDir.resolve("legacy.enc");
+        encryptionService.encryptStream(new ByteArrayInputStream(new byte[100]), legacy, iv);
+
+        EncryptionService rotated = new EncryptionService();
+        ReflectionTestUtils.setField(rotated, "masterKeyStr", "QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVowMTIzNDU=");
+        ReflectionTestUtils.setField(rotated, "retiredMasterKeys", TEST_MASTER_KEY);
+
+        assertEquals("0912345678", rotated.decryptString(column));
+        String reencrypted = rotated.reencryptString(column);
+        assertNotNull(reencrypted);
+        assertNull(rotated.reencryptString(reencrypted), "already under the current key");
+
+        DataKey rewrapped = rotated.rewrapDataKey(dataKey.wrappedKey(), dataKey.keyId());
+        assertTrue(rotated.isCurrentKeyId(rewrapped.keyId()));
+        assertArrayEquals(dataKey.key().getEncoded(),
+                rotated.resolveFileKey(rewrapped.wrappedKey(), rewrapped.keyId()).getEncoded());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rotated.decryptStream(legacy, out, rotated.resolveLegacyKey(legacy, iv), iv);
+        assertArrayEquals(new byte[100], out.toByteArray());
+    }
 }
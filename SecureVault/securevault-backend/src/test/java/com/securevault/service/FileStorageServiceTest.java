@@ -0,0 +1,257 @@
+package com.securevault.service;
+
+import com.securevault.dto.BatchUploadResultDTO;
+import com.securevault.entity.BlobContent;
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.User;
+import com.securevault.enums.Role;
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.repository.FileShareRepository;
+import com.securevault.repository.FolderRepository;
+import com.securevault.repository.FolderShareRepository;
+import com.securevault.repository.UserRepository;
+import com.securevault.storage.ShardedFileSystemBlobStore;
+import com.securevault.storage.StagingArea;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for batch uploads with content deduplication and reference-counted deletes.
+ */
+class FileStorageServiceTest {
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final FolderRepository folderRepository = mock(FolderRepository.class);
+    private final BlobContentRepository blobContentRepository = mock(BlobContentRepository.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    // Bảng blob_contents giả lập, theo digest
+    private final Map<String, BlobContent> contents = new ConcurrentHashMap<>();
+    // Các dòng files được batch insert, theo chỉ số cột
+    private final List<Map<Integer, String>> insertedRows = new ArrayList<>();
+    private final AtomicBoolean dbAccessFromWorker = new AtomicBoolean();
+    private EncryptionService encryptionService;
+    private ShardedFileSystemBlobStore blobStore;
+    private FileStorageService fileStorageService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        blobStore = new ShardedFileSystemBlobStore(tempDir.resolve("blobs"));
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr",
+                Base64.getEncoder().encodeToString(new byte[32]));
+        fileStorageService = new FileStorageService(fileRepository, userRepository, mock(FileShareRepository.class),
+                mock(FolderShareRepository.class), encryptionService, mock(EmailService.class), folderRepository,
+                blobContentRepository, blobStore,
+                new StagingArea(Files.createDirectories(tempDir.resolve("staging"))),
+                mock(StorageTieringService.class), new CompressionPolicy(), jdbcTemplate);
+        ReflectionTestUtils.setField(fileStorageService, "dedupEnabled", true);
+        ReflectionTestUtils.setField(fileStorageService, "inMemoryUploadThreshold", 1048576L);
+
+        when(userRepository.findById(5L)).thenReturn(Optional.of(
+                User.builder().id(5L).username("alice").role(Role.ROLE_MANAGER).build()));
+
+        when(blobContentRepository.incrementRefCount(anyString())).thenAnswer(invocation -> {
+            checkRequestThread();
+            BlobContent content = contents.get(invocation.<String>getArgument(0));
+            if (content == null || content.getRefCount() == 0) {
+                return 0;
+            }
+            content.setRefCount(content.getRefCount() + 1);
+            return 1;
+        });
+        when(blobContentRepository.insertOrReference(anyString(), anyString(), anyLong())).thenAnswer(invocation -> {
+            checkRequestThread();
+            contents.merge(invocation.getArgument(0), BlobContent.builder()
+                    .digest(invocation.getArgument(0))
+                    .encryptedPath(invocation.getArgument(1))
+                    .size(invocation.getArgument(2))
+                    .refCount(1)
+                    .build(), (existing, inserted) -> {
+                        existing.setRefCount(existing.getRefCount() + 1);
+                        return existing;
+                    });
+            return 1;
+        });
+        when(blobContentRepository.decrementRefCount(anyString())).thenAnswer(invocation -> {
+            BlobContent content = contents.get(invocation.<String>getArgument(0));
+            if (content == null) {
+                return 0;
+            }
+            content.setRefCount(content.getRefCount() - 1);
+            return 1;
+        });
+        when(blobContentRepository.deleteIfUnreferenced(anyString())).thenAnswer(invocation ->
+                contents.computeIfPresent(invocation.getArgument(0),
+                        (digest, content) -> content.getRefCount() <= 0 ? null : content) == null ? 1 : 0);
+        when(blobContentRepository.findByDigest(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(contents.get(invocation.<String>getArgument(0))));
+
+        when(jdbcTemplate.batchUpdate(any(PreparedStatementCreator.class), any(BatchPreparedStatementSetter.class),
+                any(KeyHolder.class))).thenAnswer(invocation -> {
+                    checkRequestThread();
+                    BatchPreparedStatementSetter setter = invocation.getArgument(1);
+                    KeyHolder keyHolder = invocation.getArgument(2);
+                    for (int i = 0; i < setter.getBatchSize(); i++) {
+                        Map<Integer, String> row = new HashMap<>();
+                        PreparedStatement statement = mock(PreparedStatement.class);
+                        doAnswer(set -> row.put(set.getArgument(0), set.getArgument(1)))
+                                .when(statement).setString(anyInt(), any());
+                        setter.setValues(statement, i);
+                        insertedRows.add(row);
+                        keyHolder.getKeyList().add(Map.of("GENERATED_KEY", (long) insertedRows.size()));
+                    }
+                    return new int[setter.getBatchSize()];
+                });
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStorageService.shutdown();
+    }
+
+    private void checkRequestThread() {
+        if (Thread.currentThread().getName().startsWith("batch-upload-worker-")) {
+            dbAccessFromWorker.set(true);
+        }
+    }
+
+    private String digest(String content) {
+        return HexFormat.of().formatHex(encryptionService.newContentMac()
+                .doFinal(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MockMultipartFile part(String name, String content) {
+        return new MockMultipartFile("files", name, "text/plain", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Xóa file trong một transaction giả lập, rồi commit. */
+    private void deleteAndCommit(Long fileId, String blobKey) throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fileStorageService.deleteFile(fileId);
+            // Blob chỉ bị xóa sau khi commit
+            assertTrue(blobStore.exists(blobKey));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private long storedBlobs() throws Exception {
+        try (var files = Files.walk(tempDir.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    @DisplayName("Should deduplicate stored and repeated parts of a batch on the request thread")
+    void storeFilesInFolder_DuplicateParts_ShouldShareBlobs() throws Exception {
+        // Nội dung đã được lưu trước lượt upload
+        String storedDigest = digest("already stored");
+        contents.put(storedDigest, BlobContent.builder().digest(storedDigest).encryptedPath("stored.txt")
+                .size(14).refCount(1).build());
+        when(fileRepository.findFirstByContentDigest(storedDigest)).thenReturn(Optional.of(FileDocument.builder()
+                .id(1L).encryptedPath("stored.txt").size(14).encryptionIv("iv").wrappedKey("wrapped").keyId("k1")
+                .contentDigest(storedDigest).build()));
+
+        List<BatchUploadResultDTO> results = fileStorageService.storeFilesInFolder(List.of(
+                part("a.txt", "same content"),
+                part("b.txt", "same content"),
+                part("c.txt", "other content"),
+                part("d.txt", "already stored")), 5L, null);
+
+        assertEquals(4, results.size());
+        results.forEach(result -> assertNull(result.getError()));
+        assertEquals(List.of(1L, 2L, 3L, 4L), results.stream().map(BatchUploadResultDTO::getFileId).toList());
+
+        // Cột 4: encrypted_path, cột 10: content_digest
+        assertEquals(insertedRows.get(0).get(4), insertedRows.get(1).get(4));
+        assertNotEquals(insertedRows.get(0).get(4), insertedRows.get(2).get(4));
+        assertEquals("stored.txt", insertedRows.get(3).get(4));
+        assertEquals(digest("same content"), insertedRows.get(1).get(10));
+
+        assertEquals(2, contents.get(digest("same content")).getRefCount());
+        assertEquals(1, contents.get(digest("other content")).getRefCount());
+        assertEquals(2, contents.get(storedDigest).getRefCount());
+        // Chỉ nội dung mới được mã hóa và ghi, mỗi nội dung một lần
+        assertEquals(2, storedBlobs());
+        assertFalse(dbAccessFromWorker.get());
+    }
+
+    @Test
+    @DisplayName("Should keep the batch going when one part fails")
+    void storeFilesInFolder_InvalidPart_ShouldReportError() throws Exception {
+        List<BatchUploadResultDTO> results = fileStorageService.storeFilesInFolder(List.of(
+                part("", "nameless"),
+                part("ok.txt", "fine")), 5L, null);
+
+        assertEquals("Tên file không hợp lệ", results.get(0).getError());
+        assertNull(results.get(0).getFileId());
+        assertNull(results.get(1).getError());
+        assertEquals(1L, results.get(1).getFileId());
+        assertEquals(1, insertedRows.size());
+        assertEquals(1, storedBlobs());
+    }
+
+    @Test
+    @DisplayName("Should keep a shared blob until the last file referencing it is deleted")
+    void deleteFile_SharedContent_ShouldDeleteBlobWithLastReference() throws Exception {
+        List<BatchUploadResultDTO> results = fileStorageService.storeFilesInFolder(List.of(
+                part("a.txt", "shared content"),
+                part("b.txt", "shared content")), 5L, null);
+        String digest = digest("shared content");
+        String blobKey = insertedRows.get(0).get(4);
+        assertEquals(blobKey, insertedRows.get(1).get(4));
+        assertEquals(2, contents.get(digest).getRefCount());
+        for (BatchUploadResultDTO result : results) {
+            when(fileRepository.findById(result.getFileId())).thenReturn(Optional.of(FileDocument.builder()
+                    .id(result.getFileId()).encryptedPath(blobKey).contentDigest(digest).build()));
+        }
+
+        deleteAndCommit(results.get(0).getFileId(), blobKey);
+        assertEquals(1, contents.get(digest).getRefCount());
+        assertTrue(blobStore.exists(blobKey));
+
+        deleteAndCommit(results.get(1).getFileId(), blobKey);
+        assertFalse(contents.containsKey(digest));
+        assertFalse(blobStore.exists(blobKey));
+        assertEquals(0, storedBlobs());
+    }
+}
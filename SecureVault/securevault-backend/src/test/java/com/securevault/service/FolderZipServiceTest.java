@@ -0,0 +1,146 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the prefetching folder ZIP writer.
+ */
+class FolderZipServiceTest {
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final FolderZipService zipService = new FolderZipService(fileStorageService, new CompressionPolicy());
+
+    @AfterEach
+    void tearDown() {
+        zipService.shutdown();
+    }
+
+    private static FileDocument file(long id, String name, String type) {
+        return FileDocument.builder().id(id).fileName(name).fileType(type).build();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private void serve(Map<Long, byte[]> contents) throws Exception {
+        doAnswer(invocation -> {
+            FileDocument file = invocation.getArgument(0);
+            OutputStream out = invocation.getArgument(1);
+            byte[] content = contents.get(file.getId());
+            if (content == null) {
+                throw new IOException("blob missing");
+            }
+            // Ghi từng phần nhỏ như giải mã theo segment
+            for (int off = 0; off < content.length; off += 10_000) {
+                out.write(content, off, Math.min(10_000, content.length - off));
+            }
+            return null;
+        }).when(fileStorageService).writeDecryptedFile(any(), any());
+    }
+
+    private static Map<String, ZipEntry> read(byte[] zip, Map<String, byte[]> contents) throws IOException {
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    @DisplayName("Should stream a folder tree, de-duplicate names and list failures")
+    void writeZip_ShouldStreamTreeAndReportFailures() throws Exception {
+        ReflectionTestUtils.setField(zipService, "bufferKb", 128);
+        byte[] photo = random(50_000);
+        byte[] notes = "meeting notes\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] video = random(1_000_000); // lớn hơn bộ đệm: phải stream
+        serve(Map.of(1L, photo, 2L, notes, 4L, video, 5L, notes));
+
+        List<FolderZipService.Entry> entries = List.of(
+                new FolderZipService.Entry("photo.jpg", file(1, "photo.jpg", "image/jpeg")),
+                new FolderZipService.Entry("docs/notes.txt", file(2, "notes.txt", "text/plain")),
+                new FolderZipService.Entry("docs/lost.txt", file(3, "lost.txt", "text/plain")),
+                new FolderZipService.Entry("media/clip.mp4", file(4, "clip.mp4", "video/mp4")),
+                new FolderZipService.Entry("docs/notes.txt", file(5, "notes.txt", "text/plain")),
+                new FolderZipService.Entry("empty/", null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zipService.writeZip(entries, out);
+
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        Map<String, ZipEntry> zip = read(out.toByteArray(), contents);
+
+        assertEquals(List.of("photo.jpg", "docs/notes.txt", "media/clip.mp4", "docs/notes (1).txt", "empty/",
+                FolderZipService.ERRORS_ENTRY), List.copyOf(zip.keySet()));
+        assertArrayEquals(photo, contents.get("photo.jpg"));
+        assertArrayEquals(notes, contents.get("docs/notes.txt"));
+        assertArrayEquals(notes, contents.get("docs/notes (1).txt"));
+        assertArrayEquals(video, contents.get("media/clip.mp4"));
+        assertEquals(ZipEntry.DEFLATED, zip.get("docs/notes.txt").getMethod());
+        assertTrue(zip.get("empty/").isDirectory());
+        assertTrue(new String(contents.get(FolderZipService.ERRORS_ENTRY), StandardCharsets.UTF_8)
+                .contains("docs/lost.txt: blob missing"));
+    }
+
+    @Test
+    @DisplayName("Should write fully prefetched compressed files as STORED entries")
+    void writeZip_PrefetchedCompressedFile_ShouldBeStored() throws Exception {
+        byte[] notes = "meeting notes\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] archive = random(20_000);
+        CountDownLatch archiveDecrypted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            FileDocument file = invocation.getArgument(0);
+            OutputStream out = invocation.getArgument(1);
+            if (file.getId() == 1L) {
+                // File đầu chỉ xong sau khi file sau đã được giải mã trước
+                assertTrue(archiveDecrypted.await(10, TimeUnit.SECONDS));
+                Thread.sleep(200);
+                out.write(notes);
+            } else {
+                out.write(archive);
+                archiveDecrypted.countDown();
+            }
+            return null;
+        }).when(fileStorageService).writeDecryptedFile(any(), any());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zipService.writeZip(List.of(
+                new FolderZipService.Entry("notes.txt", file(1, "notes.txt", "text/plain")),
+                new FolderZipService.Entry("backup.zip", file(2, "backup.zip", "application/zip"))), out);
+
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        Map<String, ZipEntry> zip = read(out.toByteArray(), contents);
+        assertArrayEquals(notes, contents.get("notes.txt"));
+        assertArrayEquals(archive, contents.get("backup.zip"));
+        assertEquals(ZipEntry.STORED, zip.get("backup.zip").getMethod());
+    }
+}
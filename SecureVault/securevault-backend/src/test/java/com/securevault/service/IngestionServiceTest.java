@@ -0,0 +1,131 @@
+package com.securevault.service;
+
+import com.securevault.blockchain.Blockchain;
+import com.securevault.entity.FileDocument;
+import com.securevault.entity.UploadJob;
+import com.securevault.entity.User;
+import com.securevault.enums.IngestStatus;
+import com.securevault.repository.UploadJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for asynchronous upload ingestion.
+ */
+class IngestionServiceTest {
+
+    private final UploadJobRepository jobRepository = mock(UploadJobRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final Blockchain blockchain = mock(Blockchain.class);
+    private EncryptionService encryptionService;
+    private IngestionService ingestionService;
+
+    @TempDir
+    Path stagingDir;
+
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr",
+                Base64.getEncoder().encodeToString(new byte[32]));
+        ingestionService = new IngestionService(jobRepository, fileStorageService, encryptionService, blockchain);
+        ReflectionTestUtils.setField(ingestionService, "stagingDir", stagingDir.toString());
+
+        AtomicLong ids = new AtomicLong();
+        when(jobRepository.save(any())).thenAnswer(invocation -> {
+            UploadJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(ids.incrementAndGet());
+            }
+            return job;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestionService.shutdown();
+    }
+
+    private void awaitFinished() throws InterruptedException {
+        for (int i = 0; i < 500 && ingestionService.inFlight() > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("Should adopt the staged blob with its digest in the background without re-encrypting")
+    void stage_ShouldStoreUploadAsynchronously() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024];
+        new Random(7).nextBytes(content);
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        AtomicReference<String> digest = new AtomicReference<>();
+        when(fileStorageService.storeEncryptedBlob(any(), eq("report.pdf"), eq("application/pdf"), anyLong(), any(),
+                any(), any(), any(), eq(5L), eq(9L)))
+                .thenAnswer(invocation -> {
+                    // Blob staging đã ở định dạng lưu trữ: giải mã được bằng data key của job
+                    ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+                    encryptionService.decryptStream(invocation.<Path>getArgument(0), plaintext,
+                            encryptionService.resolveFileKey(invocation.getArgument(4), invocation.getArgument(5)),
+                            invocation.getArgument(6));
+                    stored.set(plaintext.toByteArray());
+                    digest.set(invocation.getArgument(7));
+                    return FileDocument.builder().id(77L).fileName("report.pdf")
+                            .owner(User.builder().username("alice").build()).build();
+                });
+
+        UploadJob job = ingestionService.stage(new ByteArrayInputStream(content), "report.pdf", "application/pdf",
+                5L, 9L);
+        awaitFinished();
+
+        assertEquals(IngestStatus.COMPLETED, job.getStatus());
+        assertEquals(77L, job.getFileId());
+        assertEquals(content.length, job.getSize());
+        assertArrayEquals(content, stored.get());
+        assertEquals(HexFormat.of().formatHex(encryptionService.newContentMac().doFinal(content)), digest.get());
+        verify(fileStorageService, never()).storeFileFromStream(any(), any(), any(), any(), any());
+        verify(blockchain).addBlock(anyString());
+        try (var files = Files.list(stagingDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should report a failed upload and remove its staged file")
+    void stage_StoreFails_ShouldMarkJobFailed() throws Exception {
+        when(fileStorageService.storeEncryptedBlob(any(), any(), any(), anyLong(), any(), any(), any(), any(), any(),
+                any()))
+                .thenThrow(new RuntimeException("Không có quyền upload vào thư mục này"));
+
+        UploadJob job = ingestionService.stage(new ByteArrayInputStream(new byte[1000]), "a.txt", "text/plain",
+                5L, 9L);
+        awaitFinished();
+
+        assertEquals(IngestStatus.FAILED, job.getStatus());
+        assertEquals("Không có quyền upload vào thư mục này", job.getLastError());
+        verifyNoInteractions(blockchain);
+        try (var files = Files.list(stagingDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.securevault.service;
+
+import com.securevault.repository.BlobContentRepository;
+import com.securevault.repository.FileRepository;
+import com.securevault.storage.PackedBlobStore;
+import com.securevault.storage.ShardedFileSystemBlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for compaction of sealed pack files.
+ */
+class PackCompactionServiceTest {
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final BlobContentRepository blobContentRepository = mock(BlobContentRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    // Các khóa còn được tham chiếu trong từng bảng
+    private final List<String> fileKeys = new ArrayList<>();
+    private final List<String> blobKeys = new ArrayList<>();
+    private PackedBlobStore store;
+    private PackCompactionService compactionService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        store = new PackedBlobStore(new ShardedFileSystemBlobStore(tempDir.resolve("blobs")),
+                tempDir.resolve("packs"), 1024, 4096);
+        compactionService = new PackCompactionService(fileRepository, blobContentRepository, store,
+                transactionManager);
+        ReflectionTestUtils.setField(compactionService, "minLiveRatio", 0.5);
+        ReflectionTestUtils.setField(compactionService, "deleteGraceMs", 0L);
+
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        when(fileRepository.findEncryptedPathsByPrefix(anyString()))
+                .thenAnswer(invocation -> matching(fileKeys, invocation.getArgument(0)));
+        when(blobContentRepository.findEncryptedPathsByPrefix(anyString()))
+                .thenAnswer(invocation -> matching(blobKeys, invocation.getArgument(0)));
+    }
+
+    private static List<String> matching(List<String> keys, String prefix) {
+        return keys.stream().filter(key -> key.startsWith(prefix)).toList();
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    @DisplayName("Should repack live entries atomically and delete the pack only once no table references it")
+    void compact_ShouldRepackLiveEntriesAndRecheckBeforeDelete() throws Exception {
+        byte[] fileContent = data(700);
+        byte[] blobContent = data(600);
+        String fileKey = store.put("file.bin", fileContent);
+        String blobKey = store.put("blob.bin", blobContent);
+        // Các blob đã xóa lấp đầy pack 1 để nó được đóng
+        for (int i = 0; i < 5; i++) {
+            store.put("fill" + i, data(700));
+        }
+        assertEquals(List.of(1L), store.sealedPackIds());
+        fileKeys.add(fileKey);
+        blobKeys.add(blobKey);
+
+        compactionService.compact();
+
+        // Khóa chỉ còn trong blob_contents cũng được coi là còn sống; mỗi khóa đổi ở cả hai bảng trong một transaction
+        List<String> moved = new ArrayList<>();
+        for (String key : List.of(fileKey, blobKey)) {
+            ArgumentCaptor<String> newKey = ArgumentCaptor.forClass(String.class);
+            InOrder inOrder = inOrder(transactionManager, fileRepository, blobContentRepository);
+            inOrder.verify(transactionManager).getTransaction(any());
+            inOrder.verify(fileRepository).updateEncryptedPathByPath(eq(key), newKey.capture());
+            inOrder.verify(blobContentRepository).updateEncryptedPathByPath(key, newKey.getValue());
+            inOrder.verify(transactionManager).commit(any());
+            moved.add(newKey.getValue());
+        }
+        verify(transactionManager, times(2)).commit(any());
+        verify(transactionManager, never()).rollback(any());
+        assertEquals(2L, compactionService.getStatus().get("blobsMoved"));
+        assertEquals(1, compactionService.getStatus().get("pendingDeletes"));
+        moved.forEach(key -> assertNotEquals(1, PackedBlobStore.entry(key).orElseThrow().packId()));
+        assertArrayEquals(fileContent, read(store.get(moved.get(0))));
+        assertArrayEquals(blobContent, read(store.get(moved.get(1))));
+
+        // Bảng files đã trỏ sang khóa mới, nhưng blob_contents vẫn còn một dòng trỏ vào pack cũ
+        fileKeys.set(0, moved.get(0));
+        compactionService.compact();
+        assertTrue(store.sealedPackIds().contains(1L));
+        assertTrue(store.exists(blobKey));
+        assertEquals(0L, compactionService.getStatus().get("packsDeleted"));
+
+        // Không còn bảng nào tham chiếu: pack cũ được xóa
+        blobKeys.set(0, moved.get(1));
+        compactionService.compact();
+        assertFalse(store.sealedPackIds().contains(1L));
+        assertFalse(store.exists(blobKey));
+        assertEquals(1L, compactionService.getStatus().get("packsDeleted"));
+        assertArrayEquals(fileContent, read(store.get(moved.get(0))));
+        assertArrayEquals(blobContent, read(store.get(moved.get(1))));
+    }
+}
@@ -0,0 +1,66 @@
+package com.securevault.service;
+
+import com.securevault.entity.FileDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for HMAC-signed download URLs.
+ */
+class SignedUrlServiceTest {
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private SignedUrlService signedUrlService;
+
+    @BeforeEach
+    void setUp() {
+        EncryptionService encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr",
+                Base64.getEncoder().encodeToString(new byte[32]));
+        signedUrlService = new SignedUrlService(encryptionService, fileStorageService);
+    }
+
+    @Test
+    @DisplayName("Should serve a valid token with a single primary-key lookup and no access check")
+    void resolve_ShouldLoadFileByIdOnly() {
+        FileDocument file = FileDocument.builder().id(42L).fileName("movie.mp4").build();
+        String token = signedUrlService.issue(file, 7L);
+        FileDocument current = FileDocument.builder().id(42L).fileName("movie.mp4").encryptedPath("rotated").build();
+        when(fileStorageService.findFile(42L)).thenReturn(Optional.of(current));
+
+        SignedUrlService.Grant grant = signedUrlService.verify(token).orElseThrow();
+        assertEquals(42L, grant.fileId());
+        assertEquals(7L, grant.userId());
+        assertSame(current, signedUrlService.resolve(grant).orElseThrow());
+        verify(fileStorageService).findFile(42L);
+        verifyNoMoreInteractions(fileStorageService);
+
+        // File đã bị xóa sau khi cấp URL
+        when(fileStorageService.findFile(42L)).thenReturn(Optional.empty());
+        assertTrue(signedUrlService.resolve(grant).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should reject tampered, malformed and expired tokens")
+    void verify_InvalidTokens_ShouldBeRejected() {
+        String token = signedUrlService.issue(FileDocument.builder().id(42L).build(), 7L);
+        String signature = token.substring(token.lastIndexOf('.'));
+
+        assertTrue(signedUrlService.verify("43" + token.substring(2)).isEmpty());
+        assertTrue(signedUrlService.verify("42.7.99999999999" + signature).isEmpty());
+        assertTrue(signedUrlService.verify("garbage").isEmpty());
+        assertTrue(signedUrlService.verify(token + "x").isEmpty());
+
+        ReflectionTestUtils.setField(signedUrlService, "ttlSeconds", -1L);
+        String expired = signedUrlService.issue(FileDocument.builder().id(42L).build(), 7L);
+        assertTrue(signedUrlService.verify(expired).isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+package com.securevault.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Small-blob write and read throughput of one file per blob (sharded store)
+ * versus pack files.
+ *
+ * Not run by surefire. To run it:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.securevault.storage.BlobStoreBenchmark
+ * </pre>
+ * Point {@code -Djava.io.tmpdir} at the volume that will hold uploads: the
+ * difference comes from the filesystem (inode creation, fsync), not the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class BlobStoreBenchmark {
+
+    private static final int READ_SET = 2_000;
+
+    @Param({"4096"})
+    public int blobSize;
+
+    private Path tempDir;
+    private byte[] blob;
+    private ShardedFileSystemBlobStore sharded;
+    private PackedBlobStore packed;
+    private String[] shardedKeys;
+    private String[] packedKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("blobstore-bench");
+        blob = new byte[blobSize];
+        new Random(42).nextBytes(blob);
+        sharded = new ShardedFileSystemBlobStore(tempDir.resolve("sharded"));
+        packed = new PackedBlobStore(new ShardedFileSystemBlobStore(tempDir.resolve("large")),
+                tempDir.resolve("packs"), 262_144, 256L * 1024 * 1024);
+        shardedKeys = new String[READ_SET];
+        packedKeys = new String[READ_SET];
+        for (int i = 0; i < READ_SET; i++) {
+            shardedKeys[i] = sharded.put(UUID.randomUUID() + ".bin", blob);
+            packedKeys[i] = packed.put(UUID.randomUUID() + ".bin", blob);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String shardedWrite() throws Exception {
+        // One file per blob, flushed like a pack append so the comparison is like for like
+        String key = sharded.put(UUID.randomUUID() + ".bin", blob);
+        try (FileChannel channel = FileChannel.open(sharded.localPath(key).get(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        return key;
+    }
+
+    @Benchmark
+    public String packedWrite() throws Exception {
+        return packed.put(UUID.randomUUID() + ".bin", blob);
+    }
+
+    @Benchmark
+    public byte[] shardedRead() throws Exception {
+        try (InputStream in = sharded.get(shardedKeys[ThreadLocalRandom.current().nextInt(READ_SET)])) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] packedRead() throws Exception {
+        try (InputStream in = packed.get(packedKeys[ThreadLocalRandom.current().nextInt(READ_SET)])) {
+            return in.readAllBytes();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BlobStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,420 @@
+package com.securevault.storage;
+
+import com.securevault.service.EncryptionService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the blob store backends. The S3 backend runs against a tiny
+ * in-process stand-in that understands PUT/GET (with Range)/HEAD/DELETE.
+ */
+class BlobStoreTest {
+
+    private static final String TEST_MASTER_KEY = "MDEyMzQ1Njc4OTAxMjM0NTY3ODkwMTIzNDU2Nzg5MDE=";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void startS3() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handleS3);
+        server.start();
+    }
+
+    @AfterEach
+    void stopS3() {
+        server.stop(0);
+    }
+
+    private S3BlobStore s3Store() {
+        return new S3BlobStore("http://127.0.0.1:" + server.getAddress().getPort(), "vault", "blobs/",
+                "us-east-1", "access", "secret");
+    }
+
+    private Path staged(byte[] content) throws IOException {
+        Path file = Files.createTempFile(tempDir, "staged", ".part");
+        Files.write(file, content);
+        return file;
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    private List<Path> volumes(int count) throws IOException {
+        List<Path> roots = new java.util.ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            roots.add(Files.createDirectories(tempDir.resolve("volume" + i)));
+        }
+        return roots;
+    }
+
+    /** Blob files (not staging leftovers) whose name starts with {@code prefix}. */
+    private List<Path> filesNamed(String prefix) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.walk(tempDir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).toList();
+        }
+    }
+
+    private static void deleteVolume(Path root) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.walk(root)) {
+            for (Path file : files.sorted(java.util.Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void assertStoreContract(BlobStore store) throws Exception {
+        byte[] content = data(10_000);
+        Path staged = staged(content);
+
+        store.put("a1b2.bin", staged);
+
+        assertFalse(Files.exists(staged), "Staged file must be consumed");
+        assertTrue(store.exists("a1b2.bin"));
+        assertEquals(content.length, store.size("a1b2.bin"));
+        assertArrayEquals(content, read(store.get("a1b2.bin")));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 600), read(store.getRange("a1b2.bin", 100, 500)));
+        assertArrayEquals(Arrays.copyOfRange(content, 9_990, 10_000), read(store.getRange("a1b2.bin", 9_990, 500)));
+
+        store.delete("a1b2.bin");
+        assertFalse(store.exists("a1b2.bin"));
+        assertThrows(NoSuchFileException.class, () -> read(store.get("a1b2.bin")));
+        store.delete("a1b2.bin");
+    }
+
+    @Test
+    @DisplayName("Filesystem store should keep blobs flat under the root")
+    void fileSystemStore_ShouldHonourContract() throws Exception {
+        FileSystemBlobStore store = new FileSystemBlobStore(tempDir.resolve("blobs"));
+        assertStoreContract(store);
+
+        store.put("flat.bin", staged(data(10)));
+        assertEquals(tempDir.resolve("blobs").resolve("flat.bin").toAbsolutePath(), store.localPath("flat.bin").get());
+    }
+
+    @Test
+    @DisplayName("Sharded store should place blobs two directory levels deep")
+    void shardedStore_ShouldHonourContract() throws Exception {
+        ShardedFileSystemBlobStore store = new ShardedFileSystemBlobStore(tempDir.resolve("blobs"));
+        assertStoreContract(store);
+
+        store.put("sharded.bin", staged(data(10)));
+        Path path = store.localPath("sharded.bin").get();
+        Path relative = tempDir.resolve("blobs").toAbsolutePath().relativize(path);
+        assertEquals(3, relative.getNameCount());
+        assertTrue(relative.getName(0).toString().matches("[0-9a-f]{2}"));
+        assertTrue(Files.exists(path));
+    }
+
+    @Test
+    @DisplayName("Sharded store should read flat blobs until they are sharded")
+    void shardedStore_ShouldMigrateFlatBlobs() throws Exception {
+        Path root = tempDir.resolve("blobs");
+        byte[] content = data(2_000);
+        new FileSystemBlobStore(root).put("old.bin", staged(content));
+        ShardedFileSystemBlobStore store = new ShardedFileSystemBlobStore(root);
+
+        assertEquals(root.resolve("old.bin").toAbsolutePath(), store.localPath("old.bin").get());
+        assertArrayEquals(content, read(store.get("old.bin")));
+
+        Path flat = store.shard("old.bin").orElseThrow();
+        Files.delete(flat);
+
+        assertNotEquals(flat, store.localPath("old.bin").get());
+        assertArrayEquals(content, read(store.getRange("old.bin", 0, content.length)));
+        assertTrue(store.shard("old.bin").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Packed store should append small blobs to pack files")
+    void packedStore_ShouldPackSmallBlobs() throws Exception {
+        ShardedFileSystemBlobStore files = new ShardedFileSystemBlobStore(tempDir.resolve("blobs"));
+        PackedBlobStore store = new PackedBlobStore(files, tempDir.resolve("packs"), 1024, 4096);
+        byte[] small = data(700);
+        byte[] other = data(600);
+        byte[] large = data(5_000);
+
+        String smallKey = store.put("small.bin", staged(small));
+        String otherKey = store.put("other.bin", other);
+        String largeKey = store.put("large.bin", large);
+
+        assertEquals(new PackedBlobStore.Entry(1, 0, 700), PackedBlobStore.entry(smallKey).orElseThrow());
+        assertEquals(new PackedBlobStore.Entry(1, 700, 600), PackedBlobStore.entry(otherKey).orElseThrow());
+        assertEquals("large.bin", largeKey);
+        assertArrayEquals(small, read(store.get(smallKey)));
+        assertArrayEquals(Arrays.copyOfRange(other, 100, 300), read(store.getRange(otherKey, 100, 200)));
+        assertArrayEquals(large, read(store.get(largeKey)));
+        assertEquals(600, store.size(otherKey));
+        assertTrue(store.localPath(smallKey).isEmpty());
+        assertTrue(store.find(ShardedFileSystemBlobStore.class).isPresent());
+
+        // Filling the first pack seals it
+        for (int i = 0; i < 5; i++) {
+            store.put("fill" + i, data(700));
+        }
+        assertEquals(List.of(1L), store.sealedPackIds());
+
+        String moved = store.repack(smallKey);
+        assertNotEquals(1, PackedBlobStore.entry(moved).orElseThrow().packId());
+        store.deletePack(1);
+        assertArrayEquals(small, read(store.get(moved)));
+        assertFalse(store.exists(otherKey));
+    }
+
+    @Test
+    @DisplayName("Tiered store should move blobs between hot and cold volumes")
+    void tieredStore_ShouldDemoteAndPromote() throws Exception {
+        TieredBlobStore store = new TieredBlobStore(new ShardedFileSystemBlobStore(tempDir.resolve("hot")),
+                new ShardedFileSystemBlobStore(tempDir.resolve("cold")), tempDir.resolve("cold/.staging"));
+        byte[] content = data(3_000);
+        String hotKey = store.put("doc.bin", staged(content));
+
+        String coldKey = store.demote(hotKey, in -> in);
+        store.delete(hotKey);
+
+        assertEquals("cold/doc.bin", coldKey);
+        assertTrue(store.localPath(coldKey).get().startsWith(tempDir.resolve("cold")));
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 20), read(store.getRange(coldKey, 10, 10)));
+
+        String promoted = store.promote(coldKey, tempDir.resolve("staging"));
+        store.delete(coldKey);
+
+        assertEquals("doc.bin", promoted);
+        assertArrayEquals(content, read(store.get(promoted)));
+        assertFalse(store.exists(coldKey));
+    }
+
+    @Test
+    @DisplayName("Replicated store should keep reading and repair when a volume is lost")
+    void replicatedStore_ShouldSurviveLostVolume() throws Exception {
+        List<Path> roots = volumes(3);
+        ShardedFileSystemBlobStore legacy = new ShardedFileSystemBlobStore(tempDir.resolve("uploads"));
+        ReplicatedBlobStore store = new ReplicatedBlobStore(roots, 2, legacy);
+        assertStoreContract(store);
+
+        byte[] content = data(50_000);
+        store.put("doc.bin", staged(content));
+        List<Path> copies = filesNamed("doc.bin");
+        assertEquals(2, copies.size());
+
+        deleteVolume(roots.stream().filter(copies.get(0)::startsWith).findFirst().orElseThrow());
+        assertArrayEquals(content, read(store.get("doc.bin")));
+        assertArrayEquals(Arrays.copyOfRange(content, 40_000, 41_000), read(store.getRange("doc.bin", 40_000, 1_000)));
+        assertEquals(1, store.volumes().stream().filter(volume -> !volume.up()).count());
+
+        assertEquals(1, store.repair("doc.bin"));
+        assertEquals(0, store.repair("doc.bin"));
+        assertEquals(2, filesNamed("doc.bin").size());
+
+        legacy.put("old.bin", staged(data(10)));
+        assertArrayEquals(data(10), read(store.get("old.bin")));
+    }
+
+    @Test
+    @DisplayName("Erasure-coded store should decode blobs with shards missing")
+    void erasureCodedStore_ShouldReadDegradedAndRepair() throws Exception {
+        List<Path> roots = volumes(7);
+        ErasureCodedBlobStore store = new ErasureCodedBlobStore(roots, 3, 2, null);
+        assertStoreContract(store);
+
+        // Several stripes of 3 x 64 KiB, the last one padded
+        byte[] content = data(500_000);
+        store.put("doc.bin", staged(content));
+        store.put("tiny.bin", new byte[] {1, 2});
+        assertEquals(5, filesNamed("doc.bin.ec").size());
+        assertArrayEquals(content, read(store.get("doc.bin")));
+
+        // Lose two data shards: every stripe has to be rebuilt from parity
+        for (String shard : List.of("doc.bin.ec0", "doc.bin.ec2")) {
+            Path file = filesNamed(shard).get(0);
+            deleteVolume(roots.stream().filter(file::startsWith).findFirst().orElseThrow());
+        }
+        assertEquals(content.length, store.size("doc.bin"));
+        assertArrayEquals(content, read(store.get("doc.bin")));
+        assertArrayEquals(Arrays.copyOfRange(content, 190_000, 400_000),
+                read(store.getRange("doc.bin", 190_000, 210_000)));
+
+        assertEquals(2, store.repair("doc.bin"));
+        assertEquals(5, filesNamed("doc.bin.ec").size());
+        Path parity = filesNamed("doc.bin.ec3").get(0);
+        deleteVolume(roots.stream().filter(parity::startsWith).findFirst().orElseThrow());
+        assertArrayEquals(content, read(store.get("doc.bin")));
+        assertArrayEquals(new byte[] {1, 2}, read(store.get("tiny.bin")));
+        assertThrows(IllegalArgumentException.class, () -> new ErasureCodedBlobStore(roots, 6, 2, null));
+    }
+
+    @Test
+    @DisplayName("Stores should list their blobs for reconciliation")
+    void list_ShouldEnumerateBlobsAcrossLayouts() throws Exception {
+        ShardedFileSystemBlobStore hot = new ShardedFileSystemBlobStore(tempDir.resolve("uploads"));
+        hot.put("sharded.bin", staged(data(10)));
+        Files.write(hot.flatPath("flat.bin"), data(20));
+        Files.write(hot.flatPath(".layout-sharded"), new byte[0]);
+        Files.createDirectories(tempDir.resolve("uploads/.staging"));
+        Files.write(tempDir.resolve("uploads/.staging/left.part"), data(5));
+        PackedBlobStore packed = new PackedBlobStore(hot, tempDir.resolve("uploads/packs"), 1024, 1 << 20);
+        String packedKey = packed.put("small.bin", data(30));
+        TieredBlobStore tiered = new TieredBlobStore(packed, new ShardedFileSystemBlobStore(tempDir.resolve("cold")),
+                tempDir.resolve("cold/.staging"));
+        tiered.demote("sharded.bin", in -> in);
+
+        try (java.util.stream.Stream<StoredBlob> blobs = tiered.list()) {
+            Map<String, Long> sizes = blobs.collect(java.util.stream.Collectors.toMap(StoredBlob::key, StoredBlob::size));
+            assertEquals(Map.of("sharded.bin", 10L, "flat.bin", 20L, "cold/sharded.bin", 10L), sizes);
+            assertFalse(sizes.containsKey(packedKey));
+        }
+
+        ErasureCodedBlobStore erasure = new ErasureCodedBlobStore(volumes(3), 2, 1, null);
+        erasure.put("ec.bin", data(1000));
+        try (java.util.stream.Stream<StoredBlob> blobs = erasure.list()) {
+            assertEquals(List.of("ec.bin", "ec.bin", "ec.bin"), blobs.map(StoredBlob::key).toList());
+        }
+        assertThrows(UnsupportedOperationException.class, () -> s3Store().list());
+    }
+
+    @Test
+    @DisplayName("Filesystem store should reject keys escaping the root")
+    void fileSystemStore_ShouldRejectTraversal() {
+        FileSystemBlobStore store = new FileSystemBlobStore(tempDir);
+
+        assertThrows(IllegalArgumentException.class, () -> store.exists("../outside.bin"));
+        assertThrows(IllegalArgumentException.class, () -> store.exists("/etc/passwd"));
+    }
+
+    @Test
+    @DisplayName("S3 store should sign requests and honour the contract")
+    void s3Store_ShouldHonourContract() throws Exception {
+        S3BlobStore store = s3Store();
+        assertStoreContract(store);
+
+        assertTrue(authorizations.values().stream().allMatch(auth -> auth.startsWith(
+                "AWS4-HMAC-SHA256 Credential=access/") && auth.contains("/us-east-1/s3/aws4_request")));
+        assertTrue(authorizations.containsKey("/vault/blobs/a1b2.bin"));
+        assertTrue(store.localPath("a1b2.bin").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Legacy absolute paths should be served from the local filesystem")
+    void legacyPathStore_ShouldRouteAbsolutePaths() throws Exception {
+        LegacyPathBlobStore store = new LegacyPathBlobStore(s3Store(), tempDir);
+        byte[] content = data(100);
+        Path legacy = tempDir.resolve("legacy.bin");
+        Files.write(legacy, content);
+
+        assertArrayEquals(content, read(store.get(legacy.toString())));
+        assertEquals(legacy, store.localPath(legacy.toString()).get());
+        assertThrows(IllegalArgumentException.class, () -> store.put(legacy.toString(), staged(content)));
+        assertTrue(objects.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should decrypt whole blobs and ranges from a remote store")
+    void decryptRange_FromRemoteStore_ShouldMatchPlaintext() throws Exception {
+        EncryptionService encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "masterKeyStr", TEST_MASTER_KEY);
+        ReflectionTestUtils.setField(encryptionService, "segmentSize", 1024);
+        S3BlobStore store = s3Store();
+        byte[] content = data(10_000);
+        String iv = encryptionService.generateIv();
+        store.put("remote.bin", staged(encryptionService.encryptBytes(content, iv)));
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        encryptionService.decryptRange(store, "remote.bin", 0, Long.MAX_VALUE, full,
+                encryptionService.resolveFileKey(null, null), iv);
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        encryptionService.decryptRange(store, "remote.bin", 3_000, 2_500, range,
+                encryptionService.resolveFileKey(null, null), iv);
+
+        assertArrayEquals(content, full.toByteArray());
+        assertArrayEquals(Arrays.copyOfRange(content, 3_000, 5_500), range.toByteArray());
+        encryptionService.shutdown();
+    }
+
+    private void handleS3(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        authorizations.put(path, String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+        byte[] object = objects.get(path);
+        try (exchange) {
+            switch (exchange.getRequestMethod()) {
+                case "PUT" -> {
+                    objects.put(path, exchange.getRequestBody().readAllBytes());
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                case "HEAD" -> {
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                }
+                case "DELETE" -> {
+                    objects.remove(path);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                case "GET" -> {
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    byte[] body = object;
+                    int status = 200;
+                    if (range != null) {
+                        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                        int start = Integer.parseInt(bounds[0]);
+                        int end = bounds[1].isEmpty() ? object.length - 1
+                                : Math.min(Integer.parseInt(bounds[1]), object.length - 1);
+                        if (start >= object.length) {
+                            exchange.sendResponseHeaders(416, -1);
+                            return;
+                        }
+                        body = Arrays.copyOfRange(object, start, end + 1);
+                        status = 206;
+                    }
+                    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+}
@@ -12,6 +12,22 @@ const uploadFile = (file, onUploadProgress) => {
     });
 };
 
+const uploadFileStream = (file, folderId, onUploadProgress) => {
+    const headers = {
+        "Content-Type": "application/octet-stream",
+        "X-File-Name": encodeURIComponent(file.name),
+        "X-File-Type": file.type || "application/octet-stream",
+    };
+    if (folderId) {
+        headers["X-Folder-Id"] = folderId;
+    }
+
+    return api.post("/files/upload-stream", file, {
+        headers,
+        onUploadProgress,
+    });
+};
+
 const getFiles = () => {
     return api.get("/files/list");
 };
@@ -63,6 +79,7 @@ const downloadFileBlob = async (fileId) => {
 
 const FileService = {
     uploadFile,
+    uploadFileStream,
     getFiles,
     downloadFile,
     downloadFileBlob,